@@ -1,21 +1,23 @@
 package org.rakam.collection.mapper.geoip.maxmind.ip2location;
 
+import java.math.BigInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CSV
 {
-    private static final java.lang.String CSV_PATTERN = "\"([0-9]+)\",\"([0-9]+)\",\"([^\"]+)\",\"([^\"]+)\",\"([^\"]+)\",\"([^\"]+)\",\"([0-9.-]+)\",\"([0-9.-]+)\"";
+    private static final Pattern CSV_PATTERN = Pattern.compile("\"([0-9]+)\",\"([0-9]+)\",\"([^\"]+)\",\"([^\"]+)\",\"([^\"]+)\",\"([^\"]+)\",\"([0-9.-]+)\",\"([0-9.-]+)\"");
 
-    public final long ipStart;
-    public final long ipEnd;
+    // the IPv6 databases use 128 bit numbers
+    public final BigInteger ipStart;
+    public final BigInteger ipEnd;
     public final String country;
     public final String stateProv;
     public final String city;
     public final double latitude;
     public final double longitude;
 
-    private CSV(long ipStart, long ipEnd,
+    private CSV(BigInteger ipStart, BigInteger ipEnd,
             String country, String stateProv, String city,
             double latitude, double longitude)
     {
@@ -30,13 +32,12 @@ public class CSV
 
     public static CSV parse(String csv)
     {
-        Pattern r = Pattern.compile(CSV_PATTERN);
-        Matcher m = r.matcher(csv);
+        Matcher m = CSV_PATTERN.matcher(csv);
 
         if (m.find()) {
             return new CSV(
-                    Long.parseLong(m.group(1)),
-                    Long.parseLong(m.group(2)),
+                    new BigInteger(m.group(1)),
+                    new BigInteger(m.group(2)),
                     m.group(4),
                     m.group(5),
                     m.group(6),
@@ -47,4 +48,4 @@ public class CSV
 
         throw new IllegalArgumentException(String.format("CSV doesn't match the pattern. (%s)", csv));
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,9 @@
 package org.rakam.collection.mapper.geoip.maxmind.ip2location;
 
 import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+
+import javax.validation.constraints.Min;
 
 import java.util.List;
 
@@ -9,6 +12,8 @@ public class GeoIPModuleConfig
     private List<String> attributes;
     private String databaseUrl = null;
     private int dbId = 3;
+    private long cacheMaximumSize = 100000;
+    private Duration cacheExpiration = Duration.valueOf("1h");
 
     @Config("plugin.geoip.database.url")
     public GeoIPModuleConfig setDatabaseUrl(String url)
@@ -33,4 +38,29 @@ public class GeoIPModuleConfig
     {
         return dbId;
     }
+
+    @Min(1)
+    public long getCacheMaximumSize()
+    {
+        return cacheMaximumSize;
+    }
+
+    @Config("plugin.geoip.cache.max-size")
+    public GeoIPModuleConfig setCacheMaximumSize(long cacheMaximumSize)
+    {
+        this.cacheMaximumSize = cacheMaximumSize;
+        return this;
+    }
+
+    public Duration getCacheExpiration()
+    {
+        return cacheExpiration;
+    }
+
+    @Config("plugin.geoip.cache.expiration")
+    public GeoIPModuleConfig setCacheExpiration(Duration cacheExpiration)
+    {
+        this.cacheExpiration = cacheExpiration;
+        return this;
+    }
 }
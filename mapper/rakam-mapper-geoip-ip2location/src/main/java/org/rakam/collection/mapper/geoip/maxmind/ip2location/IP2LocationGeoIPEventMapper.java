@@ -1,5 +1,6 @@
 package org.rakam.collection.mapper.geoip.maxmind.ip2location;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
@@ -7,24 +8,25 @@ import com.google.common.collect.ImmutableList;
 import io.airlift.log.Logger;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.cookie.Cookie;
-import org.apache.avro.generic.GenericRecord;
 import org.rakam.Mapper;
 import org.rakam.collection.Event;
+import org.rakam.collection.EventList;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
-import org.rakam.plugin.EventMapper;
+import org.rakam.plugin.GeoIPLookupCache;
 import org.rakam.plugin.SyncEventMapper;
 import org.rakam.plugin.user.ISingleUserBatchOperation;
 import org.rakam.plugin.user.UserPropertyMapper;
 import org.rakam.util.MapProxyGenericRecord;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static org.rakam.collection.FieldType.STRING;
@@ -39,6 +41,7 @@ public class IP2LocationGeoIPEventMapper
             .of("city", "region", "country_code", "latitude", "longitude");
 
     private final IPReader lookup;
+    private final GeoIPLookupCache cache;
 
     public IP2LocationGeoIPEventMapper(GeoIPModuleConfig config)
             throws IOException
@@ -46,51 +49,68 @@ public class IP2LocationGeoIPEventMapper
         Preconditions.checkNotNull(config, "config is null");
 
         lookup = getReader(config.getDatabaseUrl());
+        cache = new GeoIPLookupCache("ip2location", config.getCacheMaximumSize(), config.getCacheExpiration(), this::lookup);
     }
 
     private IPReader getReader(String url)
     {
         try {
-            FileInputStream cityDatabase = new FileInputStream(downloadOrGetFile(url));
-            return IPReader.build(cityDatabase);
+            return IPReader.build(downloadOrGetFile(url));
         }
         catch (Exception e) {
             throw Throwables.propagate(e);
         }
     }
 
+    public GeoIPLookupCache getLookupCache()
+    {
+        return cache;
+    }
+
     @Override
     public List<Cookie> map(Event event, RequestParams extraProperties, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        String address = getAddress(event, extraProperties, sourceAddress);
+        if (address != null) {
+            GeoIPLookupCache.attach(cache.get(address), event.properties());
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<Cookie> map(EventList events, RequestParams requestParams, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        cache.map(events.events, event -> getAddress(event, requestParams, sourceAddress));
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<List<Cookie>> mapAsync(EventList events, RequestParams requestParams, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        map(events, requestParams, sourceAddress, responseHeaders);
+        return COMPLETED_EMPTY_FUTURE;
+    }
+
+    private String getAddress(Event event, RequestParams extraProperties, InetAddress sourceAddress)
     {
         Object ip = event.properties().get("_ip");
 
-        InetAddress addr;
         if ((ip instanceof String)) {
-            try {
-                // it may be slow because java performs reverse hostname lookup.
-                addr = Inet4Address.getByName((String) ip);
-            }
-            catch (UnknownHostException e) {
-                return null;
-            }
+            return (String) ip;
         }
         else if (Boolean.TRUE == ip) {
-            addr = sourceAddress;
+            return sourceAddress == null ? null : sourceAddress.getHostAddress();
         }
         else {
-            if (lookup != null) {
-                // Cloudflare country code header (Only works when the request passed through CF servers)
-                String countryCode = extraProperties.headers().get("HTTP_CF_IPCOUNTRY");
-                if (countryCode != null) {
-                    event.properties().put("_country_code", countryCode);
-                }
+            // Cloudflare country code header (Only works when the request passed through CF servers)
+            String countryCode = extraProperties.headers().get("HTTP_CF_IPCOUNTRY");
+            if (countryCode != null) {
+                event.properties().put("_country_code", countryCode);
             }
 
             return null;
         }
-
-        setGeoFields(addr, event.properties());
-        return null;
     }
 
     @Override
@@ -110,24 +130,24 @@ public class IP2LocationGeoIPEventMapper
 
     public void mapInternal(String project, ObjectNode data, InetAddress sourceAddress)
     {
-        Object ip = data.get("_ip");
+        JsonNode ip = data.get("_ip");
 
         if (ip == null) {
             return;
         }
 
-        if ((ip instanceof String)) {
-            try {
-                // it may be slow because java performs reverse hostname lookup.
-                sourceAddress = Inet4Address.getByName((String) ip);
-            }
-            catch (UnknownHostException e) {
-                return;
-            }
+        Map<String, Object> fields;
+        if (ip.isTextual()) {
+            fields = cache.get(ip.textValue());
+        }
+        else if (sourceAddress != null) {
+            fields = cache.get(sourceAddress);
+        }
+        else {
+            return;
         }
 
-        GenericRecord record = new MapProxyGenericRecord(data);
-        setGeoFields(sourceAddress, record);
+        GeoIPLookupCache.attach(fields, new MapProxyGenericRecord(data));
     }
 
     @Override
@@ -156,13 +176,19 @@ public class IP2LocationGeoIPEventMapper
         }
     }
 
-    private void setGeoFields(InetAddress address, GenericRecord properties)
+    private Map<String, Object> lookup(InetAddress address)
     {
-        GeoLocation city = lookup.lookup(address);
-        properties.put("_country_code", city.country);
-        properties.put("_region", city.stateProv);
-        properties.put("_city", city.city);
-        properties.put("_latitude", city.coordination.latitude);
-        properties.put("_longitude", city.coordination.longitude);
+        int location = lookup.find(address);
+        if (location == -1) {
+            return null;
+        }
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("_country_code", lookup.getCountry(location));
+        fields.put("_region", lookup.getRegion(location));
+        fields.put("_city", lookup.getCity(location));
+        fields.put("_latitude", lookup.getLatitude(location));
+        fields.put("_longitude", lookup.getLongitude(location));
+        return Collections.unmodifiableMap(fields);
     }
 }
@@ -6,6 +6,7 @@ import com.google.common.io.Files;
 import com.google.inject.Binder;
 import com.google.inject.multibindings.Multibinder;
 import org.rakam.plugin.EventMapper;
+import org.rakam.plugin.GeoIPLookupCache;
 import org.rakam.plugin.RakamModule;
 import org.rakam.plugin.user.UserPropertyMapper;
 import org.rakam.util.ConditionalModule;
@@ -33,6 +34,7 @@ public class IP2LocationGeoIPModule
         }
         Multibinder.newSetBinder(binder, UserPropertyMapper.class).addBinding().toInstance(geoIPEventMapper);
         Multibinder.newSetBinder(binder, EventMapper.class).addBinding().toInstance(geoIPEventMapper);
+        Multibinder.newSetBinder(binder, GeoIPLookupCache.class).addBinding().toInstance(geoIPEventMapper.getLookupCache());
     }
 
     @Override
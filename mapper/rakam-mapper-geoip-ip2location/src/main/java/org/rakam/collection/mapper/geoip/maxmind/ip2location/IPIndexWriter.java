@@ -0,0 +1,196 @@
+package org.rakam.collection.mapper.geoip.maxmind.ip2location;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Converts the ip2location CSV database to the binary index that is memory-mapped by {@link IPReader}.
+ * The layout of the file is, in big-endian:
+ * <pre>
+ * header:    magic, version, IPv4 range count, IPv6 range count, location count, string count (int)
+ * IPv4:      start, end, location (int, the addresses are unsigned)
+ * IPv6:      start high, start low, end high, end low (long), location (int)
+ * locations: country, region, city (string index, int), latitude, longitude (double)
+ * strings:   string count + 1 offsets (int) followed by the UTF-8 bytes of the strings
+ * </pre>
+ * The ranges are sorted by their start addresses and the IPv4-mapped IPv6 ranges are stored as IPv4 ranges.
+ */
+public final class IPIndexWriter
+{
+    static final int MAGIC = 0x524B4950;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 6 * 4;
+    static final int IPV4_RANGE_SIZE = 3 * 4;
+    static final int IPV6_RANGE_SIZE = 4 * 8 + 4;
+    static final int LOCATION_SIZE = 3 * 4 + 2 * 8;
+
+    private static final BigInteger IPV4_MAX = BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE);
+    private static final BigInteger IPV4_MAPPED_START = BigInteger.valueOf(0xFFFF00000000L);
+    private static final BigInteger IPV4_MAPPED_END = BigInteger.valueOf(0xFFFFFFFFFFFFL);
+    private static final BigInteger LONG_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private IPIndexWriter()
+            throws InstantiationException
+    {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        if (args.length != 2) {
+            System.err.println("Usage: IPIndexWriter <ip2location csv file> <index file>");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]));
+    }
+
+    public static void convert(File csv, File index)
+            throws IOException
+    {
+        try (InputStream input = new FileInputStream(csv)) {
+            convert(input, index);
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it to the target so that the readers never see a partial file.
+     */
+    public static void convert(InputStream csv, File index)
+            throws IOException
+    {
+        List<Range> ipv4Ranges = new ArrayList<>();
+        List<Range> ipv6Ranges = new ArrayList<>();
+        Map<List<Object>, Integer> locations = new HashMap<>();
+        List<List<Object>> locationList = new ArrayList<>();
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringList = new ArrayList<>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            CSV row = CSV.parse(line);
+            List<Object> location = ImmutableList.of(
+                    dictionary(strings, stringList, row.country),
+                    dictionary(strings, stringList, row.stateProv),
+                    dictionary(strings, stringList, row.city),
+                    row.latitude, row.longitude);
+            Integer locationIndex = locations.get(location);
+            if (locationIndex == null) {
+                locationIndex = locationList.size();
+                locations.put(location, locationIndex);
+                locationList.add(location);
+            }
+
+            if (row.ipEnd.compareTo(IPV4_MAX) <= 0) {
+                ipv4Ranges.add(new Range(row.ipStart, row.ipEnd, locationIndex));
+            }
+            else if (row.ipStart.compareTo(IPV4_MAPPED_START) >= 0 && row.ipEnd.compareTo(IPV4_MAPPED_END) <= 0) {
+                ipv4Ranges.add(new Range(row.ipStart.subtract(IPV4_MAPPED_START), row.ipEnd.subtract(IPV4_MAPPED_START), locationIndex));
+            }
+            else {
+                ipv6Ranges.add(new Range(row.ipStart, row.ipEnd, locationIndex));
+            }
+        }
+
+        Comparator<Range> comparator = Comparator.comparing(range -> range.start);
+        ipv4Ranges.sort(comparator);
+        ipv6Ranges.sort(comparator);
+
+        File temporary = new File(index.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(ipv4Ranges.size());
+            output.writeInt(ipv6Ranges.size());
+            output.writeInt(locationList.size());
+            output.writeInt(stringList.size());
+
+            for (Range range : ipv4Ranges) {
+                output.writeInt(range.start.intValue());
+                output.writeInt(range.end.intValue());
+                output.writeInt(range.location);
+            }
+
+            for (Range range : ipv6Ranges) {
+                output.writeLong(range.start.shiftRight(64).longValue());
+                output.writeLong(range.start.and(LONG_MASK).longValue());
+                output.writeLong(range.end.shiftRight(64).longValue());
+                output.writeLong(range.end.and(LONG_MASK).longValue());
+                output.writeInt(range.location);
+            }
+
+            for (List<Object> location : locationList) {
+                output.writeInt((Integer) location.get(0));
+                output.writeInt((Integer) location.get(1));
+                output.writeInt((Integer) location.get(2));
+                output.writeDouble((Double) location.get(3));
+                output.writeDouble((Double) location.get(4));
+            }
+
+            List<byte[]> encoded = new ArrayList<>(stringList.size());
+            int offset = 0;
+            for (String string : stringList) {
+                byte[] bytes = string.getBytes(UTF_8);
+                encoded.add(bytes);
+                output.writeInt(offset);
+                offset += bytes.length;
+            }
+            output.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                output.write(bytes);
+            }
+        }
+
+        Files.move(temporary.toPath(), index.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static int dictionary(Map<String, Integer> strings, List<String> stringList, String value)
+    {
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = stringList.size();
+            strings.put(value, index);
+            stringList.add(value);
+        }
+        return index;
+    }
+
+    private static class Range
+    {
+        private final BigInteger start;
+        private final BigInteger end;
+        private final int location;
+
+        private Range(BigInteger start, BigInteger end, int location)
+        {
+            this.start = start;
+            this.end = end;
+            this.location = location;
+        }
+    }
+}
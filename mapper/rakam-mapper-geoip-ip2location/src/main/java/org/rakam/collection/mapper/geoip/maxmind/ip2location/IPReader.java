@@ -1,76 +1,191 @@
 package org.rakam.collection.mapper.geoip.maxmind.ip2location;
 
-import org.rakam.collection.mapper.geoip.maxmind.ip2location.utils.IP4Converter;
-
-import java.io.*;
-import java.math.BigInteger;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.Map;
-import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.rakam.collection.mapper.geoip.maxmind.ip2location.IPIndexWriter.HEADER_SIZE;
+import static org.rakam.collection.mapper.geoip.maxmind.ip2location.IPIndexWriter.IPV4_RANGE_SIZE;
+import static org.rakam.collection.mapper.geoip.maxmind.ip2location.IPIndexWriter.IPV6_RANGE_SIZE;
+import static org.rakam.collection.mapper.geoip.maxmind.ip2location.IPIndexWriter.LOCATION_SIZE;
+import static org.rakam.collection.mapper.geoip.maxmind.ip2location.IPIndexWriter.MAGIC;
+import static org.rakam.collection.mapper.geoip.maxmind.ip2location.IPIndexWriter.VERSION;
 
+/**
+ * Reads the index that is created by {@link IPIndexWriter}. The file is memory-mapped so the database is not loaded
+ * to the heap, the lookups binary search the ranges with absolute reads and are thread-safe.
+ */
 public class IPReader
 {
-    private final NavigableMap<Long, CSV> ipLookup;
+    private final ByteBuffer buffer;
+    private final int ipv4Count;
+    private final int ipv6Count;
+    private final int ipv6Offset;
+    private final int locationOffset;
+    private final int stringOffset;
+    private final int stringDataOffset;
 
-    private IPReader(NavigableMap<Long, CSV> ipLookup)
+    private IPReader(ByteBuffer buffer)
     {
-        this.ipLookup = ipLookup;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("The file is not an ip2location index");
+        }
+
+        this.buffer = buffer;
+        this.ipv4Count = buffer.getInt(8);
+        this.ipv6Count = buffer.getInt(12);
+        int locationCount = buffer.getInt(16);
+        int stringCount = buffer.getInt(20);
+        this.ipv6Offset = HEADER_SIZE + ipv4Count * IPV4_RANGE_SIZE;
+        this.locationOffset = ipv6Offset + ipv6Count * IPV6_RANGE_SIZE;
+        this.stringOffset = locationOffset + locationCount * LOCATION_SIZE;
+        this.stringDataOffset = stringOffset + (stringCount + 1) * 4;
     }
 
-    public static IPReader build(String dbPath)
+    /**
+     * Converts the CSV database to the index if the index doesn't exist or is older than the CSV file.
+     */
+    public static IPReader build(File csv)
             throws IOException
     {
-        File ipdb = new File(dbPath);
-        InputStream inputStream = new FileInputStream(ipdb);
-        return build(inputStream);
+        File index = new File(csv.getPath() + ".index");
+        if (!index.exists() || index.lastModified() < csv.lastModified()) {
+            IPIndexWriter.convert(csv, index);
+        }
+        return open(index);
     }
 
-    public static IPReader build(InputStream inputStream)
+    public static IPReader open(File index)
             throws IOException
     {
-        NavigableMap<Long, CSV> lookup = new ConcurrentSkipListMap<>();
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        while (reader.ready()) {
-            CSV csv = CSV.parse(reader.readLine());
-            lookup.put(csv.ipStart, csv);
+        try (FileChannel channel = FileChannel.open(index.toPath(), READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The index file is too large");
+            }
+            // the mapping stays valid after the channel is closed
+            return new IPReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }
-        reader.close();
-
-        return new IPReader(lookup);
     }
 
-    public GeoLocation lookup(String ipAddress)
-            throws UnknownHostException
+    /**
+     * Returns the location of the address that can be passed to the getters or -1 if the address is not in the database.
+     */
+    public int find(InetAddress address)
     {
-        InetAddress inetAddress = InetAddress.getByName(ipAddress);
-        return lookup(inetAddress);
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return findIPv4(((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+            low = (low << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return findIPv6(high, low);
     }
 
-    public GeoLocation lookup(InetAddress inetAddress)
+    private int findIPv4(int address)
     {
-        return lookup(IP4Converter.toLong(inetAddress.getAddress()));
+        // the last range that starts before the address
+        int low = 0;
+        int high = ipv4Count - 1;
+        int match = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int start = buffer.getInt(HEADER_SIZE + middle * IPV4_RANGE_SIZE);
+            if (Integer.compareUnsigned(start, address) <= 0) {
+                match = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+
+        if (match == -1) {
+            return -1;
+        }
+
+        int position = HEADER_SIZE + match * IPV4_RANGE_SIZE;
+        if (Integer.compareUnsigned(buffer.getInt(position + 4), address) < 0) {
+            return -1;
+        }
+        return buffer.getInt(position + 8);
     }
 
-    private GeoLocation lookup(Long address)
+    private int findIPv6(long addressHigh, long addressLow)
     {
-        Map.Entry<Long, CSV> entry = ipLookup.lowerEntry(address);
-        if (entry == null) {
-            return null;
+        int low = 0;
+        int high = ipv6Count - 1;
+        int match = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = ipv6Offset + middle * IPV6_RANGE_SIZE;
+            if (compare(buffer.getLong(position), buffer.getLong(position + 8), addressHigh, addressLow) <= 0) {
+                match = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
         }
 
-        CSV csv = entry.getValue();
-        if (csv.ipEnd < address) {
-            return null;
+        if (match == -1) {
+            return -1;
         }
 
-        return GeoLocation.of(csv.country, csv.stateProv, csv.city, Coordination.of(csv.latitude, csv.longitude));
+        int position = ipv6Offset + match * IPV6_RANGE_SIZE;
+        if (compare(buffer.getLong(position + 16), buffer.getLong(position + 24), addressHigh, addressLow) < 0) {
+            return -1;
+        }
+        return buffer.getInt(position + 32);
     }
 
-    private Long toLong(byte[] address)
+    private static int compare(long firstHigh, long firstLow, long secondHigh, long secondLow)
     {
-        return new BigInteger(address).longValue();
+        int compare = Long.compareUnsigned(firstHigh, secondHigh);
+        return compare != 0 ? compare : Long.compareUnsigned(firstLow, secondLow);
+    }
+
+    public String getCountry(int location)
+    {
+        return getString(buffer.getInt(locationOffset + location * LOCATION_SIZE));
+    }
+
+    public String getRegion(int location)
+    {
+        return getString(buffer.getInt(locationOffset + location * LOCATION_SIZE + 4));
+    }
+
+    public String getCity(int location)
+    {
+        return getString(buffer.getInt(locationOffset + location * LOCATION_SIZE + 8));
+    }
+
+    public double getLatitude(int location)
+    {
+        return buffer.getDouble(locationOffset + location * LOCATION_SIZE + 12);
+    }
+
+    public double getLongitude(int location)
+    {
+        return buffer.getDouble(locationOffset + location * LOCATION_SIZE + 20);
+    }
+
+    private String getString(int index)
+    {
+        int start = buffer.getInt(stringOffset + index * 4);
+        int end = buffer.getInt(stringOffset + (index + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(stringDataOffset + start + i);
+        }
+        return new String(bytes, UTF_8);
     }
 }
@@ -0,0 +1,80 @@
+package org.rakam.collection.mapper.geoip.maxmind.ip2location;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+
+public class TestIPReader
+{
+    // 1.0.0.0 - 1.0.0.255, 8.8.8.0 - 8.8.8.255, ::ffff:9.9.9.0 - ::ffff:9.9.9.255, 2001:db8:: - 2001:db8::ffff
+    private static final String CSV = "" +
+            "\"16777216\",\"16777471\",\"US\",\"United States\",\"California\",\"Los Angeles\",\"34.052230\",\"-118.243680\"\n" +
+            "\"134744064\",\"134744319\",\"US\",\"United States\",\"California\",\"Mountain View\",\"37.405990\",\"-122.078514\"\n" +
+            "\"281470833330432\",\"281470833330687\",\"CH\",\"Switzerland\",\"Zurich\",\"Zürich\",\"47.366670\",\"8.550000\"\n" +
+            "\"42540766411282592856903984951653826560\",\"42540766411282592856903984951653892095\",\"TR\",\"Turkey\",\"Istanbul\",\"Istanbul\",\"41.013840\",\"28.949660\"\n";
+
+    private File directory;
+    private IPReader reader;
+
+    @BeforeClass
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("ip2location").toFile();
+        File index = new File(directory, "db.index");
+        IPIndexWriter.convert(new ByteArrayInputStream(CSV.getBytes(UTF_8)), index);
+        reader = IPReader.open(index);
+    }
+
+    @AfterClass
+    public void tearDown()
+    {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testIPv4()
+            throws IOException
+    {
+        int location = reader.find(InetAddress.getByName("8.8.8.8"));
+        assertEquals(reader.getCountry(location), "United States");
+        assertEquals(reader.getRegion(location), "California");
+        assertEquals(reader.getCity(location), "Mountain View");
+        assertEquals(reader.getLatitude(location), 37.405990);
+        assertEquals(reader.getLongitude(location), -122.078514);
+
+        assertEquals(reader.getCity(reader.find(InetAddress.getByName("1.0.0.0"))), "Los Angeles");
+        assertEquals(reader.getCity(reader.find(InetAddress.getByName("1.0.0.255"))), "Los Angeles");
+        assertEquals(reader.getCity(reader.find(InetAddress.getByName("9.9.9.9"))), "Zürich");
+    }
+
+    @Test
+    public void testIPv6()
+            throws IOException
+    {
+        assertEquals(reader.getCountry(reader.find(InetAddress.getByName("2001:db8::1"))), "Turkey");
+        assertEquals(reader.find(InetAddress.getByName("2001:db8::1:0")), -1);
+        assertEquals(reader.find(InetAddress.getByName("::1")), -1);
+    }
+
+    @Test
+    public void testMissingAddress()
+            throws IOException
+    {
+        assertEquals(reader.find(InetAddress.getByName("0.0.0.1")), -1);
+        assertEquals(reader.find(InetAddress.getByName("1.0.1.0")), -1);
+        assertEquals(reader.find(InetAddress.getByName("255.255.255.255")), -1);
+    }
+}
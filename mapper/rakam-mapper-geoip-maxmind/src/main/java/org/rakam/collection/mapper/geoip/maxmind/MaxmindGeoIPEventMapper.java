@@ -1,5 +1,6 @@
 package org.rakam.collection.mapper.geoip.maxmind;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -17,9 +18,11 @@ import io.netty.handler.codec.http.cookie.Cookie;
 import org.apache.avro.generic.GenericRecord;
 import org.rakam.Mapper;
 import org.rakam.collection.Event;
+import org.rakam.collection.EventList;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
+import org.rakam.plugin.GeoIPLookupCache;
 import org.rakam.plugin.SyncEventMapper;
 import org.rakam.plugin.user.ISingleUserBatchOperation;
 import org.rakam.plugin.user.UserPropertyMapper;
@@ -27,12 +30,14 @@ import org.rakam.util.MapProxyGenericRecord;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.URL;
-import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static org.rakam.collection.FieldType.STRING;
@@ -52,6 +57,7 @@ public class MaxmindGeoIPEventMapper
     private final DatabaseReader ispLookup;
     private final DatabaseReader cityLookup;
     private final boolean attachIp;
+    private final GeoIPLookupCache cache;
 
     public MaxmindGeoIPEventMapper(MaxmindGeoIPModuleConfig config)
             throws IOException
@@ -120,6 +126,7 @@ public class MaxmindGeoIPEventMapper
         this.cityLookup = cityLookup;
         this.ispLookup = ispLookup;
         this.connectionTypeLookup = connectionTypeLookup;
+        this.cache = new GeoIPLookupCache("maxmind", config.getCacheMaximumSize(), config.getCacheExpiration(), this::lookup);
     }
 
     private DatabaseReader getReader(URL url)
@@ -133,23 +140,45 @@ public class MaxmindGeoIPEventMapper
         }
     }
 
+    public GeoIPLookupCache getLookupCache()
+    {
+        return cache;
+    }
+
     @Override
     public List<Cookie> map(Event event, RequestParams extraProperties, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        String address = getAddress(event, extraProperties, sourceAddress);
+        if (address != null) {
+            GeoIPLookupCache.attach(cache.get(address), event.properties());
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<Cookie> map(EventList events, RequestParams requestParams, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        cache.map(events.events, event -> getAddress(event, requestParams, sourceAddress));
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<List<Cookie>> mapAsync(EventList events, RequestParams requestParams, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        map(events, requestParams, sourceAddress, responseHeaders);
+        return COMPLETED_EMPTY_FUTURE;
+    }
+
+    private String getAddress(Event event, RequestParams extraProperties, InetAddress sourceAddress)
     {
         Object ip = event.properties().get("_ip");
 
-        InetAddress addr;
         if ((ip instanceof String)) {
-            try {
-                // it may be slow because java performs reverse hostname lookup.
-                addr = Inet4Address.getByName((String) ip);
-            }
-            catch (UnknownHostException e) {
-                return null;
-            }
+            return (String) ip;
         }
         else if (Boolean.TRUE == ip) {
-            addr = sourceAddress;
+            return sourceAddress == null ? null : sourceAddress.getHostAddress();
         }
         else {
             if (cityLookup != null) {
@@ -162,28 +191,6 @@ public class MaxmindGeoIPEventMapper
 
             return null;
         }
-
-        if (addr == null) {
-            return null;
-        }
-
-        if (attachIp) {
-            event.properties().put("__ip", addr.getHostAddress());
-        }
-
-        if (connectionTypeLookup != null) {
-            setConnectionType(addr, event.properties());
-        }
-
-        if (ispLookup != null) {
-            setIsp(addr, event.properties());
-        }
-
-        if (cityLookup != null) {
-            setGeoFields(addr, event.properties());
-        }
-
-        return null;
     }
 
     @Override
@@ -203,39 +210,53 @@ public class MaxmindGeoIPEventMapper
 
     public void mapInternal(ObjectNode data, InetAddress sourceAddress)
     {
-        Object ip = data.get("_ip");
+        JsonNode ip = data.get("_ip");
 
         if (ip == null) {
             return;
         }
 
-        if ((ip instanceof String)) {
-            try {
-                // it may be slow because java performs reverse hostname lookup.
-                sourceAddress = Inet4Address.getByName((String) ip);
-            }
-            catch (UnknownHostException e) {
-                return;
-            }
+        Map<String, Object> fields;
+        if (ip.isTextual()) {
+            fields = cache.get(ip.textValue());
         }
-
-        if (sourceAddress == null) {
+        else if (sourceAddress != null) {
+            fields = cache.get(sourceAddress);
+        }
+        else {
             return;
         }
 
         GenericRecord record = new MapProxyGenericRecord(data);
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            // the ip address is only attached to the events
+            if (!entry.getKey().equals("__ip")) {
+                record.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private Map<String, Object> lookup(InetAddress address)
+    {
+        Map<String, Object> fields = new HashMap<>();
+
+        if (attachIp) {
+            fields.put("__ip", address.getHostAddress());
+        }
 
         if (connectionTypeLookup != null) {
-            setConnectionType(sourceAddress, record);
+            setConnectionType(address, fields);
         }
 
         if (ispLookup != null) {
-            setIsp(sourceAddress, record);
+            setIsp(address, fields);
         }
 
         if (cityLookup != null) {
-            setGeoFields(sourceAddress, record);
+            setGeoFields(address, fields);
         }
+
+        return Collections.unmodifiableMap(fields);
     }
 
     @Override
@@ -275,7 +296,7 @@ public class MaxmindGeoIPEventMapper
         }
     }
 
-    private void setConnectionType(InetAddress address, GenericRecord properties)
+    private void setConnectionType(InetAddress address, Map<String, Object> properties)
     {
         ConnectionTypeResponse connectionType;
         try {
@@ -295,7 +316,7 @@ public class MaxmindGeoIPEventMapper
         }
     }
 
-    private void setIsp(InetAddress address, GenericRecord properties)
+    private void setIsp(InetAddress address, Map<String, Object> properties)
     {
         IspResponse isp;
         try {
@@ -312,7 +333,7 @@ public class MaxmindGeoIPEventMapper
         properties.put("_isp", isp.getIsp());
     }
 
-    private void setGeoFields(InetAddress address, GenericRecord properties)
+    private void setGeoFields(InetAddress address, Map<String, Object> properties)
     {
         CityResponse city;
 
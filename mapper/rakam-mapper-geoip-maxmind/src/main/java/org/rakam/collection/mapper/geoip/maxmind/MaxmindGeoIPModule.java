@@ -13,6 +13,7 @@ import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.rakam.util.ConditionalModule;
 import org.rakam.plugin.EventMapper;
+import org.rakam.plugin.GeoIPLookupCache;
 import org.rakam.plugin.RakamModule;
 import org.rakam.plugin.user.UserPropertyMapper;
 
@@ -42,6 +43,7 @@ public class MaxmindGeoIPModule
         }
         Multibinder.newSetBinder(binder, UserPropertyMapper.class).addBinding().toInstance(geoIPEventMapper);
         Multibinder.newSetBinder(binder, EventMapper.class).addBinding().toInstance(geoIPEventMapper);
+        Multibinder.newSetBinder(binder, GeoIPLookupCache.class).addBinding().toInstance(geoIPEventMapper.getLookupCache());
     }
 
     @Override
@@ -5,6 +5,9 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import io.airlift.configuration.Config;
 import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+
+import javax.validation.constraints.Min;
 
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -29,6 +32,8 @@ public class MaxmindGeoIPModuleConfig
     private URL ispDatabaseUrl;
     private URL connectionTypeDatabaseUrl;
     private boolean useExistingFields;
+    private long cacheMaximumSize = 100000;
+    private Duration cacheExpiration = Duration.valueOf("1h");
 
     @Config("plugin.geoip.database.url")
     public MaxmindGeoIPModuleConfig setDatabaseUrl(URL url)
@@ -85,4 +90,30 @@ public class MaxmindGeoIPModuleConfig
     public boolean getUseExistingFields() {
         return useExistingFields;
     }
+
+    @Min(1)
+    public long getCacheMaximumSize()
+    {
+        return cacheMaximumSize;
+    }
+
+    @Config("plugin.geoip.cache.max-size")
+    @ConfigDescription("Maximum number of the addresses whose lookup results are cached")
+    public MaxmindGeoIPModuleConfig setCacheMaximumSize(long cacheMaximumSize)
+    {
+        this.cacheMaximumSize = cacheMaximumSize;
+        return this;
+    }
+
+    public Duration getCacheExpiration()
+    {
+        return cacheExpiration;
+    }
+
+    @Config("plugin.geoip.cache.expiration")
+    public MaxmindGeoIPModuleConfig setCacheExpiration(Duration cacheExpiration)
+    {
+        this.cacheExpiration = cacheExpiration;
+        return this;
+    }
 }
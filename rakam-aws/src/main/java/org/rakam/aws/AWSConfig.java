@@ -7,6 +7,13 @@ import com.amazonaws.internal.StaticCredentialsProvider;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.MinDataSize;
+
+import javax.validation.constraints.Min;
+
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
 
 public class AWSConfig {
     private String accessKey;
@@ -18,6 +25,14 @@ public class AWSConfig {
     private String kinesisEndpoint;
     private String dynamodbEndpoint;
     private String lambdaEndpoint;
+    private DataSize bulkPartSize = new DataSize(8, MEGABYTE);
+    private int bulkParallelPartUploads = 4;
+    private BulkCodec bulkCodec = BulkCodec.NONE;
+
+    public enum BulkCodec
+    {
+        NONE, DEFLATE
+    }
 
     public String getEventStoreStreamName() {
         return eventStoreStreamName;
@@ -39,6 +54,46 @@ public class AWSConfig {
         return eventStoreBulkS3Bucket;
     }
 
+    @MinDataSize("5MB")
+    public DataSize getBulkPartSize()
+    {
+        return bulkPartSize;
+    }
+
+    @Config("event.store.bulk.part-size")
+    @ConfigDescription("The size of the parts that are uploaded while the bulk file is written, S3 requires at least 5MB")
+    public AWSConfig setBulkPartSize(DataSize bulkPartSize)
+    {
+        this.bulkPartSize = bulkPartSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getBulkParallelPartUploads()
+    {
+        return bulkParallelPartUploads;
+    }
+
+    @Config("event.store.bulk.parallel-part-uploads")
+    public AWSConfig setBulkParallelPartUploads(int bulkParallelPartUploads)
+    {
+        this.bulkParallelPartUploads = bulkParallelPartUploads;
+        return this;
+    }
+
+    public BulkCodec getBulkCodec()
+    {
+        return bulkCodec;
+    }
+
+    @Config("event.store.bulk.codec")
+    @ConfigDescription("NONE writes the field names and the records of the collection, DEFLATE writes a compressed Avro object container file")
+    public AWSConfig setBulkCodec(BulkCodec bulkCodec)
+    {
+        this.bulkCodec = bulkCodec;
+        return this;
+    }
+
     @Config("aws.access-key")
     public AWSConfig setAccessKey(String accessKey) {
         this.accessKey = accessKey;
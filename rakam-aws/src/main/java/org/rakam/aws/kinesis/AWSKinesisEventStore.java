@@ -7,6 +7,7 @@ import com.amazonaws.services.kinesis.model.PutRecordResult;
 import com.amazonaws.services.kinesis.model.ResourceNotFoundException;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.log.Logger;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
@@ -30,9 +31,11 @@ import javax.inject.Inject;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static io.netty.buffer.PooledByteBufAllocator.DEFAULT;
 import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
@@ -43,11 +46,19 @@ public class AWSKinesisEventStore
         implements EventStore
 {
     private final static Logger LOGGER = Logger.get(AWSKinesisEventStore.class);
+    private static final int MAX_RECORD_SIZE = 1048576;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_BASE_DELAY_MILLIS = 100;
+    private static final long RETRY_MAX_DELAY_MILLIS = 5000;
+    private static final ScheduledExecutorService RETRY_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("kinesis-retry")
+            .setDaemon(true).build());
 
     private final AmazonKinesisAsyncClient kinesis;
     private final AWSConfig config;
     private final S3BulkEventStore bulkClient;
     private final KinesisProducer producer;
+    private final KinesisBatchWriter batchWriter;
 
     @Inject
     public AWSKinesisEventStore(AWSConfig config,
@@ -77,43 +88,32 @@ public class AWSKinesisEventStore
             }
         }
         producer = new KinesisProducer(producerConfiguration);
+        batchWriter = new KinesisBatchWriter(
+                (partitionKey, data) -> producer.addUserRecord(config.getEventStoreStreamName(), partitionKey, data),
+                RETRY_EXECUTOR, MAX_RETRIES, RETRY_BASE_DELAY_MILLIS, RETRY_MAX_DELAY_MILLIS);
     }
 
     public CompletableFuture<int[]> storeBatchInline(List<Event> events)
     {
-        ByteBuf[] byteBufs = new ByteBuf[events.size()];
-
+        List<String> partitionKeys = new ArrayList<>(events.size());
+        List<ByteBuf> records = new ArrayList<>(events.size());
         try {
-            for (int i = 0; i < events.size(); i++) {
-                Event event = events.get(i);
+            for (Event event : events) {
                 ByteBuf buffer = getBuffer(event);
-                ByteBuffer data = buffer.nioBuffer();
-                try {
-                    producer.addUserRecord(config.getEventStoreStreamName(),
-                            getPartitionKey(event),
-                            data);
-                }
-                catch (IllegalArgumentException e) {
-                    if (data.remaining() > 1048576) {
-                        throw new RakamException("Too many event properties, the total size of an event must be less than or equal to 1MB, got " + data.remaining(),
-                                BAD_REQUEST);
-                    }
+                records.add(buffer);
+                if (buffer.readableBytes() > MAX_RECORD_SIZE) {
+                    throw new RakamException("Too many event properties, the total size of an event must be less than or equal to 1MB, got " + buffer.readableBytes(),
+                            BAD_REQUEST);
                 }
-                byteBufs[i] = buffer;
+                partitionKeys.add(getPartitionKey(event));
             }
-
-            // TODO: async callback?
-            producer.flush();
         }
-        finally {
-            for (ByteBuf byteBuf : byteBufs) {
-                if (byteBuf != null) {
-                    byteBuf.release();
-                }
-            }
+        catch (RuntimeException e) {
+            records.forEach(ByteBuf::release);
+            throw e;
         }
 
-        return EventStore.COMPLETED_FUTURE_BATCH;
+        return batchWriter.write(partitionKeys, records);
     }
 
     @Override
@@ -0,0 +1,149 @@
+package org.rakam.aws.kinesis;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.log.Logger;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.rakam.plugin.EventStore.SUCCESSFUL_BATCH;
+
+/**
+ * Puts the records of a batch without waiting for the producer buffer to be flushed. The future of each record is
+ * tracked and the batch future is completed when all of its records are acknowledged or out of retries, so a slow
+ * shard only delays the batches that have records in that shard. The failed records are put again after a
+ * random delay between zero and the exponential back-off of the attempt.
+ */
+public class KinesisBatchWriter
+{
+    private final static Logger LOGGER = Logger.get(KinesisBatchWriter.class);
+
+    private final RecordSender sender;
+    private final ScheduledExecutorService retryExecutor;
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public KinesisBatchWriter(RecordSender sender, ScheduledExecutorService retryExecutor, int maxRetries, long baseDelayMillis, long maxDelayMillis)
+    {
+        checkArgument(maxRetries >= 0, "maxRetries is negative");
+        checkArgument(baseDelayMillis > 0 && maxDelayMillis >= baseDelayMillis, "delays are invalid");
+        this.sender = requireNonNull(sender, "sender is null");
+        this.retryExecutor = requireNonNull(retryExecutor, "retryExecutor is null");
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Returns the indexes of the records that couldn't be put. The buffers of the records are released when
+     * the batch is completed.
+     */
+    public CompletableFuture<int[]> write(List<String> partitionKeys, List<ByteBuf> records)
+    {
+        checkArgument(partitionKeys.size() == records.size(), "partition keys and records don't match");
+        Batch batch = new Batch(records);
+        for (int i = 0; i < records.size(); i++) {
+            put(batch, i, partitionKeys.get(i), 0);
+        }
+        return batch.future;
+    }
+
+    private void put(Batch batch, int index, String partitionKey, int attempt)
+    {
+        ListenableFuture<?> result;
+        try {
+            // the producer reads the buffer while the record is added so the buffer is not shared between the attempts
+            result = sender.send(partitionKey, batch.records.get(index).nioBuffer());
+        }
+        catch (RuntimeException e) {
+            retry(batch, index, partitionKey, attempt, e);
+            return;
+        }
+
+        Futures.addCallback(result, new FutureCallback<Object>()
+        {
+            @Override
+            public void onSuccess(Object value)
+            {
+                batch.done(index, false);
+            }
+
+            @Override
+            public void onFailure(Throwable e)
+            {
+                retry(batch, index, partitionKey, attempt, e);
+            }
+        }, directExecutor());
+    }
+
+    private void retry(Batch batch, int index, String partitionKey, int attempt, Throwable e)
+    {
+        // the producer rejects the invalid records, they fail in the next attempts as well
+        if (attempt >= maxRetries || e instanceof IllegalArgumentException) {
+            LOGGER.error(e, "Couldn't put the record to Amazon Kinesis after %d attempts", attempt + 1);
+            batch.done(index, true);
+            return;
+        }
+
+        long backoff = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        LOGGER.debug(e, "Retrying the record in %dms", delay);
+        retryExecutor.schedule(() -> put(batch, index, partitionKey, attempt + 1), delay, MILLISECONDS);
+    }
+
+    @FunctionalInterface
+    public interface RecordSender
+    {
+        ListenableFuture<?> send(String partitionKey, ByteBuffer data);
+    }
+
+    private static class Batch
+    {
+        private final CompletableFuture<int[]> future = new CompletableFuture<>();
+        private final List<ByteBuf> records;
+        private final boolean[] failed;
+        private final AtomicInteger remaining;
+
+        private Batch(List<ByteBuf> records)
+        {
+            this.records = records;
+            this.failed = new boolean[records.size()];
+            this.remaining = new AtomicInteger(records.size());
+            if (records.isEmpty()) {
+                future.complete(SUCCESSFUL_BATCH);
+            }
+        }
+
+        private void done(int index, boolean failure)
+        {
+            failed[index] = failure;
+            // the decrement publishes the failed flags to the thread that completes the batch
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+
+            records.forEach(ByteBuf::release);
+            int[] failedIndexes = new int[failed.length];
+            int count = 0;
+            for (int i = 0; i < failed.length; i++) {
+                if (failed[i]) {
+                    failedIndexes[count++] = i;
+                }
+            }
+            future.complete(count == 0 ? SUCCESSFUL_BATCH : Arrays.copyOf(failedIndexes, count));
+        }
+    }
+}
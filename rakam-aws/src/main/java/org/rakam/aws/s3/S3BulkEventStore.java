@@ -7,13 +7,13 @@ import com.amazonaws.services.cloudwatch.model.MetricDatum;
 import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
 import com.amazonaws.services.kinesis.AmazonKinesisClient;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.log.Logger;
-import io.airlift.slice.BasicSliceInput;
-import io.airlift.slice.DynamicSliceOutput;
 import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.FilteredRecordWriter;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
@@ -22,12 +22,12 @@ import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.aws.AWSConfig;
+import org.rakam.aws.AWSConfig.BulkCodec;
 import org.rakam.collection.Event;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.SchemaField;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -35,18 +35,28 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 import static org.rakam.util.AvroUtil.convertAvroSchema;
 
 public class S3BulkEventStore
 {
     private final static Logger LOGGER = Logger.get(S3BulkEventStore.class);
+    private static final byte BULK_FILE = 1;
+    private static final byte AVRO_CONTAINER_BULK_FILE = 3;
+    private static final ExecutorService UPLOAD_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("s3-bulk-upload-%d")
+            .setDaemon(true).build());
+
     private final Metastore metastore;
     private final AmazonS3Client s3Client;
     private final AWSConfig config;
     private final int conditionalMagicFieldsSize;
     private final AmazonCloudWatchAsyncClient cloudWatchClient;
     private final AmazonKinesisClient kinesis;
+    private final int partSize;
 
     public S3BulkEventStore(Metastore metastore, AWSConfig config, FieldDependencyBuilder.FieldDependency fieldDependency)
     {
@@ -68,14 +78,13 @@ public class S3BulkEventStore
         cloudWatchClient.setRegion(config.getAWSRegion());
 
         this.conditionalMagicFieldsSize = fieldDependency.dependentFields.size();
+        this.partSize = Ints.checkedCast(config.getBulkPartSize().toBytes());
     }
 
     public void upload(String project, List<Event> events, int tryCount)
     {
         GenericData data = GenericData.get();
 
-        DynamicSliceOutput buffer = new DynamicSliceOutput(events.size() * 30);
-
         Map<String, List<Event>> map = new HashMap<>();
         events.forEach(event -> map.computeIfAbsent(event.collection(),
                 (col) -> new ArrayList<>()).add(event));
@@ -87,51 +96,74 @@ public class S3BulkEventStore
         List<String> uploadedFiles = new ArrayList<>();
         try {
             for (Map.Entry<String, List<Event>> entry : map.entrySet()) {
-                buffer.reset();
-
                 List<SchemaField> collection = metastore.getCollection(project, entry.getKey());
 
                 Schema avroSchema = convertAvroSchema(collection);
                 DatumWriter writer = new FilteredRecordWriter(avroSchema, data);
-                encoder = EncoderFactory.get().directBinaryEncoder(buffer, encoder);
 
-                encoder.writeInt(collection.size());
-                for (SchemaField schemaField : collection) {
-                    encoder.writeString(schemaField.getName());
-                }
+                String key = events.get(0).project() + "/" + entry.getKey() + "/" + batchId;
+                S3MultipartOutputStream output = new S3MultipartOutputStream(s3Client, config.getEventStoreBulkS3Bucket(), key,
+                        partSize, config.getBulkParallelPartUploads(), 3, UPLOAD_EXECUTOR);
+
+                DataFileWriter<GenericRecord> fileWriter = null;
+                try {
+                    if (config.getBulkCodec() == BulkCodec.DEFLATE) {
+                        fileWriter = new DataFileWriter<GenericRecord>(writer)
+                                .setCodec(CodecFactory.deflateCodec(Deflater.DEFAULT_COMPRESSION))
+                                .create(avroSchema, output);
+                    }
+                    else {
+                        encoder = EncoderFactory.get().binaryEncoder(output, encoder);
 
-                encoder.writeInt(entry.getValue().size());
+                        encoder.writeInt(collection.size());
+                        for (SchemaField schemaField : collection) {
+                            encoder.writeString(schemaField.getName());
+                        }
 
-                int expectedSchemaSize = collection.size() + conditionalMagicFieldsSize;
-                for (Event event : entry.getValue()) {
-                    GenericRecord properties = event.properties();
+                        encoder.writeInt(entry.getValue().size());
+                    }
 
-                    List<Schema.Field> existingFields = properties.getSchema().getFields();
-                    if (existingFields.size() != expectedSchemaSize) {
-                        GenericData.Record record = new GenericData.Record(avroSchema);
-                        for (int i = 0; i < existingFields.size(); i++) {
-                            if (existingFields.get(i).schema().getType() != Schema.Type.NULL) {
-                                record.put(i, properties.get(i));
+                    int expectedSchemaSize = collection.size() + conditionalMagicFieldsSize;
+                    for (Event event : entry.getValue()) {
+                        GenericRecord properties = event.properties();
+
+                        List<Schema.Field> existingFields = properties.getSchema().getFields();
+                        if (existingFields.size() != expectedSchemaSize) {
+                            GenericData.Record record = new GenericData.Record(avroSchema);
+                            for (int i = 0; i < existingFields.size(); i++) {
+                                if (existingFields.get(i).schema().getType() != Schema.Type.NULL) {
+                                    record.put(i, properties.get(i));
+                                }
                             }
+                            properties = record;
+                        }
+
+                        if (fileWriter != null) {
+                            fileWriter.append(properties);
+                        }
+                        else {
+                            writer.write(properties, encoder);
                         }
-                        properties = record;
                     }
-                    writer.write(properties, encoder);
-                }
 
-                ObjectMetadata objectMetadata = new ObjectMetadata();
-                int bulkSize = buffer.size();
-                objectMetadata.setContentLength(bulkSize);
-                String key = events.get(0).project() + "/" + entry.getKey() + "/" + batchId;
-                PutObjectRequest putObjectRequest = new PutObjectRequest(config.getEventStoreBulkS3Bucket(),
-                        key,
-                        new SafeSliceInputStream(new BasicSliceInput(buffer.slice())), objectMetadata);
-                putObjectRequest.getRequestClientOptions().setReadLimit(bulkSize);
+                    if (fileWriter != null) {
+                        // closes the output as well, the last part is uploaded and the upload is completed
+                        fileWriter.close();
+                    }
+                    else {
+                        encoder.flush();
+                        output.close();
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    output.abort();
+                    throw e;
+                }
 
-                s3Client.putObject(putObjectRequest);
+                long bulkSize = output.size();
 
                 ByteBuffer allocate = ByteBuffer.allocate(key.length() + 1 + 8);
-                allocate.put((byte) 1);
+                allocate.put(fileWriter != null ? AVRO_CONTAINER_BULK_FILE : BULK_FILE);
                 allocate.putLong(bulkSize);
                 allocate.put(key.getBytes(StandardCharsets.UTF_8));
                 allocate.clear();
@@ -175,76 +207,4 @@ public class S3BulkEventStore
             putMetadataToKinesis(allocate, project, collection, tryCount - 1);
         }
     }
-
-    private class SafeSliceInputStream
-            extends InputStream
-    {
-        private final BasicSliceInput sliceInput;
-
-        public SafeSliceInputStream(BasicSliceInput sliceInput)
-        {
-            this.sliceInput = sliceInput;
-        }
-
-        @Override
-        public int read()
-                throws IOException
-        {
-            return sliceInput.read();
-        }
-
-        @Override
-        public int read(byte[] b)
-                throws IOException
-        {
-            return sliceInput.read(b);
-        }
-
-        @Override
-        public int read(byte[] b, int off, int len)
-                throws IOException
-        {
-            return sliceInput.read(b, off, len);
-        }
-
-        @Override
-        public long skip(long n)
-                throws IOException
-        {
-            return sliceInput.skip(n);
-        }
-
-        @Override
-        public int available()
-                throws IOException
-        {
-            return sliceInput.available();
-        }
-
-        @Override
-        public void close()
-                throws IOException
-        {
-            sliceInput.close();
-        }
-
-        @Override
-        public synchronized void mark(int readlimit)
-        {
-            throw new RuntimeException("mark/reset not supported");
-        }
-
-        @Override
-        public synchronized void reset()
-                throws IOException
-        {
-            throw new IOException("mark/reset not supported");
-        }
-
-        @Override
-        public boolean markSupported()
-        {
-            return false;
-        }
-    }
 }
@@ -0,0 +1,287 @@
+package org.rakam.aws.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import io.airlift.log.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uploads the written bytes as the parts of a multipart upload while the parts are filled, so the memory used by
+ * an upload is bounded by the part size and the number of parallel part uploads instead of the object size. A failed
+ * part is uploaded again without re-writing the object. If the object fits in a single part, it's uploaded with
+ * a single put request when the stream is closed.
+ */
+public class S3MultipartOutputStream
+        extends OutputStream
+{
+    private final static Logger LOGGER = Logger.get(S3MultipartOutputStream.class);
+
+    private final AmazonS3 s3Client;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final int maxRetries;
+    private final Executor executor;
+
+    // the free part buffers, a writer waits here while all the buffers are being uploaded
+    private final BlockingQueue<byte[]> buffers;
+    private final int maxBuffers;
+    private int allocatedBuffers;
+
+    private final List<CompletableFuture<PartETag>> parts = new ArrayList<>();
+    private String uploadId;
+    private byte[] buffer;
+    private int position;
+    private long size;
+    private boolean closed;
+
+    public S3MultipartOutputStream(AmazonS3 s3Client, String bucket, String key, int partSize, int parallelUploads, int maxRetries, Executor executor)
+    {
+        checkArgument(partSize > 0, "partSize must be positive");
+        checkArgument(parallelUploads > 0, "parallelUploads must be positive");
+        checkArgument(maxRetries >= 0, "maxRetries is negative");
+        this.s3Client = requireNonNull(s3Client, "s3Client is null");
+        this.bucket = requireNonNull(bucket, "bucket is null");
+        this.key = requireNonNull(key, "key is null");
+        this.executor = requireNonNull(executor, "executor is null");
+        this.partSize = partSize;
+        this.maxRetries = maxRetries;
+        // one buffer is filled while the others are uploaded
+        this.maxBuffers = parallelUploads + 1;
+        this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException
+    {
+        ensureBuffer();
+        buffer[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+            throws IOException
+    {
+        while (len > 0) {
+            ensureBuffer();
+            int length = Math.min(len, partSize - position);
+            System.arraycopy(b, off, buffer, position, length);
+            position += length;
+            size += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * The number of bytes written to the stream.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * The number of part buffers allocated by the stream, it never exceeds the number of parallel uploads plus one.
+     */
+    int allocatedBuffers()
+    {
+        return allocatedBuffers;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (uploadId == null) {
+            putObject();
+            return;
+        }
+
+        if (position > 0) {
+            uploadPart(buffer, position);
+        }
+
+        List<PartETag> etags = new ArrayList<>(parts.size());
+        try {
+            for (CompletableFuture<PartETag> part : parts) {
+                etags.add(part.get());
+            }
+            etags.sort(Comparator.comparing(PartETag::getPartNumber));
+            s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while uploading " + key);
+        }
+        catch (ExecutionException | AmazonClientException e) {
+            abort();
+            throw new IOException("Couldn't upload " + key, e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * Discards the uploaded parts, the object is not created.
+     */
+    public void abort()
+    {
+        closed = true;
+        if (uploadId == null) {
+            return;
+        }
+
+        parts.forEach(part -> part.cancel(false));
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        }
+        catch (AmazonClientException e) {
+            LOGGER.warn(e, "Couldn't abort the multipart upload of %s", key);
+        }
+    }
+
+    private void ensureBuffer()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+
+        if (buffer != null && position < partSize) {
+            return;
+        }
+
+        if (buffer != null) {
+            if (uploadId == null) {
+                uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+            }
+            uploadPart(buffer, position);
+        }
+
+        buffer = takeBuffer();
+        position = 0;
+    }
+
+    private byte[] takeBuffer()
+            throws IOException
+    {
+        byte[] free = buffers.poll();
+        if (free != null) {
+            return free;
+        }
+
+        if (allocatedBuffers < maxBuffers) {
+            allocatedBuffers++;
+            return new byte[partSize];
+        }
+
+        try {
+            return buffers.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while uploading " + key);
+        }
+    }
+
+    private void uploadPart(byte[] data, int length)
+            throws IOException
+    {
+        // fail fast instead of filling the remaining parts of a failed upload
+        for (CompletableFuture<PartETag> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                abort();
+                try {
+                    part.join();
+                }
+                catch (CompletionException e) {
+                    throw new IOException("Couldn't upload " + key, e.getCause());
+                }
+            }
+        }
+
+        int partNumber = parts.size() + 1;
+        parts.add(CompletableFuture.supplyAsync(() -> {
+            try {
+                return uploadPart(data, length, partNumber, 0);
+            }
+            finally {
+                buffers.add(data);
+            }
+        }, executor));
+    }
+
+    private PartETag uploadPart(byte[] data, int length, int partNumber, int attempt)
+    {
+        try {
+            return s3Client.uploadPart(new UploadPartRequest()
+                    .withBucketName(bucket)
+                    .withKey(key)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withPartSize(length)
+                    .withInputStream(new ByteArrayInputStream(data, 0, length)))
+                    .getPartETag();
+        }
+        catch (AmazonClientException e) {
+            if (attempt >= maxRetries || !e.isRetryable()) {
+                throw e;
+            }
+            LOGGER.warn(e, "Retrying part %d of %s", partNumber, key);
+            return uploadPart(data, length, partNumber, attempt + 1);
+        }
+    }
+
+    private void putObject()
+            throws IOException
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(position);
+        byte[] data = buffer == null ? new byte[0] : buffer;
+        for (int attempt = 0; ; attempt++) {
+            PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(data, 0, position), metadata);
+            request.getRequestClientOptions().setReadLimit(position + 1);
+            try {
+                s3Client.putObject(request);
+                return;
+            }
+            catch (AmazonClientException e) {
+                if (attempt >= maxRetries || !e.isRetryable()) {
+                    throw new IOException("Couldn't upload " + key, e);
+                }
+                LOGGER.warn(e, "Retrying the upload of %s", key);
+            }
+        }
+    }
+}
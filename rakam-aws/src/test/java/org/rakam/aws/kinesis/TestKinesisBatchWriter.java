@@ -0,0 +1,181 @@
+package org.rakam.aws.kinesis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestKinesisBatchWriter
+{
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    public void setUp()
+    {
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @AfterClass
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAcknowledgedBatch()
+            throws Exception
+    {
+        FakeSender sender = new FakeSender();
+        KinesisBatchWriter writer = new KinesisBatchWriter(sender, executor, 3, 1, 10);
+
+        List<ByteBuf> records = records("a", "b", "c");
+        int[] failed = writer.write(ImmutableList.of("1", "2", "3"), records).get(10, TimeUnit.SECONDS);
+
+        assertEquals(failed, new int[0]);
+        assertEquals(sender.attempts("a"), 1);
+        assertReleased(records);
+    }
+
+    @Test
+    public void testRetryTransientFailures()
+            throws Exception
+    {
+        FakeSender sender = new FakeSender();
+        sender.failures.put("b", 2);
+        KinesisBatchWriter writer = new KinesisBatchWriter(sender, executor, 3, 1, 10);
+
+        List<ByteBuf> records = records("a", "b");
+        int[] failed = writer.write(ImmutableList.of("1", "2"), records).get(10, TimeUnit.SECONDS);
+
+        assertEquals(failed, new int[0]);
+        assertEquals(sender.attempts("b"), 3);
+        assertReleased(records);
+    }
+
+    @Test
+    public void testFailedIndexes()
+            throws Exception
+    {
+        FakeSender sender = new FakeSender();
+        sender.failures.put("b", Integer.MAX_VALUE);
+        sender.failures.put("d", Integer.MAX_VALUE);
+        KinesisBatchWriter writer = new KinesisBatchWriter(sender, executor, 2, 1, 10);
+
+        List<ByteBuf> records = records("a", "b", "c", "d");
+        int[] failed = writer.write(ImmutableList.of("1", "2", "3", "4"), records).get(10, TimeUnit.SECONDS);
+
+        assertEquals(failed, new int[] {1, 3});
+        assertEquals(sender.attempts("b"), 3);
+        assertReleased(records);
+    }
+
+    @Test
+    public void testInvalidRecordIsNotRetried()
+            throws Exception
+    {
+        KinesisBatchWriter writer = new KinesisBatchWriter((partitionKey, data) -> {
+            throw new IllegalArgumentException("Data must be less than or equal to 1MB in size");
+        }, executor, 3, 1, 10);
+
+        List<ByteBuf> records = records("a");
+        assertEquals(writer.write(ImmutableList.of("1"), records).get(10, TimeUnit.SECONDS), new int[] {0});
+        assertReleased(records);
+    }
+
+    @Test
+    public void testSlowRecordDoesNotBlockOtherBatches()
+            throws Exception
+    {
+        FakeSender sender = new FakeSender();
+        SettableFuture<Object> slow = SettableFuture.create();
+        sender.pending.put("slow", slow);
+        KinesisBatchWriter writer = new KinesisBatchWriter(sender, executor, 3, 1, 10);
+
+        List<ByteBuf> slowRecords = records("slow");
+        CompletableFuture<int[]> slowBatch = writer.write(ImmutableList.of("1"), slowRecords);
+        int[] failed = writer.write(ImmutableList.of("2"), records("fast")).get(10, TimeUnit.SECONDS);
+
+        assertEquals(failed, new int[0]);
+        assertFalse(slowBatch.isDone());
+        assertEquals(slowRecords.get(0).refCnt(), 1);
+
+        slow.set(new Object());
+        assertEquals(slowBatch.get(10, TimeUnit.SECONDS), new int[0]);
+        assertReleased(slowRecords);
+    }
+
+    private static List<ByteBuf> records(String... values)
+    {
+        ImmutableList.Builder<ByteBuf> builder = ImmutableList.builder();
+        for (String value : values) {
+            builder.add(Unpooled.copiedBuffer(value, UTF_8));
+        }
+        return builder.build();
+    }
+
+    private static void assertReleased(List<ByteBuf> records)
+    {
+        for (ByteBuf record : records) {
+            assertEquals(record.refCnt(), 0);
+        }
+    }
+
+    /**
+     * Acknowledges the records from another thread like the producer daemon does, fails each record
+     * the given number of times before it's acknowledged.
+     */
+    private class FakeSender
+            implements KinesisBatchWriter.RecordSender
+    {
+        private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+        private final Map<String, SettableFuture<Object>> pending = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+        @Override
+        public ListenableFuture<?> send(String partitionKey, ByteBuffer data)
+        {
+            String value = UTF_8.decode(data).toString();
+            int attempt = attempts.computeIfAbsent(value, key -> new AtomicInteger()).incrementAndGet();
+
+            SettableFuture<Object> waiting = pending.get(value);
+            if (waiting != null) {
+                return waiting;
+            }
+
+            SettableFuture<Object> result = SettableFuture.create();
+            executor.execute(() -> {
+                if (attempt <= failures.getOrDefault(value, 0)) {
+                    result.setException(new RuntimeException("Rate exceeded for shard"));
+                }
+                else {
+                    result.set(new Object());
+                }
+            });
+            return result;
+        }
+
+        private int attempts(String value)
+        {
+            AtomicInteger count = attempts.get(value);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
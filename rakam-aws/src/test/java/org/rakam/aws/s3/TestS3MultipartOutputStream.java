@@ -0,0 +1,297 @@
+package org.rakam.aws.s3;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestS3MultipartOutputStream
+{
+    private static final int PART_SIZE = 64 * 1024;
+    private static final int PARALLEL_UPLOADS = 2;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private AmazonS3Client s3Client;
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicInteger> partFailures = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadIds = new AtomicInteger();
+    private final AtomicInteger partRequests = new AtomicInteger();
+
+    @BeforeClass
+    public void setUp()
+            throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        executor = Executors.newCachedThreadPool();
+
+        // the stand-in doesn't verify the signatures, the chunked payload signing of SigV4 is avoided
+        s3Client = new AmazonS3Client(new BasicAWSCredentials("access", "secret"), new ClientConfiguration()
+                .withSignerOverride("S3SignerType")
+                .withMaxErrorRetry(0));
+        s3Client.setEndpoint("http://localhost:" + server.getAddress().getPort());
+        s3Client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true).disableChunkedEncoding());
+    }
+
+    @AfterClass
+    public void tearDown()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @BeforeMethod
+    public void clear()
+    {
+        objects.clear();
+        uploads.clear();
+        partFailures.clear();
+        partRequests.set(0);
+    }
+
+    @Test
+    public void testSmallObjectIsPut()
+            throws IOException
+    {
+        byte[] data = randomBytes(1000);
+        S3MultipartOutputStream output = stream("small");
+        output.write(data);
+        output.close();
+
+        assertEquals(objects.get("small"), data);
+        assertEquals(partRequests.get(), 0);
+        assertEquals(output.size(), 1000);
+    }
+
+    @Test
+    public void testMemoryDoesNotDependOnObjectSize()
+            throws IOException
+    {
+        for (int parts : new int[] {4, 64}) {
+            byte[] data = randomBytes(parts * PART_SIZE + 123);
+            S3MultipartOutputStream output = stream("large-" + parts);
+            // small writes like an encoder does
+            for (int i = 0; i < data.length; i += 1000) {
+                output.write(data, i, Math.min(1000, data.length - i));
+            }
+            output.close();
+
+            assertEquals(objects.get("large-" + parts), data);
+            assertTrue(output.allocatedBuffers() <= PARALLEL_UPLOADS + 1, "allocated " + output.allocatedBuffers());
+        }
+        assertTrue(uploads.isEmpty());
+    }
+
+    @Test
+    public void testFailedPartIsRetried()
+            throws IOException
+    {
+        partFailures.put(2, new AtomicInteger(2));
+        byte[] data = randomBytes(PART_SIZE * 3);
+        S3MultipartOutputStream output = stream("retried");
+        output.write(data);
+        output.close();
+
+        assertEquals(objects.get("retried"), data);
+        // the failed part is uploaded again, the other parts are uploaded once
+        assertEquals(partRequests.get(), 5);
+    }
+
+    @Test
+    public void testUploadIsAbortedWhenPartFails()
+            throws IOException
+    {
+        partFailures.put(1, new AtomicInteger(Integer.MAX_VALUE));
+        S3MultipartOutputStream output = stream("failed");
+        try {
+            output.write(randomBytes(PART_SIZE * 2));
+            output.close();
+            fail("the upload must fail");
+        }
+        catch (IOException e) {
+            // expected
+        }
+
+        assertFalse(objects.containsKey("failed"));
+        assertTrue(uploads.isEmpty());
+    }
+
+    @Test
+    public void testCompressedContainerFile()
+            throws IOException
+    {
+        Schema schema = Schema.createRecord("collection", null, null, false);
+        schema.setFields(ImmutableList.of(new Schema.Field("id", Schema.create(Schema.Type.LONG), null, null),
+                new Schema.Field("name", Schema.create(Schema.Type.STRING), null, null)));
+
+        S3MultipartOutputStream output = stream("container");
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<>(schema))
+                .setCodec(CodecFactory.deflateCodec(Deflater.DEFAULT_COMPRESSION))
+                .create(schema, output);
+        for (long i = 0; i < 100000; i++) {
+            GenericData.Record record = new GenericData.Record(schema);
+            record.put("id", i);
+            record.put("name", "event" + (i % 10));
+            writer.append(record);
+        }
+        writer.close();
+
+        long sum = 0;
+        int count = 0;
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(new SeekableByteArrayInput(objects.get("container")),
+                new GenericDatumReader<>(schema))) {
+            for (GenericRecord record : reader) {
+                sum += (Long) record.get("id");
+                count++;
+            }
+        }
+        assertEquals(count, 100000);
+        assertEquals(sum, 100000L * 99999 / 2);
+    }
+
+    private S3MultipartOutputStream stream(String key)
+    {
+        return new S3MultipartOutputStream(s3Client, "bucket", key, PART_SIZE, PARALLEL_UPLOADS, 3, executor);
+    }
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A stand-in for the object and multipart upload requests of S3 with path style access.
+     */
+    private void handle(HttpExchange exchange)
+            throws IOException
+    {
+        String key = exchange.getRequestURI().getPath().substring("/bucket/".length());
+        Map<String, String> query = new TreeMap<>();
+        String rawQuery = exchange.getRequestURI().getQuery();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                String[] pair = parameter.split("=", 2);
+                query.put(pair[0], pair.length > 1 ? pair[1] : "");
+            }
+        }
+        byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("POST") && query.containsKey("uploads")) {
+            String uploadId = "upload" + uploadIds.incrementAndGet();
+            uploads.put(uploadId, new ConcurrentHashMap<>());
+            respond(exchange, 200, "<InitiateMultipartUploadResult><Bucket>bucket</Bucket><Key>" + key +
+                    "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+        }
+        else if (method.equals("PUT") && query.containsKey("partNumber")) {
+            partRequests.incrementAndGet();
+            int partNumber = Integer.parseInt(query.get("partNumber"));
+            AtomicInteger failures = partFailures.get(partNumber);
+            if (failures != null && failures.getAndDecrement() > 0) {
+                respond(exchange, 500, "<Error><Code>InternalError</Code><Message>We encountered an internal error.</Message></Error>");
+                return;
+            }
+            uploads.get(query.get("uploadId")).put(partNumber, body);
+            exchange.getResponseHeaders().add("ETag", "\"" + md5(body) + "\"");
+            respond(exchange, 200, null);
+        }
+        else if (method.equals("POST") && query.containsKey("uploadId")) {
+            Map<Integer, byte[]> parts = new TreeMap<>(uploads.remove(query.get("uploadId")));
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            for (byte[] part : parts.values()) {
+                object.write(part);
+            }
+            objects.put(key, object.toByteArray());
+            respond(exchange, 200, "<CompleteMultipartUploadResult><Location>http://localhost/bucket/" + key +
+                    "</Location><Bucket>bucket</Bucket><Key>" + key + "</Key><ETag>\"etag\"</ETag></CompleteMultipartUploadResult>");
+        }
+        else if (method.equals("DELETE") && query.containsKey("uploadId")) {
+            uploads.remove(query.get("uploadId"));
+            respond(exchange, 204, null);
+        }
+        else if (method.equals("PUT")) {
+            objects.put(key, body);
+            exchange.getResponseHeaders().add("ETag", "\"" + md5(body) + "\"");
+            respond(exchange, 200, null);
+        }
+        else {
+            respond(exchange, 400, "<Error><Code>InvalidRequest</Code><Message>Unsupported request</Message></Error>");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String xml)
+            throws IOException
+    {
+        if (xml == null) {
+            exchange.sendResponseHeaders(status, -1);
+        }
+        else {
+            byte[] bytes = xml.getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private static String md5(byte[] bytes)
+    {
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.rakam.benchmark;
+
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.collection.AvroEventDeserializer;
+import org.rakam.collection.EventList;
+import org.rakam.collection.SchemaField;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.rakam.benchmark.BenchmarkEnvironment.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEnvironment.PROJECT;
+import static org.rakam.benchmark.BenchmarkEnvironment.record;
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkAvroEventDeserializer
+{
+    private static final int RECORDS = 100;
+
+    private AvroEventDeserializer deserializer;
+    private Slice payload;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        deserializer = new AvroEventDeserializer(environment.getMetastore());
+
+        List<SchemaField> fields = environment.getCollection();
+        Schema schema = convertAvroSchema(fields);
+        byte[] schemaJson = schema.toString().getBytes(UTF_8);
+
+        DynamicSliceOutput output = new DynamicSliceOutput(RECORDS * 256);
+        output.writeInt(schemaJson.length);
+        output.writeBytes(schemaJson);
+        output.writeInt(RECORDS);
+
+        GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(schema);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(output, null);
+        for (int i = 0; i < RECORDS; i++) {
+            writer.write(record(fields, i), encoder);
+        }
+        encoder.flush();
+        payload = output.slice();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public EventList deserialize()
+            throws IOException
+    {
+        return deserializer.deserialize(PROJECT, COLLECTION, payload.getInput());
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkAvroEventDeserializer.class);
+    }
+}
@@ -0,0 +1,86 @@
+package org.rakam.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Compares two JSON result files of {@link BenchmarkRunner}, typically the baseline of the previous commit and
+ * the current one. Exits with a non-zero status if any of the benchmarks is slower than the threshold.
+ * <p>
+ * Usage: {@code java -cp rakam-benchmarks.jar org.rakam.benchmark.BenchmarkComparison baseline.json result.json [threshold percent]}
+ */
+public final class BenchmarkComparison
+{
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    private BenchmarkComparison()
+            throws InstantiationException
+    {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison <baseline.json> <result.json> [threshold percent]");
+            System.exit(2);
+        }
+
+        Map<String, JsonNode> baseline = read(new File(args[0]));
+        Map<String, JsonNode> current = read(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        int regressions = 0;
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode previous = baseline.get(entry.getKey());
+            JsonNode metric = entry.getValue().get("primaryMetric");
+            String unit = metric.get("scoreUnit").asText();
+            double score = metric.get("score").asDouble();
+
+            if (previous == null) {
+                System.out.println(format("%-90s %12.3f %s (new)", entry.getKey(), score, unit));
+                continue;
+            }
+
+            double previousScore = previous.get("primaryMetric").get("score").asDouble();
+            double change = (score - previousScore) * 100 / previousScore;
+            // the higher score is better for the throughput modes
+            boolean higherIsBetter = "thrpt".equals(entry.getValue().get("mode").asText());
+            boolean regression = (higherIsBetter ? -change : change) > threshold;
+            if (regression) {
+                regressions++;
+            }
+
+            System.out.println(format("%-90s %12.3f -> %12.3f %s %+7.2f%%%s", entry.getKey(), previousScore, score, unit,
+                    change, regression ? " REGRESSION" : ""));
+        }
+
+        if (regressions > 0) {
+            System.err.println(format("%d benchmark(s) regressed more than %.1f%%", regressions, threshold));
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, JsonNode> read(File file)
+            throws IOException
+    {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            String name = result.get("benchmark").asText();
+            JsonNode params = result.get("params");
+            if (params != null) {
+                name += params.toString();
+            }
+            results.put(name + " " + result.get("mode").asText(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,91 @@
+package org.rakam.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.cfg.ContextAttributes;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.TestingConfigManager;
+import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.collection.CsvEventDeserializer;
+import org.rakam.collection.EventList;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.rakam.benchmark.BenchmarkEnvironment.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEnvironment.PROJECT;
+import static org.rakam.benchmark.BenchmarkEnvironment.properties;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkCsvEventDeserializer
+{
+    private static final int ROWS = 100;
+    private static final String[] COLUMNS = {"_time", "_user", "url", "referrer", "duration", "price", "returning"};
+
+    private ObjectReader reader;
+    private byte[] payload;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        CsvMapper mapper = new CsvMapper();
+        mapper.registerModule(new SimpleModule().addDeserializer(EventList.class,
+                new CsvEventDeserializer(environment.getMetastore(), new TestingConfigManager(),
+                        new SchemaChecker(environment.getMetastore(), environment.getFieldDependency()),
+                        environment.getFieldDependency())));
+
+        reader = mapper.readerFor(EventList.class).with(ContextAttributes.getEmpty()
+                .withSharedAttribute("project", PROJECT)
+                .withSharedAttribute("collection", COLLECTION)
+                .withSharedAttribute("apiKey", "apiKey"));
+
+        StringBuilder csv = new StringBuilder(String.join(",", COLUMNS)).append('\n');
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> properties = properties(i);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (column > 0) {
+                    csv.append(',');
+                }
+                Object value = properties.get(COLUMNS[column]);
+                if (value != null) {
+                    csv.append(value);
+                }
+            }
+            csv.append('\n');
+        }
+        payload = csv.toString().getBytes(UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public EventList deserialize()
+            throws IOException
+    {
+        return reader.readValue(payload);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkCsvEventDeserializer.class);
+    }
+}
@@ -0,0 +1,104 @@
+package org.rakam.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.util.DateTimeUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the type detection of the new string fields with the Joda parsers that are used as the fallback.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkDateTimeUtils
+{
+    private static final int VALUES = 100;
+
+    @Param({"date", "iso_timestamp", "timestamp", "string"})
+    private String type;
+
+    private String[] values;
+
+    @Setup
+    public void setup()
+    {
+        values = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            int day = 1 + i % 28;
+            switch (type) {
+                case "date":
+                    values[i] = String.format("2016-02-%02d", day);
+                    break;
+                case "iso_timestamp":
+                    values[i] = String.format("2016-02-%02dT10:%02d:00.%03dZ", day, i % 60, i);
+                    break;
+                case "timestamp":
+                    values[i] = String.format("2016-02-%02d 10:%02d:%02d", day, i % 60, i % 60);
+                    break;
+                case "string":
+                    values[i] = "https://rakam.io/page/" + i;
+                    break;
+                default:
+                    throw new IllegalArgumentException(type);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int lexer()
+    {
+        int matched = 0;
+        for (String value : values) {
+            if (DateTimeUtils.tryParseDate(value).isPresent() || DateTimeUtils.tryParseTimestamp(value).isPresent()) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int joda()
+    {
+        int matched = 0;
+        for (String value : values) {
+            try {
+                DateTimeUtils.parseDateWithJoda(value);
+                matched++;
+                continue;
+            }
+            catch (Exception e) {
+            }
+
+            try {
+                DateTimeUtils.parseTimestampWithJoda(value);
+                matched++;
+            }
+            catch (Exception e) {
+            }
+        }
+        return matched;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkDateTimeUtils.class);
+    }
+}
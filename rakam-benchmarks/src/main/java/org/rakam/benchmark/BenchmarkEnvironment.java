@@ -0,0 +1,137 @@
+package org.rakam.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.avro.generic.GenericData;
+import org.rakam.TestingConfigManager;
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.collection.Event;
+import org.rakam.collection.EventList;
+import org.rakam.collection.EventListDeserializer;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.JsonEventDeserializer;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.JsonHelper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+
+/**
+ * The in-memory metastore and the deserializers that are shared by the ingestion benchmarks.
+ */
+public class BenchmarkEnvironment
+{
+    public static final String PROJECT = "benchmark";
+    public static final String COLLECTION = "pageview";
+    public static final List<SchemaField> FIELDS = ImmutableList.of(
+            new SchemaField("_time", FieldType.TIMESTAMP),
+            new SchemaField("_user", FieldType.STRING),
+            new SchemaField("url", FieldType.STRING),
+            new SchemaField("referrer", FieldType.STRING),
+            new SchemaField("duration", FieldType.LONG),
+            new SchemaField("price", FieldType.DOUBLE),
+            new SchemaField("returning", FieldType.BOOLEAN),
+            new SchemaField("tags", FieldType.ARRAY_STRING),
+            new SchemaField("attributes", FieldType.MAP_STRING));
+
+    private final InMemoryApiKeyService apiKeyService;
+    private final InMemoryMetastore metastore;
+    private final FieldDependency fieldDependency;
+    private final JsonEventDeserializer eventDeserializer;
+    private final ObjectMapper mapper;
+    private final String writeKey;
+
+    public BenchmarkEnvironment()
+    {
+        apiKeyService = new InMemoryApiKeyService();
+        metastore = new InMemoryMetastore(apiKeyService);
+        fieldDependency = new FieldDependencyBuilder().build();
+        eventDeserializer = new JsonEventDeserializer(metastore, apiKeyService, new TestingConfigManager(),
+                new SchemaChecker(metastore, fieldDependency), fieldDependency);
+
+        mapper = JsonHelper.getMapper().copy();
+        mapper.registerModule(new SimpleModule()
+                .addDeserializer(Event.class, eventDeserializer)
+                .addDeserializer(EventList.class, new EventListDeserializer(apiKeyService, eventDeserializer)));
+
+        createProject();
+        writeKey = apiKeyService.createApiKeys(PROJECT).writeKey();
+    }
+
+    /**
+     * Drops the fields that are added by the events so that the next events change the schema again.
+     * The in-memory metastore replaces the collections of the project when it's created again.
+     */
+    public void resetProject()
+    {
+        createProject();
+        eventDeserializer.cleanCache();
+    }
+
+    private void createProject()
+    {
+        metastore.createProject(PROJECT);
+        metastore.getOrCreateCollectionFieldList(PROJECT, COLLECTION, ImmutableSet.copyOf(FIELDS));
+    }
+
+    public InMemoryMetastore getMetastore()
+    {
+        return metastore;
+    }
+
+    public FieldDependency getFieldDependency()
+    {
+        return fieldDependency;
+    }
+
+    public ObjectMapper getMapper()
+    {
+        return mapper;
+    }
+
+    public Event.EventContext getApi()
+    {
+        return Event.EventContext.apiKey(writeKey);
+    }
+
+    public List<SchemaField> getCollection()
+    {
+        return metastore.getCollection(PROJECT, COLLECTION);
+    }
+
+    public static Map<String, Object> properties(int seed)
+    {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("_time", 1480000000000L + seed * 1000L);
+        properties.put("_user", "user" + (seed % 1000));
+        properties.put("url", "https://rakam.io/page/" + (seed % 50));
+        properties.put("referrer", seed % 3 == 0 ? null : "https://google.com/search?q=" + seed);
+        properties.put("duration", (long) seed * 17);
+        properties.put("price", seed * 1.5);
+        properties.put("returning", seed % 2 == 0);
+        properties.put("tags", ImmutableList.of("tag" + (seed % 5), "tag" + (seed % 7)));
+        properties.put("attributes", ImmutableMap.of("browser", "chrome", "os", seed % 2 == 0 ? "linux" : "mac"));
+        return properties;
+    }
+
+    public static GenericData.Record record(List<SchemaField> fields, int seed)
+    {
+        GenericData.Record record = new GenericData.Record(convertAvroSchema(fields));
+        properties(seed).forEach((key, value) -> {
+            if (record.getSchema().getField(key) != null) {
+                record.put(key, value);
+            }
+        });
+        return record;
+    }
+}
@@ -0,0 +1,64 @@
+package org.rakam.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.collection.EventList;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.rakam.benchmark.BenchmarkEnvironment.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEnvironment.properties;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkEventListDeserializer
+{
+    private static final int EVENTS = 100;
+
+    private BenchmarkEnvironment environment;
+    private byte[] payload;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        environment = new BenchmarkEnvironment();
+        ImmutableList.Builder<Object> events = ImmutableList.builder();
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(ImmutableMap.of("collection", COLLECTION, "properties", properties(i)));
+        }
+        payload = environment.getMapper().writeValueAsBytes(ImmutableMap.of(
+                "api", environment.getApi(),
+                "events", events.build()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public EventList deserializeBatch()
+            throws IOException
+    {
+        return environment.getMapper().readValue(payload, EventList.class);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkEventListDeserializer.class);
+    }
+}
@@ -0,0 +1,71 @@
+package org.rakam.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.automation.ExpressionCompiler;
+import org.rakam.collection.Event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.rakam.benchmark.BenchmarkEnvironment.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEnvironment.FIELDS;
+import static org.rakam.benchmark.BenchmarkEnvironment.PROJECT;
+import static org.rakam.benchmark.BenchmarkEnvironment.record;
+
+/**
+ * Measures the filters of the automation rules, the expression is compiled once since the compiled predicates
+ * are cached by the rules.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkExpressionCompiler
+{
+    private static final int EVENTS = 100;
+    private static final String FILTER = "url LIKE '%page/1%' AND referrer IS NOT NULL";
+
+    private Predicate<Event> predicate;
+    private Event[] events;
+
+    @Setup
+    public void setup()
+    {
+        predicate = ExpressionCompiler.compile(FILTER);
+        events = new Event[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = new Event(PROJECT, COLLECTION, null, FIELDS, record(FIELDS, i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int filter()
+    {
+        int matched = 0;
+        for (Event event : events) {
+            if (predicate.test(event)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkExpressionCompiler.class);
+    }
+}
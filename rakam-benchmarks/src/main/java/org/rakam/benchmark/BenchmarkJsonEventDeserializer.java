@@ -0,0 +1,108 @@
+package org.rakam.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rakam.collection.Event;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.rakam.benchmark.BenchmarkEnvironment.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEnvironment.properties;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkJsonEventDeserializer
+{
+    private static final int NEW_FIELDS = 100;
+
+    @Benchmark
+    public Event deserializeKnownSchema(KnownSchema state)
+            throws IOException
+    {
+        return state.environment.getMapper().readValue(state.payload, Event.class);
+    }
+
+    /**
+     * Each event adds a new field to the collection so that the schema is changed and the cached schema is invalidated.
+     */
+    @Benchmark
+    @OperationsPerInvocation(NEW_FIELDS)
+    public void deserializeEvolvingSchema(EvolvingSchema state, Blackhole blackhole)
+            throws IOException
+    {
+        for (byte[] payload : state.payloads) {
+            blackhole.consume(state.environment.getMapper().readValue(payload, Event.class));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class KnownSchema
+    {
+        private BenchmarkEnvironment environment;
+        private byte[] payload;
+
+        @Setup
+        public void setup()
+                throws IOException
+        {
+            environment = new BenchmarkEnvironment();
+            payload = environment.getMapper().writeValueAsBytes(ImmutableMap.of(
+                    "collection", COLLECTION,
+                    "api", environment.getApi(),
+                    "properties", properties(1)));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EvolvingSchema
+    {
+        private BenchmarkEnvironment environment;
+        private byte[][] payloads;
+
+        @Setup
+        public void setup()
+                throws IOException
+        {
+            environment = new BenchmarkEnvironment();
+            payloads = new byte[NEW_FIELDS][];
+            for (int i = 0; i < NEW_FIELDS; i++) {
+                Map<String, Object> properties = properties(i);
+                properties.put("new_field_" + i, "value");
+                payloads[i] = environment.getMapper().writeValueAsBytes(ImmutableMap.of(
+                        "collection", COLLECTION,
+                        "api", environment.getApi(),
+                        "properties", properties));
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void resetSchema()
+        {
+            environment.resetProject();
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkJsonEventDeserializer.class);
+    }
+}
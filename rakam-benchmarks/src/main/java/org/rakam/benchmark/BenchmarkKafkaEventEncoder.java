@@ -0,0 +1,94 @@
+package org.rakam.benchmark;
+
+import com.google.common.collect.ImmutableSet;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.SourceFilteredRecordWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rakam.collection.Event;
+import org.rakam.kafka.collection.KafkaEventEncoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.rakam.benchmark.BenchmarkEnvironment.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEnvironment.FIELDS;
+import static org.rakam.benchmark.BenchmarkEnvironment.PROJECT;
+import static org.rakam.benchmark.BenchmarkEnvironment.record;
+
+/**
+ * Measures the events per second that are serialized for the Kafka producer, the pooled encoder is compared with
+ * the previous implementation that creates a datum writer and a buffer for each event and copies the buffer.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkKafkaEventEncoder
+{
+    private static final int EVENTS = 100;
+    private static final Set<String> SOURCE_FIELDS = ImmutableSet.of("_ip");
+
+    private KafkaEventEncoder encoder;
+    private Event[] events;
+
+    @Setup
+    public void setup()
+    {
+        encoder = new KafkaEventEncoder(SOURCE_FIELDS);
+        events = new Event[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = new Event(PROJECT, COLLECTION, null, FIELDS, record(FIELDS, i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void pooled(Blackhole blackhole)
+            throws IOException
+    {
+        for (Event event : events) {
+            blackhole.consume(encoder.encode(event));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void unpooled(Blackhole blackhole)
+            throws IOException
+    {
+        for (Event event : events) {
+            GenericDatumWriter writer = new SourceFilteredRecordWriter(event.properties().getSchema(), GenericData.get(), SOURCE_FIELDS);
+            ByteBuf buffer = Unpooled.buffer(100);
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(new ByteBufOutputStream(buffer), null);
+            writer.write(event.properties(), encoder);
+            blackhole.consume(Arrays.copyOf(buffer.array(), buffer.writerIndex()));
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkKafkaEventEncoder.class);
+    }
+}
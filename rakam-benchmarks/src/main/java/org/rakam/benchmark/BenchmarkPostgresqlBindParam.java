@@ -0,0 +1,75 @@
+package org.rakam.benchmark;
+
+import org.apache.avro.generic.GenericData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.postgresql.analysis.PostgresqlEventStore;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.rakam.benchmark.BenchmarkEnvironment.FIELDS;
+import static org.rakam.benchmark.BenchmarkEnvironment.record;
+
+/**
+ * Measures the conversion of the event properties to the JDBC parameters, the statement and the connection
+ * don't do any work so the driver is not part of the measurement.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkPostgresqlBindParam
+{
+    private static final int ROWS = 100;
+
+    private Connection connection;
+    private PreparedStatement statement;
+    private GenericData.Record[] records;
+
+    @Setup
+    public void setup()
+    {
+        connection = noop(Connection.class);
+        statement = noop(PreparedStatement.class);
+        records = new GenericData.Record[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            records[i] = record(FIELDS, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bindParam()
+            throws SQLException
+    {
+        for (GenericData.Record record : records) {
+            PostgresqlEventStore.bindParam(connection, statement, FIELDS, record);
+        }
+    }
+
+    private static <T> T noop(Class<T> clazz)
+    {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class[] {clazz}, (proxy, method, args) -> null));
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkPostgresqlBindParam.class);
+    }
+}
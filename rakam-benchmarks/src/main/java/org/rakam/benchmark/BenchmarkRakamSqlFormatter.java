@@ -0,0 +1,53 @@
+package org.rakam.benchmark;
+
+import com.facebook.presto.sql.RakamSqlFormatter;
+import com.facebook.presto.sql.tree.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.util.SqlParserUtil;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkRakamSqlFormatter
+{
+    private static final String QUERY = "SELECT url, count(*) AS total, approx_distinct(_user) AS users, sum(price) AS revenue\n" +
+            "FROM pageview\n" +
+            "WHERE _time > now() - interval '7' day AND referrer LIKE '%google%'\n" +
+            "GROUP BY 1 HAVING count(*) > 10 ORDER BY 2 DESC LIMIT 100";
+
+    private Statement statement;
+
+    @Setup
+    public void setup()
+    {
+        statement = SqlParserUtil.createStatement(QUERY);
+    }
+
+    @Benchmark
+    public String formatSql()
+    {
+        return RakamSqlFormatter.formatSql(statement, name -> format("\"%s\".\"%s\"", "benchmark", name.getSuffix()), '"');
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkRakamSqlFormatter.class);
+    }
+}
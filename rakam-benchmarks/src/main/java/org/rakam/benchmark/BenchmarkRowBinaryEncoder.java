@@ -0,0 +1,101 @@
+package org.rakam.benchmark;
+
+import com.google.common.io.LittleEndianDataOutputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.avro.generic.GenericData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rakam.clickhouse.collection.ClickHouseEventStore;
+import org.rakam.clickhouse.collection.RowBinaryEncoder;
+import org.rakam.collection.SchemaField;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.rakam.benchmark.BenchmarkEnvironment.FIELDS;
+import static org.rakam.benchmark.BenchmarkEnvironment.record;
+
+/**
+ * Compares the schema-resolved RowBinary encoder with the type switch that is used per value
+ * by {@link ClickHouseEventStore#writeValue}.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkRowBinaryEncoder
+{
+    private static final int ROWS = 100;
+    private static final long MILLIS_IN_DAY = 86400000;
+
+    private RowBinaryEncoder encoder;
+    private GenericData.Record[] records;
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup()
+    {
+        encoder = new RowBinaryEncoder(FIELDS);
+        records = new GenericData.Record[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            records[i] = record(FIELDS, i);
+        }
+        buffer = PooledByteBufAllocator.DEFAULT.buffer(ROWS * 256).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        buffer.release();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int rowBinaryEncoder()
+    {
+        buffer.clear();
+        for (GenericData.Record record : records) {
+            encoder.write(record, buffer);
+        }
+        return buffer.writerIndex();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int writeValue()
+            throws IOException
+    {
+        buffer.clear();
+        LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(new ByteBufOutputStream(buffer));
+        List<SchemaField> fields = FIELDS;
+        for (GenericData.Record record : records) {
+            out.writeShort((int) ((Long) record.get("_time") / MILLIS_IN_DAY));
+            for (int i = 0; i < fields.size(); i++) {
+                ClickHouseEventStore.writeValue(record.get(i), fields.get(i).getType(), out);
+            }
+        }
+        return buffer.writerIndex();
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        BenchmarkRunner.run(BenchmarkRowBinaryEncoder.class);
+    }
+}
@@ -0,0 +1,45 @@
+package org.rakam.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results in JMH JSON format so that the results of two commits can be
+ * compared with {@link BenchmarkComparison}.
+ * <p>
+ * Usage: {@code java -cp rakam-benchmarks.jar org.rakam.benchmark.BenchmarkRunner [result.json] [benchmark regex]}
+ */
+public final class BenchmarkRunner
+{
+    private BenchmarkRunner()
+            throws InstantiationException
+    {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    public static void run(Class<?>... benchmarks)
+            throws RunnerException
+    {
+        ChainedOptionsBuilder options = new OptionsBuilder();
+        for (Class<?> benchmark : benchmarks) {
+            options.include(benchmark.getName() + "\\.");
+        }
+        new Runner(options.build()).run();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        String result = args.length > 0 ? args[0] : "benchmark-result.json";
+        String include = args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + "\\.Benchmark";
+
+        new Runner(new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build()).run();
+    }
+}
@@ -1,13 +1,24 @@
 package org.rakam.clickhouse;
 
-import java.net.URI;
 import io.airlift.configuration.Config;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import java.net.URI;
+
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class ClickHouseConfig
 {
     private URI address = URI.create("http://127.0.0.1:8123");
     private String hotStoragePrefix;
     private String coldStoragePrefix;
+    private DataSize maxBufferedBytes = new DataSize(256, MEGABYTE);
+    private int maxBufferedEventsPerCollection = 100000;
+    private DataSize maxInsertBytes = new DataSize(8, MEGABYTE);
+    private int flushThreads = 4;
+    private Duration flushInterval = new Duration(1, SECONDS);
 
     @Config("clickhouse.address")
     public ClickHouseConfig setAddress(URI address)
@@ -44,4 +55,64 @@ public class ClickHouseConfig
         this.coldStoragePrefix = coldStoragePrefix;
         return this;
     }
+
+    public DataSize getMaxBufferedBytes()
+    {
+        return maxBufferedBytes;
+    }
+
+    @Config("clickhouse.insert.max-buffered-bytes")
+    public ClickHouseConfig setMaxBufferedBytes(DataSize maxBufferedBytes)
+    {
+        this.maxBufferedBytes = maxBufferedBytes;
+        return this;
+    }
+
+    public int getMaxBufferedEventsPerCollection()
+    {
+        return maxBufferedEventsPerCollection;
+    }
+
+    @Config("clickhouse.insert.max-buffered-events-per-collection")
+    public ClickHouseConfig setMaxBufferedEventsPerCollection(int maxBufferedEventsPerCollection)
+    {
+        this.maxBufferedEventsPerCollection = maxBufferedEventsPerCollection;
+        return this;
+    }
+
+    public DataSize getMaxInsertBytes()
+    {
+        return maxInsertBytes;
+    }
+
+    @Config("clickhouse.insert.max-request-bytes")
+    public ClickHouseConfig setMaxInsertBytes(DataSize maxInsertBytes)
+    {
+        this.maxInsertBytes = maxInsertBytes;
+        return this;
+    }
+
+    public int getFlushThreads()
+    {
+        return flushThreads;
+    }
+
+    @Config("clickhouse.insert.flush-threads")
+    public ClickHouseConfig setFlushThreads(int flushThreads)
+    {
+        this.flushThreads = flushThreads;
+        return this;
+    }
+
+    public Duration getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    @Config("clickhouse.insert.flush-interval")
+    public ClickHouseConfig setFlushInterval(Duration flushInterval)
+    {
+        this.flushInterval = flushInterval;
+        return this;
+    }
 }
@@ -1,6 +1,5 @@
 package org.rakam.clickhouse.analysis;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.google.common.collect.ImmutableMap;
 import org.rakam.analysis.EventExplorer;
@@ -11,6 +10,7 @@ import org.rakam.report.QueryExecutorService;
 import org.rakam.report.QueryResult;
 import org.rakam.report.realtime.AggregationType;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import javax.inject.Inject;
 
@@ -72,7 +72,6 @@ public class ClickHouseEventExplorer
             .build();
     private final QueryExecutor executor;
     private final QueryExecutorService service;
-    private static final SqlParser sqlParser = new SqlParser();
 
     @Inject
     public ClickHouseEventExplorer(QueryExecutor executor, QueryExecutorService service)
@@ -106,10 +105,8 @@ public class ClickHouseEventExplorer
                 DATE_TIME_FORMATTER.format(startDate), DATE_TIME_FORMATTER.format(endDate.plus(1, DAYS)));
 
         if (filterExpression != null) {
-            synchronized (sqlParser) {
-                Expression expression = sqlParser.createExpression(filterExpression);
-                filterExpression = formatExpression(expression);
-            }
+            Expression expression = SqlParserUtil.createExpression(filterExpression);
+            filterExpression = formatExpression(expression);
         }
 
         String where = timeFilter + (filterExpression == null ? "" : (" AND " + filterExpression));
@@ -1,10 +1,13 @@
 package org.rakam.clickhouse.analysis;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharStreams;
 import com.google.common.net.HostAndPort;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.http.client.HttpClientConfig;
 import io.airlift.http.client.Request;
 import io.airlift.http.client.Response;
@@ -18,9 +21,12 @@ import io.airlift.units.Duration;
 import org.rakam.clickhouse.ClickHouseConfig;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
+import org.rakam.report.QueryError;
 import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryResult;
+import org.rakam.report.QueryResultCursor;
 import org.rakam.report.QueryStats;
+import org.rakam.report.StreamingQueryResult;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
 
@@ -42,7 +48,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -64,12 +72,20 @@ public class ClickHouseQueryExecution
     public static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     public static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
 
-    private final CompletableFuture<ClickHouseQueryResult> result;
+    private static final ExecutorService QUERY_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("clickhouse-query-%d")
+            .setDaemon(true).build());
+    private static final int PAGE_SIZE = 1000;
+
+    private final StreamingQueryResult result;
+    private final Future<?> task;
     protected static final JettyHttpClient HTTP_CLIENT = new JettyHttpClient(
             new HttpClientConfig()
                     .setConnectTimeout(new Duration(10, SECONDS))
                     .setSocksProxy(getSystemSocksProxy()), new JettyIoPool("rakam-clickhouse", new JettyIoPoolConfig()),
             ImmutableSet.of());
+    private static final TypeReference<List<ClickHouseQueryResult.ClickHouseColumn>> COLUMNS_TYPE = new TypeReference<List<ClickHouseQueryResult.ClickHouseColumn>>() {};
+    private static final TypeReference<ArrayList<Object>> ROW_TYPE = new TypeReference<ArrayList<Object>>() {};
     private static Pattern CLICKHOUSE_TYPE_PATTERN = Pattern.compile("^([A-Za-z0-9]+)\\(([A-Za-z0-9]+)\\)$");
 
     private final String query;
@@ -81,17 +97,26 @@ public class ClickHouseQueryExecution
         this.query = query;
         this.queryId = UUID.randomUUID().toString();
         this.config = config;
+        this.result = new StreamingQueryResult(this::kill);
         URI uri = UriBuilder
                 .fromUri(config.getAddress())
                 .queryParam("query_id", queryId).build();
 
-        result = convertCompletableFuture(HTTP_CLIENT.executeAsync(
-                Request.builder()
-                        .setUri(uri)
-                        .setMethod("POST")
-                        .setBodyGenerator(createStaticBodyGenerator(query + " format " + QueryResponseHandler.FORMAT, UTF_8))
-                        .build(),
-                new QueryResponseHandler()));
+        Request request = Request.builder()
+                .setUri(uri)
+                .setMethod("POST")
+                .setBodyGenerator(createStaticBodyGenerator(query + " format " + QueryResponseHandler.FORMAT, UTF_8))
+                .build();
+
+        // the synchronous client streams the response body so the rows are parsed as they are received
+        task = QUERY_EXECUTOR.submit(() -> {
+            try {
+                HTTP_CLIENT.execute(request, new QueryResponseHandler());
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
     }
 
     public static String runStatement(ClickHouseConfig config, String query)
@@ -116,14 +141,14 @@ public class ClickHouseQueryExecution
     @Override
     public QueryStats currentStats()
     {
-        if (result.isDone()) {
+        if (isFinished()) {
             return new QueryStats(100, FINISHED, null, null, null, null, null, null);
         }
         else {
             String status = runStatement(config, format("select rows_read, bytes_read, total_rows_approx, memory_usage from system.processes where query_id = '%s' format "
                     + QueryResponseHandler.FORMAT, queryId));
             if (status.isEmpty()) {
-                if (result.isDone()) {
+                if (isFinished()) {
                     return currentStats();
                 }
                 else {
@@ -140,83 +165,69 @@ public class ClickHouseQueryExecution
     @Override
     public boolean isFinished()
     {
-        return result.isDone();
+        return result.getResult().isDone();
     }
 
-    private QueryResult getSuccessfulQueryResult(ClickHouseQueryResult queryResult)
+    private static void transformRow(List<SchemaField> columns, List<Object> row)
     {
-        List<SchemaField> columns = queryResult.meta.stream().map(f -> new SchemaField(f.name, parseClickhouseType(f.type)))
-                .collect(Collectors.toList());
-
-        ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
-        if (queryResult.totals != null) {
-            builder.put("totals", queryResult.totals);
-        }
-        if (queryResult.extremes != null) {
-            builder.put("extremes", queryResult.extremes);
-        }
-
-        return new QueryResult(columns, transformResultData(columns, queryResult.data),
-                builder.build());
-    }
-
-    private List<List<Object>> transformResultData(List<SchemaField> columns, List<List<Object>> data)
-    {
-        for (List<Object> objects : data) {
-            for (int i = 0; i < columns.size(); i++) {
-                String value = objects.get(i).toString();
-                if (value == null) {
-                    continue;
-                }
+        for (int i = 0; i < columns.size(); i++) {
+            Object rawValue = row.get(i);
+            if (rawValue == null) {
+                continue;
+            }
+            String value = rawValue.toString();
 
-                FieldType type = columns.get(i).getType();
-                switch (type) {
-                    case STRING:
-                        break;
-                    case LONG:
-                        objects.set(i, Long.parseLong(value));
-                        break;
-                    case INTEGER:
-                        objects.set(i, Integer.parseInt(value));
-                        break;
-                    case BOOLEAN:
-                        objects.set(i, value.equals("true"));
-                        break;
-                    case TIMESTAMP:
-                        objects.set(i, LocalDateTime.parse(value, DATE_TIME_FORMATTER).toInstant(UTC));
-                        break;
-                    case DATE:
-                        objects.set(i, LocalDate.parse(value));
-                        break;
-                    case TIME:
-                        objects.set(i, LocalTime.parse(value, TIME_FORMATTER));
-                        break;
-                    case BINARY:
-                        objects.set(i, value.getBytes(UTF_8));
-                        break;
-                    case DECIMAL:
-                    case DOUBLE:
-                        objects.set(i, Double.parseDouble(value));
-                        break;
-                    default:
-                        if (type.isArray()) {
+            FieldType type = columns.get(i).getType();
+            switch (type) {
+                case STRING:
+                    break;
+                case LONG:
+                    row.set(i, Long.parseLong(value));
+                    break;
+                case INTEGER:
+                    row.set(i, Integer.parseInt(value));
+                    break;
+                case BOOLEAN:
+                    row.set(i, value.equals("true"));
+                    break;
+                case TIMESTAMP:
+                    row.set(i, LocalDateTime.parse(value, DATE_TIME_FORMATTER).toInstant(UTC));
+                    break;
+                case DATE:
+                    row.set(i, LocalDate.parse(value));
+                    break;
+                case TIME:
+                    row.set(i, LocalTime.parse(value, TIME_FORMATTER));
+                    break;
+                case BINARY:
+                    row.set(i, value.getBytes(UTF_8));
+                    break;
+                case DECIMAL:
+                case DOUBLE:
+                    row.set(i, Double.parseDouble(value));
+                    break;
+                default:
+                    if (type.isArray()) {
 
-                        }
+                    }
 
-                        if (type.isMap()) {
+                    if (type.isMap()) {
 
-                        }
-                }
+                    }
             }
         }
-
-        return data;
     }
 
     @Override
     public CompletableFuture<QueryResult> getResult()
     {
-        return result.thenApply(this::getSuccessfulQueryResult);
+        return result.getResult();
+    }
+
+    @Override
+    public QueryResultCursor getResultCursor()
+    {
+        return result.cursor();
     }
 
     @Override
@@ -228,18 +239,18 @@ public class ClickHouseQueryExecution
     @Override
     public void kill()
     {
-        if (!result.isDone()) {
-            result.cancel(false);
+        if (!isFinished()) {
+            task.cancel(true);
         }
     }
 
-    private static class QueryResponseHandler
-            implements ResponseHandler<ClickHouseQueryResult, RuntimeException>
+    private class QueryResponseHandler
+            implements ResponseHandler<Void, RuntimeException>
     {
         private static final String FORMAT = "JSONCompact";
 
         @Override
-        public ClickHouseQueryResult handleException(Request request, Exception exception)
+        public Void handleException(Request request, Exception exception)
                 throws RuntimeException
         {
             LOGGER.error(exception);
@@ -247,7 +258,7 @@ public class ClickHouseQueryExecution
         }
 
         @Override
-        public ClickHouseQueryResult handle(Request request, Response response)
+        public Void handle(Request request, Response response)
                 throws RuntimeException
         {
             if (response.getStatusCode() != 200) {
@@ -261,14 +272,70 @@ public class ClickHouseQueryExecution
                 }
             }
 
-            try {
-                return JsonHelper.read(response.getInputStream(), ClickHouseQueryResult.class);
+            try (JsonParser parser = JsonHelper.getMapper().getFactory().createParser(response.getInputStream())) {
+                readResult(parser);
             }
             catch (IOException e) {
                 LOGGER.error(e, "An error occurred while reading query results");
                 throw new RakamException("An error occurred while reading query results: " + e.getMessage(),
                         INTERNAL_SERVER_ERROR);
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RakamException("Query is interrupted", INTERNAL_SERVER_ERROR);
+            }
+
+            return null;
+        }
+
+        private void readResult(JsonParser parser)
+                throws IOException, InterruptedException
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Query result must be an object");
+            }
+
+            List<SchemaField> columns = null;
+            ImmutableMap.Builder<String, Object> properties = ImmutableMap.builder();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                switch (fieldName) {
+                    case "meta":
+                        List<ClickHouseQueryResult.ClickHouseColumn> meta = parser.readValueAs(COLUMNS_TYPE);
+                        columns = meta.stream().map(f -> new SchemaField(f.name, parseClickhouseType(f.type)))
+                                .collect(Collectors.toList());
+                        result.setMetadata(columns);
+                        break;
+                    case "data":
+                        if (columns == null) {
+                            throw new IOException("Query result metadata is missing");
+                        }
+                        List<List<Object>> page = new ArrayList<>();
+                        while (parser.nextToken() == JsonToken.START_ARRAY) {
+                            List<Object> row = parser.readValueAs(ROW_TYPE);
+                            transformRow(columns, row);
+                            page.add(row);
+                            if (page.size() >= PAGE_SIZE) {
+                                if (!result.addPage(page)) {
+                                    result.fail(QueryError.create("Query aborted by user"));
+                                    return;
+                                }
+                                page = new ArrayList<>();
+                            }
+                        }
+                        result.addPage(page);
+                        break;
+                    case "totals":
+                    case "extremes":
+                        properties.put(fieldName, parser.readValueAs(Object.class));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            result.complete(properties.build());
         }
     }
 
@@ -285,34 +352,6 @@ public class ClickHouseQueryExecution
         return null;
     }
 
-    static <T> CompletableFuture<T> convertCompletableFuture(final ListenableFuture<T> listenableFuture)
-    {
-        CompletableFuture<T> completable = new CompletableFuture<T>()
-        {
-            @Override
-            public boolean cancel(boolean mayInterruptIfRunning)
-            {
-                // propagate cancel to the listenable future
-                boolean result = listenableFuture.cancel(mayInterruptIfRunning);
-                super.cancel(mayInterruptIfRunning);
-                return result;
-            }
-        };
-
-        listenableFuture.addListener(() -> {
-            try {
-                completable.complete(listenableFuture.get());
-            }
-            catch (InterruptedException e) {
-                completable.completeExceptionally(e);
-            }
-            catch (ExecutionException e) {
-                completable.completeExceptionally(e.getCause());
-            }
-        }, Runnable::run);
-        return completable;
-    }
-
     public static List<Object> readRowBinary(DataInput input, List<String> types)
             throws IOException
     {
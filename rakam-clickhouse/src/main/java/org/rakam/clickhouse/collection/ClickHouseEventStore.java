@@ -1,10 +1,11 @@
 package org.rakam.clickhouse.collection;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.io.LittleEndianDataOutputStream;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.airlift.http.client.BodyGenerator;
 import io.airlift.http.client.HttpClient.HttpResponseFuture;
@@ -16,6 +17,8 @@ import io.airlift.http.client.jetty.JettyIoPool;
 import io.airlift.http.client.jetty.JettyIoPoolConfig;
 import io.airlift.log.Logger;
 import io.airlift.units.Duration;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.apache.avro.generic.GenericRecord;
 import org.rakam.clickhouse.ClickHouseConfig;
 import org.rakam.collection.Event;
@@ -24,6 +27,7 @@ import org.rakam.collection.SchemaField;
 import org.rakam.plugin.EventStore;
 import org.rakam.report.QueryExecution;
 import org.rakam.util.ProjectCollection;
+import org.rakam.util.RakamException;
 
 import javax.ws.rs.core.UriBuilder;
 
@@ -35,25 +39,29 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.airlift.http.client.StringResponseHandler.createStringResponseHandler;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
 import static java.lang.String.format;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.rakam.clickhouse.analysis.ClickHouseQueryExecution.getSystemSocksProxy;
-import static org.rakam.collection.FieldType.DATE;
 import static org.rakam.collection.FieldType.STRING;
 import static org.rakam.util.ValidationUtil.checkCollection;
 
@@ -63,42 +71,46 @@ public class ClickHouseEventStore
     private final static Logger LOGGER = Logger.get(ClickHouseEventStore.class);
 
     private static final byte[] EMPTY_ARRAY = new byte[]{};
-    private static final String EMPTY_STRING = "";
     final JettyHttpClient HTTP_CLIENT = new JettyHttpClient(
             new HttpClientConfig()
                     .setConnectTimeout(new Duration(10, SECONDS))
                     .setSocksProxy(getSystemSocksProxy()), new JettyIoPool("rakam-clickhouse", new JettyIoPoolConfig()),
             ImmutableSet.of());
 
-    final Map<ProjectCollection, List<Event>> queuedEvents;
     private final ClickHouseConfig config;
-    Map<ProjectCollection, CompletableFuture<Void>> currentFutureSingle;
+    private final Map<ProjectCollection, CollectionBuffer> buffers;
+    private final AtomicLong bufferedBytes;
+    private final long maxBufferedBytes;
+    private final long maxInsertBytes;
+    private final ExecutorService flushers;
 
     @Inject
     public ClickHouseEventStore(ClickHouseConfig config)
     {
         this.config = config;
-        queuedEvents = new ConcurrentHashMap<>();
-        currentFutureSingle = new ConcurrentHashMap<>();
+        this.buffers = new ConcurrentHashMap<>();
+        this.bufferedBytes = new AtomicLong();
+        this.maxBufferedBytes = config.getMaxBufferedBytes().toBytes();
+        this.maxInsertBytes = config.getMaxInsertBytes().toBytes();
+        this.flushers = Executors.newFixedThreadPool(config.getFlushThreads(), new ThreadFactoryBuilder()
+                .setNameFormat("clickhouse-flusher-%d")
+                .setDaemon(true).build());
 
-        Executors.newSingleThreadScheduledExecutor().scheduleWithFixedDelay(() -> {
-            try {
-                Iterator<Map.Entry<ProjectCollection, List<Event>>> iterator = queuedEvents.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<ProjectCollection, List<Event>> next = iterator.next();
-                    List<Event> value = next.getValue();
-                    iterator.remove();
-                    CompletableFuture<Void> remove = currentFutureSingle.remove(next.getKey());
-
-                    List<SchemaField> schema = value.get(0).schema();
+        long flushInterval = config.getFlushInterval().toMillis();
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("clickhouse-flush-scheduler")
+                .setDaemon(true).build())
+                .scheduleWithFixedDelay(this::flushBuffers, flushInterval, flushInterval, MILLISECONDS);
+    }
 
-                    executeRequest(next.getKey(), schema, next.getValue(), remove, false);
-                }
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-        }, 1, 1, TimeUnit.SECONDS);
+    @VisibleForTesting
+    public void flushBuffers()
+    {
+        for (CollectionBuffer buffer : buffers.values()) {
+            scheduleFlush(buffer);
+            // the buffers of the collections that didn't get any event since the last run are removed
+            buffers.computeIfPresent(buffer.collection, (key, value) -> value.evictIfIdle() ? null : value);
+        }
     }
 
     private void executeRequest(ProjectCollection collection, List<SchemaField> schema, List<Event> events, CompletableFuture<Void> future, boolean tried) {
@@ -145,20 +157,39 @@ public class ClickHouseEventStore
     @Override
     public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
     {
-        CompletableFuture[] futures = new CompletableFuture[events.size()];
+        long[] sizes = new long[events.size()];
+        long totalSize = 0;
+        for (int i = 0; i < events.size(); i++) {
+            sizes[i] = estimateSize(events.get(i));
+            totalSize += sizes[i];
+        }
+        try {
+            reserve(totalSize);
+        }
+        catch (RakamException e) {
+            CompletableFuture<int[]> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
 
+        CompletableFuture[] futures = new CompletableFuture[events.size()];
         for (int i = 0; i < events.size(); i++) {
-            futures[i] = storeAsync(events.get(i));
+            PendingEvent pendingEvent = new PendingEvent(events.get(i), sizes[i]);
+            if (!enqueue(pendingEvent)) {
+                bufferedBytes.addAndGet(-sizes[i]);
+                pendingEvent.future.completeExceptionally(collectionBufferFull(pendingEvent.event));
+            }
+            futures[i] = pendingEvent.future;
         }
 
-        return CompletableFuture.allOf(futures).thenApply(v -> {
+        return CompletableFuture.allOf(futures).handle((v, ex) -> {
             List<Integer> ints = null;
             for (int i = 0; i < futures.length; i++) {
                 if (futures[i].isCompletedExceptionally()) {
                     if (ints == null) {
-                        ints = new ArrayList();
-                        ints.add(i);
+                        ints = new ArrayList<>();
                     }
+                    ints.add(i);
                 }
             }
 
@@ -174,11 +205,180 @@ public class ClickHouseEventStore
     @Override
     public CompletableFuture<Void> storeAsync(Event event)
     {
-        ProjectCollection tuple = new ProjectCollection(event.project(), event.collection());
-        CompletableFuture<Void> future = currentFutureSingle.computeIfAbsent(tuple, (k) -> new CompletableFuture<>());
+        long size = estimateSize(event);
+        reserve(size);
+
+        PendingEvent pendingEvent = new PendingEvent(event, size);
+        if (!enqueue(pendingEvent)) {
+            bufferedBytes.addAndGet(-size);
+            throw collectionBufferFull(event);
+        }
+
+        return pendingEvent.future;
+    }
+
+    private void reserve(long bytes)
+    {
+        if (bufferedBytes.addAndGet(bytes) > maxBufferedBytes) {
+            bufferedBytes.addAndGet(-bytes);
+            throw new RakamException("The events couldn't be buffered because ClickHouse can't keep up with the load, please retry later",
+                    TOO_MANY_REQUESTS);
+        }
+    }
+
+    private static RakamException collectionBufferFull(Event event)
+    {
+        return new RakamException(format("The buffer of collection %s is full, please retry later", event.collection()),
+                TOO_MANY_REQUESTS);
+    }
+
+    @VisibleForTesting
+    public int getBufferedCollections()
+    {
+        return buffers.size();
+    }
+
+    private boolean enqueue(PendingEvent pendingEvent)
+    {
+        ProjectCollection collection = new ProjectCollection(pendingEvent.event.project(), pendingEvent.event.collection());
+        AtomicBoolean offered = new AtomicBoolean();
+        // the event is offered while the entry is locked so that the buffer can't be evicted in the meantime
+        CollectionBuffer buffer = buffers.compute(collection, (key, value) -> {
+            CollectionBuffer collectionBuffer = value == null ? new CollectionBuffer(key, config.getMaxBufferedEventsPerCollection()) : value;
+            collectionBuffer.active = true;
+            offered.set(collectionBuffer.queue.offer(pendingEvent));
+            return collectionBuffer;
+        });
+
+        if (!offered.get()) {
+            return false;
+        }
+
+        if (buffer.bytes.addAndGet(pendingEvent.size) >= maxInsertBytes) {
+            scheduleFlush(buffer);
+        }
+        return true;
+    }
+
+    private void scheduleFlush(CollectionBuffer buffer)
+    {
+        // only one flusher works on a collection at a time so that a slow collection can't occupy all the flushers
+        if (!buffer.queue.isEmpty() && buffer.flushing.compareAndSet(false, true)) {
+            flushers.execute(() -> flush(buffer));
+        }
+    }
+
+    private void flush(CollectionBuffer buffer)
+    {
+        try {
+            List<PendingEvent> batch = buffer.drain(maxInsertBytes);
+            if (!batch.isEmpty()) {
+                insert(buffer.collection, batch);
+            }
+        }
+        catch (Throwable e) {
+            LOGGER.error(e, "Error while flushing the events of %s", buffer.collection);
+        }
+        finally {
+            buffer.flushing.set(false);
+        }
+
+        // the remaining events are queued behind the other collections instead of being sent in this thread
+        if (buffer.bytes.get() >= maxInsertBytes) {
+            scheduleFlush(buffer);
+        }
+    }
+
+    private void insert(ProjectCollection collection, List<PendingEvent> batch)
+    {
+        List<Event> events = new ArrayList<>(batch.size());
+        long size = 0;
+        for (PendingEvent pendingEvent : batch) {
+            events.add(pendingEvent.event);
+            size += pendingEvent.size;
+        }
+        long batchSize = size;
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.whenComplete((result, ex) -> {
+            bufferedBytes.addAndGet(-batchSize);
+            for (PendingEvent pendingEvent : batch) {
+                if (ex != null) {
+                    pendingEvent.future.completeExceptionally(ex);
+                }
+                else {
+                    pendingEvent.future.complete(null);
+                }
+            }
+        });
+
+        executeRequest(collection, getLastSchema(events), events, future, false);
+
+        // wait for the response so that the number of concurrent inserts is limited by the number of flushers
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // the futures of the events are already failed
+        }
+    }
+
+    // the event with the most fields has the latest schema
+    private static List<SchemaField> getLastSchema(List<Event> events)
+    {
+        List<SchemaField> schema = events.get(0).schema();
+        for (int i = 1; i < events.size(); i++) {
+            List<SchemaField> eventSchema = events.get(i).schema();
+            if (eventSchema.size() > schema.size()) {
+                schema = eventSchema;
+            }
+        }
+        return schema;
+    }
 
-        queuedEvents.computeIfAbsent(tuple, (k) -> Collections.synchronizedList(new ArrayList<>())).add(event);
-        return future;
+    static long estimateSize(Event event)
+    {
+        GenericRecord record = event.properties();
+        List<SchemaField> schema = event.schema();
+        // $date column
+        long size = 2;
+        for (int i = 0; i < schema.size(); i++) {
+            size += estimateSize(record.get(i), schema.get(i).getType());
+        }
+        return size;
+    }
+
+    private static long estimateSize(Object value, FieldType type)
+    {
+        if (value == null) {
+            return 1;
+        }
+
+        switch (type) {
+            case STRING:
+                return value.toString().length() + 5;
+            case BINARY:
+                return ((byte[]) value).length + 5;
+            default:
+                if (type.isArray()) {
+                    long size = 5;
+                    for (Object item : (List) value) {
+                        size += estimateSize(item, type.getArrayElementType());
+                    }
+                    return size;
+                }
+                else if (type.isMap()) {
+                    long size = 10;
+                    for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                        size += entry.getKey().length() + 5 + estimateSize(entry.getValue(), type.getMapValueType());
+                    }
+                    return size;
+                }
+                return 8;
+        }
     }
 
     public static void writeValue(Object value, FieldType type, DataOutput out)
@@ -186,9 +386,9 @@ public class ClickHouseEventStore
     {
         switch (type) {
             case STRING:
-                String str = value == null ? EMPTY_STRING : value.toString();
-                writeVarInt(str.length(), out);
-                out.writeBytes(str);
+                byte[] str = value == null ? EMPTY_ARRAY : value.toString().getBytes(UTF_8);
+                writeVarInt(str.length, out);
+                out.write(str);
                 break;
             case DATE:
                 out.writeShort(value == null ? 0 :(Integer) value);
@@ -263,30 +463,89 @@ public class ClickHouseEventStore
     private static class BinaryRawGenerator
             implements BodyGenerator
     {
+        // the initial capacity of the buffer, it's expanded if the events don't fit
+        private static final int MAX_INITIAL_BUFFER_SIZE = 8 * 1024 * 1024;
+
         private final List<Event> value;
-        private final List<SchemaField> schema;
+        private final RowBinaryEncoder encoder;
+        private final int initialBufferSize;
 
         public BinaryRawGenerator(List<Event> value, List<SchemaField> schema)
         {
             this.value = value;
-            this.schema = schema;
+            this.encoder = new RowBinaryEncoder(schema);
+            this.initialBufferSize = (int) Math.min(MAX_INITIAL_BUFFER_SIZE, (long) value.size() * (schema.size() + 1) * 8);
         }
 
         @Override
         public void write(OutputStream outputStream)
                 throws Exception
         {
-            LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(outputStream);
+            ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(initialBufferSize);
+            try {
+                ByteBuf out = buffer.order(LITTLE_ENDIAN);
+                for (Event event : value) {
+                    encoder.write(event.properties(), out);
+                }
+                buffer.readBytes(outputStream, buffer.readableBytes());
+            }
+            finally {
+                buffer.release();
+            }
+        }
+    }
 
-            for (Event event : value) {
-                GenericRecord record = event.properties();
-                Object time = record.get("_time");
-                writeValue(time == null ? 0 : ((int) (((long) time) / 86400)), DATE, out);
+    private static class PendingEvent
+    {
+        private final Event event;
+        private final long size;
+        private final CompletableFuture<Void> future;
 
-                for (int i = 0; i < schema.size(); i++) {
-                    writeValue(record.get(i), schema.get(i).getType(), out);
-                }
+        private PendingEvent(Event event, long size)
+        {
+            this.event = event;
+            this.size = size;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    private static class CollectionBuffer
+    {
+        private final ProjectCollection collection;
+        private final ArrayBlockingQueue<PendingEvent> queue;
+        private final AtomicLong bytes;
+        private final AtomicBoolean flushing;
+        // guarded by the entry of the buffer in the buffers map
+        private boolean active;
+
+        private CollectionBuffer(ProjectCollection collection, int capacity)
+        {
+            this.collection = collection;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.bytes = new AtomicLong();
+            this.flushing = new AtomicBoolean();
+        }
+
+        // called while the entry of the buffer is locked
+        private boolean evictIfIdle()
+        {
+            boolean wasActive = active;
+            active = false;
+            return !wasActive && queue.isEmpty() && !flushing.get();
+        }
+
+        // called only by the flusher that owns the buffer
+        private List<PendingEvent> drain(long maxBytes)
+        {
+            List<PendingEvent> batch = new ArrayList<>();
+            long size = 0;
+            PendingEvent pendingEvent;
+            while (size < maxBytes && (pendingEvent = queue.poll()) != null) {
+                batch.add(pendingEvent);
+                size += pendingEvent.size;
             }
+            bytes.addAndGet(-size);
+            return batch;
         }
     }
 }
@@ -0,0 +1,195 @@
+package org.rakam.clickhouse.collection;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.avro.generic.GenericRecord;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the events in ClickHouse RowBinary format. The writers of the columns are resolved once per schema
+ * so that encoding a row doesn't need to look up the types of the values.
+ * The buffers must be in little endian byte order, see {@link ByteBuf#order(ByteOrder)}.
+ */
+public class RowBinaryEncoder
+{
+    private static final long MILLIS_IN_DAY = 86400000;
+
+    private final ColumnWriter[] writers;
+
+    public RowBinaryEncoder(List<SchemaField> schema)
+    {
+        writers = new ColumnWriter[schema.size()];
+        for (int i = 0; i < schema.size(); i++) {
+            writers[i] = createWriter(schema.get(i).getType());
+        }
+    }
+
+    public void write(GenericRecord record, ByteBuf out)
+    {
+        // the partition column, $date
+        Object time = record.get("_time");
+        out.writeShort(time == null ? 0 : (int) (((Number) time).longValue() / MILLIS_IN_DAY));
+
+        // the events that are collected before a schema change have fewer fields
+        int fieldCount = record.getSchema().getFields().size();
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].write(i < fieldCount ? record.get(i) : null, out);
+        }
+    }
+
+    private static ColumnWriter createWriter(FieldType type)
+    {
+        switch (type) {
+            case STRING:
+                return (value, out) -> writeString(value == null ? null : value.toString(), out);
+            case DATE:
+                return (value, out) -> out.writeShort(value == null ? 0 : ((Number) value).intValue());
+            case TIMESTAMP:
+                return (value, out) -> out.writeInt(value == null ? 0 : (int) (((Number) value).longValue() / 1000));
+            case TIME:
+            case INTEGER:
+                return (value, out) -> out.writeInt(value == null ? 0 : ((Number) value).intValue());
+            case DECIMAL:
+            case DOUBLE:
+                return (value, out) -> out.writeDouble(value == null ? 0 : ((Number) value).doubleValue());
+            case LONG:
+                return (value, out) -> out.writeLong(value == null ? 0 : ((Number) value).longValue());
+            case BOOLEAN:
+                return (value, out) -> out.writeByte(Boolean.TRUE.equals(value) ? 1 : 0);
+            case BINARY:
+                return (value, out) -> {
+                    if (value == null) {
+                        out.writeByte(0);
+                    }
+                    else {
+                        byte[] bytes = (byte[]) value;
+                        writeVarInt(bytes.length, out);
+                        out.writeBytes(bytes);
+                    }
+                };
+            default:
+                if (type.isArray()) {
+                    ColumnWriter elementWriter = createWriter(type.getArrayElementType());
+                    return (value, out) -> {
+                        if (value == null) {
+                            out.writeByte(0);
+                            return;
+                        }
+                        List list = (List) value;
+                        writeVarInt(list.size(), out);
+                        for (Object item : list) {
+                            elementWriter.write(item, out);
+                        }
+                    };
+                }
+                if (type.isMap()) {
+                    // maps are stored as nested columns, the keys and values are written as separate arrays
+                    ColumnWriter valueWriter = createWriter(type.getMapValueType());
+                    return (value, out) -> {
+                        if (value == null) {
+                            out.writeByte(0);
+                            out.writeByte(0);
+                            return;
+                        }
+                        Map<String, Object> map = (Map<String, Object>) value;
+                        writeVarInt(map.size(), out);
+                        for (String key : map.keySet()) {
+                            writeString(key, out);
+                        }
+                        writeVarInt(map.size(), out);
+                        for (Object item : map.values()) {
+                            valueWriter.write(item, out);
+                        }
+                    };
+                }
+                throw new IllegalStateException("Unsupported type: " + type);
+        }
+    }
+
+    static void writeString(String value, ByteBuf out)
+    {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+
+        int length = value.length();
+        writeVarInt(utf8Length(value), out);
+        out.ensureWritable(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.writeByte(c);
+            }
+            else if (c < 0x800) {
+                out.writeByte(0xC0 | (c >> 6));
+                out.writeByte(0x80 | (c & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    out.writeByte(0xF0 | (codePoint >> 18));
+                    out.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                    out.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                    out.writeByte(0x80 | (codePoint & 0x3F));
+                }
+                else {
+                    // unpaired surrogates are replaced the same way String.getBytes does
+                    out.writeByte('?');
+                }
+            }
+            else {
+                out.writeByte(0xE0 | (c >> 12));
+                out.writeByte(0x80 | ((c >> 6) & 0x3F));
+                out.writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(String value)
+    {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                }
+                else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        // 4 bytes for 2 chars
+                        bytes += 2;
+                        i++;
+                    }
+                }
+                else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    static void writeVarInt(int value, ByteBuf out)
+    {
+        // VarInts don't support negative values
+        if (value < 0) {
+            value = 0;
+        }
+        while (value > 0x7f) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private interface ColumnWriter
+    {
+        void write(Object value, ByteBuf out);
+    }
+}
@@ -0,0 +1,116 @@
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import org.apache.avro.generic.GenericData;
+import org.rakam.clickhouse.ClickHouseConfig;
+import org.rakam.clickhouse.collection.ClickHouseEventStore;
+import org.rakam.collection.Event;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.RakamException;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.rakam.collection.FieldType.STRING;
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+public class TestClickHouseEventStore
+{
+    private static final List<SchemaField> SCHEMA = ImmutableList.of(new SchemaField("name", STRING));
+
+    @Test
+    public void testMemoryLimit()
+    {
+        ClickHouseEventStore eventStore = new ClickHouseEventStore(new ClickHouseConfig()
+                .setMaxBufferedBytes(new DataSize(20, BYTE))
+                .setFlushInterval(new Duration(1, HOURS)));
+
+        assertFalse(eventStore.storeAsync(event("test")).isDone());
+        assertRejected(eventStore, event("a value that doesn't fit into the buffer"));
+
+        // the batch is rejected with a failed future
+        CompletableFuture<int[]> batch = eventStore.storeBatchAsync(ImmutableList.of(event("a value that doesn't fit into the buffer")));
+        try {
+            batch.join();
+            fail("the batch must be rejected");
+        }
+        catch (CompletionException e) {
+            assertEquals(((RakamException) e.getCause()).getStatusCode(), TOO_MANY_REQUESTS);
+        }
+    }
+
+    @Test
+    public void testIdleBufferEviction()
+            throws Exception
+    {
+        ClickHouseEventStore eventStore = new ClickHouseEventStore(new ClickHouseConfig()
+                .setAddress(URI.create("http://localhost:1"))
+                .setFlushInterval(new Duration(1, HOURS)));
+
+        CompletableFuture<Void> future = eventStore.storeAsync(event("test"));
+        eventStore.flushBuffers();
+        assertEquals(eventStore.getBufferedCollections(), 1);
+
+        // the insert fails since there is no ClickHouse server
+        try {
+            future.get(1, MINUTES);
+        }
+        catch (ExecutionException e) {
+            // expected
+        }
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (eventStore.getBufferedCollections() > 0 && System.currentTimeMillis() < deadline) {
+            eventStore.flushBuffers();
+            Thread.sleep(10);
+        }
+        assertEquals(eventStore.getBufferedCollections(), 0);
+
+        eventStore.storeAsync(event("test"));
+        eventStore.flushBuffers();
+        assertEquals(eventStore.getBufferedCollections(), 1);
+    }
+
+    @Test
+    public void testCollectionLimit()
+    {
+        ClickHouseEventStore eventStore = new ClickHouseEventStore(new ClickHouseConfig()
+                .setMaxBufferedEventsPerCollection(1)
+                .setFlushInterval(new Duration(1, HOURS)));
+
+        eventStore.storeAsync(event("test"));
+        assertRejected(eventStore, event("test"));
+
+        int[] failedIndexes = eventStore.storeBatchAsync(ImmutableList.of(event("test"))).join();
+        assertEquals(failedIndexes, new int[] {0});
+    }
+
+    private static void assertRejected(ClickHouseEventStore eventStore, Event event)
+    {
+        try {
+            eventStore.storeAsync(event);
+            fail("the event must be rejected");
+        }
+        catch (RakamException e) {
+            assertEquals(e.getStatusCode(), TOO_MANY_REQUESTS);
+        }
+    }
+
+    private static Event event(String value)
+    {
+        GenericData.Record record = new GenericData.Record(convertAvroSchema(SCHEMA));
+        record.put(0, value);
+        return new Event("project", "collection", Event.EventContext.empty(), SCHEMA, record);
+    }
+}
@@ -0,0 +1,85 @@
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.LittleEndianDataOutputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.avro.generic.GenericData;
+import org.rakam.clickhouse.collection.ClickHouseEventStore;
+import org.rakam.clickhouse.collection.RowBinaryEncoder;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+import static org.testng.Assert.assertEquals;
+
+public class TestRowBinaryEncoder
+{
+    @Test
+    public void testAllTypes()
+            throws Exception
+    {
+        List<SchemaField> schema = ImmutableList.of(
+                new SchemaField("_time", FieldType.TIMESTAMP),
+                new SchemaField("string", FieldType.STRING),
+                new SchemaField("long", FieldType.LONG),
+                new SchemaField("integer", FieldType.INTEGER),
+                new SchemaField("double", FieldType.DOUBLE),
+                new SchemaField("boolean", FieldType.BOOLEAN),
+                new SchemaField("date", FieldType.DATE),
+                new SchemaField("array", FieldType.ARRAY_STRING),
+                new SchemaField("map", FieldType.MAP_LONG),
+                new SchemaField("null", FieldType.STRING));
+
+        GenericData.Record record = new GenericData.Record(convertAvroSchema(schema));
+        record.put("_time", 1480000000000L);
+        record.put("string", "test");
+        record.put("long", 5L);
+        record.put("integer", 3);
+        record.put("double", 1.5);
+        record.put("boolean", true);
+        record.put("date", 17000);
+        record.put("array", ImmutableList.of("a", "b"));
+        record.put("map", ImmutableMap.of("key", 1L));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(expected);
+        ClickHouseEventStore.writeValue(17129, FieldType.DATE, out);
+        for (int i = 0; i < schema.size(); i++) {
+            ClickHouseEventStore.writeValue(record.get(i), schema.get(i).getType(), out);
+        }
+
+        assertEquals(encode(schema, record), expected.toByteArray());
+    }
+
+    @Test
+    public void testUtf8()
+    {
+        List<SchemaField> schema = ImmutableList.of(new SchemaField("string", FieldType.STRING));
+        String value = "\u00e7\u00f6\u20ac\ud83d\ude00a";
+
+        GenericData.Record record = new GenericData.Record(convertAvroSchema(schema));
+        record.put("string", value);
+
+        byte[] bytes = value.getBytes(UTF_8);
+        byte[] encoded = encode(schema, record);
+        // $date, length and the value
+        assertEquals(encoded.length, 2 + 1 + bytes.length);
+        assertEquals(encoded[2], bytes.length);
+        assertEquals(new String(encoded, 3, bytes.length, UTF_8), value);
+    }
+
+    private static byte[] encode(List<SchemaField> schema, GenericData.Record record)
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        new RowBinaryEncoder(schema).write(record, buffer.order(LITTLE_ENDIAN));
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,272 @@
+package org.rakam.postgresql.analysis;
+
+import org.apache.avro.generic.GenericRecord;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.JsonHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes the Avro records in PostgreSQL COPY binary format.
+ * The values are encoded the same way {@link PostgresqlEventStore} binds them to the INSERT statements.
+ */
+public class PostgresqlBinaryCopyWriter
+{
+    private static final byte[] HEADER = new byte[] {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    // 2000-01-01T00:00:00Z
+    private static final long POSTGRESQL_EPOCH_MILLIS = 946684800000L;
+    private static final int POSTGRESQL_EPOCH_DAYS = 10957;
+    private static final short NUMERIC_POSITIVE = 0x0000;
+    private static final short NUMERIC_NEGATIVE = 0x4000;
+
+    private final DataOutputStream out;
+    private final List<SchemaField> fields;
+    // the buffer for variable length values, the length must be written before the value.
+    private final ByteArrayOutputStream valueBuffer;
+    private final DataOutputStream valueOut;
+
+    public PostgresqlBinaryCopyWriter(OutputStream out, List<SchemaField> fields)
+            throws IOException
+    {
+        this.out = new DataOutputStream(out);
+        this.fields = fields;
+        this.valueBuffer = new ByteArrayOutputStream();
+        this.valueOut = new DataOutputStream(valueBuffer);
+
+        this.out.write(HEADER);
+        // flags
+        this.out.writeInt(0);
+        // header extension length
+        this.out.writeInt(0);
+    }
+
+    public void write(GenericRecord record)
+            throws IOException
+    {
+        out.writeShort(fields.size());
+        for (SchemaField field : fields) {
+            Object value = record.get(field.getName());
+            if (value == null) {
+                out.writeInt(-1);
+            }
+            else {
+                writeValue(out, field.getType(), value);
+            }
+        }
+    }
+
+    public void finish()
+            throws IOException
+    {
+        out.writeShort(-1);
+        out.flush();
+    }
+
+    private void writeValue(DataOutputStream out, FieldType type, Object value)
+            throws IOException
+    {
+        switch (type) {
+            case STRING:
+                writeBytes(out, value.toString().getBytes(UTF_8));
+                break;
+            case LONG:
+                out.writeInt(8);
+                out.writeLong(((Number) value).longValue());
+                break;
+            case INTEGER:
+                out.writeInt(4);
+                out.writeInt(((Number) value).intValue());
+                break;
+            case DECIMAL:
+                valueBuffer.reset();
+                writeNumeric(valueOut, new BigDecimal(((Number) value).doubleValue()));
+                writeBuffer(out);
+                break;
+            case DOUBLE:
+                out.writeInt(8);
+                out.writeDouble(((Number) value).doubleValue());
+                break;
+            case TIMESTAMP:
+                long millis = ((Number) value).longValue();
+                if (millis < 0) {
+                    out.writeInt(-1);
+                }
+                else {
+                    out.writeInt(8);
+                    out.writeLong((millis - POSTGRESQL_EPOCH_MILLIS) * 1000);
+                }
+                break;
+            case TIME:
+                out.writeInt(8);
+                out.writeLong(((Number) value).intValue() * 1000000L);
+                break;
+            case DATE:
+                out.writeInt(4);
+                out.writeInt(((Number) value).intValue() - POSTGRESQL_EPOCH_DAYS);
+                break;
+            case BOOLEAN:
+                out.writeInt(1);
+                out.writeByte(((Boolean) value) ? 1 : 0);
+                break;
+            case BINARY:
+                writeBytes(out, (byte[]) value);
+                break;
+            default:
+                if (type.isArray()) {
+                    valueBuffer.reset();
+                    writeArray(valueOut, type.getArrayElementType(), (List) value);
+                    writeBuffer(out);
+                }
+                else if (type.isMap()) {
+                    byte[] json = JsonHelper.encodeAsBytes(value);
+                    out.writeInt(json.length + 1);
+                    // jsonb version
+                    out.writeByte(1);
+                    out.write(json);
+                }
+                else {
+                    throw new UnsupportedOperationException();
+                }
+        }
+    }
+
+    private void writeArray(DataOutputStream out, FieldType elementType, List values)
+            throws IOException
+    {
+        boolean hasNull = values.contains(null);
+
+        out.writeInt(values.isEmpty() ? 0 : 1);
+        out.writeInt(hasNull ? 1 : 0);
+        out.writeInt(getTypeOid(elementType));
+        if (values.isEmpty()) {
+            return;
+        }
+
+        out.writeInt(values.size());
+        // lower bound
+        out.writeInt(1);
+
+        for (Object value : values) {
+            if (value == null) {
+                out.writeInt(-1);
+            }
+            else if (elementType == FieldType.DECIMAL) {
+                // the element buffer can't be used since the array itself is in the value buffer.
+                ByteArrayOutputStream elementBuffer = new ByteArrayOutputStream(16);
+                writeNumeric(new DataOutputStream(elementBuffer), new BigDecimal(((Number) value).doubleValue()));
+                out.writeInt(elementBuffer.size());
+                elementBuffer.writeTo(out);
+            }
+            else {
+                writeValue(out, elementType, value);
+            }
+        }
+    }
+
+    private void writeBuffer(DataOutputStream out)
+            throws IOException
+    {
+        valueOut.flush();
+        out.writeInt(valueBuffer.size());
+        valueBuffer.writeTo(out);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes)
+            throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeNumeric(DataOutputStream out, BigDecimal value)
+            throws IOException
+    {
+        if (value.scale() < 0) {
+            value = value.setScale(0);
+        }
+
+        int scale = value.scale();
+        String digits = value.unscaledValue().abs().toString();
+        String integerPart = digits.length() > scale ? digits.substring(0, digits.length() - scale) : "0";
+        StringBuilder fractionPart = new StringBuilder(digits.length() > scale ? digits.substring(digits.length() - scale) : digits);
+        while (fractionPart.length() < scale) {
+            fractionPart.insert(0, '0');
+        }
+
+        // the digits are stored in base 10000, align the integer part to left and the fraction part to right.
+        StringBuilder integerDigits = new StringBuilder(integerPart);
+        while (integerDigits.length() % 4 != 0) {
+            integerDigits.insert(0, '0');
+        }
+        while (fractionPart.length() % 4 != 0) {
+            fractionPart.append('0');
+        }
+
+        List<Short> groups = new ArrayList<>();
+        for (int i = 0; i < integerDigits.length(); i += 4) {
+            groups.add(Short.parseShort(integerDigits.substring(i, i + 4)));
+        }
+        int weight = groups.size() - 1;
+        for (int i = 0; i < fractionPart.length(); i += 4) {
+            groups.add(Short.parseShort(fractionPart.substring(i, i + 4)));
+        }
+
+        int start = 0;
+        while (start < groups.size() && groups.get(start) == 0) {
+            start++;
+            weight--;
+        }
+        int end = groups.size();
+        while (end > start && groups.get(end - 1) == 0) {
+            end--;
+        }
+
+        if (start == end) {
+            weight = 0;
+        }
+
+        out.writeShort(end - start);
+        out.writeShort(weight);
+        out.writeShort(value.signum() < 0 ? NUMERIC_NEGATIVE : NUMERIC_POSITIVE);
+        out.writeShort(scale);
+        for (int i = start; i < end; i++) {
+            out.writeShort(groups.get(i));
+        }
+    }
+
+    private static int getTypeOid(FieldType type)
+    {
+        switch (type) {
+            case LONG:
+                return 20;
+            case INTEGER:
+                return 23;
+            case DECIMAL:
+                return 1700;
+            case STRING:
+                return 25;
+            case BOOLEAN:
+                return 16;
+            case DATE:
+                return 1082;
+            case TIME:
+                return 1083;
+            case TIMESTAMP:
+                return 1114;
+            case DOUBLE:
+                return 701;
+            default:
+                throw new IllegalStateException("sql type couldn't converted to fieldtype");
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package org.rakam.postgresql.analysis;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import org.rakam.postgresql.report.PostgresqlQueryExecution;
 
 public class PostgresqlConfig {
 
     private boolean autoIndexColumns = true;
+    private boolean batchUseCopy;
+    private int queryFetchSize = PostgresqlQueryExecution.DEFAULT_FETCH_SIZE;
+    private int queryMaxRows;
 
     @Config("postgresql.auto-index-columns")
     public PostgresqlConfig setAutoIndexColumns(boolean indexColumns)
@@ -16,4 +21,43 @@ public class PostgresqlConfig {
     public boolean isAutoIndexColumns() {
         return autoIndexColumns;
     }
+
+    @Config("postgresql.batch-use-copy")
+    @ConfigDescription("Use COPY in binary format instead of batched INSERT statements when storing event batches")
+    public PostgresqlConfig setBatchUseCopy(boolean batchUseCopy)
+    {
+        this.batchUseCopy = batchUseCopy;
+        return this;
+    }
+
+    public boolean isBatchUseCopy()
+    {
+        return batchUseCopy;
+    }
+
+    @Config("postgresql.query.fetch-size")
+    @ConfigDescription("Number of rows that are fetched from the server-side cursor of the queries at once")
+    public PostgresqlConfig setQueryFetchSize(int queryFetchSize)
+    {
+        this.queryFetchSize = queryFetchSize;
+        return this;
+    }
+
+    public int getQueryFetchSize()
+    {
+        return queryFetchSize;
+    }
+
+    @Config("postgresql.query.max-rows")
+    @ConfigDescription("The results of the queries are truncated to this number of rows, zero means no limit")
+    public PostgresqlConfig setQueryMaxRows(int queryMaxRows)
+    {
+        this.queryMaxRows = queryMaxRows;
+        return this;
+    }
+
+    public int getQueryMaxRows()
+    {
+        return queryMaxRows;
+    }
 }
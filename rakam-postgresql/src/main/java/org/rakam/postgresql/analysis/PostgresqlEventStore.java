@@ -6,6 +6,8 @@ import com.google.inject.name.Named;
 import io.airlift.log.Logger;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.postgresql.util.PGobject;
 import org.rakam.analysis.JDBCPoolDataSource;
 import org.rakam.analysis.metadata.Metastore;
@@ -21,6 +23,7 @@ import org.rakam.util.ValidationUtil;
 
 import javax.inject.Inject;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.Date;
@@ -51,13 +54,21 @@ public class PostgresqlEventStore
 
     private final Set<String> sourceFields;
     private final JDBCPoolDataSource connectionPool;
+    private final boolean useCopy;
+    private static final int COPY_BUFFER_SIZE = 65536;
     public static final Calendar UTC_CALENDAR = Calendar.getInstance(TimeZone.getTimeZone(ZoneId.of("UTC")));
 
+    public PostgresqlEventStore(JDBCPoolDataSource connectionPool, FieldDependency fieldDependency)
+    {
+        this(connectionPool, fieldDependency, new PostgresqlConfig());
+    }
+
     @Inject
-    public PostgresqlEventStore(@Named("store.adapter.postgresql") JDBCPoolDataSource connectionPool, FieldDependency fieldDependency)
+    public PostgresqlEventStore(@Named("store.adapter.postgresql") JDBCPoolDataSource connectionPool, FieldDependency fieldDependency, PostgresqlConfig config)
     {
         this.connectionPool = connectionPool;
         this.sourceFields = fieldDependency.dependentFields.keySet();
+        this.useCopy = config.isBatchUseCopy();
     }
 
     @Override
@@ -89,6 +100,13 @@ public class PostgresqlEventStore
                 List<Event> eventsForCollection = entry.getValue();
                 Event lastEvent = getLastEvent(eventsForCollection);
 
+                if (useCopy) {
+                    copy(connection, lastEvent.project(), entry.getKey(), lastEvent.schema(), eventsForCollection);
+                    connection.commit();
+                    successfulCollections.put(entry.getKey(), eventsForCollection.size());
+                    continue;
+                }
+
                 PreparedStatement ps = connection.prepareStatement(getQuery(lastEvent.project(),
                         entry.getKey(), lastEvent.properties().getSchema()));
 
@@ -133,6 +151,37 @@ public class PostgresqlEventStore
         }
     }
 
+    private void copy(Connection connection, String project, String collection, List<SchemaField> schema, List<Event> events)
+            throws SQLException
+    {
+        List<SchemaField> fields = schema.stream()
+                .filter(field -> !sourceFields.contains(field.getName()))
+                .collect(Collectors.toList());
+
+        String query = String.format("COPY %s.%s (%s) FROM STDIN WITH (FORMAT binary)", project,
+                ValidationUtil.checkCollection(collection),
+                fields.stream().map(field -> checkTableColumn(field.getName())).collect(Collectors.joining(", ")));
+
+        PGCopyOutputStream output = new PGCopyOutputStream(connection.unwrap(PGConnection.class), query, COPY_BUFFER_SIZE);
+        try {
+            PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(output, fields);
+            for (Event event : events) {
+                writer.write(event.properties());
+            }
+            writer.finish();
+            output.endCopy();
+        }
+        catch (IOException e) {
+            if (output.isActive()) {
+                output.cancelCopy();
+            }
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Error while writing the events using COPY", e);
+        }
+    }
+
     // get the event with the last schema
     private Event getLastEvent(List<Event> eventsForCollection)
     {
@@ -146,7 +195,7 @@ public class PostgresqlEventStore
         return event;
     }
 
-    private void bindParam(Connection connection, PreparedStatement ps, List<SchemaField> fields, GenericRecord record)
+    public static void bindParam(Connection connection, PreparedStatement ps, List<SchemaField> fields, GenericRecord record)
             throws SQLException
     {
         Object value;
@@ -1,7 +1,6 @@
 package org.rakam.postgresql.analysis;
 
 import com.facebook.presto.sql.RakamSqlFormatter;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.facebook.presto.sql.tree.Query;
 import com.google.common.collect.ImmutableMap;
@@ -13,6 +12,7 @@ import org.rakam.report.DelegateQueryExecution;
 import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryResult;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 import org.rakam.util.ValidationUtil;
 
 import javax.inject.Inject;
@@ -35,7 +35,6 @@ import static org.rakam.postgresql.report.PostgresqlQueryExecutor.MATERIALIZED_V
 import static org.rakam.util.ValidationUtil.checkCollection;
 
 public class PostgresqlMaterializedViewService extends MaterializedViewService {
-    private final SqlParser parser = new SqlParser();
 
     private final PostgresqlQueryExecutor queryExecutor;
     private final QueryMetadataStore database;
@@ -52,10 +51,7 @@ public class PostgresqlMaterializedViewService extends MaterializedViewService {
         materializedView.validateQuery();
 
         StringBuilder builder = new StringBuilder();
-        Query statement;
-        synchronized (parser) {
-            statement = (Query) parser.createStatement(materializedView.query);
-        }
+        Query statement = (Query) SqlParserUtil.createStatement(materializedView.query);
 
         new RakamSqlFormatter.Formatter(builder, name -> queryExecutor.formatTableReference(project, name, Optional.empty(), ImmutableMap.of(), "collection"), '"').process(statement, 1);
 
@@ -82,10 +78,7 @@ public class PostgresqlMaterializedViewService extends MaterializedViewService {
 
         String tableName = queryExecutor.formatTableReference(project,
                 QualifiedName.of("materialized", materializedView.tableName), Optional.empty(), ImmutableMap.of(), "collection");
-        Query statement;
-        synchronized (sqlParser) {
-            statement = (Query) sqlParser.createStatement(materializedView.query);
-        }
+        Query statement = (Query) SqlParserUtil.createStatement(materializedView.query);
 
         Map<String, String> sessionProperties = new HashMap<>();
         if (!materializedView.incremental) {
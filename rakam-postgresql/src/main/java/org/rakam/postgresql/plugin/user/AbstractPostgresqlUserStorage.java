@@ -931,21 +931,13 @@ public abstract class AbstractPostgresqlUserStorage
     private String getPostgresqlType(JsonNode clazz)
     {
         if (clazz.isTextual()) {
-            try {
-                DateTimeUtils.parseDate(clazz.asText());
+            if (DateTimeUtils.tryParseDate(clazz.asText()).isPresent()) {
                 return "date";
             }
-            catch (Exception e) {
-
-            }
 
-            try {
-                DateTimeUtils.parseTimestamp(clazz.asText());
+            if (DateTimeUtils.tryParseTimestamp(clazz.asText()).isPresent()) {
                 return "timestamp";
             }
-            catch (Exception e) {
-
-            }
 
             return "text";
         }
@@ -11,7 +11,9 @@ import org.rakam.collection.SchemaField;
 import org.rakam.report.QueryError;
 import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryResult;
+import org.rakam.report.QueryResultCursor;
 import org.rakam.report.QueryStats;
+import org.rakam.report.StreamingQueryResult;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.LogUtil;
 import org.skife.jdbi.v2.tweak.ConnectionFactory;
@@ -34,7 +36,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Supplier;
 
 import static java.lang.String.format;
 import static org.rakam.postgresql.analysis.PostgresqlEventStore.UTC_CALENDAR;
@@ -50,32 +51,65 @@ public class PostgresqlQueryExecution
 {
     private final static Logger LOGGER = Logger.get(PostgresqlQueryExecution.class);
 
-    private final CompletableFuture<QueryResult> result;
+    private static final int PAGE_SIZE = 1000;
+    public static final int DEFAULT_FETCH_SIZE = PAGE_SIZE;
+
+    private final StreamingQueryResult result;
     private final String query;
-    private Statement statement;
+    private volatile Statement statement;
 
     public PostgresqlQueryExecution(ConnectionFactory connectionPool, String sqlQuery, boolean update)
+    {
+        this(connectionPool, sqlQuery, update, DEFAULT_FETCH_SIZE, 0);
+    }
+
+    /**
+     * The rows of the queries are fetched through a server-side cursor, {@code fetchSize} rows at a time,
+     * so that neither the driver nor the result buffers the whole result. The cursor only lives in a transaction
+     * so the query runs in a transaction that is rolled back if the result is closed before the rows are consumed.
+     * The result is truncated to {@code maxRows} rows if it's positive.
+     */
+    public PostgresqlQueryExecution(ConnectionFactory connectionPool, String sqlQuery, boolean update, int fetchSize, int maxRows)
     {
         this.query = sqlQuery;
+        this.result = new StreamingQueryResult(this::kill);
 
         // TODO: unnecessary threads will be spawn
-        Supplier<QueryResult> task = () -> {
-            final QueryResult queryResult;
+        Runnable task = () -> {
             try (Connection connection = connectionPool.openConnection()) {
                 statement = connection.createStatement();
                 if (update) {
                     statement.executeUpdate(sqlQuery);
                     // CREATE TABLE queries doesn't return any value and
                     // fail when using executeQuery so we fake the result data
-                    queryResult = new QueryResult(ImmutableList.of(new SchemaField("result", FieldType.BOOLEAN)),
-                            ImmutableList.of(ImmutableList.of(true)));
+                    result.setMetadata(ImmutableList.of(new SchemaField("result", FieldType.BOOLEAN)));
+                    result.addPage(ImmutableList.of(ImmutableList.of(true)));
+                    result.complete(null);
                 }
                 else {
-                    long beforeExecuted = System.currentTimeMillis();
-                    ResultSet resultSet = statement.executeQuery(sqlQuery);
-                    statement = null;
-                    queryResult = resultSetToQueryResult(resultSet,
-                            System.currentTimeMillis() - beforeExecuted);
+                    boolean autoCommit = connection.getAutoCommit();
+                    boolean completed = false;
+                    connection.setAutoCommit(false);
+                    try {
+                        statement.setFetchSize(fetchSize);
+                        if (maxRows > 0) {
+                            statement.setMaxRows(maxRows);
+                        }
+                        long beforeExecuted = System.currentTimeMillis();
+                        ResultSet resultSet = statement.executeQuery(sqlQuery);
+                        completed = readResultSet(resultSet, beforeExecuted);
+                        statement = null;
+                    }
+                    finally {
+                        // closing the transaction releases the cursor
+                        if (completed) {
+                            connection.commit();
+                        }
+                        else {
+                            connection.rollback();
+                        }
+                        connection.setAutoCommit(autoCommit);
+                    }
                 }
             }
             catch (Exception e) {
@@ -90,20 +124,17 @@ public class PostgresqlQueryExecution
                     error = new QueryError(e.getMessage(), null, null, null, null);
                 }
                 LOGGER.debug(e, format("Error while executing Postgresql query: \n%s", query));
-                return QueryResult.errorResult(error);
+                result.fail(error);
             }
-
-            return queryResult;
         };
 
-        CompletableFuture<QueryResult> future = CompletableFuture.supplyAsync(task, QUERY_EXECUTOR);
-        this.result = future;
+        QUERY_EXECUTOR.execute(task);
     }
 
     @Override
     public QueryStats currentStats()
     {
-        if (result.isDone()) {
+        if (result.getResult().isDone()) {
             return new QueryStats(100, FINISHED, null, null, null, null, null, null);
         }
         else {
@@ -114,13 +145,19 @@ public class PostgresqlQueryExecution
     @Override
     public boolean isFinished()
     {
-        return result.isDone();
+        return result.getResult().isDone();
     }
 
     @Override
     public CompletableFuture<QueryResult> getResult()
     {
-        return result;
+        return result.getResult();
+    }
+
+    @Override
+    public QueryResultCursor getResultCursor()
+    {
+        return result.cursor();
     }
 
     @Override
@@ -142,130 +179,137 @@ public class PostgresqlQueryExecution
         }
     }
 
-    private QueryResult resultSetToQueryResult(ResultSet resultSet, long executionTimeInMillis)
+    /**
+     * Returns false if the result is closed before all the rows are read.
+     */
+    private boolean readResultSet(ResultSet resultSet, long startTime)
+            throws SQLException, InterruptedException
     {
-        List<SchemaField> columns;
-        List<List<Object>> data;
-        try {
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
 
-            columns = new ArrayList<>(columnCount);
-            for (int i = 1; i < columnCount + 1; i++) {
-                FieldType type;
-                try {
-                    type = fromSql(metaData.getColumnType(i), metaData.getColumnTypeName(i));
-                }
-                catch (UnsupportedOperationException e) {
-                    LOGGER.warn(e.getMessage());
-                    columns.add(null);
-                    continue;
-                }
+        List<SchemaField> columns = new ArrayList<>(columnCount);
+        for (int i = 1; i < columnCount + 1; i++) {
+            FieldType type;
+            try {
+                type = fromSql(metaData.getColumnType(i), metaData.getColumnTypeName(i));
+            }
+            catch (UnsupportedOperationException e) {
+                LOGGER.warn(e.getMessage());
+                columns.add(null);
+                continue;
+            }
+
+            columns.add(new SchemaField(metaData.getColumnName(i), type));
+        }
 
-                columns.add(new SchemaField(metaData.getColumnName(i), type));
+        List<SchemaField> metadata = new ArrayList<>(columns);
+        for (int i = 0; i < metadata.size(); i++) {
+            if (metadata.get(i) == null) {
+                metadata.set(i, new SchemaField(metaData.getColumnName(i + 1), FieldType.STRING));
             }
+        }
+        result.setMetadata(metadata);
 
-            ImmutableList.Builder<List<Object>> builder = ImmutableList.builder();
-            while (resultSet.next()) {
-                List<Object> rowBuilder = Arrays.asList(new Object[columnCount]);
-                for (int i = 0; i < columnCount; i++) {
-                    Object object;
-                    SchemaField schemaField = columns.get(i);
-                    if (schemaField == null) {
-                        continue;
-                    }
-                    FieldType type = schemaField.getType();
-                    switch (type) {
-                        case STRING:
-                            object = resultSet.getString(i + 1);
-                            break;
-                        case LONG:
-                            object = resultSet.getLong(i + 1);
-                            break;
-                        case INTEGER:
-                            object = resultSet.getInt(i + 1);
-                            break;
-                        case DECIMAL:
-                            BigDecimal bigDecimal = resultSet.getBigDecimal(i + 1);
-                            object = bigDecimal != null ? bigDecimal.doubleValue() : null;
-                            break;
-                        case DOUBLE:
-                            object = resultSet.getDouble(i + 1);
-                            break;
-                        case BOOLEAN:
-                            object = resultSet.getBoolean(i + 1);
-                            break;
-                        case TIMESTAMP:
-                            Timestamp timestamp = resultSet.getTimestamp(i + 1, UTC_CALENDAR);
-                            object = timestamp != null ? timestamp.toInstant() : null;
-                            break;
-                        case DATE:
-                            Date date = resultSet.getDate(i + 1, UTC_CALENDAR);
-                            object = date != null ? date.toLocalDate() : null;
-                            break;
-                        case TIME:
-                            Time time = resultSet.getTime(i + 1, UTC_CALENDAR);
-                            object = time != null ? time.toLocalTime() : null;
-                            break;
-                        case BINARY:
-                            InputStream binaryStream = resultSet.getBinaryStream(i + 1);
-                            if (binaryStream != null) {
-                                try {
-                                    object = ByteStreams.toByteArray(binaryStream);
-                                }
-                                catch (IOException e) {
-                                    LOGGER.error("Error while de-serializing BINARY type", e);
-                                    object = null;
-                                }
+        List<List<Object>> page = new ArrayList<>();
+        while (resultSet.next()) {
+            List<Object> rowBuilder = Arrays.asList(new Object[columnCount]);
+            for (int i = 0; i < columnCount; i++) {
+                Object object;
+                SchemaField schemaField = columns.get(i);
+                if (schemaField == null) {
+                    continue;
+                }
+                FieldType type = schemaField.getType();
+                switch (type) {
+                    case STRING:
+                        object = resultSet.getString(i + 1);
+                        break;
+                    case LONG:
+                        object = resultSet.getLong(i + 1);
+                        break;
+                    case INTEGER:
+                        object = resultSet.getInt(i + 1);
+                        break;
+                    case DECIMAL:
+                        BigDecimal bigDecimal = resultSet.getBigDecimal(i + 1);
+                        object = bigDecimal != null ? bigDecimal.doubleValue() : null;
+                        break;
+                    case DOUBLE:
+                        object = resultSet.getDouble(i + 1);
+                        break;
+                    case BOOLEAN:
+                        object = resultSet.getBoolean(i + 1);
+                        break;
+                    case TIMESTAMP:
+                        Timestamp timestamp = resultSet.getTimestamp(i + 1, UTC_CALENDAR);
+                        object = timestamp != null ? timestamp.toInstant() : null;
+                        break;
+                    case DATE:
+                        Date date = resultSet.getDate(i + 1, UTC_CALENDAR);
+                        object = date != null ? date.toLocalDate() : null;
+                        break;
+                    case TIME:
+                        Time time = resultSet.getTime(i + 1, UTC_CALENDAR);
+                        object = time != null ? time.toLocalTime() : null;
+                        break;
+                    case BINARY:
+                        InputStream binaryStream = resultSet.getBinaryStream(i + 1);
+                        if (binaryStream != null) {
+                            try {
+                                object = ByteStreams.toByteArray(binaryStream);
                             }
-                            else {
+                            catch (IOException e) {
+                                LOGGER.error("Error while de-serializing BINARY type", e);
                                 object = null;
                             }
-                            break;
-                        default:
-                            if (type.isArray()) {
-                                Array array = resultSet.getArray(i + 1);
-                                object = array == null ? null : array.getArray();
+                        }
+                        else {
+                            object = null;
+                        }
+                        break;
+                    default:
+                        if (type.isArray()) {
+                            Array array = resultSet.getArray(i + 1);
+                            object = array == null ? null : array.getArray();
+                        }
+                        else if (type.isMap()) {
+                            PGobject pgObject = (PGobject) resultSet.getObject(i + 1);
+                            if (pgObject == null) {
+                                object = null;
                             }
-                            else if (type.isMap()) {
-                                PGobject pgObject = (PGobject) resultSet.getObject(i + 1);
-                                if (pgObject == null) {
-                                    object = null;
+                            else {
+                                if (pgObject.getType().equals("jsonb")) {
+                                    object = JsonHelper.read(pgObject.getValue());
                                 }
                                 else {
-                                    if (pgObject.getType().equals("jsonb")) {
-                                        object = JsonHelper.read(pgObject.getValue());
-                                    }
-                                    else {
-                                        throw new UnsupportedOperationException("Postgresql type is not supported");
-                                    }
+                                    throw new UnsupportedOperationException("Postgresql type is not supported");
                                 }
                             }
-                            else {
-                                throw new IllegalStateException();
-                            }
-                    }
-
-                    if (resultSet.wasNull()) {
-                        object = null;
-                    }
+                        }
+                        else {
+                            throw new IllegalStateException();
+                        }
+                }
 
-                    rowBuilder.set(i, object);
+                if (resultSet.wasNull()) {
+                    object = null;
                 }
-                builder.add(rowBuilder);
-            }
-            data = builder.build();
 
-            for (int i = 0; i < columns.size(); i++) {
-                if (columns.get(i) == null) {
-                    columns.set(i, new SchemaField(metaData.getColumnName(i + 1), FieldType.STRING));
+                rowBuilder.set(i, object);
+            }
+            page.add(rowBuilder);
+            if (page.size() >= PAGE_SIZE) {
+                if (!result.addPage(page)) {
+                    result.fail(QueryError.create("Query aborted by user"));
+                    return false;
                 }
+                page = new ArrayList<>();
             }
-            return new QueryResult(columns, data, ImmutableMap.of(EXECUTION_TIME, executionTimeInMillis, QUERY, query));
-        }
-        catch (SQLException e) {
-            QueryError error = new QueryError(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, null);
-            return QueryResult.errorResult(error);
         }
+        result.addPage(page);
+
+        result.complete(ImmutableMap.of(EXECUTION_TIME, System.currentTimeMillis() - startTime, QUERY, query));
+        return true;
     }
 }
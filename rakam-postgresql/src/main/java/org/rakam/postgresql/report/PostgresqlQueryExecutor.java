@@ -1,7 +1,6 @@
 package org.rakam.postgresql.report;
 
 import com.facebook.presto.sql.RakamSqlFormatter;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.facebook.presto.sql.tree.Query;
 import com.facebook.presto.sql.tree.Statement;
@@ -14,12 +13,14 @@ import org.rakam.analysis.datasource.CustomDataSourceService;
 import org.rakam.analysis.datasource.JDBCSchemaConfig;
 import org.rakam.analysis.datasource.SupportedCustomDatabase;
 import org.rakam.analysis.metadata.Metastore;
+import org.rakam.postgresql.analysis.PostgresqlConfig;
 import org.rakam.collection.SchemaField;
 import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryExecutor;
 import org.rakam.report.QuerySampling;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -55,16 +56,29 @@ public class PostgresqlQueryExecutor
     private final Metastore metastore;
     private final boolean userServiceIsPostgresql;
     private final CustomDataSourceService customDataSource;
-    private SqlParser sqlParser = new SqlParser();
+    private final int fetchSize;
+    private final int maxRows;
+
+    public PostgresqlQueryExecutor(
+            JDBCPoolDataSource connectionPool,
+            Metastore metastore,
+            CustomDataSourceService customDataSource,
+            boolean userServiceIsPostgresql)
+    {
+        this(connectionPool, metastore, customDataSource, userServiceIsPostgresql, new PostgresqlConfig());
+    }
 
     @Inject
     public PostgresqlQueryExecutor(
             @Named("store.adapter.postgresql") JDBCPoolDataSource connectionPool,
             Metastore metastore,
             @Nullable CustomDataSourceService customDataSource,
-            @Named("user.storage.postgresql") boolean userServiceIsPostgresql)
+            @Named("user.storage.postgresql") boolean userServiceIsPostgresql,
+            PostgresqlConfig config)
     {
         this.connectionPool = connectionPool;
+        this.fetchSize = config.getQueryFetchSize();
+        this.maxRows = config.getQueryMaxRows();
         this.customDataSource = customDataSource;
         this.metastore = metastore;
         this.userServiceIsPostgresql = userServiceIsPostgresql;
@@ -84,7 +98,7 @@ public class PostgresqlQueryExecutor
     @Override
     public QueryExecution executeRawQuery(String query)
     {
-        return new PostgresqlQueryExecution(connectionPool::getConnection, query, false);
+        return new PostgresqlQueryExecution(connectionPool::getConnection, query, false, fetchSize, maxRows);
     }
 
     @Override
@@ -94,7 +108,7 @@ public class PostgresqlQueryExecutor
         if(remotedb != null) {
             return getSingleQueryExecution(query, JsonHelper.read(remotedb, CustomDataSource.class));
         }
-        return new PostgresqlQueryExecution(connectionPool::getConnection, query, false);
+        return new PostgresqlQueryExecution(connectionPool::getConnection, query, false, fetchSize, maxRows);
     }
 
     @Override
@@ -218,7 +232,7 @@ public class PostgresqlQueryExecutor
         }
 
         StringBuilder builder = new StringBuilder();
-        Statement statement = sqlParser.createStatement(query);
+        Statement statement = SqlParserUtil.createStatement(query);
         ((Query) statement).getLimit();
 
         new RakamSqlFormatter.Formatter(builder, qualifiedName -> schema.map(e -> e + "." + qualifiedName.getSuffix())
@@ -226,6 +240,6 @@ public class PostgresqlQueryExecutor
 
         }.process(statement, 1);
 
-        return new PostgresqlQueryExecution(() -> source.getDataSource().openConnection(type.options), builder.toString(), false);
+        return new PostgresqlQueryExecution(() -> source.getDataSource().openConnection(type.options), builder.toString(), false, fetchSize, maxRows);
     }
 }
@@ -0,0 +1,311 @@
+package org.rakam.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.postgresql.analysis.PostgresqlBinaryCopyWriter;
+import org.rakam.util.JsonHelper;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestPostgresqlBinaryCopyWriter
+{
+    private static final byte[] SIGNATURE = new byte[] {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    @Test
+    public void testHeaderAndTrailer()
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(output, ImmutableList.of());
+        writer.finish();
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        byte[] signature = new byte[SIGNATURE.length];
+        input.readFully(signature);
+        assertEquals(signature, SIGNATURE);
+        // flags and the header extension length
+        assertEquals(input.readInt(), 0);
+        assertEquals(input.readInt(), 0);
+        assertEquals(input.readShort(), -1);
+        assertEquals(input.read(), -1);
+    }
+
+    @Test
+    public void testScalarTypes()
+            throws IOException
+    {
+        assertEquals(roundTrip(FieldType.STRING, "test şğü", in -> new String(in, UTF_8)), "test şğü");
+        assertEquals(roundTrip(FieldType.STRING, "", in -> new String(in, UTF_8)), "");
+        assertEquals((long) roundTrip(FieldType.LONG, Long.MIN_VALUE, in -> read(in).readLong()), Long.MIN_VALUE);
+        assertEquals((int) roundTrip(FieldType.INTEGER, -42, in -> read(in).readInt()), -42);
+        assertEquals(roundTrip(FieldType.DOUBLE, 3.14, in -> read(in).readDouble()), 3.14);
+        assertEquals((boolean) roundTrip(FieldType.BOOLEAN, true, in -> read(in).readBoolean()), true);
+        assertEquals((boolean) roundTrip(FieldType.BOOLEAN, false, in -> read(in).readBoolean()), false);
+        assertEquals(roundTrip(FieldType.BINARY, new byte[] {0, 1, -1}, in -> in), new byte[] {0, 1, -1});
+    }
+
+    @Test
+    public void testTimestamp()
+            throws IOException
+    {
+        // the values are microseconds since 2000-01-01
+        long postgresqlEpoch = LocalDateTime.of(2000, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+        assertEquals((long) roundTrip(FieldType.TIMESTAMP, postgresqlEpoch, in -> read(in).readLong()), 0L);
+
+        long millis = LocalDateTime.of(2017, 3, 4, 5, 6, 7, 8_000_000).toInstant(ZoneOffset.UTC).toEpochMilli();
+        assertEquals((long) roundTrip(FieldType.TIMESTAMP, millis, in -> read(in).readLong()), (millis - postgresqlEpoch) * 1000);
+
+        // the dates before 1970 are not supported by the event store
+        assertNull(roundTrip(FieldType.TIMESTAMP, -1L, in -> in));
+    }
+
+    @Test
+    public void testDateAndTime()
+            throws IOException
+    {
+        // the values are days since 2000-01-01
+        int days = (int) LocalDate.of(2017, 3, 4).toEpochDay();
+        assertEquals((int) roundTrip(FieldType.DATE, days, in -> read(in).readInt()),
+                (int) (days - LocalDate.of(2000, 1, 1).toEpochDay()));
+        assertEquals((int) roundTrip(FieldType.DATE, 0, in -> read(in).readInt()),
+                (int) -LocalDate.of(2000, 1, 1).toEpochDay());
+
+        // the event time is the seconds of the day, PostgreSQL stores the microseconds
+        assertEquals((long) roundTrip(FieldType.TIME, 3661, in -> read(in).readLong()), 3661_000_000L);
+    }
+
+    @Test
+    public void testDecimal()
+            throws IOException
+    {
+        for (double value : new double[] {0, 1, -1, 12.5, -0.0625, 10000, 123456789, 0.000125, 1e20}) {
+            BigDecimal decoded = roundTrip(FieldType.DECIMAL, value, TestPostgresqlBinaryCopyWriter::readNumeric);
+            assertEquals(decoded.compareTo(new BigDecimal(value)), 0, "value " + value + " is decoded as " + decoded);
+        }
+    }
+
+    @Test
+    public void testMap()
+            throws IOException
+    {
+        Map<String, Object> value = ImmutableMap.of("a", "b", "c", 1);
+        byte[] jsonb = roundTrip(FieldType.MAP_STRING, value, in -> in);
+
+        assertEquals(jsonb[0], 1);
+        assertEquals(JsonHelper.read(Arrays.copyOfRange(jsonb, 1, jsonb.length), Map.class), value);
+    }
+
+    @Test
+    public void testArrays()
+            throws IOException
+    {
+        assertEquals(roundTrip(FieldType.ARRAY_STRING, Arrays.asList("a", null, "ç"),
+                in -> readArray(in, 25, true, value -> new String(value, UTF_8))),
+                Arrays.asList("a", null, "ç"));
+        assertEquals(roundTrip(FieldType.ARRAY_LONG, ImmutableList.of(1L, -2L),
+                in -> readArray(in, 20, false, value -> read(value).readLong())),
+                ImmutableList.of(1L, -2L));
+        assertEquals(roundTrip(FieldType.ARRAY_INTEGER, ImmutableList.of(7),
+                in -> readArray(in, 23, false, value -> read(value).readInt())),
+                ImmutableList.of(7));
+        assertEquals(roundTrip(FieldType.ARRAY_DOUBLE, ImmutableList.of(1.5),
+                in -> readArray(in, 701, false, value -> read(value).readDouble())),
+                ImmutableList.of(1.5));
+        assertEquals(roundTrip(FieldType.ARRAY_BOOLEAN, ImmutableList.of(true, false),
+                in -> readArray(in, 16, false, value -> read(value).readBoolean())),
+                ImmutableList.of(true, false));
+        assertEquals(roundTrip(FieldType.ARRAY_DATE, ImmutableList.of(10958),
+                in -> readArray(in, 1082, false, value -> read(value).readInt())),
+                ImmutableList.of(1));
+        assertEquals(roundTrip(FieldType.ARRAY_TIMESTAMP, ImmutableList.of(946684801000L),
+                in -> readArray(in, 1114, false, value -> read(value).readLong())),
+                ImmutableList.of(1_000_000L));
+
+        List<BigDecimal> decimals = roundTrip(FieldType.ARRAY_DECIMAL, Arrays.asList(2.5, null, -100.0),
+                in -> readArray(in, 1700, true, TestPostgresqlBinaryCopyWriter::readNumeric));
+        assertEquals(decimals.get(0).compareTo(new BigDecimal("2.5")), 0);
+        assertNull(decimals.get(1));
+        assertEquals(decimals.get(2).compareTo(new BigDecimal("-100")), 0);
+
+        // the empty arrays have no dimension
+        DataInputStream empty = read(roundTrip(FieldType.ARRAY_STRING, ImmutableList.of(), in -> in));
+        assertEquals(empty.readInt(), 0);
+        assertEquals(empty.readInt(), 0);
+        assertEquals(empty.readInt(), 25);
+        assertEquals(empty.read(), -1);
+    }
+
+    @Test
+    public void testRows()
+            throws IOException
+    {
+        List<SchemaField> fields = ImmutableList.of(
+                new SchemaField("id", FieldType.LONG),
+                new SchemaField("name", FieldType.STRING),
+                new SchemaField("tags", FieldType.ARRAY_STRING));
+        GenericData.Record first = record(fields);
+        first.put("id", 1L);
+        first.put("name", "first");
+        first.put("tags", ImmutableList.of("a"));
+        // the missing values are encoded as null
+        GenericData.Record second = record(fields);
+        second.put("id", 2L);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(output, fields);
+        writer.write(first);
+        writer.write(second);
+        writer.finish();
+
+        DataInputStream input = skipHeader(output.toByteArray());
+        List<byte[]> row = readRow(input);
+        assertEquals(row.size(), 3);
+        assertEquals(read(row.get(0)).readLong(), 1L);
+        assertEquals(new String(row.get(1), UTF_8), "first");
+        assertEquals(readArray(row.get(2), 25, false, value -> new String(value, UTF_8)), ImmutableList.of("a"));
+
+        row = readRow(input);
+        assertEquals(read(row.get(0)).readLong(), 2L);
+        assertNull(row.get(1));
+        assertNull(row.get(2));
+
+        assertEquals(input.readShort(), -1);
+        assertEquals(input.read(), -1);
+    }
+
+    private static <T> T roundTrip(FieldType type, Object value, Decoder<T> decoder)
+            throws IOException
+    {
+        List<SchemaField> fields = ImmutableList.of(new SchemaField("value", type));
+        GenericData.Record record = record(fields);
+        record.put("value", value);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(output, fields);
+        writer.write(record);
+        writer.finish();
+
+        DataInputStream input = skipHeader(output.toByteArray());
+        List<byte[]> row = readRow(input);
+        assertEquals(input.readShort(), -1);
+        assertEquals(input.read(), -1);
+
+        byte[] column = row.get(0);
+        return column == null ? null : decoder.decode(column);
+    }
+
+    private static GenericData.Record record(List<SchemaField> fields)
+    {
+        // the writer doesn't use the Avro types
+        List<Schema.Field> avroFields = new ArrayList<>();
+        for (SchemaField field : fields) {
+            avroFields.add(new Schema.Field(field.getName(), Schema.create(Schema.Type.NULL), null, null));
+        }
+        Schema schema = Schema.createRecord("collection", null, null, false);
+        schema.setFields(avroFields);
+        return new GenericData.Record(schema);
+    }
+
+    private static DataInputStream skipHeader(byte[] bytes)
+            throws IOException
+    {
+        DataInputStream input = read(bytes);
+        input.skipBytes(SIGNATURE.length + 8);
+        return input;
+    }
+
+    private static List<byte[]> readRow(DataInputStream input)
+            throws IOException
+    {
+        int columns = input.readShort();
+        List<byte[]> row = new ArrayList<>(columns);
+        for (int i = 0; i < columns; i++) {
+            row.add(readValue(input));
+        }
+        return row;
+    }
+
+    private static byte[] readValue(DataInputStream input)
+            throws IOException
+    {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        input.readFully(value);
+        return value;
+    }
+
+    private static <T> List<T> readArray(byte[] bytes, int elementOid, boolean hasNull, Decoder<T> decoder)
+            throws IOException
+    {
+        DataInputStream input = read(bytes);
+        assertEquals(input.readInt(), 1);
+        assertEquals(input.readInt(), hasNull ? 1 : 0);
+        assertEquals(input.readInt(), elementOid);
+        int size = input.readInt();
+        // lower bound
+        assertEquals(input.readInt(), 1);
+
+        List<T> values = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            byte[] value = readValue(input);
+            values.add(value == null ? null : decoder.decode(value));
+        }
+        assertEquals(input.read(), -1);
+        return values;
+    }
+
+    private static BigDecimal readNumeric(byte[] bytes)
+            throws IOException
+    {
+        DataInputStream input = read(bytes);
+        int digits = input.readShort();
+        int weight = input.readShort();
+        int sign = input.readShort();
+        int scale = input.readShort();
+
+        BigDecimal value = BigDecimal.ZERO;
+        for (int i = 0; i < digits; i++) {
+            int digit = input.readShort();
+            value = value.add(new BigDecimal(BigInteger.valueOf(digit), -(weight - i) * 4));
+        }
+        assertEquals(input.read(), -1);
+        assertTrue(value.stripTrailingZeros().scale() <= Math.max(scale, 0));
+        return sign == 0x4000 ? value.negate() : value;
+    }
+
+    private static DataInputStream read(byte[] bytes)
+    {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private interface Decoder<T>
+    {
+        T decode(byte[] bytes)
+                throws IOException;
+    }
+}
@@ -0,0 +1,218 @@
+package org.rakam.analysis;
+
+import com.google.common.collect.ImmutableList;
+import org.rakam.postgresql.report.PostgresqlQueryExecution;
+import org.rakam.report.QueryResult;
+import org.rakam.report.QueryResultCursor;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestPostgresqlQueryExecution
+{
+    @Test
+    public void testCursorInTransaction()
+            throws Exception
+    {
+        FakeConnection connection = new FakeConnection(10);
+        PostgresqlQueryExecution execution = new PostgresqlQueryExecution(connection::open, "select 1", false, 100, 0);
+
+        QueryResult result = execution.getResult().get(10, TimeUnit.SECONDS);
+        assertFalse(result.isFailed());
+        assertEquals(result.getResult().size(), 10);
+        // the rows are fetched with a cursor that only lives in a transaction
+        assertEquals(connection.calls, ImmutableList.of(
+                "setAutoCommit false",
+                "setFetchSize 100",
+                "executeQuery select 1",
+                "commit",
+                "setAutoCommit true",
+                "close"));
+    }
+
+    @Test
+    public void testMaxRows()
+            throws Exception
+    {
+        FakeConnection connection = new FakeConnection(10);
+        QueryResult result = new PostgresqlQueryExecution(connection::open, "select 1", false, 100, 5)
+                .getResult().get(10, TimeUnit.SECONDS);
+
+        assertTrue(connection.calls.contains("setMaxRows 5"));
+        assertEquals(result.getResult().size(), 5);
+        assertEquals(result.getResult().get(4), ImmutableList.of(4L));
+    }
+
+    @Test
+    public void testRollbackOnError()
+            throws Exception
+    {
+        FakeConnection connection = new FakeConnection(10);
+        connection.error = new SQLException("syntax error", "42601");
+        QueryResult result = new PostgresqlQueryExecution(connection::open, "select", false, 100, 0)
+                .getResult().get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isFailed());
+        assertEquals(result.getError().message, "syntax error");
+        assertEquals(result.getError().sqlState, "42601");
+        assertFalse(connection.calls.contains("commit"));
+        assertEquals(connection.calls.subList(connection.calls.size() - 3, connection.calls.size()),
+                ImmutableList.of("rollback", "setAutoCommit true", "close"));
+    }
+
+    @Test
+    public void testRollbackOnKill()
+            throws Exception
+    {
+        FakeConnection connection = new FakeConnection(100_000);
+        connection.started = new CountDownLatch(1);
+        PostgresqlQueryExecution execution = new PostgresqlQueryExecution(connection::open, "select 1", false, 100, 0);
+
+        QueryResultCursor cursor = execution.getResultCursor();
+        connection.started.countDown();
+        assertEquals(cursor.nextPage().get(10, TimeUnit.SECONDS).size(), 1000);
+        cursor.close();
+
+        QueryResult result = execution.getResult().get(10, TimeUnit.SECONDS);
+        assertTrue(result.isFailed());
+        assertTrue(connection.closed.await(10, TimeUnit.SECONDS));
+        assertTrue(connection.calls.contains("cancel"));
+        assertFalse(connection.calls.contains("commit"));
+        assertEquals(connection.calls.subList(connection.calls.size() - 3, connection.calls.size()),
+                ImmutableList.of("rollback", "setAutoCommit true", "close"));
+        assertTrue(connection.fetched < connection.rows);
+    }
+
+    /**
+     * Returns {@code rows} rows with a single BIGINT column and records the calls to the connection.
+     */
+    private static class FakeConnection
+    {
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final int rows;
+        private volatile SQLException error;
+        private volatile CountDownLatch started = new CountDownLatch(0);
+        private volatile boolean cancelled;
+        private volatile int fetched;
+        private boolean autoCommit = true;
+        private int maxRows;
+
+        private FakeConnection(int rows)
+        {
+            this.rows = rows;
+        }
+
+        public Connection open()
+        {
+            return proxy(Connection.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "createStatement":
+                        return statement();
+                    case "getAutoCommit":
+                        return autoCommit;
+                    case "setAutoCommit":
+                        autoCommit = (boolean) args[0];
+                        calls.add("setAutoCommit " + autoCommit);
+                        return null;
+                    case "close":
+                        calls.add("close");
+                        closed.countDown();
+                        return null;
+                    default:
+                        calls.add(method.getName());
+                        return null;
+                }
+            });
+        }
+
+        private Statement statement()
+        {
+            return proxy(Statement.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setFetchSize":
+                    case "setMaxRows":
+                        if (method.getName().equals("setMaxRows")) {
+                            maxRows = (int) args[0];
+                        }
+                        calls.add(method.getName() + " " + args[0]);
+                        return null;
+                    case "executeQuery":
+                        calls.add("executeQuery " + args[0]);
+                        if (error != null) {
+                            throw error;
+                        }
+                        return resultSet();
+                    case "cancel":
+                        calls.add("cancel");
+                        cancelled = true;
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private ResultSet resultSet()
+        {
+            ResultSetMetaData metadata = proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getColumnCount":
+                        return 1;
+                    case "getColumnType":
+                        return Types.BIGINT;
+                    case "getColumnTypeName":
+                        return "int8";
+                    case "getColumnName":
+                        return "id";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+            return proxy(ResultSet.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getMetaData":
+                        return metadata;
+                    case "next":
+                        started.await();
+                        if (cancelled) {
+                            throw new SQLException("canceling statement due to user request", "57014");
+                        }
+                        // the driver stops at the max rows
+                        if (fetched >= rows || (maxRows > 0 && fetched >= maxRows)) {
+                            return false;
+                        }
+                        fetched++;
+                        return true;
+                    case "getLong":
+                        return (long) fetched - 1;
+                    case "wasNull":
+                        return false;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler)
+    {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class[] {clazz}, handler));
+    }
+}
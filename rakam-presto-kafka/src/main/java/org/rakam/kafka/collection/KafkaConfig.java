@@ -1,13 +1,18 @@
 package org.rakam.kafka.collection;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.net.HostAndPort;
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.collect.Iterables.transform;
@@ -22,6 +27,10 @@ public class KafkaConfig
     private DataSize kafkaBufferSize = new DataSize(64, DataSize.Unit.KILOBYTE);
     private Duration commitInterval = Duration.valueOf("5s");
     private HostAndPort zookeeperNode;
+    private String producerCompression = "none";
+    private Duration producerLinger = Duration.valueOf("5ms");
+    private DataSize producerBatchSize = new DataSize(64, DataSize.Unit.KILOBYTE);
+    private Map<String, ProducerSettings> projectProducerSettings = ImmutableMap.of();
 
 //    @Size(min = 1)
     public Set<HostAndPort> getNodes()
@@ -87,6 +96,65 @@ public class KafkaConfig
         return zookeeperNode;
     }
 
+    public String getProducerCompression()
+    {
+        return producerCompression;
+    }
+
+    @Config("producer.compression")
+    @ConfigDescription("Compression codec of the producer batches: none, gzip, snappy or lz4")
+    public KafkaConfig setProducerCompression(String producerCompression)
+    {
+        this.producerCompression = producerCompression;
+        return this;
+    }
+
+    public Duration getProducerLinger()
+    {
+        return producerLinger;
+    }
+
+    @Config("producer.linger")
+    @ConfigDescription("Maximum time the producer waits for more events before sending a partition batch")
+    public KafkaConfig setProducerLinger(String producerLinger)
+    {
+        this.producerLinger = Duration.valueOf(producerLinger);
+        return this;
+    }
+
+    public DataSize getProducerBatchSize()
+    {
+        return producerBatchSize;
+    }
+
+    @Config("producer.batch-size")
+    public KafkaConfig setProducerBatchSize(String producerBatchSize)
+    {
+        this.producerBatchSize = DataSize.valueOf(producerBatchSize);
+        return this;
+    }
+
+    public Map<String, ProducerSettings> getProjectProducerSettings()
+    {
+        return projectProducerSettings;
+    }
+
+    @Config("producer.project-settings")
+    @ConfigDescription("Compression and linger settings of the projects in project=compression/linger format, separated by comma")
+    public KafkaConfig setProjectProducerSettings(String projectProducerSettings)
+    {
+        this.projectProducerSettings = ImmutableMap.copyOf(Maps.transformValues(
+                Splitter.on(',').omitEmptyStrings().trimResults().withKeyValueSeparator('=').split(projectProducerSettings),
+                ProducerSettings::parse));
+        return this;
+    }
+
+    public ProducerSettings getProducerSettings(String project)
+    {
+        ProducerSettings settings = projectProducerSettings.get(project);
+        return settings != null ? settings : new ProducerSettings(producerCompression, producerLinger);
+    }
+
     public static ImmutableSet<HostAndPort> parseNodes(String nodes)
     {
         Splitter splitter = Splitter.on(',').omitEmptyStrings().trimResults();
@@ -97,5 +165,44 @@ public class KafkaConfig
     {
         return HostAndPort.fromString(value).withDefaultPort(KAFKA_DEFAULT_PORT);
     }
-}
 
+    public static class ProducerSettings
+    {
+        public final String compression;
+        public final Duration linger;
+
+        public ProducerSettings(String compression, Duration linger)
+        {
+            this.compression = compression;
+            this.linger = linger;
+        }
+
+        public static ProducerSettings parse(String value)
+        {
+            List<String> parts = Splitter.on('/').trimResults().splitToList(value);
+            if (parts.size() != 2) {
+                throw new IllegalArgumentException(String.format("Producer settings must be in compression/linger format: %s", value));
+            }
+            return new ProducerSettings(parts.get(0), Duration.valueOf(parts.get(1)));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ProducerSettings)) {
+                return false;
+            }
+            ProducerSettings that = (ProducerSettings) o;
+            return compression.equals(that.compression) && linger.equals(that.linger);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * compression.hashCode() + linger.hashCode();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.rakam.kafka.collection;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.SourceFilteredRecordWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.rakam.collection.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Serializes the event properties to Avro binary without the fields that are populated by the event mappers.
+ * The datum writers are shared for each schema, the output buffer and the encoder are reused by each thread.
+ */
+public class KafkaEventEncoder
+{
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final LoadingCache<Schema, GenericDatumWriter> writers;
+    private final ThreadLocal<ThreadState> states;
+
+    public KafkaEventEncoder(Set<String> sourceFields)
+    {
+        // the schemas that are replaced after the collection is altered are not referenced by the events anymore
+        this.writers = CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(schema ->
+                new SourceFilteredRecordWriter(schema, GenericData.get(), sourceFields)));
+        this.states = ThreadLocal.withInitial(ThreadState::new);
+    }
+
+    public byte[] encode(Event event)
+            throws IOException
+    {
+        GenericDatumWriter writer = writers.getUnchecked(event.properties().getSchema());
+
+        ThreadState state = states.get();
+        state.buffer.reset();
+        state.encoder = EncoderFactory.get().binaryEncoder(state.buffer, state.encoder);
+        writer.write(event.properties(), state.encoder);
+        state.encoder.flush();
+        return state.buffer.toByteArray();
+    }
+
+    private static class ThreadState
+    {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        private BinaryEncoder encoder;
+    }
+}
@@ -6,73 +6,77 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import io.airlift.log.Logger;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.Unpooled;
-import kafka.common.FailedToSendMessageException;
-import kafka.javaapi.producer.Producer;
-import kafka.producer.KeyedMessage;
-import kafka.producer.ProducerConfig;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.SourceFilteredRecordWriter;
-import org.apache.avro.io.BinaryEncoder;
-import org.apache.avro.io.EncoderFactory;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.recipes.leader.LeaderSelector;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListener;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.rakam.collection.Event;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.SchemaField;
+import org.rakam.kafka.collection.KafkaConfig.ProducerSettings;
 import org.rakam.plugin.EventStore;
-import org.rakam.plugin.SyncEventStore;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.String.format;
 
+/**
+ * Sends the events to the topics of their collections with the asynchronous Kafka producer. The producer groups
+ * the records by partition and sends a partition batch when it's full or when the linger time of the project passes,
+ * the futures of the events are completed when the broker acknowledges their batches.
+ */
 @Singleton
-public class KafkaEventStore implements SyncEventStore, LeaderSelectorListener {
+public class KafkaEventStore
+        implements EventStore, LeaderSelectorListener
+{
     private final static Logger LOGGER = Logger.get(KafkaEventStore.class);
     private final static String ZK_OFFSET_PATH = "/collectionOffsets";
 
-    private final Producer<byte[], byte[]> producer;
-    private final Set<String> sourceFields;
+    private final KafkaConfig config;
+    private final KafkaEventEncoder encoder;
+    private final ConcurrentHashMap<ProducerSettings, KafkaProducer<byte[], byte[]>> producers;
     private ScheduledExecutorService executorService;
 
     @Inject
-    public KafkaEventStore(@Named("event.store.kafka") KafkaConfig config, FieldDependencyBuilder.FieldDependency fieldDependency) {
-        config = checkNotNull(config, "config is null");
-        this.sourceFields = Sets.union(fieldDependency.dependentFields.keySet(),
+    public KafkaEventStore(@Named("event.store.kafka") KafkaConfig config, FieldDependencyBuilder.FieldDependency fieldDependency)
+    {
+        this.config = checkNotNull(config, "config is null");
+        this.encoder = new KafkaEventEncoder(Sets.union(fieldDependency.dependentFields.keySet(),
                 fieldDependency.constantFields.stream().map(SchemaField::getName)
-                        .collect(Collectors.toSet()));
-
-        Properties props = new Properties();
-        props.put("metadata.broker.list", config.getNodes().stream().map(HostAndPort::toString).collect(Collectors.joining(",")));
-        props.put("serializer.class", config.SERIALIZER);
-
-        ProducerConfig producerConfig = new ProducerConfig(props);
-        this.producer = new Producer(producerConfig);
+                        .collect(Collectors.toSet())));
+        this.producers = new ConcurrentHashMap<>();
 
         CuratorFramework client = CuratorFrameworkFactory.newClient(config.getZookeeperNode().toString(),
                 new ExponentialBackoffRetry(1000, 3));
         client.start();
 
         try {
-            if(client.checkExists().forPath(ZK_OFFSET_PATH) == null)
+            if (client.checkExists().forPath(ZK_OFFSET_PATH) == null) {
                 client.create().forPath(ZK_OFFSET_PATH);
-        } catch (Exception e) {
+            }
+        }
+        catch (Exception e) {
             LOGGER.error(e, format("Couldn't create event offset path %s", ZK_OFFSET_PATH));
         }
 
@@ -80,36 +84,84 @@ public class KafkaEventStore implements SyncEventStore, LeaderSelectorListener {
     }
 
     @Override
-    public void store(Event event) {
-        GenericDatumWriter writer = new SourceFilteredRecordWriter(event.properties().getSchema(), GenericData.get(), sourceFields);
-        ByteBuf buffer = Unpooled.buffer(100);
+    public CompletableFuture<Void> storeAsync(Event event)
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            send(event, (metadata, exception) -> {
+                if (exception != null) {
+                    future.completeExceptionally(new RuntimeException("Couldn't send event to Kafka", exception));
+                }
+                else {
+                    future.complete(null);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
-        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(
-                new ByteBufOutputStream(buffer), null);
+    @Override
+    public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
+    {
+        if (events.isEmpty()) {
+            return COMPLETED_FUTURE_BATCH;
+        }
 
-        try {
-            writer.write(event.properties(), encoder);
-        } catch (Exception e) {
-            throw new RuntimeException("Couldn't serialize event", e);
+        BatchCompletion completion = new BatchCompletion(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            int index = i;
+            try {
+                send(events.get(i), (metadata, exception) -> completion.done(index, exception));
+            }
+            catch (RuntimeException e) {
+                completion.done(index, e);
+            }
         }
+        return completion.future;
+    }
+
+    @PreDestroy
+    public void close()
+    {
+        producers.values().forEach(KafkaProducer::close);
+    }
 
+    private void send(Event event, Callback callback)
+    {
+        byte[] value;
         try {
-            producer.send(new KeyedMessage<>(event.project()+"_"+event.collection(), buffer.array()));
-        } catch (FailedToSendMessageException e) {
-            throw new RuntimeException("Couldn't send event to Kafka", e);
+            value = encoder.encode(event);
         }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't serialize event", e);
+        }
+
+        KafkaProducer<byte[], byte[]> producer = producers.computeIfAbsent(config.getProducerSettings(event.project()),
+                this::createProducer);
+        producer.send(new ProducerRecord<>(event.project() + "_" + event.collection(), value), callback);
     }
 
-    @Override
-    public int[] storeBatch(List<Event> events) {
-        // TODO: implement this
-        events.forEach(this::store);
-        return EventStore.SUCCESSFUL_BATCH;
+    private KafkaProducer<byte[], byte[]> createProducer(ProducerSettings settings)
+    {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, config.getNodes().stream().map(HostAndPort::toString).collect(Collectors.joining(",")));
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, "1");
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, settings.compression);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(settings.linger.toMillis()));
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(config.getProducerBatchSize().toBytes()));
+        return new KafkaProducer<>(props);
     }
 
     @Override
-    public void takeLeadership(CuratorFramework curatorFramework) throws Exception {
-        if(executorService == null) {
+    public void takeLeadership(CuratorFramework curatorFramework)
+            throws Exception
+    {
+        if (executorService == null) {
             ThreadFactory build = new ThreadFactoryBuilder()
                     .setNameFormat("kafka-offset-worker").build();
             executorService = Executors.newSingleThreadScheduledExecutor(build);
@@ -118,10 +170,49 @@ public class KafkaEventStore implements SyncEventStore, LeaderSelectorListener {
     }
 
     @Override
-    public void stateChanged(CuratorFramework curatorFramework, ConnectionState connectionState) {
+    public void stateChanged(CuratorFramework curatorFramework, ConnectionState connectionState)
+    {
         if (!connectionState.isConnected() && executorService != null) {
             executorService.shutdown();
             executorService = null;
         }
     }
+
+    private static class BatchCompletion
+    {
+        private final CompletableFuture<int[]> future = new CompletableFuture<>();
+        private final AtomicInteger remaining;
+        private final boolean[] failed;
+        private volatile Exception exception;
+
+        private BatchCompletion(int size)
+        {
+            this.remaining = new AtomicInteger(size);
+            this.failed = new boolean[size];
+        }
+
+        public void done(int index, Exception e)
+        {
+            if (e != null) {
+                failed[index] = true;
+                exception = e;
+            }
+            // the decrement publishes the failed flags to the thread that completes the batch
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+
+            int[] failedIndexes = new int[failed.length];
+            int count = 0;
+            for (int i = 0; i < failed.length; i++) {
+                if (failed[i]) {
+                    failedIndexes[count++] = i;
+                }
+            }
+            if (count > 0) {
+                LOGGER.error(exception, "Couldn't send %d of %d events to Kafka", count, failed.length);
+            }
+            future.complete(count == 0 ? SUCCESSFUL_BATCH : Arrays.copyOf(failedIndexes, count));
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package org.rakam.kafka.collection;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import kafka.consumer.Consumer;
+import kafka.consumer.ConsumerIterator;
+import kafka.javaapi.consumer.ConsumerConnector;
+import kafka.server.KafkaServerStartable;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestKafkaEventStore
+{
+    private static final Schema SCHEMA = Schema.createRecord("collection", null, null, false);
+
+    static {
+        SCHEMA.setFields(ImmutableList.of(
+                new Schema.Field("id", Schema.create(Schema.Type.LONG), null, null),
+                new Schema.Field("_country_code", Schema.create(Schema.Type.STRING), null, null)));
+    }
+
+    private File directory;
+    private NIOServerCnxnFactory zookeeper;
+    private KafkaServerStartable broker;
+    private KafkaEventStore store;
+    private String zookeeperConnect;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        directory = Files.createTempDirectory("kafka").toFile();
+
+        zookeeper = new NIOServerCnxnFactory();
+        zookeeper.configure(new InetSocketAddress("localhost", freePort()), 16);
+        zookeeper.startup(new ZooKeeperServer(new File(directory, "zookeeper"), new File(directory, "zookeeper"), 500));
+        zookeeperConnect = "localhost:" + zookeeper.getLocalPort();
+
+        int brokerPort = freePort();
+        Properties properties = new Properties();
+        properties.put("broker.id", "0");
+        properties.put("host.name", "localhost");
+        properties.put("port", String.valueOf(brokerPort));
+        properties.put("log.dirs", new File(directory, "kafka").getPath());
+        properties.put("zookeeper.connect", zookeeperConnect);
+        properties.put("num.partitions", "2");
+        broker = new KafkaServerStartable(new kafka.server.KafkaConfig(properties));
+        broker.startup();
+
+        KafkaConfig config = new KafkaConfig()
+                .setNodes("localhost:" + brokerPort)
+                .setZookeeperNode(zookeeperConnect)
+                .setProducerLinger("10ms")
+                .setProjectProducerSettings("compressed=gzip/1ms");
+        // the mapper fields are not sent to Kafka
+        store = new KafkaEventStore(config, new FieldDependency(ImmutableSet.of(), ImmutableMap.of("_ip", ImmutableList.of(
+                new SchemaField("_country_code", FieldType.STRING)))));
+    }
+
+    @AfterClass
+    public void tearDown()
+            throws IOException
+    {
+        store.close();
+        broker.shutdown();
+        broker.awaitShutdown();
+        zookeeper.shutdown();
+        delete(directory);
+    }
+
+    @Test
+    public void testStoreBatch()
+            throws Exception
+    {
+        List<Event> events = new ArrayList<>();
+        for (long i = 0; i < 1000; i++) {
+            events.add(event("project", i));
+        }
+
+        assertEquals(store.storeBatchAsync(events).join(), new int[0]);
+        assertNull(store.storeAsync(event("project", 1000)).join());
+
+        List<GenericRecord> records = consume("project_test", 1001);
+        assertEquals(records.stream().mapToLong(record -> (Long) record.get("id")).sum(), 1000 * 1001 / 2);
+    }
+
+    @Test
+    public void testProjectProducerSettings()
+            throws Exception
+    {
+        assertEquals(store.storeBatchAsync(ImmutableList.of(event("compressed", 1), event("compressed", 2))).join(), new int[0]);
+        assertEquals(consume("compressed_test", 2).size(), 2);
+    }
+
+    private List<GenericRecord> consume(String topic, int count)
+    {
+        Properties properties = new Properties();
+        properties.put("zookeeper.connect", zookeeperConnect);
+        properties.put("group.id", "test");
+        properties.put("auto.offset.reset", "smallest");
+        properties.put("consumer.timeout.ms", "10000");
+        ConsumerConnector consumer = Consumer.createJavaConsumerConnector(new kafka.consumer.ConsumerConfig(properties));
+
+        Schema schema = Schema.createRecord("collection", null, null, false);
+        schema.setFields(ImmutableList.of(new Schema.Field("id", Schema.create(Schema.Type.LONG), null, null)));
+        GenericDatumReader<GenericRecord> reader = new GenericDatumReader<>(schema);
+        try {
+            ConsumerIterator<byte[], byte[]> iterator = consumer.createMessageStreams(ImmutableMap.of(topic, 1))
+                    .get(topic).get(0).iterator();
+            List<GenericRecord> records = new ArrayList<>();
+            while (records.size() < count) {
+                byte[] message = iterator.next().message();
+                records.add(reader.read(null, DecoderFactory.get().binaryDecoder(message, null)));
+            }
+            return records;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            consumer.shutdown();
+        }
+    }
+
+    private static Event event(String project, long id)
+    {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("id", id);
+        record.put("_country_code", "US");
+        return new Event(project, "test", null, null, record);
+    }
+
+    private static int freePort()
+            throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
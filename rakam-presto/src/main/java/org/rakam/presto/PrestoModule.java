@@ -41,6 +41,7 @@ import org.rakam.plugin.stream.EventStreamConfig;
 import org.rakam.plugin.user.AbstractUserService;
 import org.rakam.plugin.user.UserPluginConfig;
 import org.rakam.postgresql.analysis.JDBCApiKeyService;
+import org.rakam.postgresql.analysis.PostgresqlConfig;
 import org.rakam.postgresql.plugin.user.AbstractPostgresqlUserStorage;
 import org.rakam.presto.analysis.MysqlConfigManager;
 import org.rakam.presto.analysis.PrestoConfig;
@@ -132,6 +133,7 @@ public class PrestoModule extends RakamModule {
                     .in(Scopes.SINGLETON);
             binder.bind(AbstractUserService.class).to(PrestoUserService.class)
                     .in(Scopes.SINGLETON);
+            configBinder(binder).bindConfig(PostgresqlConfig.class);
 
             userConfig.setBinding().toInstance(buildConfigObject(JDBCConfig.class, "store.adapter.postgresql"));
         }
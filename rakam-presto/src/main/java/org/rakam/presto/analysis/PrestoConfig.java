@@ -2,6 +2,8 @@ package org.rakam.presto.analysis;
 
 import io.airlift.configuration.Config;
 
+import javax.validation.constraints.Min;
+
 import java.net.URI;
 
 public class PrestoConfig {
@@ -11,6 +13,10 @@ public class PrestoConfig {
     private String streamingConnector = "streaming";
     private String userConnector = "user";
     private String bulkConnector = "middleware";
+    private int maxRunningQueries = 60;
+    private int maxRunningQueriesPerProject = 20;
+    private int maxQueuedQueries = 1000;
+    private int maxQueuedQueriesPerProject = 100;
 
     @Config("presto.address")
     public PrestoConfig setAddress(URI address)
@@ -80,4 +86,52 @@ public class PrestoConfig {
     public String getBulkConnector() {
         return bulkConnector;
     }
+
+    @Config("presto.max-running-queries")
+    public PrestoConfig setMaxRunningQueries(int maxRunningQueries)
+    {
+        this.maxRunningQueries = maxRunningQueries;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxRunningQueries() {
+        return maxRunningQueries;
+    }
+
+    @Config("presto.max-running-queries-per-project")
+    public PrestoConfig setMaxRunningQueriesPerProject(int maxRunningQueriesPerProject)
+    {
+        this.maxRunningQueriesPerProject = maxRunningQueriesPerProject;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxRunningQueriesPerProject() {
+        return maxRunningQueriesPerProject;
+    }
+
+    @Config("presto.max-queued-queries")
+    public PrestoConfig setMaxQueuedQueries(int maxQueuedQueries)
+    {
+        this.maxQueuedQueries = maxQueuedQueries;
+        return this;
+    }
+
+    @Min(0)
+    public int getMaxQueuedQueries() {
+        return maxQueuedQueries;
+    }
+
+    @Config("presto.max-queued-queries-per-project")
+    public PrestoConfig setMaxQueuedQueriesPerProject(int maxQueuedQueriesPerProject)
+    {
+        this.maxQueuedQueriesPerProject = maxQueuedQueriesPerProject;
+        return this;
+    }
+
+    @Min(0)
+    public int getMaxQueuedQueriesPerProject() {
+        return maxQueuedQueriesPerProject;
+    }
 }
@@ -2,7 +2,6 @@ package org.rakam.presto.analysis;
 
 import com.facebook.presto.spi.type.TypeSignature;
 import com.facebook.presto.sql.RakamSqlFormatter;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.AllColumns;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
 import com.facebook.presto.sql.tree.Query;
@@ -24,6 +23,7 @@ import org.rakam.report.QueryResult;
 import org.rakam.report.realtime.RealTimeConfig;
 import org.rakam.util.AlreadyExistsException;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import javax.inject.Inject;
 
@@ -48,7 +48,6 @@ public class PrestoContinuousQueryService
     private final QueryMetadataStore database;
     private final PrestoQueryExecutor executor;
     private final PrestoConfig config;
-    private final SqlParser sqlParser = new SqlParser();
     private final RealTimeConfig realTimeConfig;
 
     @Inject
@@ -164,7 +163,7 @@ public class PrestoContinuousQueryService
     @Override
     public synchronized boolean test(String project, String query)
     {
-        Statement statement = sqlParser.createStatement(query);
+        Statement statement = SqlParserUtil.createStatement(query);
         if (!(statement instanceof Query)) {
             throw new RakamException("The query must be SELECT.", BAD_REQUEST);
         }
@@ -1,7 +1,6 @@
 package org.rakam.presto.analysis;
 
 import com.facebook.presto.sql.RakamSqlFormatter;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.AllColumns;
 import com.facebook.presto.sql.tree.DereferenceExpression;
 import com.facebook.presto.sql.tree.QualifiedName;
@@ -20,6 +19,7 @@ import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryExecutor;
 import org.rakam.report.QueryResult;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import javax.inject.Inject;
 
@@ -42,7 +42,6 @@ public class PrestoMaterializedViewService
         extends MaterializedViewService
 {
     public final static String MATERIALIZED_VIEW_PREFIX = "$materialized_";
-    public final static SqlParser sqlParser = new SqlParser();
     protected final QueryMetadataStore database;
     protected final QueryExecutor queryExecutor;
     private final PrestoMetastore metastore;
@@ -80,7 +79,7 @@ public class PrestoMaterializedViewService
     @Override
     public CompletableFuture<Void> create(String project, MaterializedView materializedView)
     {
-        Query statement = (Query) sqlParser.createStatement(materializedView.query);
+        Query statement = (Query) SqlParserUtil.createStatement(materializedView.query);
         QuerySpecification queryBody = (QuerySpecification) statement.getQueryBody();
         List<SelectItem> selectItems = queryBody.getSelect().getSelectItems();
         if (selectItems.stream().anyMatch(e -> e instanceof AllColumns)) {
@@ -137,7 +136,7 @@ public class PrestoMaterializedViewService
 
         String tableName = queryExecutor.formatTableReference(project,
                 QualifiedName.of("materialized", materializedView.tableName), Optional.empty(), ImmutableMap.of(), "collection");
-        Query statement = (Query) sqlParser.createStatement(materializedView.query);
+        Query statement = (Query) SqlParserUtil.createStatement(materializedView.query);
 
         Map<String, String> sessionProperties = new HashMap<>();
         if (!materializedView.incremental) {
@@ -152,7 +151,7 @@ public class PrestoMaterializedViewService
             StringBuilder builder = new StringBuilder();
 
             new RakamSqlFormatter.Formatter(builder, name -> queryExecutor.formatTableReference(project, name, Optional.empty(), sessionProperties, "collection"), '"').process(statement, 1);
-            QueryExecution execution = queryExecutor.executeRawStatement(format("INSERT INTO %s %s", tableName, builder.toString()), sessionProperties);
+            QueryExecution execution = queryExecutor.executeRawStatement(project, format("INSERT INTO %s %s", tableName, builder.toString()), sessionProperties);
             execution.getResult().thenAccept(result -> f.complete(!result.isFailed() ? Instant.now() : null));
             return new MaterializedViewExecution(execution, tableName);
         }
@@ -183,7 +182,7 @@ public class PrestoMaterializedViewService
                                     queryExecutor.formatTableReference(project, name, Optional.empty(), sessionProperties, "collection"), predicate);
                         }, '"');
 
-                queryExecution = queryExecutor.executeRawStatement(format("INSERT INTO %s %s", materializedTableReference, query), sessionProperties);
+                queryExecution = queryExecutor.executeRawStatement(project, format("INSERT INTO %s %s", materializedTableReference, query), sessionProperties);
                 queryExecution.getResult().thenAccept(result -> f.complete(!result.isFailed() ? now : null));
             }
             else {
@@ -86,6 +86,8 @@ import static org.rakam.collection.FieldType.DATE;
 import static org.rakam.collection.FieldType.LONG;
 import static org.rakam.collection.FieldType.TIMESTAMP;
 import static org.rakam.presto.analysis.PrestoMaterializedViewService.MATERIALIZED_VIEW_PREFIX;
+import static org.rakam.presto.analysis.PrestoQueryScheduler.Priority.BACKGROUND;
+import static org.rakam.presto.analysis.PrestoQueryScheduler.Priority.INTERACTIVE;
 import static org.rakam.util.ValidationUtil.checkCollection;
 import static org.rakam.util.ValidationUtil.checkProject;
 
@@ -98,14 +100,25 @@ public class PrestoMetastore
     private final MetadataDao dao;
     private final PrestoConfig prestoConfig;
     private final ClientSession defaultSession;
+    private final PrestoQueryScheduler scheduler;
 
-    @Inject
     public PrestoMetastore(
             @Named("presto.metastore.jdbc") JDBCPoolDataSource prestoMetastoreDataSource,
             EventBus eventBus,
             PrestoConfig prestoConfig)
+    {
+        this(prestoMetastoreDataSource, eventBus, prestoConfig, new PrestoQueryScheduler(prestoConfig));
+    }
+
+    @Inject
+    public PrestoMetastore(
+            @Named("presto.metastore.jdbc") JDBCPoolDataSource prestoMetastoreDataSource,
+            EventBus eventBus,
+            PrestoConfig prestoConfig,
+            PrestoQueryScheduler scheduler)
     {
         super(eventBus);
+        this.scheduler = scheduler;
         dbi = new DBI(prestoMetastoreDataSource);
         dbi.registerMapper(new TableColumn.Mapper(new SignatureReferenceTypeManager()));
         this.dao = onDemandDao(dbi, MetadataDao.class);
@@ -188,7 +201,8 @@ public class PrestoMetastore
 
             query = format("CREATE TABLE %s.\"%s\".%s (%s) %s ",
                     prestoConfig.getColdStorageConnector(), project, checkCollection(collection), queryEnd, properties);
-            QueryResult join = new PrestoQueryExecution(defaultSession, query).getResult().join();
+            // the events of the collection wait for the table so it's not queued behind the background queries
+            QueryResult join = new PrestoQueryExecution(defaultSession, query, scheduler, project, INTERACTIVE).getResult().join();
             if (join.isFailed()) {
                 if (join.getError().message.contains("exists") || join.getError().message.equals("Failed to perform metadata operation")) {
                     if (tryCount > 0) {
@@ -365,7 +379,7 @@ public class PrestoMetastore
         for (String collectionName : getCollectionNames(project)) {
             String query = format("DROP TABLE %s.\"%s\".\"%s\"", prestoConfig.getColdStorageConnector(), project, collectionName);
 
-            QueryResult join = new PrestoQueryExecution(defaultSession, query).getResult().join();
+            QueryResult join = new PrestoQueryExecution(defaultSession, query, scheduler, project, BACKGROUND).getResult().join();
 
             if (join.isFailed()) {
                 LOGGER.error("Error while deleting table %s.%s : %s", project, collectionName, join.getError().toString());
@@ -1,5 +1,8 @@
 package org.rakam.presto.analysis;
 
+import com.facebook.presto.jdbc.internal.airlift.http.client.FullJsonResponseHandler;
+import com.facebook.presto.jdbc.internal.airlift.http.client.FullJsonResponseHandler.JsonResponse;
+import com.facebook.presto.jdbc.internal.airlift.http.client.HttpClient.HttpResponseFuture;
 import com.facebook.presto.jdbc.internal.airlift.http.client.HttpClientConfig;
 import com.facebook.presto.jdbc.internal.airlift.http.client.HttpRequestFilter;
 import com.facebook.presto.jdbc.internal.airlift.http.client.Request;
@@ -11,54 +14,92 @@ import com.facebook.presto.jdbc.internal.client.ClientSession;
 import com.facebook.presto.jdbc.internal.client.ClientTypeSignatureParameter;
 import com.facebook.presto.jdbc.internal.client.ErrorLocation;
 import com.facebook.presto.jdbc.internal.client.QueryResults;
-import com.facebook.presto.jdbc.internal.client.StatementClient;
 import com.facebook.presto.jdbc.internal.client.StatementStats;
 import com.facebook.presto.jdbc.internal.guava.collect.ImmutableSet;
-import com.facebook.presto.jdbc.internal.guava.collect.Lists;
 import com.facebook.presto.jdbc.internal.guava.net.HostAndPort;
 import com.facebook.presto.jdbc.internal.guava.net.HttpHeaders;
 import com.facebook.presto.jdbc.internal.spi.type.StandardTypes;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.log.Logger;
-import io.netty.handler.codec.http.HttpResponseStatus;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
+import org.rakam.presto.analysis.PrestoQueryScheduler.Priority;
+import org.rakam.presto.analysis.PrestoQueryScheduler.Ticket;
 import org.rakam.report.QueryError;
 import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryResult;
+import org.rakam.report.QueryResultCursor;
 import org.rakam.report.QueryStats;
+import org.rakam.report.StreamingQueryResult;
 import org.rakam.util.LogUtil;
-import org.rakam.util.RakamException;
 
+import javax.annotation.Nullable;
+
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URI;
+import java.net.URLDecoder;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 
+import static com.facebook.presto.jdbc.internal.airlift.http.client.FullJsonResponseHandler.createFullJsonResponseHandler;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.HttpStatus.GONE;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.HttpStatus.OK;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.HttpStatus.SERVICE_UNAVAILABLE;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
 import static com.facebook.presto.jdbc.internal.airlift.http.client.Request.Builder.fromRequest;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.Request.Builder.prepareDelete;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.Request.Builder.prepareGet;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.Request.Builder.preparePost;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.StaticBodyGenerator.createStaticBodyGenerator;
+import static com.facebook.presto.jdbc.internal.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
 import static com.facebook.presto.jdbc.internal.airlift.json.JsonCodec.jsonCodec;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_ADDED_PREPARE;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_CATALOG;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_CLEAR_SESSION;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_CLEAR_TRANSACTION_ID;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_DEALLOCATED_PREPARE;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_LANGUAGE;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_PREPARED_STATEMENT;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_SCHEMA;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_SESSION;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_SET_SESSION;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_SOURCE;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_STARTED_TRANSACTION_ID;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_TIME_ZONE;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_TRANSACTION_ID;
+import static com.facebook.presto.jdbc.internal.client.PrestoHeaders.PRESTO_USER;
 import static com.facebook.presto.jdbc.internal.guava.base.Preconditions.checkNotNull;
 import static com.facebook.presto.jdbc.internal.spi.type.ParameterKind.TYPE;
-import static com.google.common.base.Throwables.propagate;
-import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static com.google.common.net.UrlEscapers.urlFormParameterEscaper;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.time.ZoneOffset.UTC;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.rakam.collection.FieldType.BINARY;
 import static org.rakam.collection.FieldType.BOOLEAN;
@@ -72,6 +113,14 @@ import static org.rakam.collection.FieldType.TIME;
 import static org.rakam.collection.FieldType.TIMESTAMP;
 import static org.rakam.report.QueryStats.State.FINISHED;
 
+/**
+ * Executes the query with the statement protocol of Presto. The requests are sent asynchronously and the next page
+ * is requested from the callback of the previous one, so the running queries don't hold a thread while Presto
+ * executes them. The queries that are created with a {@link PrestoQueryScheduler} are sent when the scheduler
+ * admits them. The session changes that Presto returns in the response headers (SET SESSION, PREPARE,
+ * START TRANSACTION etc.) are collected the same way {@code StatementClient} does, the caller applies them
+ * to the session of the next query.
+ */
 public class PrestoQueryExecution
         implements QueryExecution
 {
@@ -83,32 +132,50 @@ public class PrestoQueryExecution
             new JettyIoPool("presto-jdbc", new JettyIoPoolConfig()),
             ImmutableSet.of(new UserAgentRequestFilter("rakam")));
 
-    private static final ThreadPoolExecutor QUERY_EXECUTOR = new ThreadPoolExecutor(0, 60,
-            300L, TimeUnit.SECONDS,
-            new SynchronousQueue<>());
+    private static final ScheduledExecutorService CALLBACK_EXECUTOR = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("presto-query-callback-%d").setDaemon(true).build());
+    private static final long RETRY_DELAY_MILLIS = 100;
 
-    private final List<List<Object>> data = Lists.newArrayList();
-    private static final com.facebook.presto.jdbc.internal.airlift.json.JsonCodec<QueryResults> QUERY_RESULTS_JSON_CODEC = jsonCodec(QueryResults.class);
+    private static final FullJsonResponseHandler<QueryResults> RESPONSE_HANDLER = createFullJsonResponseHandler(jsonCodec(QueryResults.class));
     private final String query;
+    private final ClientSession session;
     private List<SchemaField> columns;
 
-    private final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+    private final StreamingQueryResult result = new StreamingQueryResult(this::kill);
     public static final DateTimeFormatter PRESTO_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
     public static final DateTimeFormatter PRESTO_TIMESTAMP_WITH_TIMEZONE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS z");
 
-    private StatementClient client;
+    private final Ticket ticket;
     private final Instant startTime;
+    private volatile QueryResults currentResults;
+    private volatile CompletableFuture<Boolean> pendingPage;
+    private volatile boolean closed;
+
+    private final Map<String, String> setSessionProperties = new ConcurrentHashMap<>();
+    private final Set<String> resetSessionProperties = Sets.newConcurrentHashSet();
+    private final Map<String, String> addedPreparedStatements = new ConcurrentHashMap<>();
+    private final Set<String> deallocatedPreparedStatements = Sets.newConcurrentHashSet();
+    private volatile String startedTransactionId;
+    private volatile boolean clearTransactionId;
 
     public PrestoQueryExecution(ClientSession session, String query)
+    {
+        this(session, query, null, null, null);
+    }
+
+    public PrestoQueryExecution(ClientSession session, String query, @Nullable PrestoQueryScheduler scheduler, @Nullable String project, @Nullable Priority priority)
     {
         this.startTime = Instant.now();
         this.query = query;
-        try {
-            QUERY_EXECUTOR.execute(new QueryTracker(session));
+        this.session = session;
+        if (scheduler == null) {
+            this.ticket = null;
+            start();
         }
-        catch (RejectedExecutionException e) {
-            // TODO: make this configurable and optional
-            throw new RakamException("There are already 60 running queries. Please calm down.", HttpResponseStatus.TOO_MANY_REQUESTS);
+        else {
+            this.ticket = scheduler.schedule(project, priority, this::start);
+            result.getResult().whenComplete((queryResult, ex) -> ticket.release());
         }
     }
 
@@ -152,16 +219,16 @@ public class PrestoQueryExecution
     @Override
     public QueryStats currentStats()
     {
-        if (client == null) {
+        QueryResults results = currentResults;
+        if (results == null) {
             return new QueryStats(QueryStats.State.WAITING_FOR_AVAILABLE_THREAD);
         }
 
-        if (client.isFailed()) {
+        if (results.getError() != null) {
             return new QueryStats(QueryStats.State.FAILED);
         }
 
-        StatementStats stats = (!client.isValid() ? client.finalResults() : client.current())
-                .getStats();
+        StatementStats stats = results.getStats();
 
         int totalSplits = stats.getTotalSplits();
         QueryStats.State state = QueryStats.State.valueOf(stats.getState().toUpperCase(Locale.ENGLISH));
@@ -180,13 +247,19 @@ public class PrestoQueryExecution
     @Override
     public boolean isFinished()
     {
-        return result.isDone();
+        return result.getResult().isDone();
     }
 
     @Override
     public CompletableFuture<QueryResult> getResult()
     {
-        return result;
+        return result.getResult();
+    }
+
+    @Override
+    public QueryResultCursor getResultCursor()
+    {
+        return result.cursor();
     }
 
     public static boolean isServerInactive(QueryError error)
@@ -199,10 +272,51 @@ public class PrestoQueryExecution
         return query;
     }
 
+    public Map<String, String> getSetSessionProperties()
+    {
+        return ImmutableMap.copyOf(setSessionProperties);
+    }
+
+    public Set<String> getResetSessionProperties()
+    {
+        return ImmutableSet.copyOf(resetSessionProperties);
+    }
+
+    public Map<String, String> getAddedPreparedStatements()
+    {
+        return ImmutableMap.copyOf(addedPreparedStatements);
+    }
+
+    public Set<String> getDeallocatedPreparedStatements()
+    {
+        return ImmutableSet.copyOf(deallocatedPreparedStatements);
+    }
+
+    @Nullable
+    public String getStartedTransactionId()
+    {
+        return startedTransactionId;
+    }
+
+    public boolean isClearTransactionId()
+    {
+        return clearTransactionId;
+    }
+
     @Override
     public void kill()
     {
-        client.close();
+        closed = true;
+        if (ticket != null && ticket.cancel()) {
+            result.fail(QueryError.create("Query aborted by user"));
+            return;
+        }
+
+        CompletableFuture<Boolean> pendingPage = this.pendingPage;
+        if (pendingPage != null) {
+            pendingPage.complete(false);
+        }
+        cancelQuery(currentResults);
     }
 
     private static HostAndPort getSystemSocksProxy()
@@ -238,143 +352,304 @@ public class PrestoQueryExecution
     }
 
     private static final String SERVER_NOT_ACTIVE = "Database server is not active.";
+    private static final Splitter HEADER_SPLITTER = Splitter.on('=').limit(2).trimResults();
 
-    private class QueryTracker
-            implements Runnable
+    private void start()
     {
-        private final ClientSession session;
+        if (closed) {
+            result.fail(QueryError.create("Query aborted by user"));
+            return;
+        }
 
-        public QueryTracker(ClientSession session)
-        {
-            this.session = session;
+        Request request;
+        try {
+            request = buildQueryRequest();
         }
+        catch (RuntimeException e) {
+            requestFailed(e.getMessage(), true);
+            return;
+        }
+        send(request, true);
+    }
 
-        private void waitForQuery()
-        {
-            while (client.isValid()) {
-                if (Thread.currentThread().isInterrupted()) {
-                    client.close();
-                    throw propagate(new RakamException("Query executor thread was interrupted", INTERNAL_SERVER_ERROR));
-                }
-                transformAndAdd(client.current());
+    private Request buildQueryRequest()
+    {
+        Request.Builder builder = prepareRequest(preparePost(), uriBuilderFrom(session.getServer()).replacePath("/v1/statement").build())
+                .setBodyGenerator(createStaticBodyGenerator(query, UTF_8));
 
-                client.advance();
-            }
+        if (session.getSource() != null) {
+            builder.setHeader(PRESTO_SOURCE, session.getSource());
+        }
+        if (session.getCatalog() != null) {
+            builder.setHeader(PRESTO_CATALOG, session.getCatalog());
+        }
+        if (session.getSchema() != null) {
+            builder.setHeader(PRESTO_SCHEMA, session.getSchema());
+        }
+        builder.setHeader(PRESTO_TIME_ZONE, session.getTimeZoneId());
+        if (session.getLocale() != null) {
+            builder.setHeader(PRESTO_LANGUAGE, session.getLocale().toLanguageTag());
         }
+        for (Map.Entry<String, String> property : session.getProperties().entrySet()) {
+            builder.addHeader(PRESTO_SESSION, property.getKey() + "=" + property.getValue());
+        }
+        for (Map.Entry<String, String> statement : session.getPreparedStatements().entrySet()) {
+            builder.addHeader(PRESTO_PREPARED_STATEMENT, urlFormParameterEscaper().escape(statement.getKey()) + "=" +
+                    urlFormParameterEscaper().escape(statement.getValue()));
+        }
+        builder.setHeader(PRESTO_TRANSACTION_ID, session.getTransactionId() == null ? "NONE" : session.getTransactionId());
 
-        @Override
-        public void run()
-        {
-            try {
-                client = new StatementClient(HTTP_CLIENT, QUERY_RESULTS_JSON_CODEC, session, query);
-            }
-            catch (RuntimeException e) {
-                String message = SERVER_NOT_ACTIVE + " " + e.getMessage();
-                LOGGER.warn(e, message);
-                result.complete(QueryResult.errorResult(QueryError.create(message)));
-                return;
-            }
+        return builder.build();
+    }
+
+    private Request.Builder prepareRequest(Request.Builder builder, URI uri)
+    {
+        return builder.setHeader(PRESTO_USER, session.getUser()).setUri(uri);
+    }
 
-            try {
-                waitForQuery();
+    private void send(Request request, boolean firstRequest)
+    {
+        long deadline = System.nanoTime() + session.getClientRequestTimeout().roundTo(NANOSECONDS);
+        send(request, firstRequest, deadline);
+    }
 
-                if (client.isClosed()) {
-                    QueryError queryError = QueryError.create("Query aborted by user");
-                    result.complete(QueryResult.errorResult(queryError));
-                }
-                else if (client.isGone()) {
-                    QueryError queryError = QueryError.create("Query is gone (server restarted?)");
-                    result.complete(QueryResult.errorResult(queryError));
-                }
-                else if (client.isFailed()) {
-                    com.facebook.presto.jdbc.internal.client.QueryError error = client.finalResults().getError();
-                    ErrorLocation errorLocation = error.getErrorLocation();
-                    QueryError queryError = new QueryError(
-                            Optional.ofNullable(error.getFailureInfo().getMessage())
-                                    .orElse(error.getFailureInfo().toException().toString()),
-                            error.getSqlState(),
-                            error.getErrorCode(),
-                            errorLocation != null ? errorLocation.getLineNumber() : null,
-                            errorLocation != null ? errorLocation.getColumnNumber() : null);
-                    LogUtil.logQueryError(getQuery(), queryError, PrestoQueryExecutor.class);
-                    result.complete(QueryResult.errorResult(queryError));
-                }
-                else {
-                    transformAndAdd(client.finalResults());
+    private void send(Request request, boolean firstRequest, long deadline)
+    {
+        HttpResponseFuture<JsonResponse<QueryResults>> future;
+        try {
+            future = HTTP_CLIENT.executeAsync(request, RESPONSE_HANDLER);
+        }
+        catch (RuntimeException e) {
+            requestFailed(e.getMessage(), firstRequest);
+            return;
+        }
 
-                    ImmutableMap<String, Object> stats = ImmutableMap.of(
-                            QueryResult.EXECUTION_TIME, startTime.until(Instant.now(), ChronoUnit.MILLIS),
-                            QueryResult.QUERY, query);
+        future.addListener(() -> handleResponse(request, future, firstRequest, deadline), CALLBACK_EXECUTOR);
+    }
 
-                    result.complete(new QueryResult(columns, data, stats));
-                }
-            }
-            catch (Exception e) {
-                QueryError queryError = QueryError.create(e.getMessage());
-                LogUtil.logQueryError(getQuery(), queryError, PrestoQueryExecutor.class);
-                result.complete(QueryResult.errorResult(queryError));
-            }
+    private void handleResponse(Request request, HttpResponseFuture<JsonResponse<QueryResults>> future, boolean firstRequest, long deadline)
+    {
+        JsonResponse<QueryResults> response;
+        try {
+            response = future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            requestFailed(e.getMessage(), firstRequest);
+            return;
+        }
+        catch (ExecutionException e) {
+            requestFailed(e.getCause().getMessage(), firstRequest);
+            return;
         }
 
-        private void transformAndAdd(QueryResults result)
-        {
-            if (result.getError() != null || result.getColumns() == null) {
-                return;
-            }
+        if (closed) {
+            cancelQuery(response.hasValue() ? response.getValue() : null);
+            result.fail(QueryError.create("Query aborted by user"));
+            return;
+        }
+
+        if (response.getStatusCode() == SERVICE_UNAVAILABLE.code() && System.nanoTime() < deadline) {
+            CALLBACK_EXECUTOR.schedule(() -> send(request, firstRequest, deadline), RETRY_DELAY_MILLIS, MILLISECONDS);
+            return;
+        }
+
+        if (response.getStatusCode() == GONE.code()) {
+            result.fail(QueryError.create("Query is gone (server restarted?)"));
+            return;
+        }
+
+        if (response.getStatusCode() != OK.code() || !response.hasValue()) {
+            requestFailed(format("Error %s at %s returned an invalid response: %s [Error: %s]",
+                    firstRequest ? "starting query" : "fetching next", request.getUri(), response, response.getResponseBody()), firstRequest);
+            return;
+        }
+
+        processHeaders(response);
+        QueryResults results = response.getValue();
+        currentResults = results;
+
+        CompletableFuture<Boolean> added;
+        try {
+            added = addPage(results);
+        }
+        catch (Exception e) {
+            cancelQuery(results);
+            QueryError queryError = QueryError.create(e.getMessage());
+            LogUtil.logQueryError(getQuery(), queryError, PrestoQueryExecutor.class);
+            result.fail(queryError);
+            return;
+        }
 
-            if (columns == null) {
-                columns = result.getColumns().stream()
-                        .map(c -> {
-                            List<ClientTypeSignatureParameter> arguments = c.getTypeSignature().getArguments();
-                            return new SchemaField(c.getName(), fromPrestoType(c.getTypeSignature().getRawType(),
-                                    arguments.stream()
-                                            .filter(argument -> argument.getKind() == TYPE)
-                                            .map(argument -> argument.getTypeSignature().getRawType()).iterator()));
-                        })
-                        .collect(Collectors.toList());
+        if (added.isDone()) {
+            advance(results, added.join());
+        }
+        else {
+            // the cursor doesn't consume the buffered pages yet, the next page is requested when it does
+            pendingPage = added;
+            added.thenAcceptAsync(accepted -> {
+                pendingPage = null;
+                advance(results, accepted);
+            }, CALLBACK_EXECUTOR);
+        }
+    }
+
+    private void advance(QueryResults results, boolean accepted)
+    {
+        if (!accepted || closed) {
+            // the cursor is closed
+            cancelQuery(results);
+            result.fail(QueryError.create("Query aborted by user"));
+            return;
+        }
+
+        if (results.getError() != null) {
+            com.facebook.presto.jdbc.internal.client.QueryError error = results.getError();
+            ErrorLocation errorLocation = error.getErrorLocation();
+            QueryError queryError = new QueryError(
+                    Optional.ofNullable(error.getFailureInfo().getMessage())
+                            .orElse(error.getFailureInfo().toException().toString()),
+                    error.getSqlState(),
+                    error.getErrorCode(),
+                    errorLocation != null ? errorLocation.getLineNumber() : null,
+                    errorLocation != null ? errorLocation.getColumnNumber() : null);
+            LogUtil.logQueryError(getQuery(), queryError, PrestoQueryExecutor.class);
+            result.fail(queryError);
+        }
+        else if (results.getNextUri() == null) {
+            ImmutableMap<String, Object> stats = ImmutableMap.of(
+                    QueryResult.EXECUTION_TIME, startTime.until(Instant.now(), ChronoUnit.MILLIS),
+                    QueryResult.QUERY, query);
+
+            result.complete(stats);
+        }
+        else {
+            send(prepareRequest(prepareGet(), results.getNextUri()).build(), false);
+        }
+    }
+
+    private void processHeaders(JsonResponse<QueryResults> response)
+    {
+        for (String setSession : response.getHeaders(PRESTO_SET_SESSION)) {
+            List<String> keyValue = HEADER_SPLITTER.splitToList(setSession);
+            if (keyValue.size() == 2) {
+                setSessionProperties.put(keyValue.get(0), keyValue.get(1));
             }
+        }
+        resetSessionProperties.addAll(response.getHeaders(PRESTO_CLEAR_SESSION));
 
-            if (result.getData() == null) {
-                return;
+        for (String addedPrepare : response.getHeaders(PRESTO_ADDED_PREPARE)) {
+            List<String> keyValue = HEADER_SPLITTER.splitToList(addedPrepare);
+            if (keyValue.size() == 2) {
+                addedPreparedStatements.put(urlDecode(keyValue.get(0)), urlDecode(keyValue.get(1)));
             }
+        }
+        for (String deallocatedPrepare : response.getHeaders(PRESTO_DEALLOCATED_PREPARE)) {
+            deallocatedPreparedStatements.add(urlDecode(deallocatedPrepare));
+        }
 
-            for (List<Object> objects : result.getData()) {
-                Object[] row = new Object[columns.size()];
-
-                for (int i = 0; i < objects.size(); i++) {
-                    String type = result.getColumns().get(i).getTypeSignature().getRawType();
-                    Object value = objects.get(i);
-                    if (value != null) {
-                        if (type.equals(StandardTypes.TIMESTAMP)) {
-                            try {
-                                row[i] = LocalDateTime.parse((CharSequence) value, PRESTO_TIMESTAMP_FORMAT).toInstant(UTC);
-                            }
-                            catch (Exception e) {
-                                LOGGER.error(e, "Error while parsing Presto TIMESTAMP.");
-                            }
+        String startedTransactionId = response.getHeader(PRESTO_STARTED_TRANSACTION_ID);
+        if (startedTransactionId != null) {
+            this.startedTransactionId = startedTransactionId;
+        }
+        if (response.getHeader(PRESTO_CLEAR_TRANSACTION_ID) != null) {
+            clearTransactionId = true;
+        }
+    }
+
+    private static String urlDecode(String value)
+    {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void requestFailed(String message, boolean firstRequest)
+    {
+        if (firstRequest) {
+            String serverMessage = SERVER_NOT_ACTIVE + " " + message;
+            LOGGER.warn(serverMessage);
+            result.fail(QueryError.create(serverMessage));
+        }
+        else {
+            QueryError queryError = QueryError.create(message);
+            LogUtil.logQueryError(getQuery(), queryError, PrestoQueryExecutor.class);
+            result.fail(queryError);
+        }
+    }
+
+    private void cancelQuery(@Nullable QueryResults results)
+    {
+        if (results != null && results.getNextUri() != null) {
+            HTTP_CLIENT.executeAsync(prepareRequest(prepareDelete(), results.getNextUri()).build(), createStatusResponseHandler());
+        }
+    }
+
+    private CompletableFuture<Boolean> addPage(QueryResults result)
+    {
+        if (result.getError() != null || result.getColumns() == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        if (columns == null) {
+            columns = result.getColumns().stream()
+                    .map(c -> {
+                        List<ClientTypeSignatureParameter> arguments = c.getTypeSignature().getArguments();
+                        return new SchemaField(c.getName(), fromPrestoType(c.getTypeSignature().getRawType(),
+                                arguments.stream()
+                                        .filter(argument -> argument.getKind() == TYPE)
+                                        .map(argument -> argument.getTypeSignature().getRawType()).iterator()));
+                    })
+                    .collect(Collectors.toList());
+            this.result.setMetadata(columns);
+        }
+
+        if (result.getData() == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        List<List<Object>> page = new ArrayList<>();
+        for (List<Object> objects : result.getData()) {
+            Object[] row = new Object[columns.size()];
+
+            for (int i = 0; i < objects.size(); i++) {
+                String type = result.getColumns().get(i).getTypeSignature().getRawType();
+                Object value = objects.get(i);
+                if (value != null) {
+                    if (type.equals(StandardTypes.TIMESTAMP)) {
+                        try {
+                            row[i] = LocalDateTime.parse((CharSequence) value, PRESTO_TIMESTAMP_FORMAT).toInstant(UTC);
                         }
-                        else if (type.equals(StandardTypes.TIMESTAMP_WITH_TIME_ZONE)) {
-                            try {
-                                row[i] = LocalDateTime.parse((CharSequence) value, PRESTO_TIMESTAMP_WITH_TIMEZONE_FORMAT).toInstant(UTC);
-                            }
-                            catch (Exception e) {
-                                LOGGER.error(e, "Error while parsing Presto TIMESTAMP WITH TIMEZONE.");
-                            }
+                        catch (Exception e) {
+                            LOGGER.error(e, "Error while parsing Presto TIMESTAMP.");
                         }
-                        else if (type.equals(StandardTypes.DATE)) {
-                            row[i] = LocalDate.parse((CharSequence) value);
+                    }
+                    else if (type.equals(StandardTypes.TIMESTAMP_WITH_TIME_ZONE)) {
+                        try {
+                            row[i] = LocalDateTime.parse((CharSequence) value, PRESTO_TIMESTAMP_WITH_TIMEZONE_FORMAT).toInstant(UTC);
                         }
-                        else {
-                            row[i] = objects.get(i);
+                        catch (Exception e) {
+                            LOGGER.error(e, "Error while parsing Presto TIMESTAMP WITH TIMEZONE.");
                         }
                     }
+                    else if (type.equals(StandardTypes.DATE)) {
+                        row[i] = LocalDate.parse((CharSequence) value);
+                    }
                     else {
                         row[i] = objects.get(i);
                     }
                 }
-
-                data.add(Arrays.asList(row));
+                else {
+                    row[i] = objects.get(i);
+                }
             }
+
+            page.add(Arrays.asList(row));
         }
+
+        return this.result.addPageAsync(page);
     }
 }
@@ -9,7 +9,6 @@ import com.facebook.presto.rakam.externaldata.source.RemoteFileDataSource;
 import com.facebook.presto.rakam.externaldata.source.RemoteFileDataSource.CompressionType;
 import com.facebook.presto.rakam.externaldata.source.RemoteFileDataSource.ExternalSourceType;
 import com.facebook.presto.sql.RakamSqlFormatter;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableMap;
@@ -21,6 +20,7 @@ import org.rakam.collection.SchemaField;
 import org.rakam.config.JDBCConfig;
 import org.rakam.postgresql.report.PostgresqlQueryExecution;
 import org.rakam.presto.PrestoModule.UserConfig;
+import org.rakam.presto.analysis.PrestoQueryScheduler.Priority;
 import org.rakam.analysis.datasource.CustomDataSource;
 import org.rakam.analysis.datasource.JDBCSchemaConfig;
 import org.rakam.analysis.datasource.SupportedCustomDatabase;
@@ -29,6 +29,7 @@ import org.rakam.report.QueryExecutor;
 import org.rakam.report.QuerySampling;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -65,17 +66,28 @@ public class PrestoQueryExecutor
     private final Metastore metastore;
     private final CustomDataSourceService customDataSource;
     private final JDBCConfig userJdbcConfig;
+    private final PrestoQueryScheduler scheduler;
     private ClientSession defaultSession;
-    private SqlParser sqlParser = new SqlParser();
 
-    @Inject
     public PrestoQueryExecutor(
             PrestoConfig prestoConfig,
             @Nullable CustomDataSourceService customDataSource,
             @Nullable @UserConfig com.google.common.base.Optional<JDBCConfig> userJdbcConfig,
             Metastore metastore)
+    {
+        this(prestoConfig, customDataSource, userJdbcConfig, metastore, new PrestoQueryScheduler(prestoConfig));
+    }
+
+    @Inject
+    public PrestoQueryExecutor(
+            PrestoConfig prestoConfig,
+            @Nullable CustomDataSourceService customDataSource,
+            @Nullable @UserConfig com.google.common.base.Optional<JDBCConfig> userJdbcConfig,
+            Metastore metastore,
+            PrestoQueryScheduler scheduler)
     {
         this.prestoConfig = prestoConfig;
+        this.scheduler = scheduler;
         this.metastore = metastore;
         this.customDataSource = customDataSource;
         this.userJdbcConfig = userJdbcConfig == null ? null : userJdbcConfig.orNull();
@@ -110,9 +122,26 @@ public class PrestoQueryExecutor
         return executeRawStatement(query, sessionProperties, null);
     }
 
+    @Override
+    public QueryExecution executeRawQuery(String project, String query, Map<String, String> sessionProperties)
+    {
+        return executeRawQuery(project, query, sessionProperties, null, Priority.INTERACTIVE);
+    }
+
+    @Override
+    public QueryExecution executeRawStatement(String project, String query, Map<String, String> sessionProperties)
+    {
+        return internalExecuteRawQuery(project, query, createSession(sessionProperties, null), Priority.BACKGROUND);
+    }
+
     public QueryExecution executeRawStatement(String query, Map<String, String> sessionProperties, String catalog)
     {
-        return internalExecuteRawQuery(query, new ClientSession(
+        return internalExecuteRawQuery(null, query, createSession(sessionProperties, catalog), Priority.BACKGROUND);
+    }
+
+    private ClientSession createSession(Map<String, String> sessionProperties, String catalog)
+    {
+        return new ClientSession(
                 prestoConfig.getAddress(),
                 "rakam",
                 "api-server",
@@ -121,10 +150,15 @@ public class PrestoQueryExecutor
                 TimeZone.getDefault().getID(),
                 Locale.ENGLISH,
                 sessionProperties,
-                null, false, new Duration(1, TimeUnit.MINUTES)));
+                null, false, new Duration(1, TimeUnit.MINUTES));
     }
 
     public QueryExecution executeRawQuery(String query, Map<String, String> sessionProperties, String catalog)
+    {
+        return executeRawQuery(null, query, sessionProperties, catalog, Priority.INTERACTIVE);
+    }
+
+    private QueryExecution executeRawQuery(String project, String query, Map<String, String> sessionProperties, String catalog, Priority priority)
     {
         if (sessionProperties.containsKey("external.source_options")) {
             String encodedKey = sessionProperties.get("external.source_options");
@@ -145,7 +179,7 @@ public class PrestoQueryExecutor
             }
         }
 
-        return executeRawStatement(query, sessionProperties, catalog);
+        return internalExecuteRawQuery(project, query, createSession(sessionProperties, catalog), priority);
     }
 
     private QueryExecution getSingleQueryExecution(String query, String key, DataSourceType type)
@@ -185,7 +219,7 @@ public class PrestoQueryExecutor
                         .orElse(qualifiedName.getSuffix());
             }
             return null;
-        }, seperator).process(sqlParser.createStatement(query), 1);
+        }, seperator).process(SqlParserUtil.createStatement(query), 1);
 
         if (hasOutsideReference.get()) {
             return null;
@@ -196,7 +230,12 @@ public class PrestoQueryExecutor
 
     public PrestoQueryExecution internalExecuteRawQuery(String query, ClientSession clientSession)
     {
-        return new PrestoQueryExecution(clientSession, query);
+        return internalExecuteRawQuery(null, query, clientSession, Priority.INTERACTIVE);
+    }
+
+    public PrestoQueryExecution internalExecuteRawQuery(String project, String query, ClientSession clientSession, Priority priority)
+    {
+        return new PrestoQueryExecution(clientSession, query, scheduler, project, priority);
     }
 
     @Override
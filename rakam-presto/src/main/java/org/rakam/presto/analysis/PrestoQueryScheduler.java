@@ -0,0 +1,254 @@
+package org.rakam.presto.analysis;
+
+import com.google.inject.Singleton;
+import org.rakam.util.RakamException;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Admission control for the queries that are sent to Presto. The queries wait in a bounded queue when the number of
+ * running queries hits the global or the per-project limit, the queued interactive queries are started before the
+ * background statements such as the materialized view updates. The queries of the same priority are started in
+ * the order they're queued unless their project already hits its limit.
+ */
+@Singleton
+public class PrestoQueryScheduler
+{
+    public enum Priority
+    {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private final int maxRunningQueries;
+    private final int maxRunningQueriesPerProject;
+    private final int maxQueuedQueries;
+    private final int maxQueuedQueriesPerProject;
+
+    private final TreeSet<Ticket> queue;
+    private final Map<String, ProjectQueries> projects;
+    private int runningQueries;
+    private long sequence;
+
+    private long startedQueries;
+    private long rejectedQueries;
+
+    @Inject
+    public PrestoQueryScheduler(PrestoConfig config)
+    {
+        this.maxRunningQueries = config.getMaxRunningQueries();
+        this.maxRunningQueriesPerProject = config.getMaxRunningQueriesPerProject();
+        this.maxQueuedQueries = config.getMaxQueuedQueries();
+        this.maxQueuedQueriesPerProject = config.getMaxQueuedQueriesPerProject();
+        this.queue = new TreeSet<>(Comparator.<Ticket, Priority>comparing(ticket -> ticket.priority)
+                .thenComparingLong(ticket -> ticket.sequence));
+        this.projects = new HashMap<>();
+    }
+
+    /**
+     * Runs the task when there is an available slot for the project. The task is run in the caller thread
+     * if the query can be started immediately, otherwise in the thread that releases the slot so it must not block.
+     * The ticket must be released when the query is finished.
+     *
+     * @throws RakamException if the queue is full
+     */
+    public Ticket schedule(@Nullable String project, Priority priority, Runnable task)
+    {
+        Ticket ticket;
+        synchronized (this) {
+            ticket = new Ticket(project, requireNonNull(priority, "priority is null"), sequence++, task);
+            ProjectQueries projectQueries = getProject(project);
+
+            // none of the queued queries can be started at this point, otherwise they would have been started
+            // when the slots are released so the query doesn't skip the line if it can be started.
+            if (runningQueries >= maxRunningQueries || !canStart(projectQueries)) {
+                if (queue.size() >= maxQueuedQueries) {
+                    rejectedQueries++;
+                    removeIfIdle(project, projectQueries);
+                    throw new RakamException("There are too many queries waiting for execution, please try again later.", TOO_MANY_REQUESTS);
+                }
+                if (projectQueries != null && projectQueries.queued >= maxQueuedQueriesPerProject) {
+                    rejectedQueries++;
+                    throw new RakamException("There are too many queries of the project waiting for execution, please try again later.", TOO_MANY_REQUESTS);
+                }
+
+                queue.add(ticket);
+                if (projectQueries != null) {
+                    projectQueries.queued++;
+                }
+                return ticket;
+            }
+
+            start(ticket, projectQueries);
+        }
+
+        task.run();
+        return ticket;
+    }
+
+    private void start(Ticket ticket, ProjectQueries projectQueries)
+    {
+        ticket.state = TicketState.RUNNING;
+        runningQueries++;
+        startedQueries++;
+        if (projectQueries != null) {
+            projectQueries.running++;
+        }
+    }
+
+    private boolean canStart(ProjectQueries projectQueries)
+    {
+        return projectQueries == null || projectQueries.running < maxRunningQueriesPerProject;
+    }
+
+    private ProjectQueries getProject(String project)
+    {
+        if (project == null) {
+            return null;
+        }
+        return projects.computeIfAbsent(project, key -> new ProjectQueries());
+    }
+
+    private void removeIfIdle(String project, ProjectQueries projectQueries)
+    {
+        if (projectQueries != null && projectQueries.running == 0 && projectQueries.queued == 0) {
+            projects.remove(project);
+        }
+    }
+
+    private void release(Ticket ticket)
+    {
+        List<Ticket> startedTickets = new ArrayList<>();
+        synchronized (this) {
+            if (ticket.state != TicketState.RUNNING) {
+                return;
+            }
+
+            ticket.state = TicketState.DONE;
+            runningQueries--;
+            ProjectQueries projectQueries = projects.get(ticket.project);
+            if (projectQueries != null) {
+                projectQueries.running--;
+                removeIfIdle(ticket.project, projectQueries);
+            }
+
+            Iterator<Ticket> iterator = queue.iterator();
+            while (runningQueries < maxRunningQueries && iterator.hasNext()) {
+                Ticket next = iterator.next();
+                ProjectQueries nextProject = next.project == null ? null : projects.get(next.project);
+                if (!canStart(nextProject)) {
+                    continue;
+                }
+
+                iterator.remove();
+                if (nextProject != null) {
+                    nextProject.queued--;
+                }
+                start(next, nextProject);
+                startedTickets.add(next);
+            }
+        }
+
+        for (Ticket startedTicket : startedTickets) {
+            startedTicket.task.run();
+        }
+    }
+
+    private synchronized boolean cancel(Ticket ticket)
+    {
+        if (ticket.state != TicketState.QUEUED) {
+            return false;
+        }
+
+        ticket.state = TicketState.DONE;
+        queue.remove(ticket);
+        ProjectQueries projectQueries = projects.get(ticket.project);
+        if (projectQueries != null) {
+            projectQueries.queued--;
+            removeIfIdle(ticket.project, projectQueries);
+        }
+        return true;
+    }
+
+    public synchronized int getRunningQueries()
+    {
+        return runningQueries;
+    }
+
+    public synchronized int getQueuedQueries()
+    {
+        return queue.size();
+    }
+
+    public synchronized long getStartedQueries()
+    {
+        return startedQueries;
+    }
+
+    public synchronized long getRejectedQueries()
+    {
+        return rejectedQueries;
+    }
+
+    private enum TicketState
+    {
+        QUEUED, RUNNING, DONE
+    }
+
+    private static class ProjectQueries
+    {
+        private int running;
+        private int queued;
+    }
+
+    public class Ticket
+    {
+        private final String project;
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable task;
+        private TicketState state = TicketState.QUEUED;
+
+        private Ticket(String project, Priority priority, long sequence, Runnable task)
+        {
+            this.project = project;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public boolean isQueued()
+        {
+            synchronized (PrestoQueryScheduler.this) {
+                return state == TicketState.QUEUED;
+            }
+        }
+
+        /**
+         * Removes the query from the queue, returns false if the query is already started.
+         */
+        public boolean cancel()
+        {
+            return PrestoQueryScheduler.this.cancel(this);
+        }
+
+        /**
+         * Releases the slot of the query and starts the queued queries that can use it.
+         */
+        public void release()
+        {
+            PrestoQueryScheduler.this.release(this);
+        }
+    }
+}
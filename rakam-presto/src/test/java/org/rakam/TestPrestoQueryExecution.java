@@ -0,0 +1,133 @@
+package org.rakam;
+
+import com.facebook.presto.jdbc.internal.client.ClientSession;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.rakam.presto.analysis.PrestoQueryExecution;
+import org.rakam.report.QueryResult;
+import org.rakam.util.JsonHelper;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestPrestoQueryExecution
+{
+    private HttpServer server;
+    private final List<String> sessionHeaders = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/statement", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/v1/statement")) {
+                sessionHeaders.addAll(exchange.getRequestHeaders().getOrDefault("X-Presto-Session", ImmutableList.of()));
+                exchange.getResponseHeaders().add("X-Presto-Set-Session", "query_max_run_time=1h");
+                exchange.getResponseHeaders().add("X-Presto-Clear-Session", "hash_partition_count");
+                exchange.getResponseHeaders().add("X-Presto-Added-Prepare", "my%20query=SELECT+1");
+                exchange.getResponseHeaders().add("X-Presto-Deallocated-Prepare", "old%20query");
+                exchange.getResponseHeaders().add("X-Presto-Started-Transaction-Id", "transaction1");
+                respond(exchange, results("/v1/statement/query1/1", null));
+            }
+            else {
+                respond(exchange, results(null, ImmutableList.of(ImmutableList.of(1L))));
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSessionHeaders()
+            throws Exception
+    {
+        URI address = URI.create("http://localhost:" + server.getAddress().getPort());
+        ClientSession session = new ClientSession(address, "rakam", "test", "catalog", "default", "UTC", Locale.ENGLISH,
+                ImmutableMap.of("distributed_join", "false"), null, false,
+                new com.facebook.presto.jdbc.internal.airlift.units.Duration(10, TimeUnit.SECONDS));
+
+        PrestoQueryExecution execution = new PrestoQueryExecution(session, "select 1");
+        QueryResult result = execution.getResult().get(10, TimeUnit.SECONDS);
+
+        assertFalse(result.isFailed(), String.valueOf(result.getError()));
+        assertEquals(result.getResult(), ImmutableList.of(ImmutableList.of(1L)));
+        assertEquals(sessionHeaders, ImmutableList.of("distributed_join=false"));
+
+        assertEquals(execution.getSetSessionProperties(), ImmutableMap.of("query_max_run_time", "1h"));
+        assertEquals(execution.getResetSessionProperties(), ImmutableSet.of("hash_partition_count"));
+        assertEquals(execution.getAddedPreparedStatements(), ImmutableMap.of("my query", "SELECT 1"));
+        assertEquals(execution.getDeallocatedPreparedStatements(), ImmutableSet.of("old query"));
+        assertEquals(execution.getStartedTransactionId(), "transaction1");
+        assertFalse(execution.isClearTransactionId());
+    }
+
+    private Map<String, Object> results(String nextUri, List<List<Object>> data)
+    {
+        String base = "http://localhost:" + server.getAddress().getPort();
+        Map<String, Object> results = new HashMap<>();
+        results.put("id", "query1");
+        results.put("infoUri", base + "/query.html?query1");
+        if (nextUri != null) {
+            results.put("nextUri", base + nextUri);
+        }
+        if (data != null) {
+            results.put("columns", ImmutableList.of(ImmutableMap.of(
+                    "name", "value",
+                    "type", "bigint",
+                    "typeSignature", ImmutableMap.of("rawType", "bigint", "typeArguments", ImmutableList.of(),
+                            "literalArguments", ImmutableList.of(), "arguments", ImmutableList.of()))));
+            results.put("data", data);
+        }
+        results.put("stats", ImmutableMap.builder()
+                .put("state", data == null ? "RUNNING" : "FINISHED")
+                .put("queued", false)
+                .put("scheduled", true)
+                .put("nodes", 1)
+                .put("totalSplits", 1)
+                .put("queuedSplits", 0)
+                .put("runningSplits", 0)
+                .put("completedSplits", 1)
+                .put("userTimeMillis", 0)
+                .put("cpuTimeMillis", 0)
+                .put("wallTimeMillis", 0)
+                .put("processedRows", 1)
+                .put("processedBytes", 1)
+                .build());
+        return results;
+    }
+
+    private static void respond(HttpExchange exchange, Object body)
+            throws IOException
+    {
+        byte[] bytes = JsonHelper.encodeAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.rakam;
+
+import org.rakam.presto.analysis.PrestoConfig;
+import org.rakam.presto.analysis.PrestoQueryScheduler;
+import org.rakam.presto.analysis.PrestoQueryScheduler.Ticket;
+import org.rakam.util.RakamException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.rakam.presto.analysis.PrestoQueryScheduler.Priority.BACKGROUND;
+import static org.rakam.presto.analysis.PrestoQueryScheduler.Priority.INTERACTIVE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestPrestoQueryScheduler
+{
+    @Test
+    public void testGlobalLimit()
+            throws Exception
+    {
+        PrestoQueryScheduler scheduler = new PrestoQueryScheduler(new PrestoConfig().setMaxRunningQueries(2));
+        List<String> started = new ArrayList<>();
+
+        Ticket first = scheduler.schedule("a", INTERACTIVE, () -> started.add("first"));
+        scheduler.schedule("b", INTERACTIVE, () -> started.add("second"));
+        Ticket third = scheduler.schedule("c", INTERACTIVE, () -> started.add("third"));
+
+        assertEquals(started.size(), 2);
+        assertTrue(third.isQueued());
+        assertEquals(scheduler.getQueuedQueries(), 1);
+
+        first.release();
+        assertEquals(started.get(2), "third");
+        assertFalse(third.isQueued());
+        assertEquals(scheduler.getRunningQueries(), 2);
+    }
+
+    @Test
+    public void testProjectLimit()
+            throws Exception
+    {
+        PrestoQueryScheduler scheduler = new PrestoQueryScheduler(new PrestoConfig()
+                .setMaxRunningQueries(10)
+                .setMaxRunningQueriesPerProject(1));
+        List<String> started = new ArrayList<>();
+
+        Ticket first = scheduler.schedule("a", INTERACTIVE, () -> started.add("a1"));
+        scheduler.schedule("a", INTERACTIVE, () -> started.add("a2"));
+        scheduler.schedule("b", INTERACTIVE, () -> started.add("b1"));
+
+        // the queued query of the project doesn't block the other projects
+        assertEquals(started.size(), 2);
+        assertEquals(started.get(1), "b1");
+
+        first.release();
+        assertEquals(started.get(2), "a2");
+    }
+
+    @Test
+    public void testPriority()
+            throws Exception
+    {
+        PrestoQueryScheduler scheduler = new PrestoQueryScheduler(new PrestoConfig().setMaxRunningQueries(1));
+        List<String> started = new ArrayList<>();
+
+        Ticket running = scheduler.schedule("a", INTERACTIVE, () -> started.add("running"));
+        Ticket background = scheduler.schedule("a", BACKGROUND, () -> started.add("background"));
+        Ticket interactive = scheduler.schedule("b", INTERACTIVE, () -> started.add("interactive"));
+
+        running.release();
+        assertEquals(started.get(1), "interactive");
+        interactive.release();
+        assertEquals(started.get(2), "background");
+        background.release();
+        assertEquals(scheduler.getRunningQueries(), 0);
+        assertEquals(scheduler.getStartedQueries(), 3);
+    }
+
+    @Test
+    public void testQueueLimit()
+            throws Exception
+    {
+        PrestoQueryScheduler scheduler = new PrestoQueryScheduler(new PrestoConfig()
+                .setMaxRunningQueries(1)
+                .setMaxQueuedQueries(1));
+
+        scheduler.schedule("a", INTERACTIVE, () -> {});
+        scheduler.schedule("a", INTERACTIVE, () -> {});
+        try {
+            scheduler.schedule("b", INTERACTIVE, () -> {});
+            fail();
+        }
+        catch (RakamException e) {
+            assertEquals(scheduler.getRejectedQueries(), 1);
+        }
+    }
+
+    @Test
+    public void testCancelQueued()
+            throws Exception
+    {
+        PrestoQueryScheduler scheduler = new PrestoQueryScheduler(new PrestoConfig().setMaxRunningQueries(1));
+        List<String> started = new ArrayList<>();
+
+        Ticket running = scheduler.schedule("a", INTERACTIVE, () -> started.add("running"));
+        Ticket queued = scheduler.schedule("a", INTERACTIVE, () -> started.add("queued"));
+
+        assertTrue(queued.cancel());
+        assertFalse(running.cancel());
+        running.release();
+
+        assertEquals(started.size(), 1);
+        assertEquals(scheduler.getQueuedQueries(), 0);
+        assertEquals(scheduler.getRunningQueries(), 0);
+    }
+}
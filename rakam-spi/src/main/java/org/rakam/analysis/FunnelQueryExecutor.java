@@ -1,6 +1,5 @@
 package org.rakam.analysis;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -8,6 +7,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.rakam.report.QueryExecution;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.LocalDate;
 import java.time.ZoneId;
@@ -55,8 +55,6 @@ public interface FunnelQueryExecutor
     }
 
     class FunnelStep {
-        private static SqlParser parser = new SqlParser();
-
         private final String collection;
         private final Optional<String> filterExpression;
 
@@ -73,9 +71,9 @@ public interface FunnelQueryExecutor
         }
 
         @JsonIgnore
-        public synchronized Optional<Expression> getExpression() {
+        public Optional<Expression> getExpression() {
             try {
-                return filterExpression.map(value -> parser.createExpression(value));
+                return filterExpression.map(SqlParserUtil::createExpression);
             }
             catch (Exception e) {
                 throw new RakamException("Unable to parse filter expression: " + filterExpression.get(),
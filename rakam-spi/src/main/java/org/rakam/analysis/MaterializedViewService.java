@@ -1,7 +1,6 @@
 package org.rakam.analysis;
 
 import com.facebook.presto.sql.RakamSqlFormatter;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Query;
 import com.google.common.collect.ImmutableMap;
 import org.rakam.analysis.metadata.QueryMetadataStore;
@@ -11,6 +10,7 @@ import org.rakam.report.QueryExecution;
 import org.rakam.report.QueryExecutor;
 import org.rakam.report.QueryResult;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import java.util.HashMap;
 import java.util.List;
@@ -24,7 +24,6 @@ import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERR
 
 
 public abstract class MaterializedViewService {
-    public final static SqlParser sqlParser = new SqlParser();
     private final QueryMetadataStore database;
     private final QueryExecutor queryExecutor;
     private final char escapeIdentifier;
@@ -89,7 +88,7 @@ public abstract class MaterializedViewService {
 
     protected CompletableFuture<List<SchemaField>> metadata(String project, String query) {
         StringBuilder builder = new StringBuilder();
-        Query queryStatement = (Query) sqlParser.createStatement(checkNotNull(query, "query is required"));
+        Query queryStatement = (Query) SqlParserUtil.createStatement(checkNotNull(query, "query is required"));
 
         new RakamSqlFormatter.Formatter(builder, qualifiedName -> queryExecutor.formatTableReference(project, qualifiedName, Optional.empty(), ImmutableMap.of(), "collection"), escapeIdentifier)
                 .process(queryStatement, 1);
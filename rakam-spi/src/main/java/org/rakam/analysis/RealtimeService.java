@@ -1,6 +1,5 @@
 package org.rakam.analysis;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.google.common.collect.ImmutableList;
@@ -14,6 +13,7 @@ import org.rakam.report.QueryExecutor;
 import org.rakam.report.realtime.AggregationType;
 import org.rakam.report.realtime.RealTimeConfig;
 import org.rakam.report.realtime.RealTimeReport;
+import org.rakam.util.SqlParserUtil;
 import org.rakam.util.SuccessMessage;
 import org.rakam.util.RakamException;
 
@@ -49,7 +49,6 @@ public abstract class RealtimeService
     private static final Logger LOGGER = Logger.get(RealtimeService.class);
 
     private final String timestampToEpochFunction;
-    private final SqlParser sqlParser = new SqlParser();
     private final Duration slide;
     private final ContinuousQueryService service;
     private final QueryExecutor executor;
@@ -93,12 +92,25 @@ public abstract class RealtimeService
                         IntStream.range(0, report.dimensions.size()).mapToObj(i -> ", " + (i + 2)).collect(Collectors.joining("")) : "")
                 .toString();
 
+        // the definition of the report is also kept for the in-memory aggregations
+        ImmutableMap.Builder<String, Object> options = ImmutableMap.<String, Object>builder()
+                .put("realtime", true)
+                .put("aggregation", report.measures)
+                .put("collections", report.collections);
+        if (report.dimensions != null) {
+            options.put("dimensions", report.dimensions);
+        }
+        if (report.filter != null) {
+            options.put("filter", report.filter);
+        }
+        if (report.window != null) {
+            options.put("window", report.window.toString());
+        }
+
         ContinuousQuery query = new ContinuousQuery(report.table_name, report.name,
                 sqlQuery,
                 ImmutableList.of(),
-                ImmutableMap.of(
-                        "realtime", true,
-                        "aggregation", report.measures));
+                options.build());
 
         return service.create(project, query, false).getResult()
                 .thenApply(SuccessMessage::map);
@@ -125,7 +137,7 @@ public abstract class RealtimeService
     {
         Expression expression;
         if (filter != null) {
-            expression = sqlParser.createExpression(filter);
+            expression = SqlParserUtil.createExpression(filter);
         }
         else {
             expression = null;
@@ -13,13 +13,13 @@
  */
 package org.rakam.analysis;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
 import org.rakam.report.QueryExecution;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.LocalDate;
 import java.time.ZoneId;
@@ -45,8 +45,6 @@ public interface RetentionQueryExecutor {
 
     @AutoValue
     abstract class RetentionAction {
-        private static SqlParser parser = new SqlParser();
-
         @JsonProperty
         public abstract String collection();
 
@@ -66,8 +64,8 @@ public interface RetentionQueryExecutor {
             return getFilter().toString();
         }
 
-        private static synchronized Expression parseExpression(String filterExpression) {
-            return parser.createExpression(filterExpression);
+        private static Expression parseExpression(String filterExpression) {
+            return SqlParserUtil.createExpression(filterExpression);
         }
     }
 
@@ -166,7 +166,7 @@ public class Event
                 @ApiParam(value = "library", required = false, description = "Optional library information for statistics") Library library,
                 @ApiParam(value = "api_version", required = false, description = "Optional API version for versioning") String apiVersion,
                 @ApiParam(value = "upload_time", required = false, description = "Optional client upload time for clock synchronization") Long uploadTime,
-                @ApiParam(value = "checksum", required = false, description = "Optional checksum for verify the body content") String checksum)
+                @ApiParam(value = "checksum", required = false, description = "Optional MD5 checksum of the decompressed JSON body that is computed while this field is an empty string") String checksum)
         {
             this.library = library;
             this.apiKey = apiKey;
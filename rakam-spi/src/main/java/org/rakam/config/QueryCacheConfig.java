@@ -0,0 +1,89 @@
+package org.rakam.config;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Min;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+public class QueryCacheConfig
+{
+    private boolean enabled;
+    private long maxCachedValues = 5_000_000;
+    private int maxResultRows = 50_000;
+    private Duration ttl = new Duration(1, MINUTES);
+    private Duration materializedViewTtl = new Duration(10, MINUTES);
+
+    @Config("query.cache.enabled")
+    @ConfigDescription("Cache the results of the queries so that the same query is not executed again until the cached result expires")
+    public QueryCacheConfig setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public boolean getEnabled()
+    {
+        return enabled;
+    }
+
+    @Config("query.cache.max-cached-values")
+    @ConfigDescription("The total number of the cells (rows * columns) that can be kept in the cache")
+    public QueryCacheConfig setMaxCachedValues(long maxCachedValues)
+    {
+        this.maxCachedValues = maxCachedValues;
+        return this;
+    }
+
+    @Min(1)
+    public long getMaxCachedValues()
+    {
+        return maxCachedValues;
+    }
+
+    @Config("query.cache.max-result-rows")
+    @ConfigDescription("The results that have more rows are not cached")
+    public QueryCacheConfig setMaxResultRows(int maxResultRows)
+    {
+        this.maxResultRows = maxResultRows;
+        return this;
+    }
+
+    @Min(0)
+    public int getMaxResultRows()
+    {
+        return maxResultRows;
+    }
+
+    @Config("query.cache.ttl")
+    @ConfigDescription("The expiration time of the queries that read the event collections")
+    public QueryCacheConfig setTtl(Duration ttl)
+    {
+        this.ttl = ttl;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getTtl()
+    {
+        return ttl;
+    }
+
+    @Config("query.cache.materialized-view-ttl")
+    @ConfigDescription("The expiration time of the queries that only read materialized views, " +
+            "the cached result is not used after the materialized views are updated")
+    public QueryCacheConfig setMaterializedViewTtl(Duration materializedViewTtl)
+    {
+        this.materializedViewTtl = materializedViewTtl;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getMaterializedViewTtl()
+    {
+        return materializedViewTtl;
+    }
+}
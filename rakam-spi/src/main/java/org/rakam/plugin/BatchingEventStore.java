@@ -0,0 +1,214 @@
+package org.rakam.plugin;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import org.rakam.collection.Event;
+import org.rakam.util.ProjectCollection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Groups the events sent via {@link #storeAsync(Event)} by collection and writes them to the
+ * underlying store as a single batch when the batch is full or at most {@code maxDelayMillis} after
+ * the event is added. The future of each event is completed when its batch is committed.
+ * <p>
+ * The batches of {@link #storeBatchAsync(List)} and the bulk methods are already batched by the callers,
+ * they are sent to the underlying store directly. {@link #close()} must be called on shutdown, otherwise
+ * the events that are buffered but acknowledged to the callers are lost.
+ */
+public class BatchingEventStore
+        implements EventStore
+{
+    private final static Logger LOGGER = Logger.get(BatchingEventStore.class);
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final EventStore delegate;
+    private final int maxBatchSize;
+    private final ConcurrentHashMap<ProjectCollection, Batch> batches;
+    private final ScheduledExecutorService flushService;
+    private volatile boolean closed;
+
+    public BatchingEventStore(EventStore delegate, int maxBatchSize, long maxDelayMillis)
+    {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        checkArgument(maxDelayMillis > 0, "maxDelayMillis must be positive");
+        this.delegate = requireNonNull(delegate, "delegate is null");
+        this.maxBatchSize = maxBatchSize;
+        this.batches = new ConcurrentHashMap<>();
+        this.flushService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("event-store-batch-flusher")
+                .setDaemon(true).build());
+        this.flushService.scheduleAtFixedRate(this::flushAll, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> storeAsync(Event event)
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Batch batch = batches.computeIfAbsent(new ProjectCollection(event.project(), event.collection()),
+                key -> new Batch());
+
+        Batch.Drained drained = batch.add(event, future, maxBatchSize);
+        // the batch is not flushed by the scheduler once the store is closed
+        if (drained == null && closed) {
+            drained = batch.drain();
+        }
+        if (drained != null) {
+            flush(drained);
+        }
+
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
+    {
+        return delegate.storeBatchAsync(events);
+    }
+
+    @Override
+    public int[] storeBatch(List<Event> events)
+    {
+        return delegate.storeBatch(events);
+    }
+
+    @Override
+    public void storeBulk(List<Event> events)
+    {
+        delegate.storeBulk(events);
+    }
+
+    @Override
+    public void storeBulk(Iterator<List<Event>> chunks)
+    {
+        delegate.storeBulk(chunks);
+    }
+
+    public void flushAll()
+    {
+        flushBatches();
+    }
+
+    /**
+     * Stops the scheduled flushes, flushes the buffered events and waits until they're stored. The events that
+     * are added after the store is closed are flushed immediately.
+     */
+    public void close()
+            throws InterruptedException
+    {
+        closed = true;
+        flushService.shutdownNow();
+        flushService.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        List<CompletableFuture<int[]>> results = flushBatches();
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[results.size()]))
+                    .get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            // the failures are logged by the flush
+        }
+        catch (TimeoutException e) {
+            LOGGER.warn("The buffered events are not stored in %d seconds", CLOSE_TIMEOUT_SECONDS);
+        }
+    }
+
+    private List<CompletableFuture<int[]>> flushBatches()
+    {
+        List<CompletableFuture<int[]>> results = new ArrayList<>();
+        for (Batch batch : batches.values()) {
+            Batch.Drained drained = batch.drain();
+            if (drained != null) {
+                results.add(flush(drained));
+            }
+        }
+        return results;
+    }
+
+    private CompletableFuture<int[]> flush(Batch.Drained drained)
+    {
+        CompletableFuture<int[]> result;
+        try {
+            result = delegate.storeBatchAsync(drained.events);
+        }
+        catch (Throwable e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenComplete((failedIndexes, ex) -> {
+            if (ex != null) {
+                LOGGER.error(ex, "Error while storing a batch of %d events", drained.events.size());
+                for (CompletableFuture<Void> future : drained.futures) {
+                    future.completeExceptionally(ex);
+                }
+                return;
+            }
+
+            boolean[] failed = new boolean[drained.futures.size()];
+            for (int index : failedIndexes) {
+                failed[index] = true;
+            }
+
+            for (int i = 0; i < failed.length; i++) {
+                CompletableFuture<Void> future = drained.futures.get(i);
+                if (failed[i]) {
+                    future.completeExceptionally(new IllegalStateException("The event store couldn't store the event"));
+                }
+                else {
+                    future.complete(null);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static class Batch
+    {
+        private List<Event> events = new ArrayList<>();
+        private List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        public synchronized Drained add(Event event, CompletableFuture<Void> future, int maxBatchSize)
+        {
+            events.add(event);
+            futures.add(future);
+            return events.size() >= maxBatchSize ? drain() : null;
+        }
+
+        public synchronized Drained drain()
+        {
+            if (events.isEmpty()) {
+                return null;
+            }
+
+            Drained drained = new Drained(events, futures);
+            events = new ArrayList<>();
+            futures = new ArrayList<>();
+            return drained;
+        }
+
+        private static class Drained
+        {
+            private final List<Event> events;
+            private final List<CompletableFuture<Void>> futures;
+
+            private Drained(List<Event> events, List<CompletableFuture<Void>> futures)
+            {
+                this.events = events;
+                this.futures = futures;
+            }
+        }
+    }
+}
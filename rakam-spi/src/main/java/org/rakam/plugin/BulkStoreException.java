@@ -0,0 +1,27 @@
+package org.rakam.plugin;
+
+import java.util.Iterator;
+
+/**
+ * Thrown by {@link EventStore#storeBulk(Iterator)} if a chunk can't be parsed or stored. The chunks before the
+ * failing one are stored and the chunks after it are not read.
+ */
+public class BulkStoreException
+        extends RuntimeException
+{
+    private final long storedEvents;
+
+    public BulkStoreException(long storedEvents, Throwable cause)
+    {
+        super(String.format("%d events are stored before the error", storedEvents), cause);
+        this.storedEvents = storedEvents;
+    }
+
+    /**
+     * Returns the number of events that are stored, which is also the index of the first event that is not stored.
+     */
+    public long getStoredEvents()
+    {
+        return storedEvents;
+    }
+}
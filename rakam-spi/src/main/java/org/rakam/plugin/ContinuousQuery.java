@@ -1,7 +1,6 @@
 package org.rakam.plugin;
 
 import com.facebook.presto.sql.parser.ParsingException;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Query;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -11,6 +10,7 @@ import com.google.common.collect.ImmutableMap;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.rakam.server.http.annotations.ApiParam;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.Duration;
 import java.util.List;
@@ -22,7 +22,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class ContinuousQuery
 {
     @JsonIgnore
-    private final static SqlParser SQL_PARSER = new SqlParser();
 
     public final String query;
     public final String name;
@@ -69,7 +68,7 @@ public class ContinuousQuery
     {
         if (queryStatement == null) {
             try {
-                queryStatement = (Query) SQL_PARSER.createStatement(checkNotNull(query, "query is required"));
+                queryStatement = (Query) SqlParserUtil.createStatement(checkNotNull(query, "query is required"));
             }
             catch (Exception e) {
                 throw new RakamException("Unable to parse continuous query: " + e.getMessage(),
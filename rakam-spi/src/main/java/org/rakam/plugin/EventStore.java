@@ -8,6 +8,7 @@ import org.rakam.report.QueryResult;
 import org.rakam.report.realtime.AggregationType;
 
 import java.net.URL;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -40,6 +41,27 @@ public interface EventStore
         storeBatch(events);
     }
 
+    /**
+     * Stores the events of a bulk request chunk by chunk. The chunks are parsed lazily while the iterator
+     * is consumed so the implementations should not keep a reference to a chunk once it's stored.
+     * If a chunk can't be parsed or stored, the iterator is not consumed any further and a
+     * {@link BulkStoreException} with the number of the stored events is thrown.
+     */
+    default void storeBulk(Iterator<List<Event>> chunks)
+    {
+        long stored = 0;
+        try {
+            while (chunks.hasNext()) {
+                List<Event> chunk = chunks.next();
+                storeBulk(chunk);
+                stored += chunk.size();
+            }
+        }
+        catch (RuntimeException e) {
+            throw new BulkStoreException(stored, e);
+        }
+    }
+
     enum CopyType
     {
         AVRO, CSV, JSON;
@@ -59,7 +81,7 @@ public interface EventStore
 
     enum CompressionType
     {
-        GZIP;
+        GZIP, DEFLATE, ZSTD, LZ4;
 
         @JsonCreator
         public static CompressionType get(String name)
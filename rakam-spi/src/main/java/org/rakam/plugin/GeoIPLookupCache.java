@@ -0,0 +1,128 @@
+package org.rakam.plugin;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import org.apache.avro.generic.GenericRecord;
+import org.rakam.collection.Event;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Bounded cache of the GeoIP lookups that is shared by the GeoIP event mappers. The values are the fields that are
+ * attached to the events; the addresses that can't be resolved or are not in the database are cached as empty maps.
+ */
+public class GeoIPLookupCache
+{
+    private final String name;
+    private final Function<InetAddress, Map<String, Object>> lookup;
+    private final Cache<String, Map<String, Object>> cache;
+
+    public GeoIPLookupCache(String name, long maximumSize, Duration expiration, Function<InetAddress, Map<String, Object>> lookup)
+    {
+        this.name = name;
+        this.lookup = lookup;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expiration.toMillis(), MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the fields of the address, the address may be an IP literal or a hostname.
+     */
+    public Map<String, Object> get(String address)
+    {
+        Map<String, Object> fields = cache.getIfPresent(address);
+        if (fields == null) {
+            // the concurrent lookups of the same address are harmless, the result is the same
+            fields = load(address);
+            cache.put(address, fields);
+        }
+        return fields;
+    }
+
+    public Map<String, Object> get(InetAddress address)
+    {
+        return get(address.getHostAddress());
+    }
+
+    /**
+     * Attaches the fields to the events of the batch. The bulk requests usually contain many events from the same
+     * address so each distinct address in the batch is looked up once.
+     *
+     * @param addressOf returns the address of the event or null if the event should be skipped
+     */
+    public void map(List<Event> events, Function<Event, String> addressOf)
+    {
+        Map<String, Map<String, Object>> batch = new HashMap<>();
+        for (Event event : events) {
+            String address = addressOf.apply(event);
+            if (address == null) {
+                continue;
+            }
+
+            Map<String, Object> fields = batch.get(address);
+            if (fields == null) {
+                fields = get(address);
+                batch.put(address, fields);
+            }
+            attach(fields, event.properties());
+        }
+    }
+
+    public static void attach(Map<String, Object> fields, GenericRecord record)
+    {
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            record.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private Map<String, Object> load(String address)
+    {
+        InetAddress inetAddress;
+        try {
+            // it may be slow if the address is a hostname because java performs the hostname lookup.
+            inetAddress = InetAddress.getByName(address);
+        }
+        catch (UnknownHostException e) {
+            return ImmutableMap.of();
+        }
+
+        Map<String, Object> fields = lookup.apply(inetAddress);
+        return fields == null ? ImmutableMap.of() : fields;
+    }
+
+    public Stats getStats()
+    {
+        return new Stats(name, cache.stats(), cache.size());
+    }
+
+    public static class Stats
+    {
+        public final String name;
+        public final long hitCount;
+        public final long missCount;
+        public final double hitRate;
+        public final long cachedAddressCount;
+
+        public Stats(String name, CacheStats stats, long cachedAddressCount)
+        {
+            this.name = name;
+            this.hitCount = stats.hitCount();
+            this.missCount = stats.missCount();
+            this.hitRate = stats.hitRate();
+            this.cachedAddressCount = cachedAddressCount;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package org.rakam.plugin;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Query;
 import com.facebook.presto.sql.tree.QuerySpecification;
 import com.facebook.presto.sql.tree.Statement;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.rakam.server.http.annotations.ApiParam;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.Clock;
 import java.time.Duration;
@@ -18,7 +18,6 @@ import static java.time.temporal.ChronoUnit.MILLIS;
 
 
 public class MaterializedView {
-    private final static SqlParser SQL_PARSER = new SqlParser();
 
     @JsonProperty("table_name") public final String tableName;
     @JsonProperty("query") public final String query;
@@ -45,10 +44,7 @@ public class MaterializedView {
     }
 
     public void validateQuery() {
-        Statement query;
-        synchronized (SQL_PARSER) {
-            query = SQL_PARSER.createStatement(this.query);
-        }
+        Statement query = SqlParserUtil.createStatement(this.query);
         checkState(query instanceof Query, "Expression is not query");
         checkState((!((Query) query).getLimit().isPresent()),
                 "The query of materialized view can't contain LIMIT statement");
@@ -0,0 +1,964 @@
+package org.rakam.plugin;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.airlift.log.Logger;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.rakam.collection.Event;
+import org.rakam.collection.SchemaField;
+import org.rakam.server.http.HttpRequestException;
+import org.rakam.util.JsonHelper;
+import org.rakam.util.ProjectCollection;
+import org.rakam.util.RakamException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Appends the events to a local write-ahead spool and acknowledges them once they are fsynced to the disk so that
+ * the clients don't wait for the underlying store when it slows down. A single writer thread appends the pending
+ * batches to the current segment and forces the segment once per group of batches. A drainer thread replays the
+ * spooled events to the underlying store in the order they are appended, the events of different collections are
+ * sent to the store concurrently. The segments are rotated when they exceed {@code segmentSize} and deleted
+ * once they're drained.
+ * <p>
+ * The drain position is persisted atomically after each replay so the events that are not drained are replayed when
+ * the store is restarted. The delivery is at-least-once, the events that are replayed before a crash may be stored
+ * twice.
+ * <p>
+ * The collections that the store rejects with a client error are not retried, and the other failures are retried at
+ * most {@code maxDrainAttempts} times, so a single collection can't stall the drainer. These events are appended to
+ * the dead letter file of the spool in the block format below. The blocks that can't be read or decoded are skipped,
+ * the decoded ones are moved to the dead letter file as well.
+ * <p>
+ * The blocks of the segments are, in big-endian:
+ * <pre>
+ * header:  magic, payload length, CRC32 of the payload (int)
+ * payload: append time (long), project, collection, Avro schema, schema fields (string), event count (int)
+ *          followed by the API context (string) and the Avro binary encoded properties (bytes) of the events
+ * </pre>
+ * The strings and bytes are written as their length followed by the bytes, -1 length is used for null values.
+ */
+public class SpoolingEventStore
+        implements EventStore
+{
+    private final static Logger LOGGER = Logger.get(SpoolingEventStore.class);
+
+    private static final int BLOCK_MAGIC = 0x52534231;
+    private static final int BLOCK_HEADER_SIZE = 3 * 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String POSITION_FILE = "drain.position";
+    private static final String DEAD_LETTER_FILE = "dead-letter.spool";
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+    private static final long IDLE_WAIT_MILLIS = 10;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final EventStore delegate;
+    private final File directory;
+    private final long segmentSize;
+    private final long maxSpoolSize;
+    private final int maxDrainEvents;
+    private final int maxDrainAttempts;
+    private final BlockingQueue<Append> appends;
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+    private final AtomicLong spoolSize = new AtomicLong();
+    private final AtomicLong rotations = new AtomicLong();
+    private final AtomicLong spooledEvents = new AtomicLong();
+    private final AtomicLong drainedEvents = new AtomicLong();
+    private final AtomicLong rejectedEvents = new AtomicLong();
+    private final AtomicLong drainRetries = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+    private final Thread writer;
+    private final Thread drainer;
+
+    private Segment current;
+    private FileChannel currentChannel;
+    private volatile boolean running = true;
+    private volatile long oldestPendingAppendTime = -1;
+
+    public SpoolingEventStore(EventStore delegate, File directory, long segmentSize, long maxSpoolSize, int maxDrainEvents, int maxDrainAttempts)
+            throws IOException
+    {
+        checkArgument(segmentSize > 0, "segmentSize must be positive");
+        checkArgument(maxSpoolSize >= segmentSize, "maxSpoolSize must be greater than segmentSize");
+        checkArgument(maxDrainEvents > 0, "maxDrainEvents must be positive");
+        checkArgument(maxDrainAttempts > 0, "maxDrainAttempts must be positive");
+        this.delegate = requireNonNull(delegate, "delegate is null");
+        this.directory = requireNonNull(directory, "directory is null");
+        this.segmentSize = segmentSize;
+        this.maxSpoolSize = maxSpoolSize;
+        this.maxDrainEvents = maxDrainEvents;
+        this.maxDrainAttempts = maxDrainAttempts;
+        this.appends = new LinkedBlockingQueue<>();
+        this.segments = new ConcurrentSkipListMap<>();
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the spool directory " + directory);
+        }
+
+        long[] position = recover();
+        rotate(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+
+        this.writer = new Thread(this::write, "event-store-spool-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.drainer = new Thread(() -> drain(position[0], position[1]), "event-store-spool-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> storeAsync(Event event)
+    {
+        return storeBatchAsync(Collections.singletonList(event)).thenApply(failed -> null);
+    }
+
+    @Override
+    public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
+    {
+        CompletableFuture<int[]> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new RakamException("The event spool is closed", SERVICE_UNAVAILABLE));
+        }
+        else if (spoolSize.get() >= maxSpoolSize) {
+            future.completeExceptionally(new RakamException("The event spool is full", SERVICE_UNAVAILABLE));
+        }
+        else {
+            appends.add(new Append(events, future));
+        }
+        return future;
+    }
+
+    /**
+     * The bulk requests are usually large imports, they bypass the spool so that the events are not written twice.
+     */
+    @Override
+    public void storeBulk(List<Event> events)
+    {
+        delegate.storeBulk(events);
+    }
+
+    @Override
+    public void storeBulk(Iterator<List<Event>> chunks)
+    {
+        delegate.storeBulk(chunks);
+    }
+
+    /**
+     * Stops accepting events, waits until the pending batches are spooled and stops the drainer.
+     * The events that are not drained yet are replayed when the spool is opened again.
+     */
+    public void close()
+            throws InterruptedException
+    {
+        running = false;
+        writer.join();
+        drainer.interrupt();
+        drainer.join();
+    }
+
+    public Stats getStats()
+    {
+        long oldest = oldestPendingAppendTime;
+        return new Stats(spoolSize.get(), segments.size(), rotations.get(),
+                spooledEvents.get(), drainedEvents.get(), rejectedEvents.get(), drainRetries.get(), skippedBytes.get(),
+                oldest == -1 ? 0 : Math.max(0, System.currentTimeMillis() - oldest));
+    }
+
+    private void write()
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+        BlockEncoder encoder = new BlockEncoder();
+        List<Append> group = new ArrayList<>();
+
+        while (running || !appends.isEmpty()) {
+            try {
+                Append first = appends.poll(IDLE_WAIT_MILLIS, MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            appends.drainTo(group);
+
+            buffer.reset();
+            long now = System.currentTimeMillis();
+            List<Append> encoded = new ArrayList<>(group.size());
+            int eventCount = 0;
+            for (Append append : group) {
+                try {
+                    buffer.write(encoder.encode(now, append.events));
+                    encoded.add(append);
+                    eventCount += append.events.size();
+                }
+                catch (Exception e) {
+                    append.future.completeExceptionally(e);
+                }
+            }
+
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+                while (bytes.hasRemaining()) {
+                    currentChannel.write(bytes);
+                }
+                currentChannel.force(false);
+
+                current.durableSize += buffer.size();
+                spoolSize.addAndGet(buffer.size());
+                spooledEvents.addAndGet(eventCount);
+                for (Append append : encoded) {
+                    append.future.complete(SUCCESSFUL_BATCH);
+                }
+
+                if (current.durableSize >= segmentSize) {
+                    rotate(current.id + 1);
+                }
+            }
+            catch (IOException e) {
+                LOGGER.error(e, "Error while spooling %d events", eventCount);
+                for (Append append : encoded) {
+                    append.future.completeExceptionally(e);
+                }
+                discardPartialWrite();
+            }
+            group.clear();
+        }
+
+        try {
+            currentChannel.close();
+        }
+        catch (IOException e) {
+            LOGGER.warn(e, "Error while closing the spool segment");
+        }
+    }
+
+    private void discardPartialWrite()
+    {
+        try {
+            currentChannel.truncate(current.durableSize);
+            currentChannel.position(current.durableSize);
+        }
+        catch (IOException e) {
+            // the tail of the segment is unreadable, the recovery truncates it on restart
+            LOGGER.error(e, "Unable to truncate the spool segment %s, rotating", current.file);
+            try {
+                rotate(current.id + 1);
+            }
+            catch (IOException ex) {
+                LOGGER.error(ex, "Unable to rotate the spool segment");
+            }
+        }
+    }
+
+    private void rotate(long id)
+            throws IOException
+    {
+        Segment segment = new Segment(id, new File(directory, segmentName(id)));
+        FileChannel channel = FileChannel.open(segment.file.toPath(), CREATE_NEW, WRITE, APPEND);
+        if (current != null) {
+            currentChannel.close();
+            current.sealed = true;
+            rotations.incrementAndGet();
+        }
+        segments.put(id, segment);
+        current = segment;
+        currentChannel = channel;
+    }
+
+    /**
+     * Loads the segments of the previous run and truncates the torn block at the end of each segment.
+     * Returns the drain position that is persisted by the drainer.
+     */
+    private long[] recover()
+            throws IOException
+    {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        for (File file : files) {
+            String name = file.getName();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file);
+            try (FileChannel channel = FileChannel.open(file.toPath(), READ, WRITE)) {
+                long size = channel.size();
+                long valid = 0;
+                long position = 0;
+                while (position < size) {
+                    if (readBlock(channel, position) != null) {
+                        position = channel.position();
+                        valid = position;
+                        continue;
+                    }
+                    // the blocks after a corrupted region are kept, the drainer skips the region
+                    long next = findNextBlock(channel, position, size);
+                    if (next == -1) {
+                        break;
+                    }
+                    LOGGER.error("The spool segment %s is corrupted between %d and %d", file, position, next);
+                    position = next;
+                }
+                if (valid < size) {
+                    LOGGER.warn("Truncating the torn block at the end of the spool segment %s", file);
+                    channel.truncate(valid);
+                    channel.force(false);
+                }
+                segment.durableSize = valid;
+            }
+            segment.sealed = true;
+            segments.put(id, segment);
+            spoolSize.addAndGet(segment.durableSize);
+        }
+
+        File positionFile = new File(directory, POSITION_FILE);
+        if (segments.isEmpty() || !positionFile.exists()) {
+            return new long[] {segments.isEmpty() ? 0 : segments.firstKey(), 0};
+        }
+
+        long[] position = readPosition(positionFile);
+        if (position == null) {
+            return new long[] {segments.firstKey(), 0};
+        }
+        long segmentId = position[0];
+        long offset = position[1];
+        Segment segment = segments.get(segmentId);
+        if (segment == null || offset > segment.durableSize) {
+            return new long[] {segments.firstKey(), 0};
+        }
+        // the drained segments are deleted lazily, remove the ones before the position
+        for (Segment drained : segments.headMap(segmentId).values()) {
+            deleteSegment(drained);
+        }
+        return new long[] {segmentId, offset};
+    }
+
+    /**
+     * Returns null if the position file is not readable, the events are replayed from the oldest segment in that case.
+     */
+    private static long[] readPosition(File positionFile)
+    {
+        try {
+            String[] position = new String(Files.readAllBytes(positionFile.toPath()), UTF_8).trim().split(" ");
+            if (position.length != 2) {
+                throw new IllegalArgumentException("Invalid drain position");
+            }
+            long segmentId = Long.parseLong(position[0]);
+            long offset = Long.parseLong(position[1]);
+            if (segmentId < 0 || offset < 0) {
+                throw new IllegalArgumentException("Invalid drain position");
+            }
+            return new long[] {segmentId, offset};
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.error(e, "The drain position file %s is not readable, replaying the spool from the oldest segment", positionFile);
+            return null;
+        }
+    }
+
+    private void drain(long segmentId, long offset)
+    {
+        BlockDecoder decoder = new BlockDecoder();
+        FileChannel channel = null;
+        long channelSegmentId = -1;
+        long retryDelay = IDLE_WAIT_MILLIS;
+
+        try {
+            while (running) {
+                Segment segment = segments.get(segmentId);
+                if (segment == null) {
+                    Map.Entry<Long, Segment> next = segments.ceilingEntry(segmentId);
+                    if (next == null) {
+                        Thread.sleep(IDLE_WAIT_MILLIS);
+                        continue;
+                    }
+                    segmentId = next.getKey();
+                    segment = next.getValue();
+                    offset = 0;
+                }
+
+                try {
+                    boolean sealed = segment.sealed;
+                    long readable = segment.durableSize;
+                    if (offset < readable) {
+                        if (channelSegmentId != segmentId) {
+                            closeQuietly(channel);
+                            channel = FileChannel.open(segment.file.toPath(), READ);
+                            channelSegmentId = segmentId;
+                        }
+
+                        List<Block> blocks = new ArrayList<>();
+                        int eventCount = 0;
+                        long position = offset;
+                        while (position < readable && eventCount < maxDrainEvents) {
+                            byte[] payload = readBlock(channel, position);
+                            if (payload == null) {
+                                // the blocks up to the durable size are fsynced, so the file is corrupted
+                                position = skipCorruptedBlock(segment, channel, position, readable);
+                                continue;
+                            }
+
+                            long next = channel.position();
+                            Block block;
+                            try {
+                                block = decoder.decode(payload);
+                            }
+                            catch (Exception e) {
+                                LOGGER.error(e, "Unable to decode the block of the spool segment %s at %d, moving it to the dead letter file",
+                                        segment.file, position);
+                                skippedBytes.addAndGet(next - position);
+                                deadLetter(Collections.singletonList(payload));
+                                position = next;
+                                continue;
+                            }
+                            blocks.add(block);
+                            eventCount += block.events.size();
+                            position = next;
+                        }
+
+                        if (!blocks.isEmpty()) {
+                            oldestPendingAppendTime = blocks.get(0).appendTime;
+                            if (!replay(blocks)) {
+                                break;
+                            }
+                            drainedEvents.addAndGet(eventCount);
+                        }
+                        offset = position;
+                        writePosition(segmentId, offset);
+                    }
+                    else if (sealed) {
+                        if (channelSegmentId == segmentId) {
+                            closeQuietly(channel);
+                            channel = null;
+                            channelSegmentId = -1;
+                        }
+                        deleteSegment(segment);
+                        segmentId++;
+                        offset = 0;
+                    }
+                    else {
+                        oldestPendingAppendTime = -1;
+                        Thread.sleep(IDLE_WAIT_MILLIS);
+                    }
+                    retryDelay = IDLE_WAIT_MILLIS;
+                }
+                catch (IOException e) {
+                    // closing the store interrupts the reads of the drainer
+                    if (!running) {
+                        break;
+                    }
+                    LOGGER.error(e, "Error while draining the spool segment %s, retrying in %dms", segment.file, retryDelay);
+                    closeQuietly(channel);
+                    channel = null;
+                    channelSegmentId = -1;
+                    drainRetries.incrementAndGet();
+                    Thread.sleep(retryDelay);
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Skips the corrupted bytes at the position up to the next readable block of the segment.
+     * Returns the position of the next block, or the limit if there is no readable block before it.
+     */
+    private long skipCorruptedBlock(Segment segment, FileChannel channel, long position, long limit)
+            throws IOException
+    {
+        long next = findNextBlock(channel, position, limit);
+        if (next == -1) {
+            next = limit;
+        }
+        LOGGER.error("The spool segment %s is corrupted between %d and %d, skipping the corrupted bytes",
+                segment.file, position, next);
+        skippedBytes.addAndGet(next - position);
+        return next;
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                LOGGER.warn(e, "Error while closing the spool segment");
+            }
+        }
+    }
+
+    /**
+     * Sends the events to the underlying store grouped by collection and retries the collections that fail
+     * with an exponential backoff. The collections that are rejected by the store or still fail after
+     * {@code maxDrainAttempts} attempts are moved to the dead letter file. Returns false if the spool is closed
+     * before the events are stored.
+     */
+    private boolean replay(List<Block> blocks)
+            throws InterruptedException
+    {
+        Map<ProjectCollection, List<Event>> pending = new LinkedHashMap<>();
+        Map<ProjectCollection, List<byte[]>> payloads = new HashMap<>();
+        for (Block block : blocks) {
+            ProjectCollection key = new ProjectCollection(block.project, block.collection);
+            pending.computeIfAbsent(key, k -> new ArrayList<>()).addAll(block.events);
+            payloads.computeIfAbsent(key, k -> new ArrayList<>()).add(block.payload);
+        }
+
+        long retryDelay = IDLE_WAIT_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            Map<ProjectCollection, CompletableFuture<int[]>> futures = new LinkedHashMap<>();
+            for (Map.Entry<ProjectCollection, List<Event>> entry : pending.entrySet()) {
+                CompletableFuture<int[]> future;
+                try {
+                    future = delegate.storeBatchAsync(entry.getValue());
+                }
+                catch (Throwable e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                futures.put(entry.getKey(), future);
+            }
+
+            for (Map.Entry<ProjectCollection, CompletableFuture<int[]>> entry : futures.entrySet()) {
+                ProjectCollection key = entry.getKey();
+                try {
+                    int[] failedIndexes = entry.getValue().join();
+                    if (failedIndexes.length > 0) {
+                        LOGGER.error("The event store couldn't store %d spooled events of %s.%s",
+                                failedIndexes.length, key.project, key.collection);
+                        rejectedEvents.addAndGet(failedIndexes.length);
+                    }
+                    pending.remove(key);
+                }
+                catch (Exception e) {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    int count = pending.get(key).size();
+                    if (isPermanentFailure(cause)) {
+                        LOGGER.error(cause, "The event store rejected %d spooled events of %s.%s, moving them to the dead letter file",
+                                count, key.project, key.collection);
+                    }
+                    else if (attempt >= maxDrainAttempts) {
+                        LOGGER.error(cause, "Unable to drain %d spooled events of %s.%s in %d attempts, moving them to the dead letter file",
+                                count, key.project, key.collection, attempt);
+                    }
+                    else {
+                        LOGGER.warn(cause, "Error while draining %d spooled events of %s.%s, retrying in %dms",
+                                count, key.project, key.collection, retryDelay);
+                        continue;
+                    }
+                    pending.remove(key);
+                    rejectedEvents.addAndGet(count);
+                    deadLetter(payloads.get(key));
+                }
+            }
+
+            if (pending.isEmpty()) {
+                return true;
+            }
+            if (!running) {
+                return false;
+            }
+            drainRetries.incrementAndGet();
+            Thread.sleep(retryDelay);
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * The client errors such as a deleted project or invalid events fail the same way when they are retried.
+     */
+    private static boolean isPermanentFailure(Throwable e)
+    {
+        if (e instanceof HttpRequestException) {
+            int code = ((HttpRequestException) e).getStatusCode().code();
+            return code >= 400 && code < 500;
+        }
+        return e instanceof IllegalArgumentException || e instanceof AvroRuntimeException;
+    }
+
+    private void deadLetter(List<byte[]> payloads)
+    {
+        File file = new File(directory, DEAD_LETTER_FILE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, APPEND)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (byte[] payload : payloads) {
+                writeBlock(buffer, payload);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        catch (IOException e) {
+            LOGGER.error(e, "Unable to write %d spooled blocks to the dead letter file %s, dropping them", payloads.size(), file);
+        }
+    }
+
+    /**
+     * Writes the position to a temporary file and renames it so that a crash can't leave a torn position file.
+     */
+    private void writePosition(long segmentId, long offset)
+            throws IOException
+    {
+        Path temp = new File(directory, POSITION_FILE + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap((segmentId + " " + offset).getBytes(UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, new File(directory, POSITION_FILE).toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private void deleteSegment(Segment segment)
+    {
+        segments.remove(segment.id);
+        spoolSize.addAndGet(-segment.durableSize);
+        if (!segment.file.delete()) {
+            LOGGER.warn("Unable to delete the drained spool segment %s", segment.file);
+        }
+    }
+
+    private static String segmentName(long id)
+    {
+        return String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Reads the block at the position and moves the channel to the next block.
+     * Returns null if the block is incomplete or corrupted.
+     */
+    private static byte[] readBlock(FileChannel channel, long position)
+            throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        if (!readFully(channel, header, position) || header.getInt(0) != BLOCK_MAGIC) {
+            return null;
+        }
+
+        int length = header.getInt(4);
+        if (length < 0 || position + BLOCK_HEADER_SIZE + length > channel.size()) {
+            return null;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(channel, payload, position + BLOCK_HEADER_SIZE)) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != header.getInt(8)) {
+            return null;
+        }
+
+        channel.position(position + BLOCK_HEADER_SIZE + length);
+        return payload.array();
+    }
+
+    /**
+     * Returns the position of the first readable block after the position that ends before the limit,
+     * or -1 if there is no such block.
+     */
+    private static long findNextBlock(FileChannel channel, long position, long limit)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long start = position + 1;
+        while (start + BLOCK_HEADER_SIZE <= limit) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), limit - start));
+            int read = channel.read(buffer, start);
+            if (read <= 0) {
+                return -1;
+            }
+            for (int i = 0; i + 4 <= read; i++) {
+                if (buffer.getInt(i) == BLOCK_MAGIC && readBlock(channel, start + i) != null && channel.position() <= limit) {
+                    return start + i;
+                }
+            }
+            // the magic may span the chunks
+            start += Math.max(1, read - 3);
+        }
+        return -1;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeBlock(ByteArrayOutputStream buffer, byte[] payload)
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        DataOutputStream header = new DataOutputStream(buffer);
+        header.writeInt(BLOCK_MAGIC);
+        header.writeInt(payload.length);
+        header.writeInt((int) crc.getValue());
+        header.write(payload);
+        header.flush();
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes)
+            throws IOException
+    {
+        if (bytes == null) {
+            output.writeInt(-1);
+        }
+        else {
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value)
+            throws IOException
+    {
+        writeBytes(output, value == null ? null : value.getBytes(UTF_8));
+    }
+
+    private static byte[] readBytes(DataInputStream input)
+            throws IOException
+    {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static String readString(DataInputStream input)
+            throws IOException
+    {
+        byte[] bytes = readBytes(input);
+        return bytes == null ? null : new String(bytes, UTF_8);
+    }
+
+    private static class BlockEncoder
+    {
+        private final Map<Schema, GenericDatumWriter<GenericRecord>> writers = new HashMap<>();
+        private final ByteArrayOutputStream blocks = new ByteArrayOutputStream(1 << 16);
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 16);
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(1 << 10);
+        private BinaryEncoder encoder;
+
+        /**
+         * Returns the blocks of the events, a block is written for each collection and schema of the events.
+         */
+        public byte[] encode(long appendTime, List<Event> events)
+                throws IOException
+        {
+            Map<List<Object>, List<Event>> groups = new LinkedHashMap<>();
+            for (Event event : events) {
+                List<Object> key = Arrays.asList(event.project(), event.collection(), event.properties().getSchema());
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(event);
+            }
+
+            blocks.reset();
+            for (List<Event> group : groups.values()) {
+                encodeBlock(blocks, appendTime, group);
+            }
+            return blocks.toByteArray();
+        }
+
+        private void encodeBlock(ByteArrayOutputStream buffer, long appendTime, List<Event> events)
+                throws IOException
+        {
+            Event first = events.get(0);
+            Schema schema = first.properties().getSchema();
+            GenericDatumWriter<GenericRecord> writer = writers.computeIfAbsent(schema, GenericDatumWriter::new);
+
+            payload.reset();
+            DataOutputStream output = new DataOutputStream(payload);
+            output.writeLong(appendTime);
+            writeString(output, first.project());
+            writeString(output, first.collection());
+            writeString(output, schema.toString());
+            writeString(output, first.schema() == null ? null : JsonHelper.encode(first.schema()));
+            output.writeInt(events.size());
+
+            for (Event event : events) {
+                writeString(output, event.api() == null ? null : JsonHelper.encode(event.api()));
+                record.reset();
+                encoder = EncoderFactory.get().directBinaryEncoder(record, encoder);
+                writer.write(event.properties(), encoder);
+                encoder.flush();
+                writeBytes(output, record.toByteArray());
+            }
+            output.flush();
+            writeBlock(buffer, payload.toByteArray());
+        }
+    }
+
+    private static class BlockDecoder
+    {
+        private static final TypeReference<List<SchemaField>> FIELDS = new TypeReference<List<SchemaField>>() {};
+
+        private final Map<String, Schema> schemas = new HashMap<>();
+        private final Map<Schema, GenericDatumReader<GenericRecord>> readers = new HashMap<>();
+        private BinaryDecoder decoder;
+
+        public Block decode(byte[] payload)
+                throws IOException
+        {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            long appendTime = input.readLong();
+            String project = readString(input);
+            String collection = readString(input);
+            Schema schema = schemas.computeIfAbsent(readString(input), value -> new Schema.Parser().parse(value));
+            String fields = readString(input);
+            List<SchemaField> schemaFields = fields == null ? null : JsonHelper.read(fields, FIELDS);
+            GenericDatumReader<GenericRecord> reader = readers.computeIfAbsent(schema, GenericDatumReader::new);
+
+            int count = input.readInt();
+            List<Event> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String api = readString(input);
+                byte[] record = readBytes(input);
+                decoder = DecoderFactory.get().binaryDecoder(record, decoder);
+                GenericRecord properties = reader.read(null, decoder);
+                events.add(new Event(project, collection,
+                        api == null ? null : JsonHelper.read(api, Event.EventContext.class),
+                        schemaFields, properties));
+            }
+            return new Block(appendTime, project, collection, events, payload);
+        }
+    }
+
+    private static class Block
+    {
+        private final long appendTime;
+        private final String project;
+        private final String collection;
+        private final List<Event> events;
+        private final byte[] payload;
+
+        private Block(long appendTime, String project, String collection, List<Event> events, byte[] payload)
+        {
+            this.appendTime = appendTime;
+            this.project = project;
+            this.collection = collection;
+            this.events = events;
+            this.payload = payload;
+        }
+    }
+
+    private static class Segment
+    {
+        private final long id;
+        private final File file;
+        // written by the writer thread, the drainer reads the blocks up to this offset
+        private volatile long durableSize;
+        private volatile boolean sealed;
+
+        private Segment(long id, File file)
+        {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    private static class Append
+    {
+        private final List<Event> events;
+        private final CompletableFuture<int[]> future;
+
+        private Append(List<Event> events, CompletableFuture<int[]> future)
+        {
+            this.events = events;
+            this.future = future;
+        }
+    }
+
+    public static class Stats
+    {
+        public final long spoolBytes;
+        public final int segmentCount;
+        public final long segmentRotations;
+        public final long spooledEvents;
+        public final long drainedEvents;
+        public final long rejectedEvents;
+        public final long drainRetries;
+        public final long skippedBytes;
+        public final long drainLagMillis;
+
+        public Stats(long spoolBytes, int segmentCount, long segmentRotations, long spooledEvents, long drainedEvents, long rejectedEvents, long drainRetries, long skippedBytes, long drainLagMillis)
+        {
+            this.spoolBytes = spoolBytes;
+            this.segmentCount = segmentCount;
+            this.segmentRotations = segmentRotations;
+            this.spooledEvents = spooledEvents;
+            this.drainedEvents = drainedEvents;
+            this.rejectedEvents = rejectedEvents;
+            this.drainRetries = drainRetries;
+            this.skippedBytes = skippedBytes;
+            this.drainLagMillis = drainLagMillis;
+        }
+    }
+}
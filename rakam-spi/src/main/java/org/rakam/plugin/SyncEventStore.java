@@ -2,8 +2,11 @@ package org.rakam.plugin;
 
 import org.rakam.collection.Event;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +31,52 @@ public interface SyncEventStore
         return CompletableFuture.supplyAsync(() -> storeBatch(events), workerGroup);
     }
 
+    /**
+     * Stores the previous chunk in the worker pool while the next one is being parsed,
+     * so at most two chunks are kept in memory. If the previous chunk fails, the next chunk that
+     * is already parsed is not stored and the iterator is not consumed any further.
+     */
+    @Override
+    default void storeBulk(Iterator<List<Event>> chunks)
+    {
+        CompletableFuture<Void> previous = COMPLETED_FUTURE;
+        long stored = 0;
+        int pending = 0;
+        try {
+            while (!previous.isCompletedExceptionally() && chunks.hasNext()) {
+                List<Event> chunk = chunks.next();
+                previous.join();
+                stored += pending;
+                pending = 0;
+
+                try {
+                    previous = CompletableFuture.runAsync(() -> storeBulk(chunk), workerGroup);
+                    pending = chunk.size();
+                }
+                catch (RejectedExecutionException e) {
+                    storeBulk(chunk);
+                    stored += chunk.size();
+                    previous = COMPLETED_FUTURE;
+                }
+            }
+            previous.join();
+            stored += pending;
+        }
+        catch (RuntimeException e) {
+            // the previous chunk may still be stored if the next one can't be parsed
+            try {
+                previous.join();
+                stored += pending;
+            }
+            catch (RuntimeException ignored) {
+                // the chunk is not stored
+            }
+
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            throw new BulkStoreException(stored, cause);
+        }
+    }
+
     void store(Event event);
 
     int[] storeBatch(List<Event> events);
@@ -1,6 +1,5 @@
 package org.rakam.plugin.user;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -11,6 +10,7 @@ import org.rakam.collection.SchemaField;
 import org.rakam.report.realtime.AggregationType;
 import org.rakam.report.QueryResult;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -136,7 +136,6 @@ public interface UserStorage {
     }
 
     class EventFilter {
-        private static final SqlParser SQL_PARSER = new SqlParser();
 
         public final String collection;
         public final String filterExpression;
@@ -157,7 +156,7 @@ public interface UserStorage {
         @JsonIgnore
         public synchronized Expression getExpression() {
             try {
-                return filterExpression  != null ? SQL_PARSER.createExpression(filterExpression) : null;
+                return filterExpression  != null ? SqlParserUtil.createExpression(filterExpression) : null;
             } catch (Exception e) {
                 throw new RakamException(format("filter expression '%s' couldn't parsed", filterExpression), HttpResponseStatus.BAD_REQUEST);
             }
@@ -8,6 +8,15 @@ public interface QueryExecution {
     QueryStats currentStats();
     boolean isFinished();
     CompletableFuture<QueryResult> getResult();
+
+    /**
+     * Returns the rows of the query in pages as they are fetched from the database. The implementations that
+     * stream the rows don't include them in {@link #getResult()} once the cursor is created.
+     * The default implementation waits for the whole result.
+     */
+    default QueryResultCursor getResultCursor() {
+        return QueryResultCursor.fromResult(getResult());
+    }
     String getQuery();
     void kill();
 
@@ -19,5 +19,20 @@ public interface QueryExecutor
 
     QueryExecution executeRawStatement(String sqlQuery);
 
+    /**
+     * Executes the query of the project, the implementations may limit the concurrent queries of the projects.
+     */
+    default QueryExecution executeRawQuery(String project, String sqlQuery, Map<String, String> sessionParameters) {
+        return executeRawQuery(sqlQuery, sessionParameters);
+    }
+
+    /**
+     * Executes the statement of the project such as the materialized view updates,
+     * the implementations may run them with a lower priority than the queries.
+     */
+    default QueryExecution executeRawStatement(String project, String sqlQuery, Map<String, String> sessionParameters) {
+        return executeRawStatement(sqlQuery, sessionParameters);
+    }
+
     String formatTableReference(String project, QualifiedName name, Optional<QuerySampling> sample, Map<String, String> sessionParameters, String defaultSchema);
 }
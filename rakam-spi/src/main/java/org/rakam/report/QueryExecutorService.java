@@ -2,27 +2,31 @@ package org.rakam.report;
 
 import com.facebook.presto.sql.RakamSqlFormatter;
 import com.facebook.presto.sql.parser.ParsingException;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Call;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.facebook.presto.sql.tree.Query;
 import com.facebook.presto.sql.tree.QuerySpecification;
 import com.facebook.presto.sql.tree.Statement;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.airlift.units.Duration;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.rakam.analysis.EscapeIdentifier;
 import org.rakam.analysis.MaterializedViewService;
 import org.rakam.analysis.MaterializedViewService.MaterializedViewExecution;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.collection.SchemaField;
+import org.rakam.config.QueryCacheConfig;
 import org.rakam.plugin.MaterializedView;
 import org.rakam.util.LogUtil;
 import org.rakam.util.NotExistsException;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.Clock;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -36,9 +40,9 @@ import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static java.lang.String.format;
 import static org.rakam.report.QueryResult.EXECUTION_TIME;
 
+@Singleton
 public class QueryExecutorService
 {
-    private final SqlParser parser = new SqlParser();
     public static final int MAX_QUERY_RESULT_LIMIT = 500000;
 
     private final QueryExecutor executor;
@@ -46,16 +50,25 @@ public class QueryExecutorService
     private final Metastore metastore;
     private final Clock clock;
     private final char escapeIdentifier;
+    private final QueryResultCache resultCache;
+    private final QueryCacheConfig cacheConfig;
     private volatile Set<String> projectCache;
 
-    @Inject
     public QueryExecutorService(QueryExecutor executor, Metastore metastore, MaterializedViewService materializedViewService, Clock clock, @EscapeIdentifier char escapeIdentifier)
+    {
+        this(executor, metastore, materializedViewService, clock, escapeIdentifier, new QueryCacheConfig());
+    }
+
+    @Inject
+    public QueryExecutorService(QueryExecutor executor, Metastore metastore, MaterializedViewService materializedViewService, Clock clock, @EscapeIdentifier char escapeIdentifier, QueryCacheConfig cacheConfig)
     {
         this.executor = executor;
         this.materializedViewService = materializedViewService;
         this.metastore = metastore;
         this.clock = clock;
         this.escapeIdentifier = escapeIdentifier;
+        this.cacheConfig = cacheConfig;
+        this.resultCache = cacheConfig.getEnabled() ? new QueryResultCache(cacheConfig, clock) : null;
     }
 
     public QueryExecution executeQuery(String project, String sqlQuery, Optional<QuerySampling> sample, String defaultSchema, int limit)
@@ -65,11 +78,12 @@ public class QueryExecutorService
         }
         HashMap<MaterializedView, MaterializedViewExecution> materializedViews = new HashMap<>();
         Map<String, String> sessionParameters = new HashMap<>();
+        Set<QualifiedName> collections = new HashSet<>();
 
         String query;
 
         try {
-            query = buildQuery(project, sqlQuery, sample, defaultSchema, limit, materializedViews, sessionParameters);
+            query = buildQuery(project, sqlQuery, sample, defaultSchema, limit, materializedViews, sessionParameters, collections);
         }
         catch (ParsingException e) {
             QueryError error = new QueryError(e.getMessage(), null, null, e.getLineNumber(), e.getColumnNumber());
@@ -84,7 +98,7 @@ public class QueryExecutorService
                 .collect(Collectors.toList());
 
         if (queryExecutions.isEmpty()) {
-            QueryExecution execution = executor.executeRawQuery(query, sessionParameters);
+            QueryExecution execution = executeRawQuery(project, query, sessionParameters, materializedViews.keySet(), collections.isEmpty());
             if (materializedViews.isEmpty()) {
                 return execution;
             }
@@ -117,7 +131,7 @@ public class QueryExecutorService
                     }
                 }
 
-                return executor.executeRawQuery(query, sessionParameters);
+                return executor.executeRawQuery(project, query, sessionParameters);
             }), result -> {
                 if (!result.isFailed()) {
                     Map<String, Long> collect = materializedViews.entrySet().stream()
@@ -133,6 +147,27 @@ public class QueryExecutorService
         }
     }
 
+    private QueryExecution executeRawQuery(String project, String query, Map<String, String> sessionParameters, Set<MaterializedView> materializedViews, boolean onlyMaterializedViews)
+    {
+        // the formatted CALL statements start with the keyword, they're not cached since they modify the data
+        if (resultCache == null || query.regionMatches(true, 0, "CALL ", 0, 5)) {
+            return executor.executeRawQuery(project, query, sessionParameters);
+        }
+
+        // the key changes when a materialized view is updated so the queries on materialized views can be cached longer
+        Map<String, Long> lastUpdates = materializedViews.stream().collect(Collectors.toMap(v -> v.tableName,
+                v -> Optional.ofNullable(v.lastUpdate).map(Instant::toEpochMilli).orElse(-1L)));
+        Duration ttl = onlyMaterializedViews && !materializedViews.isEmpty() ? cacheConfig.getMaterializedViewTtl() : cacheConfig.getTtl();
+
+        return resultCache.get(project, query, sessionParameters, lastUpdates, ttl,
+                () -> executor.executeRawQuery(project, query, sessionParameters));
+    }
+
+    public Optional<QueryResultCache> getResultCache()
+    {
+        return Optional.ofNullable(resultCache);
+    }
+
     public QueryExecution executeQuery(String project, String sqlQuery)
     {
         return executeQuery(project, sqlQuery, Optional.empty(), "collection", MAX_QUERY_RESULT_LIMIT);
@@ -165,23 +200,26 @@ public class QueryExecutorService
     }
 
     public String buildQuery(String project, String query, Optional<QuerySampling> sample, String defaultSchema, Integer maxLimit, Map<MaterializedView, MaterializedViewExecution> materializedViews, Map<String, String> sessionParameters)
+    {
+        return buildQuery(project, query, sample, defaultSchema, maxLimit, materializedViews, sessionParameters, new HashSet<>());
+    }
+
+    private String buildQuery(String project, String query, Optional<QuerySampling> sample, String defaultSchema, Integer maxLimit, Map<MaterializedView, MaterializedViewExecution> materializedViews, Map<String, String> sessionParameters, Set<QualifiedName> collections)
     {
         Query statement;
-        Function<QualifiedName, String> tableNameMapper = tableNameMapper(project, materializedViews, sample, defaultSchema, sessionParameters);
-        synchronized (parser) {
-            Statement queryStatement = parser.createStatement(query);
-            if ((queryStatement instanceof Query)) {
-                statement = (Query) queryStatement;
-            }
-            else if ((queryStatement instanceof Call)) {
-                StringBuilder builder = new StringBuilder();
-                new RakamSqlFormatter.Formatter(builder, tableNameMapper, escapeIdentifier)
-                        .process(queryStatement, 1);
-                return builder.toString();
-            }
-            else {
-                throw new RakamException(queryStatement.getClass().getSimpleName() + " is not supported", BAD_REQUEST);
-            }
+        Function<QualifiedName, String> tableNameMapper = tableNameMapper(project, materializedViews, sample, defaultSchema, sessionParameters, collections);
+        Statement queryStatement = SqlParserUtil.createStatement(query);
+        if ((queryStatement instanceof Query)) {
+            statement = (Query) queryStatement;
+        }
+        else if ((queryStatement instanceof Call)) {
+            StringBuilder builder = new StringBuilder();
+            new RakamSqlFormatter.Formatter(builder, tableNameMapper, escapeIdentifier)
+                    .process(queryStatement, 1);
+            return builder.toString();
+        }
+        else {
+            throw new RakamException(queryStatement.getClass().getSimpleName() + " is not supported", BAD_REQUEST);
         }
 
         StringBuilder builder = new StringBuilder();
@@ -209,7 +247,7 @@ public class QueryExecutorService
         return builder.toString();
     }
 
-    private Function<QualifiedName, String> tableNameMapper(String project, Map<MaterializedView, MaterializedViewExecution> materializedViews, Optional<QuerySampling> sample, String defaultSchema, Map<String, String> sessionParameters)
+    private Function<QualifiedName, String> tableNameMapper(String project, Map<MaterializedView, MaterializedViewExecution> materializedViews, Optional<QuerySampling> sample, String defaultSchema, Map<String, String> sessionParameters, Set<QualifiedName> collections)
     {
         return (node) -> {
             if (node.getPrefix().isPresent() && node.getPrefix().get().toString().equals("materialized")) {
@@ -228,6 +266,9 @@ public class QueryExecutorService
                     throw new IllegalStateException();
                 }
             }
+            else {
+                collections.add(node);
+            }
 
             return executor.formatTableReference(project, node, sample, sessionParameters, defaultSchema);
         };
@@ -238,7 +279,7 @@ public class QueryExecutorService
         StringBuilder builder = new StringBuilder();
         Query queryStatement;
         try {
-            queryStatement = (Query) parser.createStatement(checkNotNull(query, "query is required"));
+            queryStatement = (Query) SqlParserUtil.createStatement(checkNotNull(query, "query is required"));
         }
         catch (Exception e) {
             throw new RakamException("Unable to parse query: " + e.getMessage(), BAD_REQUEST);
@@ -0,0 +1,251 @@
+package org.rakam.report;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import org.rakam.config.QueryCacheConfig;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the results of the queries keyed by the formatted query, the session parameters and the last update time of
+ * the referenced materialized views. The concurrent executions of the same query share a single execution.
+ * The results that are larger than {@link QueryCacheConfig#getMaxResultRows()} and the failed queries are not cached.
+ */
+public class QueryResultCache
+{
+    public static final String CACHED = "cached";
+
+    private final Cache<CacheKey, CachedResult> cache;
+    private final ConcurrentMap<CacheKey, RunningQuery> runningQueries;
+    private final int maxResultRows;
+    private final Clock clock;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong sharedExecutionCount = new AtomicLong();
+
+    public QueryResultCache(QueryCacheConfig config, Clock clock)
+    {
+        this.maxResultRows = config.getMaxResultRows();
+        this.clock = clock;
+        this.runningQueries = new ConcurrentHashMap<>();
+        // the entries are expired by their own ttl, the cache only evicts the ones that are not accessed anymore
+        long maxTtl = Math.max(config.getTtl().toMillis(), config.getMaterializedViewTtl().toMillis());
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(config.getMaxCachedValues())
+                .weigher((CacheKey key, CachedResult value) -> value.weight)
+                .expireAfterWrite(maxTtl, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public QueryExecution get(String project, String query, Map<String, String> sessionParameters, Map<String, Long> materializedViews, Duration ttl, Supplier<QueryExecution> executor)
+    {
+        CacheKey key = new CacheKey(project, query, sessionParameters, materializedViews);
+
+        CachedResult cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.expiresAt > clock.millis()) {
+                hitCount.incrementAndGet();
+                QueryResult result = copy(cached.result);
+                result.setProperty(CACHED, true);
+                return QueryExecution.completedQueryExecution(query, result);
+            }
+            cache.invalidate(key);
+        }
+
+        RunningQuery runningQuery = new RunningQuery();
+        RunningQuery existing = runningQueries.putIfAbsent(key, runningQuery);
+        if (existing != null) {
+            sharedExecutionCount.incrementAndGet();
+            return new SharedQueryExecution(query, existing, false);
+        }
+
+        missCount.incrementAndGet();
+        QueryExecution execution;
+        try {
+            execution = executor.get();
+        }
+        catch (RuntimeException e) {
+            runningQueries.remove(key, runningQuery);
+            runningQuery.result.completeExceptionally(e);
+            throw e;
+        }
+        runningQuery.execution = execution;
+
+        long expiresAt = clock.millis() + ttl.toMillis();
+        execution.getResult().whenComplete((result, ex) -> {
+            if (ex == null && !result.isFailed() && result.getResult().size() <= maxResultRows) {
+                cache.put(key, new CachedResult(copy(result), expiresAt));
+            }
+            runningQueries.remove(key, runningQuery);
+
+            if (ex != null) {
+                runningQuery.result.completeExceptionally(ex);
+            }
+            else {
+                runningQuery.result.complete(result);
+            }
+        });
+
+        return new SharedQueryExecution(query, runningQuery, true);
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * The number of the queries that are not executed because the same query was already running.
+     */
+    public long getSharedExecutionCount()
+    {
+        return sharedExecutionCount.get();
+    }
+
+    public long getCachedValueCount()
+    {
+        return cache.asMap().values().stream().mapToLong(value -> value.weight).sum();
+    }
+
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    private static QueryResult copy(QueryResult result)
+    {
+        // the properties are copied when they're set so the copies don't affect each other
+        return new QueryResult(result.getMetadata(), result.getResult(), result.getProperties());
+    }
+
+    private static class RunningQuery
+    {
+        private final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+        private volatile QueryExecution execution;
+    }
+
+    /**
+     * The rows are not streamed since the whole result is needed for the cache, see {@link QueryExecution#getResultCursor()}.
+     */
+    private static class SharedQueryExecution
+            implements QueryExecution
+    {
+        private final String query;
+        private final RunningQuery runningQuery;
+        private final boolean owner;
+
+        private SharedQueryExecution(String query, RunningQuery runningQuery, boolean owner)
+        {
+            this.query = query;
+            this.runningQuery = runningQuery;
+            this.owner = owner;
+        }
+
+        @Override
+        public QueryStats currentStats()
+        {
+            QueryExecution execution = runningQuery.execution;
+            if (execution == null) {
+                return new QueryStats(QueryStats.State.WAITING_FOR_AVAILABLE_THREAD);
+            }
+            return execution.currentStats();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return runningQuery.result.isDone();
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> getResult()
+        {
+            return owner ? runningQuery.result : runningQuery.result.thenApply(QueryResultCache::copy);
+        }
+
+        @Override
+        public String getQuery()
+        {
+            return query;
+        }
+
+        @Override
+        public void kill()
+        {
+            // the other requests may be waiting for the result
+            QueryExecution execution = runningQuery.execution;
+            if (owner && execution != null) {
+                execution.kill();
+            }
+        }
+    }
+
+    private static class CachedResult
+    {
+        private final QueryResult result;
+        private final long expiresAt;
+        private final int weight;
+
+        private CachedResult(QueryResult result, long expiresAt)
+        {
+            this.result = result;
+            this.expiresAt = expiresAt;
+            int columns = result.getMetadata() == null ? 1 : Math.max(1, result.getMetadata().size());
+            this.weight = Math.max(1, result.getResult().size() * columns);
+        }
+    }
+
+    private static class CacheKey
+    {
+        private final String project;
+        private final String query;
+        private final Map<String, String> sessionParameters;
+        private final Map<String, Long> materializedViews;
+
+        private CacheKey(String project, String query, Map<String, String> sessionParameters, Map<String, Long> materializedViews)
+        {
+            this.project = project;
+            this.query = query;
+            this.sessionParameters = ImmutableMap.copyOf(sessionParameters);
+            this.materializedViews = ImmutableMap.copyOf(materializedViews);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return project.equals(cacheKey.project) &&
+                    query.equals(cacheKey.query) &&
+                    sessionParameters.equals(cacheKey.sessionParameters) &&
+                    materializedViews.equals(cacheKey.materializedViews);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(project, query, sessionParameters, materializedViews);
+        }
+    }
+}
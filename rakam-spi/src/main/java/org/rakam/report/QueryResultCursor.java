@@ -0,0 +1,82 @@
+package org.rakam.report;
+
+import com.google.common.collect.ImmutableList;
+import org.rakam.collection.SchemaField;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pull-based access to the rows of a query. The rows are returned in pages as they are fetched from the
+ * database so that they don't need to be kept in memory until the query finishes.
+ */
+public interface QueryResultCursor
+{
+    /**
+     * Returns the next page of the rows or null if there are no more rows or the query failed.
+     * Only one page can be requested at a time.
+     */
+    CompletableFuture<List<List<Object>>> nextPage();
+
+    /**
+     * Returns the columns of the result, it's available when the first page is returned or the query is finished.
+     */
+    List<SchemaField> getMetadata();
+
+    /**
+     * Completes when the query is finished. The result has the metadata, properties or the error of the query
+     * but the rows are only available via {@link #nextPage()}.
+     */
+    CompletableFuture<QueryResult> getResult();
+
+    /**
+     * Stops fetching the rows, the query is killed if it's still running.
+     */
+    void close();
+
+    static QueryResult withoutRows(QueryResult result)
+    {
+        if (result.isFailed()) {
+            return result;
+        }
+        return new QueryResult(result.getMetadata(), ImmutableList.of(), result.getProperties());
+    }
+
+    /**
+     * Returns a cursor that returns all the rows of the result as a single page when the query is finished.
+     */
+    static QueryResultCursor fromResult(CompletableFuture<QueryResult> result)
+    {
+        return new QueryResultCursor()
+        {
+            private boolean consumed;
+
+            @Override
+            public synchronized CompletableFuture<List<List<Object>>> nextPage()
+            {
+                if (consumed) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                consumed = true;
+                return result.thenApply(value -> value.isFailed() ? null : value.getResult());
+            }
+
+            @Override
+            public List<SchemaField> getMetadata()
+            {
+                return result.isDone() && !result.isCompletedExceptionally() ? result.join().getMetadata() : null;
+            }
+
+            @Override
+            public CompletableFuture<QueryResult> getResult()
+            {
+                return result.thenApply(QueryResultCursor::withoutRows);
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+}
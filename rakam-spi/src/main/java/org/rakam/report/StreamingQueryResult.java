@@ -0,0 +1,293 @@
+package org.rakam.report;
+
+import org.rakam.collection.SchemaField;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Collects the rows of a query execution that fetches the result in pages.
+ * <p>
+ * The rows are accumulated for {@link #getResult()} until {@link #cursor()} is called. After that, the pages are
+ * handed to the cursor and {@link #addPage(List)} blocks the thread that fetches the rows while
+ * {@code maxBufferedPages} pages are waiting to be consumed, so the memory usage doesn't depend on the result size.
+ * The executions that fetch the rows asynchronously use {@link #addPageAsync(List)} instead of blocking a thread.
+ */
+public class StreamingQueryResult
+{
+    public static final int DEFAULT_MAX_BUFFERED_PAGES = 4;
+
+    private final int maxBufferedPages;
+    private final Runnable cancel;
+    private final CompletableFuture<QueryResult> result;
+    private final ArrayDeque<List<List<Object>>> pages;
+
+    private List<List<Object>> rows;
+    private List<SchemaField> metadata;
+    private CompletableFuture<List<List<Object>>> waitingPage;
+    private List<List<Object>> pendingPage;
+    private CompletableFuture<Boolean> pendingPageAdded;
+    private boolean streaming;
+    private boolean finished;
+    private boolean closed;
+
+    public StreamingQueryResult(Runnable cancel)
+    {
+        this(DEFAULT_MAX_BUFFERED_PAGES, cancel);
+    }
+
+    public StreamingQueryResult(int maxBufferedPages, Runnable cancel)
+    {
+        checkArgument(maxBufferedPages > 0, "maxBufferedPages must be positive");
+        this.maxBufferedPages = maxBufferedPages;
+        this.cancel = requireNonNull(cancel, "cancel is null");
+        this.result = new CompletableFuture<>();
+        this.pages = new ArrayDeque<>();
+        this.rows = new ArrayList<>();
+    }
+
+    public synchronized void setMetadata(List<SchemaField> metadata)
+    {
+        this.metadata = metadata;
+    }
+
+    public synchronized List<SchemaField> getMetadata()
+    {
+        return metadata;
+    }
+
+    /**
+     * Adds the rows fetched from the database. Returns false if the cursor is closed,
+     * the caller should stop fetching the rows in that case.
+     */
+    public boolean addPage(List<List<Object>> page)
+            throws InterruptedException
+    {
+        if (page.isEmpty()) {
+            return !isClosed();
+        }
+
+        CompletableFuture<List<List<Object>>> waiting;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (!streaming) {
+                rows.addAll(page);
+                return true;
+            }
+
+            while (pages.size() >= maxBufferedPages && !closed) {
+                wait();
+            }
+            if (closed) {
+                return false;
+            }
+
+            waiting = waitingPage;
+            waitingPage = null;
+            if (waiting == null) {
+                pages.add(page);
+                return true;
+            }
+        }
+
+        waiting.complete(page);
+        return true;
+    }
+
+    /**
+     * Non-blocking version of {@link #addPage(List)}. The returned future is completed when the page is buffered,
+     * the caller should not fetch the next page until then.
+     */
+    public CompletableFuture<Boolean> addPageAsync(List<List<Object>> page)
+    {
+        if (page.isEmpty()) {
+            return CompletableFuture.completedFuture(!isClosed());
+        }
+
+        CompletableFuture<List<List<Object>>> waiting;
+        synchronized (this) {
+            checkState(pendingPage == null, "The previous page is not added yet");
+            if (closed) {
+                return CompletableFuture.completedFuture(false);
+            }
+            if (!streaming) {
+                rows.addAll(page);
+                return CompletableFuture.completedFuture(true);
+            }
+
+            waiting = waitingPage;
+            waitingPage = null;
+            if (waiting == null) {
+                if (pages.size() < maxBufferedPages) {
+                    pages.add(page);
+                    return CompletableFuture.completedFuture(true);
+                }
+
+                pendingPage = page;
+                pendingPageAdded = new CompletableFuture<>();
+                return pendingPageAdded;
+            }
+        }
+
+        waiting.complete(page);
+        return CompletableFuture.completedFuture(true);
+    }
+
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    public void complete(Map<String, Object> properties)
+    {
+        QueryResult queryResult;
+        synchronized (this) {
+            queryResult = new QueryResult(metadata, rows, properties);
+        }
+        finish(queryResult, null);
+    }
+
+    public void fail(QueryError error)
+    {
+        finish(QueryResult.errorResult(error), null);
+    }
+
+    public void completeExceptionally(Throwable e)
+    {
+        finish(null, e);
+    }
+
+    private void finish(QueryResult queryResult, Throwable exception)
+    {
+        CompletableFuture<List<List<Object>>> waiting;
+        synchronized (this) {
+            finished = true;
+            waiting = waitingPage;
+            waitingPage = null;
+        }
+
+        if (waiting != null) {
+            if (exception != null) {
+                waiting.completeExceptionally(exception);
+            }
+            else {
+                waiting.complete(null);
+            }
+        }
+
+        if (exception != null) {
+            result.completeExceptionally(exception);
+        }
+        else {
+            result.complete(queryResult);
+        }
+    }
+
+    /**
+     * The result of the query. The rows that are consumed by the cursor are not included in the result.
+     */
+    public CompletableFuture<QueryResult> getResult()
+    {
+        return result;
+    }
+
+    public synchronized QueryResultCursor cursor()
+    {
+        checkState(!streaming, "The result is already consumed by a cursor");
+        streaming = true;
+        if (!rows.isEmpty()) {
+            pages.add(rows);
+            rows = new ArrayList<>();
+        }
+        return new Cursor();
+    }
+
+    private class Cursor
+            implements QueryResultCursor
+    {
+        @Override
+        public CompletableFuture<List<List<Object>>> nextPage()
+        {
+            List<List<Object>> page;
+            CompletableFuture<Boolean> added;
+            synchronized (StreamingQueryResult.this) {
+                page = pages.poll();
+                if (page == null) {
+                    if (closed) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if (finished) {
+                        return result.thenApply(value -> null);
+                    }
+
+                    checkState(waitingPage == null, "The previous page is not returned yet");
+                    waitingPage = new CompletableFuture<>();
+                    return waitingPage;
+                }
+
+                StreamingQueryResult.this.notifyAll();
+                added = pendingPageAdded;
+                if (added != null) {
+                    pages.add(pendingPage);
+                    pendingPage = null;
+                    pendingPageAdded = null;
+                }
+            }
+
+            if (added != null) {
+                added.complete(true);
+            }
+            return CompletableFuture.completedFuture(page);
+        }
+
+        @Override
+        public List<SchemaField> getMetadata()
+        {
+            return StreamingQueryResult.this.getMetadata();
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> getResult()
+        {
+            return result.thenApply(QueryResultCursor::withoutRows);
+        }
+
+        @Override
+        public void close()
+        {
+            CompletableFuture<List<List<Object>>> waiting;
+            CompletableFuture<Boolean> added;
+            boolean running;
+            synchronized (StreamingQueryResult.this) {
+                closed = true;
+                running = !finished;
+                pages.clear();
+                waiting = waitingPage;
+                waitingPage = null;
+                added = pendingPageAdded;
+                pendingPage = null;
+                pendingPageAdded = null;
+                StreamingQueryResult.this.notifyAll();
+            }
+
+            if (waiting != null) {
+                waiting.complete(null);
+            }
+            if (added != null) {
+                added.complete(false);
+            }
+            if (running) {
+                cancel.run();
+            }
+        }
+    }
+}
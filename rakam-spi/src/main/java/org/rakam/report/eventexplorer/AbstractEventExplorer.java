@@ -1,6 +1,5 @@
 package org.rakam.report.eventexplorer;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.DefaultExpressionTraversalVisitor;
 import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
@@ -15,6 +14,7 @@ import org.rakam.report.QueryResult;
 import org.rakam.report.realtime.AggregationType;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
@@ -53,7 +53,6 @@ public abstract class AbstractEventExplorer
     protected final static String TIME_INTERVAL_ERROR_MESSAGE = "Date interval is too big. Please narrow the date range or use different date dimension.";
     protected final Reference DEFAULT_SEGMENT = new Reference(COLUMN, "_collection");
 
-    protected static SqlParser sqlParser = new SqlParser();
     private final QueryExecutorService executor;
 
     private final Map<TimestampTransformation, String> timestampMapping;
@@ -165,9 +164,7 @@ public abstract class AbstractEventExplorer
         Predicate<OLAPTable> groupedMetricsPredicate = options -> {
             Expression filterExp;
             if (filterExpression != null) {
-                synchronized (sqlParser) {
-                    filterExp = sqlParser.createExpression(filterExpression);
-                }
+                filterExp = SqlParserUtil.createExpression(filterExpression);
             }
             else {
                 filterExp = null;
@@ -1,14 +1,21 @@
 package org.rakam.report.realtime;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.Min;
+
 
 public class RealTimeConfig {
     private boolean enabled;
     private Duration windowInterval = Duration.valueOf("120s");
     private Duration slideInterval = Duration.valueOf("5s");
+    private boolean inMemoryAggregationEnabled;
+    private int inMemoryMaxGroups = 100000;
+    private Duration inMemoryCheckpointInterval;
+    private Duration inMemoryRefreshInterval = Duration.valueOf("1m");
 
     @Config("real-time.enabled")
     public RealTimeConfig setRealtimeModuleEnabled(boolean enabled) {
@@ -44,4 +51,59 @@ public class RealTimeConfig {
         this.slideInterval = Duration.valueOf(slideInterval);
         return this;
     }
+
+    public boolean isInMemoryAggregationEnabled()
+    {
+        return inMemoryAggregationEnabled;
+    }
+
+    @Config("realtime.in-memory.enabled")
+    @ConfigDescription("Aggregates the realtime reports in memory on the collection path. " +
+            "The events must be collected by a single node, otherwise each node only sees its own events.")
+    public RealTimeConfig setInMemoryAggregationEnabled(boolean inMemoryAggregationEnabled)
+    {
+        this.inMemoryAggregationEnabled = inMemoryAggregationEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getInMemoryMaxGroups()
+    {
+        return inMemoryMaxGroups;
+    }
+
+    @Config("realtime.in-memory.max-groups")
+    @ConfigDescription("Maximum number of time bucket and dimension groups that are kept in memory for a report")
+    public RealTimeConfig setInMemoryMaxGroups(int inMemoryMaxGroups)
+    {
+        this.inMemoryMaxGroups = inMemoryMaxGroups;
+        return this;
+    }
+
+    public Duration getInMemoryCheckpointInterval()
+    {
+        return inMemoryCheckpointInterval;
+    }
+
+    @Config("realtime.in-memory.checkpoint-interval")
+    @ConfigDescription("Interval of saving the in-memory aggregations to the metastore, they're not saved if it's not set")
+    public RealTimeConfig setInMemoryCheckpointInterval(String inMemoryCheckpointInterval)
+    {
+        this.inMemoryCheckpointInterval = inMemoryCheckpointInterval == null ? null : Duration.valueOf(inMemoryCheckpointInterval);
+        return this;
+    }
+
+    @MinDuration("1s")
+    public Duration getInMemoryRefreshInterval()
+    {
+        return inMemoryRefreshInterval;
+    }
+
+    @Config("realtime.in-memory.refresh-interval")
+    @ConfigDescription("Interval of reloading the realtime reports from the metastore in order to pick up the reports that are created or deleted by the other nodes")
+    public RealTimeConfig setInMemoryRefreshInterval(String inMemoryRefreshInterval)
+    {
+        this.inMemoryRefreshInterval = Duration.valueOf(inMemoryRefreshInterval);
+        return this;
+    }
 }
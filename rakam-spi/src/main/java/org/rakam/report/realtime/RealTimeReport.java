@@ -1,6 +1,7 @@
 package org.rakam.report.realtime;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import io.airlift.units.Duration;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.rakam.server.http.annotations.ApiParam;
 import org.rakam.util.RakamException;
@@ -20,6 +21,11 @@ public class RealTimeReport {
     public final String filter;
     public final Set<Measure> measures;
     public final Set<String> dimensions;
+    public final Duration window;
+
+    public RealTimeReport(String name, Set<Measure> measures, String tableName, Set<String> collections, String filter, Set<String> dimensions) {
+        this(name, measures, tableName, collections, filter, dimensions, null);
+    }
 
     @JsonCreator
     public RealTimeReport(@ApiParam("name") String name,
@@ -27,21 +33,31 @@ public class RealTimeReport {
                           @ApiParam("table_name") String tableName,
                           @ApiParam("collections") Set<String> collections,
                           @ApiParam(value = "filter", required = false) String filter,
-                          @ApiParam(value = "dimensions", required = false) Set<String> dimensions) {
+                          @ApiParam(value = "dimensions", required = false) Set<String> dimensions,
+                          @ApiParam(value = "window", required = false, description = "The interval that the report keeps in memory such as 10m, the default is realtime.window.interval") String window) {
         this.name = checkNotNull(name, "name is required");
         this.table_name = checkNotNull(tableName, "table_name is required");
         this.collections = checkNotNull(collections, "collections is required");
         this.filter = filter;
         this.measures = checkNotNull(measures, "measures is required");;
         this.dimensions = dimensions;
+        this.window = window == null ? null : parseWindow(window);
         for (Measure measure : measures) {
-            if (dimensions.stream().anyMatch(dimension -> dimension.equals(measure.column))) {
+            if (dimensions != null && dimensions.stream().anyMatch(dimension -> dimension.equals(measure.column))) {
                 throw new RakamException(format("Column %s in dimension cannot be also in measures", measure.column), HttpResponseStatus.BAD_REQUEST);
             }
         }
         ValidationUtil.checkArgument(!collections.isEmpty(), "collections is empty");
     }
 
+    private static Duration parseWindow(String window) {
+        try {
+            return Duration.valueOf(window);
+        } catch (IllegalArgumentException e) {
+            throw new RakamException(format("window is not a valid interval: %s", window), HttpResponseStatus.BAD_REQUEST);
+        }
+    }
+
     public static class Measure {
         public final String column;
         public final AggregationType aggregation;
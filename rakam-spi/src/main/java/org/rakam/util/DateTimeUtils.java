@@ -1,5 +1,7 @@
 package org.rakam.util;
 
+import com.google.common.annotations.VisibleForTesting;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
@@ -7,7 +9,12 @@ import org.joda.time.format.DateTimeParser;
 import org.joda.time.format.DateTimePrinter;
 import org.joda.time.format.ISODateTimeFormat;
 
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
 import java.time.ZoneOffset;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
 import java.util.concurrent.TimeUnit;
 
 public class DateTimeUtils
@@ -18,15 +25,14 @@ public class DateTimeUtils
 
     public static final java.time.format.DateTimeFormatter TIMESTAMP_FORMATTER = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
 
+    private static final long MILLIS_IN_DAY = TimeUnit.DAYS.toMillis(1);
+    // the timestamps that are parsed by the lexer are between the years 0 and 9999
+    private static final long UNKNOWN_TIMESTAMP = Long.MIN_VALUE;
+
     private static final DateTimeFormatter DATE_FORMATTER = ISODateTimeFormat.date().withZoneUTC();
     private static final DateTimeFormatter TIMESTAMP_WITHOUT_TIME_ZONE_FORMATTER;
     private static final DateTimeFormatter TIMESTAMP_WITH_TIME_ZONE_FORMATTER;
 
-    public static int parseDate(String value)
-    {
-        return (int) TimeUnit.MILLISECONDS.toDays(DATE_FORMATTER.parseMillis(value));
-    }
-
     static {
         DateTimeParser[] timestampWithoutTimeZoneParser = {
                 DateTimeFormat.forPattern("yyyy-M-d").getParser(),
@@ -84,7 +90,288 @@ public class DateTimeUtils
         throw new RuntimeException("Invalid TIMESTAMP");
     }
 
+    /**
+     * Parses the timestamp and throws {@link IllegalArgumentException} if the value is not a valid timestamp,
+     * see {@link #tryParseTimestamp(String)} for the supported formats.
+     */
     public static long parseTimestamp(String timestampWithTimeZone)
+    {
+        OptionalLong timestamp = tryParseTimestamp(timestampWithTimeZone);
+        if (!timestamp.isPresent()) {
+            throw new IllegalArgumentException(String.format("Invalid TIMESTAMP: '%s'", timestampWithTimeZone));
+        }
+        return timestamp.getAsLong();
+    }
+
+    /**
+     * Parses the date in ISO format and throws {@link IllegalArgumentException} if the value is not a valid date.
+     */
+    public static int parseDate(String value)
+    {
+        OptionalInt date = tryParseDate(value);
+        if (!date.isPresent()) {
+            throw new IllegalArgumentException(String.format("Invalid DATE: '%s'", value));
+        }
+        return date.getAsInt();
+    }
+
+    /**
+     * Returns the number of days since epoch if the value is a date in ISO format, an empty value otherwise.
+     * The common yyyy-M-d values are parsed in a single pass without throwing exceptions, the rest is passed to
+     * Joda so that the results are the same with {@link #parseDateWithJoda(String)}.
+     */
+    public static OptionalInt tryParseDate(String value)
+    {
+        int length = value.length();
+        if (length == 0) {
+            return OptionalInt.empty();
+        }
+
+        char first = value.charAt(0);
+        if (first == '-' || first == '+') {
+            return tryParseDateWithJoda(value);
+        }
+
+        int yearEnd = digitsEnd(value, 0, 9);
+        if (yearEnd == 0 || yearEnd == length || value.charAt(yearEnd) != '-') {
+            return OptionalInt.empty();
+        }
+        if (yearEnd != 4) {
+            return tryParseDateWithJoda(value);
+        }
+
+        int monthStart = yearEnd + 1;
+        int monthEnd = digitsEnd(value, monthStart, 2);
+        if (monthEnd == monthStart || monthEnd == length || value.charAt(monthEnd) != '-') {
+            return OptionalInt.empty();
+        }
+
+        int dayStart = monthEnd + 1;
+        int dayEnd = digitsEnd(value, dayStart, 2);
+        if (dayEnd == dayStart || dayEnd != length) {
+            return OptionalInt.empty();
+        }
+
+        int year = number(value, 0, yearEnd);
+        int month = number(value, monthStart, monthEnd);
+        int day = number(value, dayStart, dayEnd);
+        if (!isValidDate(year, month, day)) {
+            return OptionalInt.empty();
+        }
+
+        return OptionalInt.of((int) LocalDate.of(year, month, day).toEpochDay());
+    }
+
+    /**
+     * Returns the epoch millis if the value is a timestamp, an empty value otherwise. The ISO timestamps such as
+     * 2016-01-01T10:00:00.000+03:00 and the values such as 2016-1-1 10:00:00.000 +0300 are parsed in a single pass
+     * without throwing exceptions, the less common formats are passed to Joda so that the results are the same
+     * with {@link #parseTimestampWithJoda(String)}. The timestamps without offset are in the default time zone.
+     */
+    public static OptionalLong tryParseTimestamp(String value)
+    {
+        int length = value.length();
+        // Joda parses [0-9]{10} as TIMESTAMP with huge value so we limit the characters.
+        if (length <= 12) {
+            return OptionalLong.empty();
+        }
+
+        char first = value.charAt(0);
+        if (first < '0' || first > '9') {
+            // the signed years and the ISO time values without date
+            return first == '-' || first == '+' || first == 'T' || first == 't' ? tryParseTimestampWithJoda(value) : OptionalLong.empty();
+        }
+
+        // all the formats start with the year that has at most 9 digits
+        int yearEnd = digitsEnd(value, 0, 9);
+        char next = value.charAt(yearEnd);
+        if (next != '-') {
+            // the ISO timestamps may not have month and day, Joda ignores the case of the literals
+            return next == 'T' || next == 't' ? tryParseTimestampWithJoda(value) : OptionalLong.empty();
+        }
+
+        long timestamp = lexTimestamp(value, yearEnd);
+        if (timestamp == UNKNOWN_TIMESTAMP) {
+            return tryParseTimestampWithJoda(value);
+        }
+        return OptionalLong.of(timestamp);
+    }
+
+    private static long lexTimestamp(String value, int yearEnd)
+    {
+        if (yearEnd != 4) {
+            return UNKNOWN_TIMESTAMP;
+        }
+
+        int length = value.length();
+        int year = number(value, 0, yearEnd);
+
+        int position = yearEnd + 1;
+        int end = digitsEnd(value, position, 2);
+        if (end == position || end == length || value.charAt(end) != '-') {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int month = number(value, position, end);
+
+        position = end + 1;
+        end = digitsEnd(value, position, 2);
+        if (end == position || end == length) {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int day = number(value, position, end);
+
+        char separator = value.charAt(end);
+        if (separator != 'T' && separator != ' ') {
+            return UNKNOWN_TIMESTAMP;
+        }
+
+        position = end + 1;
+        end = digitsEnd(value, position, 2);
+        if (end == position || end == length || value.charAt(end) != ':') {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int hour = number(value, position, end);
+
+        position = end + 1;
+        end = digitsEnd(value, position, 2);
+        if (end == position) {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int minute = number(value, position, end);
+
+        int second = 0;
+        int millis = 0;
+        position = end;
+        if (position < length && value.charAt(position) == ':') {
+            end = digitsEnd(value, ++position, 2);
+            if (end == position) {
+                return UNKNOWN_TIMESTAMP;
+            }
+            second = number(value, position, end);
+            position = end;
+
+            if (position < length && value.charAt(position) == '.') {
+                // ISO allows nanoseconds, the other formats allow milliseconds
+                end = digitsEnd(value, ++position, separator == 'T' ? 9 : 3);
+                if (end == position) {
+                    return UNKNOWN_TIMESTAMP;
+                }
+                // the digits after milliseconds are truncated as Joda does
+                for (int i = 0; i < 3; i++) {
+                    millis = millis * 10 + (position + i < end ? value.charAt(position + i) - '0' : 0);
+                }
+                position = end;
+            }
+        }
+
+        if (month < 1 || month > 12 || hour > 23 || minute > 59 || second > 59 || !isValidDate(year, month, day)) {
+            return UNKNOWN_TIMESTAMP;
+        }
+
+        long localMillis = LocalDate.of(year, month, day).toEpochDay() * MILLIS_IN_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000 + millis;
+
+        if (position == length) {
+            DateTimeZone zone = DateTimeZone.getDefault();
+            int offset = zone.getOffsetFromLocal(localMillis);
+            long instant = localMillis - offset;
+            // the local time is in the daylight saving gap
+            return offset == zone.getOffset(instant) ? instant : UNKNOWN_TIMESTAMP;
+        }
+
+        if (separator == 'T') {
+            if (value.charAt(position) == 'Z') {
+                return position + 1 == length ? localMillis : UNKNOWN_TIMESTAMP;
+            }
+        }
+        else if (value.charAt(position) == ' ') {
+            position++;
+        }
+
+        // +HH:mm or +HHmm
+        if (position + 5 > length) {
+            return UNKNOWN_TIMESTAMP;
+        }
+        char sign = value.charAt(position);
+        if (sign != '+' && sign != '-') {
+            return UNKNOWN_TIMESTAMP;
+        }
+        if (digitsEnd(value, position + 1, 2) != position + 3) {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int offsetHour = number(value, position + 1, position + 3);
+        position += 3;
+        if (value.charAt(position) == ':') {
+            position++;
+        }
+        if (position + 2 != length || digitsEnd(value, position, 2) != length) {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int offsetMinute = number(value, position, length);
+        if (offsetHour > 23 || offsetMinute > 59) {
+            return UNKNOWN_TIMESTAMP;
+        }
+
+        long offset = (offsetHour * 60 + offsetMinute) * 60000L;
+        return sign == '+' ? localMillis - offset : localMillis + offset;
+    }
+
+    private static boolean isValidDate(int year, int month, int day)
+    {
+        return month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year));
+    }
+
+    private static int digitsEnd(String value, int start, int maxDigits)
+    {
+        int limit = Math.min(value.length(), start + maxDigits);
+        int position = start;
+        while (position < limit) {
+            char c = value.charAt(position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    private static int number(String value, int start, int end)
+    {
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            number = number * 10 + (value.charAt(i) - '0');
+        }
+        return number;
+    }
+
+    private static OptionalLong tryParseTimestampWithJoda(String value)
+    {
+        try {
+            return OptionalLong.of(parseTimestampWithJoda(value));
+        }
+        catch (IllegalArgumentException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private static OptionalInt tryParseDateWithJoda(String value)
+    {
+        try {
+            return OptionalInt.of(parseDateWithJoda(value));
+        }
+        catch (IllegalArgumentException e) {
+            return OptionalInt.empty();
+        }
+    }
+
+    @VisibleForTesting
+    public static int parseDateWithJoda(String value)
+    {
+        return (int) TimeUnit.MILLISECONDS.toDays(DATE_FORMATTER.parseMillis(value));
+    }
+
+    @VisibleForTesting
+    public static long parseTimestampWithJoda(String timestampWithTimeZone)
     {
         if (timestampWithTimeZone.length() <= 12) {
             throw new IllegalArgumentException();
@@ -0,0 +1,103 @@
+package org.rakam.util;
+
+import com.facebook.presto.sql.parser.SqlParser;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.Statement;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Parses the queries with a parser per thread instead of synchronizing the threads on a shared parser.
+ * The statements are cached by the query text since the dashboards send the same queries on each refresh,
+ * the syntax trees are immutable so the cached statements can be shared between the threads.
+ */
+public final class SqlParserUtil
+{
+    private static final long MAX_CACHED_QUERY_CHARACTERS = 10_000_000;
+
+    private static final ThreadLocal<SqlParser> PARSER = ThreadLocal.withInitial(SqlParser::new);
+    private static final Cache<String, Statement> STATEMENTS = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_QUERY_CHARACTERS)
+            .weigher((String query, Statement statement) -> query.length())
+            .build();
+
+    private static final AtomicLong statementCount = new AtomicLong();
+    private static final AtomicLong expressionCount = new AtomicLong();
+    private static final AtomicLong cachedStatementCount = new AtomicLong();
+    private static final AtomicLong parseTimeNanos = new AtomicLong();
+    private static final LongAccumulator maxParseTimeNanos = new LongAccumulator(Math::max, 0);
+
+    private SqlParserUtil()
+            throws InstantiationException
+    {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    public static Statement createStatement(String query)
+    {
+        Statement statement = STATEMENTS.getIfPresent(query);
+        if (statement != null) {
+            cachedStatementCount.incrementAndGet();
+            return statement;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            statement = PARSER.get().createStatement(query);
+        }
+        finally {
+            statementCount.incrementAndGet();
+            recordParseTime(System.nanoTime() - startTime);
+        }
+
+        STATEMENTS.put(query, statement);
+        return statement;
+    }
+
+    public static Expression createExpression(String expression)
+    {
+        long startTime = System.nanoTime();
+        try {
+            return PARSER.get().createExpression(expression);
+        }
+        finally {
+            expressionCount.incrementAndGet();
+            recordParseTime(System.nanoTime() - startTime);
+        }
+    }
+
+    private static void recordParseTime(long nanos)
+    {
+        parseTimeNanos.addAndGet(nanos);
+        maxParseTimeNanos.accumulate(nanos);
+    }
+
+    public static ParserStats getStats()
+    {
+        long parseCount = statementCount.get() + expressionCount.get();
+        long totalNanos = parseTimeNanos.get();
+        return new ParserStats(statementCount.get(), expressionCount.get(), cachedStatementCount.get(),
+                parseCount == 0 ? 0 : totalNanos / parseCount / 1000, maxParseTimeNanos.get() / 1000);
+    }
+
+    public static class ParserStats
+    {
+        public final long parsedStatements;
+        public final long parsedExpressions;
+        public final long cachedStatements;
+        public final long averageParseTimeMicros;
+        public final long maxParseTimeMicros;
+
+        public ParserStats(long parsedStatements, long parsedExpressions, long cachedStatements, long averageParseTimeMicros, long maxParseTimeMicros)
+        {
+            this.parsedStatements = parsedStatements;
+            this.parsedExpressions = parsedExpressions;
+            this.cachedStatements = cachedStatements;
+            this.averageParseTimeMicros = averageParseTimeMicros;
+            this.maxParseTimeMicros = maxParseTimeMicros;
+        }
+    }
+}
@@ -3,5 +3,6 @@ package org.rakam.util;
 public class StandardErrors
 {
     public static final String PARTIAL_ERROR_MESSAGE = "Failed to collect some of the events in batch. Returns the indexes of events that are failed in batch.";
+    public static final String BULK_PARTIAL_ERROR_MESSAGE = "Failed to collect some of the events in bulk. Returns the number of events that are stored before the failure.";
     public static final String CONFLICT_COMMIT_MESSAGE = "Unable to get commit lock, there is another ongoing commit process";
 }
@@ -0,0 +1,149 @@
+package org.rakam.plugin;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.Event;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestBatchingEventStore
+{
+    private static final Schema SCHEMA = Schema.createRecord("collection", null, null, false);
+
+    static {
+        SCHEMA.setFields(ImmutableList.of());
+    }
+
+    @Test
+    public void testFlushOnSize()
+    {
+        RecordingEventStore delegate = new RecordingEventStore(EventStore.SUCCESSFUL_BATCH);
+        BatchingEventStore store = new BatchingEventStore(delegate, 3, 60_000);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(store.storeAsync(event("test")));
+        }
+
+        assertEquals(delegate.batches.size(), 1);
+        assertEquals(delegate.batches.get(0).size(), 3);
+        futures.forEach(future -> assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+    }
+
+    @Test
+    public void testGroupByCollection()
+    {
+        RecordingEventStore delegate = new RecordingEventStore(EventStore.SUCCESSFUL_BATCH);
+        BatchingEventStore store = new BatchingEventStore(delegate, 100, 60_000);
+
+        CompletableFuture<Void> first = store.storeAsync(event("test1"));
+        store.storeAsync(event("test2"));
+        store.storeAsync(event("test1"));
+
+        assertFalse(first.isDone());
+        store.flushAll();
+
+        assertEquals(delegate.batches.size(), 2);
+        assertTrue(first.isDone());
+    }
+
+    @Test
+    public void testFlushOnDelay()
+    {
+        RecordingEventStore delegate = new RecordingEventStore(EventStore.SUCCESSFUL_BATCH);
+        BatchingEventStore store = new BatchingEventStore(delegate, 100, 10);
+
+        store.storeAsync(event("test")).join();
+        assertEquals(delegate.batches.size(), 1);
+    }
+
+    @Test
+    public void testFailedIndexes()
+    {
+        RecordingEventStore delegate = new RecordingEventStore(new int[] {1});
+        BatchingEventStore store = new BatchingEventStore(delegate, 2, 60_000);
+
+        CompletableFuture<Void> first = store.storeAsync(event("test"));
+        CompletableFuture<Void> second = store.storeAsync(event("test"));
+
+        first.join();
+        assertTrue(second.isCompletedExceptionally());
+    }
+
+    @Test(expectedExceptions = CompletionException.class)
+    public void testFailedBatch()
+    {
+        RecordingEventStore delegate = new RecordingEventStore(null);
+        BatchingEventStore store = new BatchingEventStore(delegate, 1, 60_000);
+
+        store.storeAsync(event("test")).join();
+    }
+
+    @Test
+    public void testFlushOnClose()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore(EventStore.SUCCESSFUL_BATCH);
+        BatchingEventStore store = new BatchingEventStore(delegate, 100, 60_000);
+
+        CompletableFuture<Void> first = store.storeAsync(event("test1"));
+        CompletableFuture<Void> second = store.storeAsync(event("test2"));
+        assertFalse(first.isDone());
+
+        store.close();
+        assertEquals(delegate.batches.size(), 2);
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+
+        // the events that arrive during the shutdown are not buffered
+        assertTrue(store.storeAsync(event("test1")).isDone());
+        assertEquals(delegate.batches.size(), 3);
+    }
+
+    private static Event event(String collection)
+    {
+        return new Event("project", collection, Event.EventContext.empty(), ImmutableList.of(), new GenericData.Record(SCHEMA));
+    }
+
+    private static class RecordingEventStore
+            implements EventStore
+    {
+        private final List<List<Event>> batches = new CopyOnWriteArrayList<>();
+        private final int[] result;
+
+        public RecordingEventStore(int[] result)
+        {
+            this.result = result;
+        }
+
+        @Override
+        public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
+        {
+            batches.add(events);
+            CompletableFuture<int[]> future = new CompletableFuture<>();
+            if (result == null) {
+                future.completeExceptionally(new IllegalStateException());
+            }
+            else {
+                future.complete(result);
+            }
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Void> storeAsync(Event event)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
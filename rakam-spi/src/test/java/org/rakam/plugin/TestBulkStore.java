@@ -0,0 +1,182 @@
+package org.rakam.plugin;
+
+import org.rakam.collection.Event;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestBulkStore
+{
+    @Test
+    public void testStoreFailure()
+    {
+        Chunks chunks = new Chunks(5, -1);
+        BulkStoreException e = assertFails(new FailingEventStore(2), chunks);
+
+        assertEquals(e.getStoredEvents(), 20);
+        assertEquals(e.getCause().getMessage(), "chunk 2");
+        // the chunks after the failing one are not parsed
+        assertEquals(chunks.parsed.get(), 3);
+    }
+
+    @Test
+    public void testSyncStoreFailure()
+    {
+        Chunks chunks = new Chunks(10, -1);
+        BulkStoreException e = assertFails(new FailingSyncEventStore(2), chunks);
+
+        assertEquals(e.getStoredEvents(), 20);
+        assertEquals(e.getCause().getMessage(), "chunk 2");
+        // the next chunk may be parsed while the failing one is stored
+        assertTrue(chunks.parsed.get() <= 4, "parsed chunks: " + chunks.parsed.get());
+    }
+
+    @Test
+    public void testSyncParseFailure()
+    {
+        Chunks chunks = new Chunks(10, 3);
+        BulkStoreException e = assertFails(new FailingSyncEventStore(-1), chunks);
+
+        // the chunk that is being stored when the next one fails to parse is stored
+        assertEquals(e.getStoredEvents(), 30);
+        assertEquals(e.getCause().getMessage(), "invalid chunk 3");
+    }
+
+    @Test
+    public void testSyncStoreAll()
+    {
+        FailingSyncEventStore store = new FailingSyncEventStore(-1);
+        store.storeBulk(new Chunks(10, -1));
+        assertEquals(store.stored.get(), 100);
+    }
+
+    private static BulkStoreException assertFails(EventStore store, Iterator<List<Event>> chunks)
+    {
+        try {
+            store.storeBulk(chunks);
+            fail("the bulk must fail");
+            return null;
+        }
+        catch (BulkStoreException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Returns the given number of chunks that have 10 events each and fails to parse the given chunk.
+     */
+    private static class Chunks
+            implements Iterator<List<Event>>
+    {
+        private final int size;
+        private final int invalidChunk;
+        private final AtomicInteger parsed = new AtomicInteger();
+
+        private Chunks(int size, int invalidChunk)
+        {
+            this.size = size;
+            this.invalidChunk = invalidChunk;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return parsed.get() < size;
+        }
+
+        @Override
+        public List<Event> next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int chunk = parsed.getAndIncrement();
+            if (chunk == invalidChunk) {
+                throw new IllegalArgumentException("invalid chunk " + chunk);
+            }
+            return Collections.nCopies(10, null);
+        }
+    }
+
+    private static class FailingEventStore
+            implements EventStore
+    {
+        private final int failingChunk;
+        private int chunk;
+
+        private FailingEventStore(int failingChunk)
+        {
+            this.failingChunk = failingChunk;
+        }
+
+        @Override
+        public void storeBulk(List<Event> events)
+        {
+            if (chunk++ == failingChunk) {
+                throw new IllegalStateException("chunk " + failingChunk);
+            }
+        }
+
+        @Override
+        public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> storeAsync(Event event)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class FailingSyncEventStore
+            implements SyncEventStore
+    {
+        private final int failingChunk;
+        private final AtomicInteger chunk = new AtomicInteger();
+        private final AtomicInteger stored = new AtomicInteger();
+
+        private FailingSyncEventStore(int failingChunk)
+        {
+            this.failingChunk = failingChunk;
+        }
+
+        @Override
+        public void storeBulk(List<Event> events)
+        {
+            if (chunk.getAndIncrement() == failingChunk) {
+                throw new IllegalStateException("chunk " + failingChunk);
+            }
+            try {
+                // the next chunk is parsed while this one is stored
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stored.addAndGet(events.size());
+        }
+
+        @Override
+        public void store(Event event)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int[] storeBatch(List<Event> events)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.rakam.plugin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.Event;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestGeoIPLookupCache
+{
+    private static final Schema SCHEMA = Schema.createRecord("collection", null, null, false);
+
+    static {
+        SCHEMA.setFields(ImmutableList.of(
+                new Schema.Field("_ip", Schema.create(Schema.Type.STRING), null, null),
+                new Schema.Field("_country_code", Schema.create(Schema.Type.STRING), null, null)));
+    }
+
+    @Test
+    public void testBatchDeduplication()
+    {
+        AtomicInteger lookups = new AtomicInteger();
+        GeoIPLookupCache cache = new GeoIPLookupCache("test", 100, Duration.valueOf("1h"), address -> {
+            lookups.incrementAndGet();
+            return ImmutableMap.of("_country_code", address.getHostAddress().startsWith("1.") ? "US" : "TR");
+        });
+
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(event(i % 2 == 0 ? "1.1.1.1" : "2.2.2.2"));
+        }
+        events.add(event(null));
+
+        cache.map(events, event -> (String) event.getAttribute("_ip"));
+
+        assertEquals(lookups.get(), 2);
+        assertEquals(events.get(0).getAttribute("_country_code"), "US");
+        assertEquals(events.get(1).getAttribute("_country_code"), "TR");
+        assertNull(events.get(100).getAttribute("_country_code"));
+
+        cache.map(events, event -> (String) event.getAttribute("_ip"));
+        assertEquals(lookups.get(), 2);
+
+        GeoIPLookupCache.Stats stats = cache.getStats();
+        assertEquals(stats.cachedAddressCount, 2);
+        assertEquals(stats.missCount, 2);
+        assertEquals(stats.hitCount, 2);
+    }
+
+    @Test
+    public void testUnknownAddress()
+            throws Exception
+    {
+        GeoIPLookupCache cache = new GeoIPLookupCache("test", 100, Duration.valueOf("1h"), address -> null);
+
+        assertTrue(cache.get(InetAddress.getByName("1.1.1.1")).isEmpty());
+        assertTrue(cache.get("1.1.1.1").isEmpty());
+        assertEquals(cache.getStats().hitCount, 1);
+    }
+
+    private static Event event(String ip)
+    {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("_ip", ip);
+        return new Event("project", "collection", null, null, record);
+    }
+}
@@ -0,0 +1,341 @@
+package org.rakam.plugin;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.RakamException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestSpoolingEventStore
+{
+    private static final Schema SCHEMA = Schema.createRecord("collection", null, null, false);
+    private static final List<SchemaField> FIELDS = ImmutableList.of(new SchemaField("id", FieldType.LONG));
+
+    static {
+        SCHEMA.setFields(ImmutableList.of(new Schema.Field("id", Schema.createUnion(ImmutableList.of(
+                Schema.create(Schema.Type.NULL), Schema.create(Schema.Type.LONG))), null, null)));
+    }
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("spool").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testDrainInOrder()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 256, 1 << 20, 1000, 20);
+
+        for (long i = 0; i < 100; i++) {
+            store.storeBatchAsync(ImmutableList.of(event(i % 2 == 0 ? "test1" : "test2", i))).join();
+        }
+
+        waitUntil(() -> delegate.events.size() == 100);
+        assertEquals(ids(delegate.events, "test1"), range(0, 2));
+        assertEquals(ids(delegate.events, "test2"), range(1, 2));
+        assertEquals(delegate.events.get(0).schema(), FIELDS);
+
+        waitUntil(() -> store.getStats().segmentCount == 1);
+        SpoolingEventStore.Stats stats = store.getStats();
+        assertTrue(stats.segmentRotations > 0);
+        assertEquals(stats.spooledEvents, 100);
+        assertEquals(stats.drainedEvents, 100);
+        store.close();
+    }
+
+    @Test
+    public void testRetryUntilStoreRecovers()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        delegate.failing.set(true);
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 1 << 20, 1 << 20, 1000, 20);
+
+        // the events are acknowledged while the store is failing
+        store.storeBatchAsync(ImmutableList.of(event("test", 1), event("test", 2))).join();
+        waitUntil(() -> store.getStats().drainRetries > 0);
+
+        delegate.failing.set(false);
+        waitUntil(() -> delegate.events.size() == 2);
+        assertEquals(ids(delegate.events, "test"), ImmutableList.of(1L, 2L));
+        store.close();
+    }
+
+    @Test
+    public void testReplayAfterRestart()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        delegate.failing.set(true);
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 1 << 20, 1 << 20, 1000, 20);
+        store.storeBatchAsync(ImmutableList.of(event("test", 1), event("test", 2))).join();
+        store.close();
+
+        // a torn block at the end of the segment is discarded
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".spool"));
+        for (File segment : segments) {
+            if (segment.length() > 0) {
+                Files.write(segment.toPath(), new byte[] {1, 2, 3}, APPEND);
+            }
+        }
+
+        RecordingEventStore recovered = new RecordingEventStore();
+        SpoolingEventStore reopened = new SpoolingEventStore(recovered, directory, 1 << 20, 1 << 20, 1000, 20);
+        waitUntil(() -> recovered.events.size() == 2);
+        assertEquals(ids(recovered.events, "test"), ImmutableList.of(1L, 2L));
+
+        reopened.storeBatchAsync(ImmutableList.of(event("test", 3))).join();
+        waitUntil(() -> recovered.events.size() == 3);
+        reopened.close();
+    }
+
+    @Test
+    public void testRejectWhenFull()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        delegate.failing.set(true);
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 64, 64, 1000, 20);
+
+        store.storeBatchAsync(ImmutableList.of(event("test", 1), event("test", 2))).join();
+        CompletableFuture<int[]> rejected = store.storeBatchAsync(ImmutableList.of(event("test", 3)));
+        assertTrue(rejected.isCompletedExceptionally());
+        store.close();
+    }
+
+    @Test
+    public void testRecoverSegmentTruncatedInBlock()
+            throws Exception
+    {
+        File segment = spoolFailingEvents(1, 2, 3);
+        // the last block is torn in the middle
+        long blockSize = segment.length() / 3;
+        try (FileChannel channel = FileChannel.open(segment.toPath(), WRITE)) {
+            channel.truncate(segment.length() - blockSize / 2);
+        }
+
+        RecordingEventStore recovered = new RecordingEventStore();
+        SpoolingEventStore reopened = new SpoolingEventStore(recovered, directory, 1 << 20, 1 << 20, 1000, 20);
+        waitUntil(() -> recovered.events.size() == 2);
+        assertEquals(ids(recovered.events, "test"), ImmutableList.of(1L, 2L));
+
+        reopened.storeBatchAsync(ImmutableList.of(event("test", 4))).join();
+        waitUntil(() -> recovered.events.size() == 3);
+        assertEquals(ids(recovered.events, "test"), ImmutableList.of(1L, 2L, 4L));
+        reopened.close();
+    }
+
+    @Test
+    public void testSkipCorruptedBlock()
+            throws Exception
+    {
+        File segment = spoolFailingEvents(1, 2, 3);
+        // a byte in the payload of the second block is flipped so its checksum doesn't match
+        long blockSize = segment.length() / 3;
+        try (FileChannel channel = FileChannel.open(segment.toPath(), READ, WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, blockSize + blockSize / 2);
+            value.put(0, (byte) ~value.get(0));
+            value.rewind();
+            channel.write(value, blockSize + blockSize / 2);
+        }
+
+        RecordingEventStore recovered = new RecordingEventStore();
+        SpoolingEventStore reopened = new SpoolingEventStore(recovered, directory, 1 << 20, 1 << 20, 1000, 20);
+        waitUntil(() -> recovered.events.size() == 2);
+        assertEquals(ids(recovered.events, "test"), ImmutableList.of(1L, 3L));
+        assertEquals(reopened.getStats().skippedBytes, blockSize);
+
+        // the drainer keeps draining the new events
+        reopened.storeBatchAsync(ImmutableList.of(event("test", 4))).join();
+        waitUntil(() -> recovered.events.size() == 3);
+        reopened.close();
+    }
+
+    @Test
+    public void testDeadLetterRejectedCollection()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        delegate.rejectedCollections.add("poison");
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 1 << 20, 1 << 20, 1000, 20);
+
+        store.storeBatchAsync(ImmutableList.of(event("poison", 1), event("test", 2), event("poison", 3))).join();
+        waitUntil(() -> store.getStats().rejectedEvents == 2);
+        waitUntil(() -> delegate.events.size() == 1);
+        // the rejected events are not retried
+        assertEquals(store.getStats().drainRetries, 0);
+        assertTrue(new File(directory, "dead-letter.spool").length() > 0);
+
+        store.storeBatchAsync(ImmutableList.of(event("test", 4))).join();
+        waitUntil(() -> delegate.events.size() == 2);
+        assertEquals(ids(delegate.events, "test"), ImmutableList.of(2L, 4L));
+        store.close();
+    }
+
+    @Test
+    public void testDrainAttemptsAreCapped()
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        delegate.failing.set(true);
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 1 << 20, 1 << 20, 1000, 3);
+
+        store.storeBatchAsync(ImmutableList.of(event("test", 1), event("test", 2))).join();
+        waitUntil(() -> store.getStats().rejectedEvents == 2);
+        assertEquals(store.getStats().drainRetries, 2);
+        assertTrue(new File(directory, "dead-letter.spool").length() > 0);
+
+        delegate.failing.set(false);
+        store.storeBatchAsync(ImmutableList.of(event("test", 3))).join();
+        waitUntil(() -> delegate.events.size() == 1);
+        assertEquals(ids(delegate.events, "test"), ImmutableList.of(3L));
+        store.close();
+    }
+
+    @Test
+    public void testUnreadablePosition()
+            throws Exception
+    {
+        spoolFailingEvents(1, 2);
+        Files.write(new File(directory, "drain.position").toPath(), new byte[0]);
+
+        RecordingEventStore recovered = new RecordingEventStore();
+        SpoolingEventStore reopened = new SpoolingEventStore(recovered, directory, 1 << 20, 1 << 20, 1000, 20);
+        waitUntil(() -> recovered.events.size() == 2);
+        assertEquals(ids(recovered.events, "test"), ImmutableList.of(1L, 2L));
+        reopened.close();
+    }
+
+    /**
+     * Spools each event in its own block while the store is failing and returns the segment of the blocks.
+     */
+    private File spoolFailingEvents(long... ids)
+            throws Exception
+    {
+        RecordingEventStore delegate = new RecordingEventStore();
+        delegate.failing.set(true);
+        SpoolingEventStore store = new SpoolingEventStore(delegate, directory, 1 << 20, 1 << 20, 1000, 20);
+        for (long id : ids) {
+            store.storeBatchAsync(ImmutableList.of(event("test", id))).join();
+        }
+        store.close();
+
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith("segment-"));
+        assertEquals(segments.length, 1);
+        return segments[0];
+    }
+
+    private static List<Long> ids(List<Event> events, String collection)
+    {
+        return events.stream()
+                .filter(event -> event.collection().equals(collection))
+                .map(event -> (Long) event.getAttribute("id"))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> range(long start, long step)
+    {
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        for (long i = start; i < 100; i += step) {
+            builder.add(i);
+        }
+        return builder.build();
+    }
+
+    private static void waitUntil(Condition condition)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.check()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition is not satisfied in 10 seconds");
+            Thread.sleep(10);
+        }
+    }
+
+    private static Event event(String collection, long id)
+    {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("id", id);
+        return new Event("project", collection, Event.EventContext.apiKey("key"), FIELDS, record);
+    }
+
+    private interface Condition
+    {
+        boolean check();
+    }
+
+    private static class RecordingEventStore
+            implements EventStore
+    {
+        private final List<Event> events = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean failing = new AtomicBoolean();
+        private final Set<String> rejectedCollections = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public CompletableFuture<int[]> storeBatchAsync(List<Event> events)
+        {
+            CompletableFuture<int[]> future = new CompletableFuture<>();
+            if (failing.get()) {
+                future.completeExceptionally(new IllegalStateException("The store is not available"));
+            }
+            else if (rejectedCollections.contains(events.get(0).collection())) {
+                future.completeExceptionally(new RakamException("The collection is not valid", BAD_REQUEST));
+            }
+            else {
+                this.events.addAll(events);
+                future.complete(SUCCESSFUL_BATCH);
+            }
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Void> storeAsync(Event event)
+        {
+            return storeBatchAsync(ImmutableList.of(event)).thenApply(failed -> null);
+        }
+    }
+}
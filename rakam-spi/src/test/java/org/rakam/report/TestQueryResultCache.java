@@ -0,0 +1,205 @@
+package org.rakam.report;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import org.rakam.collection.SchemaField;
+import org.rakam.config.QueryCacheConfig;
+import org.testng.annotations.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.rakam.collection.FieldType.LONG;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestQueryResultCache
+{
+    private static final List<SchemaField> METADATA = ImmutableList.of(new SchemaField("value", LONG));
+    private static final QueryResult RESULT = new QueryResult(METADATA, ImmutableList.of(ImmutableList.of(1L)));
+    private static final Duration TTL = new Duration(1, MINUTES);
+
+    @Test
+    public void testCacheHit()
+            throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(new QueryCacheConfig(), Clock.systemUTC());
+        AtomicInteger executions = new AtomicInteger();
+
+        QueryResult first = get(cache, "select 1", ImmutableMap.of(), executions).getResult().join();
+        QueryResult second = get(cache, "select 1", ImmutableMap.of(), executions).getResult().join();
+
+        assertEquals(executions.get(), 1);
+        assertEquals(second.getResult(), first.getResult());
+        assertNull(first.getProperties());
+        assertEquals(second.getProperties().get(QueryResultCache.CACHED), true);
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testMaterializedViewUpdate()
+            throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(new QueryCacheConfig(), Clock.systemUTC());
+        AtomicInteger executions = new AtomicInteger();
+
+        get(cache, "select 1", ImmutableMap.of("view", 1L), executions).getResult().join();
+        get(cache, "select 1", ImmutableMap.of("view", 2L), executions).getResult().join();
+
+        assertEquals(executions.get(), 2);
+    }
+
+    @Test
+    public void testExpiration()
+            throws Exception
+    {
+        MutableClock clock = new MutableClock();
+        QueryResultCache cache = new QueryResultCache(new QueryCacheConfig(), clock);
+        AtomicInteger executions = new AtomicInteger();
+
+        get(cache, "select 1", ImmutableMap.of(), executions).getResult().join();
+        clock.millis += TTL.toMillis() + 1;
+        get(cache, "select 1", ImmutableMap.of(), executions).getResult().join();
+
+        assertEquals(executions.get(), 2);
+    }
+
+    @Test
+    public void testSharedExecution()
+            throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(new QueryCacheConfig(), Clock.systemUTC());
+        CompletableFuture<QueryResult> result = new CompletableFuture<>();
+        AtomicInteger executions = new AtomicInteger();
+
+        QueryExecution first = cache.get("project", "select 1", ImmutableMap.of(), ImmutableMap.of(), TTL,
+                () -> new TestingQueryExecution(result, executions));
+        QueryExecution second = cache.get("project", "select 1", ImmutableMap.of(), ImmutableMap.of(), TTL,
+                () -> new TestingQueryExecution(result, executions));
+
+        assertFalse(second.isFinished());
+        result.complete(RESULT);
+
+        assertEquals(executions.get(), 1);
+        assertEquals(first.getResult().join().getResult(), RESULT.getResult());
+        assertEquals(second.getResult().join().getResult(), RESULT.getResult());
+        assertEquals(cache.getSharedExecutionCount(), 1);
+    }
+
+    @Test
+    public void testFailedQueryNotCached()
+            throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(new QueryCacheConfig(), Clock.systemUTC());
+        AtomicInteger executions = new AtomicInteger();
+        QueryResult error = QueryResult.errorResult(QueryError.create("error"));
+
+        for (int i = 0; i < 2; i++) {
+            QueryResult result = cache.get("project", "select 1", ImmutableMap.of(), ImmutableMap.of(), TTL,
+                    () -> new TestingQueryExecution(CompletableFuture.completedFuture(error), executions)).getResult().join();
+            assertTrue(result.isFailed());
+        }
+
+        assertEquals(executions.get(), 2);
+    }
+
+    @Test
+    public void testLargeResultNotCached()
+            throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(new QueryCacheConfig().setMaxResultRows(0), Clock.systemUTC());
+        AtomicInteger executions = new AtomicInteger();
+
+        get(cache, "select 1", ImmutableMap.of(), executions).getResult().join();
+        get(cache, "select 1", ImmutableMap.of(), executions).getResult().join();
+
+        assertEquals(executions.get(), 2);
+    }
+
+    private static QueryExecution get(QueryResultCache cache, String query, ImmutableMap<String, Long> materializedViews, AtomicInteger executions)
+    {
+        return cache.get("project", query, ImmutableMap.of(), materializedViews, TTL,
+                () -> new TestingQueryExecution(CompletableFuture.completedFuture(RESULT), executions));
+    }
+
+    private static class TestingQueryExecution
+            implements QueryExecution
+    {
+        private final CompletableFuture<QueryResult> result;
+
+        public TestingQueryExecution(CompletableFuture<QueryResult> result, AtomicInteger executions)
+        {
+            this.result = result;
+            executions.incrementAndGet();
+        }
+
+        @Override
+        public QueryStats currentStats()
+        {
+            return new QueryStats(result.isDone() ? QueryStats.State.FINISHED : QueryStats.State.RUNNING);
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return result.isDone();
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> getResult()
+        {
+            return result;
+        }
+
+        @Override
+        public String getQuery()
+        {
+            return null;
+        }
+
+        @Override
+        public void kill()
+        {
+        }
+    }
+
+    private static class MutableClock
+            extends Clock
+    {
+        private long millis = System.currentTimeMillis();
+
+        @Override
+        public ZoneOffset getZone()
+        {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone)
+        {
+            return this;
+        }
+
+        @Override
+        public long millis()
+        {
+            return millis;
+        }
+
+        @Override
+        public Instant instant()
+        {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.rakam.report;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.rakam.collection.SchemaField;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.rakam.collection.FieldType.LONG;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestStreamingQueryResult
+{
+    private static final List<SchemaField> METADATA = ImmutableList.of(new SchemaField("value", LONG));
+
+    @Test
+    public void testAccumulateWithoutCursor()
+            throws Exception
+    {
+        StreamingQueryResult result = new StreamingQueryResult(() -> {});
+        result.setMetadata(METADATA);
+        assertTrue(result.addPage(rows(0, 2)));
+        assertTrue(result.addPage(rows(2, 4)));
+        result.complete(ImmutableMap.of());
+
+        QueryResult queryResult = result.getResult().join();
+        assertEquals(queryResult.getMetadata(), METADATA);
+        assertEquals(queryResult.getResult(), rows(0, 4));
+    }
+
+    @Test
+    public void testCursor()
+            throws Exception
+    {
+        StreamingQueryResult result = new StreamingQueryResult(() -> {});
+        result.setMetadata(METADATA);
+        result.addPage(rows(0, 2));
+
+        QueryResultCursor cursor = result.cursor();
+        assertEquals(cursor.nextPage().join(), rows(0, 2));
+
+        CompletableFuture<List<List<Object>>> page = cursor.nextPage();
+        assertFalse(page.isDone());
+        result.addPage(rows(2, 4));
+        assertEquals(page.join(), rows(2, 4));
+
+        result.complete(ImmutableMap.of());
+        assertNull(cursor.nextPage().join());
+
+        QueryResult queryResult = cursor.getResult().join();
+        assertEquals(queryResult.getMetadata(), METADATA);
+        assertTrue(queryResult.getResult().isEmpty());
+    }
+
+    @Test
+    public void testFailure()
+            throws Exception
+    {
+        StreamingQueryResult result = new StreamingQueryResult(() -> {});
+        QueryResultCursor cursor = result.cursor();
+        CompletableFuture<List<List<Object>>> page = cursor.nextPage();
+        result.fail(QueryError.create("error"));
+
+        assertNull(page.join());
+        assertTrue(cursor.getResult().join().isFailed());
+    }
+
+    @Test
+    public void testCloseCancelsQuery()
+            throws Exception
+    {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        StreamingQueryResult result = new StreamingQueryResult(1, () -> cancelled.set(true));
+        QueryResultCursor cursor = result.cursor();
+        assertTrue(result.addPage(rows(0, 1)));
+
+        // the producer waits until the buffered page is consumed
+        AtomicBoolean added = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> {
+            try {
+                added.set(result.addPage(rows(1, 2)));
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+
+        cursor.close();
+        producer.join(5000);
+
+        assertFalse(producer.isAlive());
+        assertFalse(added.get());
+        assertTrue(cancelled.get());
+        assertTrue(result.isClosed());
+        assertNull(cursor.nextPage().join());
+    }
+
+    @Test
+    public void testAsyncBackpressure()
+            throws Exception
+    {
+        StreamingQueryResult result = new StreamingQueryResult(1, () -> {});
+        QueryResultCursor cursor = result.cursor();
+        assertTrue(result.addPageAsync(rows(0, 1)).join());
+
+        CompletableFuture<Boolean> added = result.addPageAsync(rows(1, 2));
+        assertFalse(added.isDone());
+
+        assertEquals(cursor.nextPage().join(), rows(0, 1));
+        assertTrue(added.join());
+        assertEquals(cursor.nextPage().join(), rows(1, 2));
+
+        CompletableFuture<List<List<Object>>> page = cursor.nextPage();
+        assertTrue(result.addPageAsync(rows(2, 3)).join());
+        assertEquals(page.join(), rows(2, 3));
+    }
+
+    @Test
+    public void testCloseReleasesAsyncProducer()
+            throws Exception
+    {
+        StreamingQueryResult result = new StreamingQueryResult(1, () -> {});
+        QueryResultCursor cursor = result.cursor();
+        assertTrue(result.addPageAsync(rows(0, 1)).join());
+
+        CompletableFuture<Boolean> added = result.addPageAsync(rows(1, 2));
+        cursor.close();
+
+        assertFalse(added.join());
+        assertFalse(result.addPageAsync(rows(2, 3)).join());
+    }
+
+    private static List<List<Object>> rows(int start, int end)
+    {
+        ImmutableList.Builder<List<Object>> builder = ImmutableList.builder();
+        for (long i = start; i < end; i++) {
+            builder.add(ImmutableList.of(i));
+        }
+        return builder.build();
+    }
+}
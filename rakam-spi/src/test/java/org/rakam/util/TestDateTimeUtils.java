@@ -0,0 +1,135 @@
+package org.rakam.util;
+
+import org.joda.time.DateTimeZone;
+import org.testng.annotations.Test;
+
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestDateTimeUtils
+{
+    private static final int CORPUS_SIZE = 100000;
+    private static final String NOISE = "0123456789-:.,T Z+/tzW";
+    private static final String[] ZONES = {"", "Z", "z", "+03:00", "-0530", "+03", "+3:00", " +03:00", " -0800", " Z",
+            "+24:00", "+03:60", " UTC", " Europe/Istanbul", "Europe/Istanbul", "+03:00:00"};
+
+    @Test
+    public void testTimestamp()
+    {
+        assertEquals(DateTimeUtils.parseTimestamp("2016-01-01T10:00:00.000Z"), 1451642400000L);
+        assertEquals(DateTimeUtils.parseTimestamp("2016-01-01T10:00:00.123456+02:00"), 1451635200123L);
+        assertEquals(DateTimeUtils.parseTimestamp("2016-1-1 10:00:00 -0030"), 1451644200000L);
+        assertFalse(DateTimeUtils.tryParseTimestamp("https://rakam.io/page").isPresent());
+        assertFalse(DateTimeUtils.tryParseTimestamp("1234567890123").isPresent());
+    }
+
+    @Test
+    public void testDate()
+    {
+        assertEquals(DateTimeUtils.parseDate("2016-01-01"), 16801);
+        assertEquals(DateTimeUtils.parseDate("1969-12-31"), -1);
+        assertFalse(DateTimeUtils.tryParseDate("2016-02-30").isPresent());
+        assertFalse(DateTimeUtils.tryParseDate("rakam").isPresent());
+    }
+
+    @Test
+    public void testEquivalentToJodaInUtc()
+    {
+        assertEquivalentToJoda(DateTimeZone.UTC, 1);
+    }
+
+    @Test
+    public void testEquivalentToJodaInDaylightSavingTimeZone()
+    {
+        // the local timestamps in the daylight saving gaps are invalid
+        assertEquivalentToJoda(DateTimeZone.forID("America/New_York"), 2);
+    }
+
+    private void assertEquivalentToJoda(DateTimeZone zone, long seed)
+    {
+        DateTimeZone defaultZone = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(zone);
+        try {
+            Random random = new Random(seed);
+            for (int i = 0; i < CORPUS_SIZE; i++) {
+                String value = randomValue(random);
+                assertEquals(DateTimeUtils.tryParseTimestamp(value), parseTimestampWithJoda(value), value);
+                assertEquals(DateTimeUtils.tryParseDate(value), parseDateWithJoda(value), value);
+            }
+        }
+        finally {
+            DateTimeZone.setDefault(defaultZone);
+        }
+    }
+
+    private static String randomValue(Random random)
+    {
+        StringBuilder builder = new StringBuilder();
+        int year = random.nextInt(10) == 0 ? random.nextInt(100000) : 1900 + random.nextInt(200);
+        if (random.nextInt(20) == 0) {
+            builder.append(random.nextBoolean() ? '-' : '+');
+        }
+        builder.append(random.nextInt(10) == 0 ? String.valueOf(year) : String.format("%04d", year % 10000));
+        builder.append('-').append(randomNumber(random, 13));
+        builder.append('-').append(randomNumber(random, 32));
+
+        if (random.nextInt(5) > 0) {
+            builder.append(random.nextInt(10) == 0 ? "Tt_".charAt(random.nextInt(3)) : random.nextBoolean() ? 'T' : ' ');
+            builder.append(randomNumber(random, 25)).append(':').append(randomNumber(random, 61));
+            if (random.nextInt(4) > 0) {
+                builder.append(':').append(randomNumber(random, 61));
+                if (random.nextBoolean()) {
+                    builder.append(random.nextInt(10) == 0 ? ',' : '.');
+                    int digits = random.nextInt(12);
+                    for (int i = 0; i < digits; i++) {
+                        builder.append(random.nextInt(10));
+                    }
+                }
+            }
+            builder.append(ZONES[random.nextInt(ZONES.length)]);
+        }
+
+        // the values that are almost in one of the formats
+        int mutations = random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0;
+        for (int i = 0; i < mutations; i++) {
+            int position = random.nextInt(builder.length() + 1);
+            if (random.nextBoolean() && position < builder.length()) {
+                builder.deleteCharAt(position);
+            }
+            else {
+                builder.insert(position, NOISE.charAt(random.nextInt(NOISE.length())));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String randomNumber(Random random, int bound)
+    {
+        int value = random.nextInt(bound);
+        return random.nextBoolean() && value < 10 ? "0" + value : String.valueOf(value);
+    }
+
+    private static OptionalLong parseTimestampWithJoda(String value)
+    {
+        try {
+            return OptionalLong.of(DateTimeUtils.parseTimestampWithJoda(value));
+        }
+        catch (Exception e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private static OptionalInt parseDateWithJoda(String value)
+    {
+        try {
+            return OptionalInt.of(DateTimeUtils.parseDateWithJoda(value));
+        }
+        catch (Exception e) {
+            return OptionalInt.empty();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.rakam.util;
+
+import com.facebook.presto.sql.parser.ParsingException;
+import com.facebook.presto.sql.parser.SqlParser;
+import com.facebook.presto.sql.tree.Statement;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestSqlParserUtil
+{
+    @Test
+    public void testStatementCache()
+            throws Exception
+    {
+        String query = "select count(*) from collection.pageview where url = 'test_statement_cache'";
+        long cached = SqlParserUtil.getStats().cachedStatements;
+
+        Statement statement = SqlParserUtil.createStatement(query);
+        assertEquals(statement, new SqlParser().createStatement(query));
+        assertSame(SqlParserUtil.createStatement(query), statement);
+        assertTrue(SqlParserUtil.getStats().cachedStatements > cached);
+    }
+
+    @Test(expectedExceptions = ParsingException.class)
+    public void testInvalidStatement()
+            throws Exception
+    {
+        SqlParserUtil.createStatement("select from where");
+    }
+
+    @Test
+    public void testConcurrentParsing()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String expression = "a = " + i + " and b in ('x', 'y')";
+                futures.add(executor.submit(() ->
+                        SqlParserUtil.createExpression(expression).equals(new SqlParser().createExpression(expression))));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -38,7 +38,9 @@ import org.rakam.analysis.QueryHttpService;
 import org.rakam.analysis.RequestPreProcessorItem;
 import org.rakam.analysis.metadata.SchemaChecker;
 import org.rakam.bootstrap.Bootstrap;
+import org.rakam.collection.EventCollectionConfig;
 import org.rakam.collection.EventCollectionHttpService;
+import org.rakam.collection.EventSpool;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
 import org.rakam.collection.WebHookHttpService;
@@ -46,6 +48,7 @@ import org.rakam.config.EncryptionConfig;
 import org.rakam.config.JDBCConfig;
 import org.rakam.config.MetadataConfig;
 import org.rakam.config.ProjectConfig;
+import org.rakam.config.QueryCacheConfig;
 import org.rakam.http.ForHttpServer;
 import org.rakam.http.HttpServerConfig;
 import org.rakam.http.OptionMethodHttpService;
@@ -53,6 +56,7 @@ import org.rakam.http.WebServiceModule;
 import org.rakam.http.WebServiceModule.ProjectPermissionParameterFactory;
 import org.rakam.plugin.CopyEvent;
 import org.rakam.plugin.EventMapper;
+import org.rakam.plugin.GeoIPLookupCache;
 import org.rakam.plugin.InjectionHook;
 import org.rakam.plugin.RAsyncHttpClient;
 import org.rakam.plugin.RakamModule;
@@ -227,12 +231,15 @@ public final class ServiceStarter
 
             // Register these interfaces to MultiBinder
             Multibinder.newSetBinder(binder, EventMapper.class);
+            Multibinder.newSetBinder(binder, GeoIPLookupCache.class);
 
             Multibinder.newSetBinder(binder, RequestPreProcessorItem.class);
 
             Multibinder<CustomParameter> customParameters = Multibinder.newSetBinder(binder, CustomParameter.class);
             customParameters.addBinding().toProvider(ProjectPermissionParameterProvider.class);
 
+            binder.bind(EventSpool.class).in(Scopes.SINGLETON);
+
             Multibinder<HttpService> httpServices = Multibinder.newSetBinder(binder, HttpService.class);
             httpServices.addBinding().to(AdminHttpService.class);
             httpServices.addBinding().to(ProjectHttpService.class);
@@ -248,6 +255,8 @@ public final class ServiceStarter
             configBinder(binder).bindConfig(HttpServerConfig.class);
             configBinder(binder).bindConfig(ProjectConfig.class);
             configBinder(binder).bindConfig(EncryptionConfig.class);
+            configBinder(binder).bindConfig(EventCollectionConfig.class);
+            configBinder(binder).bindConfig(QueryCacheConfig.class);
 
             binder.bind(SchemaChecker.class).asEagerSingleton();
 
@@ -4,11 +4,16 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import org.rakam.Mapper;
 import org.rakam.bootstrap.SystemRegistry;
 import org.rakam.bootstrap.SystemRegistry.ModuleDescriptor;
+import org.rakam.collection.EventSpool;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
 import org.rakam.config.ProjectConfig;
 import org.rakam.plugin.EventMapper;
+import org.rakam.plugin.GeoIPLookupCache;
+import org.rakam.plugin.SpoolingEventStore;
+import org.rakam.report.QueryExecutorService;
+import org.rakam.report.QueryResultCache;
 import org.rakam.server.http.HttpService;
 import org.rakam.server.http.annotations.Api;
 import org.rakam.server.http.annotations.ApiOperation;
@@ -18,6 +23,11 @@ import org.rakam.server.http.annotations.IgnoreApi;
 import org.rakam.server.http.annotations.JsonRequest;
 import org.rakam.ui.ActiveModuleListBuilder;
 import org.rakam.ui.ActiveModuleListBuilder.ActiveModuleList;
+import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
+import org.rakam.util.SqlParserUtil.ParserStats;
+import org.rakam.util.javascript.JSScriptPool.ScriptStats;
+import org.rakam.util.javascript.JSScriptRuntime;
 
 import javax.inject.Inject;
 import javax.ws.rs.GET;
@@ -30,6 +40,8 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+
 @Path("/admin")
 @Api(value = "/admin", nickname = "admin", description = "System operations", tags = "admin")
 public class AdminHttpService
@@ -39,13 +51,21 @@ public class AdminHttpService
     private final ActiveModuleList activeModules;
     private final ProjectConfig projectConfig;
     private final Set<EventMapper> eventMappers;
+    private final QueryExecutorService queryExecutorService;
+    private final JSScriptRuntime scriptRuntime;
+    private final Set<GeoIPLookupCache> geoIPLookupCaches;
+    private final EventSpool eventSpool;
 
     @Inject
-    public AdminHttpService(SystemRegistry systemRegistry, Set<EventMapper> eventMappers, ProjectConfig projectConfig, ActiveModuleListBuilder activeModuleListBuilder)
+    public AdminHttpService(SystemRegistry systemRegistry, Set<EventMapper> eventMappers, ProjectConfig projectConfig, ActiveModuleListBuilder activeModuleListBuilder, QueryExecutorService queryExecutorService, JSScriptRuntime scriptRuntime, Set<GeoIPLookupCache> geoIPLookupCaches, EventSpool eventSpool)
     {
+        this.eventSpool = eventSpool;
+        this.scriptRuntime = scriptRuntime;
+        this.geoIPLookupCaches = geoIPLookupCaches;
         this.systemRegistry = systemRegistry;
         this.projectConfig = projectConfig;
         this.eventMappers = eventMappers;
+        this.queryExecutorService = queryExecutorService;
         activeModules = activeModuleListBuilder.build();
     }
 
@@ -129,6 +149,82 @@ public class AdminHttpService
         return Objects.equals(lockKey, projectConfig.getLockKey());
     }
 
+    @ApiOperation(value = "Get query statistics",
+            authorizations = @Authorization(value = "master_key")
+    )
+    @GET
+    @JsonRequest
+    @Path("/stats")
+    public QueryStatistics getStats()
+    {
+        return new QueryStatistics(SqlParserUtil.getStats(),
+                queryExecutorService.getResultCache().map(QueryCacheStats::new).orElse(null));
+    }
+
+    @ApiOperation(value = "Get javascript statistics",
+            authorizations = @Authorization(value = "master_key")
+    )
+    @GET
+    @JsonRequest
+    @Path("/javascript_stats")
+    public List<ScriptStats> getJavascriptStats()
+    {
+        return scriptRuntime.getStats();
+    }
+
+    @ApiOperation(value = "Get GeoIP lookup cache statistics",
+            authorizations = @Authorization(value = "master_key")
+    )
+    @GET
+    @JsonRequest
+    @Path("/geoip_stats")
+    public List<GeoIPLookupCache.Stats> getGeoIPStats()
+    {
+        return geoIPLookupCaches.stream()
+                .map(GeoIPLookupCache::getStats)
+                .collect(Collectors.toList());
+    }
+
+    @ApiOperation(value = "Get event spool statistics",
+            authorizations = @Authorization(value = "master_key")
+    )
+    @GET
+    @JsonRequest
+    @Path("/spool_stats")
+    public SpoolingEventStore.Stats getSpoolStats()
+    {
+        return eventSpool.getStore().map(SpoolingEventStore::getStats)
+                .orElseThrow(() -> new RakamException("The event spool is not enabled", NOT_FOUND));
+    }
+
+    public static class QueryStatistics
+    {
+        public final ParserStats sqlParser;
+        public final QueryCacheStats queryCache;
+
+        public QueryStatistics(ParserStats sqlParser, QueryCacheStats queryCache)
+        {
+            this.sqlParser = sqlParser;
+            this.queryCache = queryCache;
+        }
+    }
+
+    public static class QueryCacheStats
+    {
+        public final long hitCount;
+        public final long missCount;
+        public final long sharedExecutionCount;
+        public final long cachedValueCount;
+
+        public QueryCacheStats(QueryResultCache cache)
+        {
+            this.hitCount = cache.getHitCount();
+            this.missCount = cache.getMissCount();
+            this.sharedExecutionCount = cache.getSharedExecutionCount();
+            this.cachedValueCount = cache.getCachedValueCount();
+        }
+    }
+
     @Path("/modules")
     @GET
     @IgnoreApi
@@ -1,6 +1,5 @@
 package org.rakam.analysis;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.GroupingElement;
 import com.facebook.presto.sql.tree.LongLiteral;
@@ -40,10 +39,12 @@ import org.rakam.server.http.annotations.Authorization;
 import org.rakam.server.http.annotations.BodyParam;
 import org.rakam.server.http.annotations.IgnoreApi;
 import org.rakam.server.http.annotations.JsonRequest;
+import org.rakam.util.ChunkedQueryResultWriter;
 import org.rakam.util.ExportUtil;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
 import org.rakam.util.LogUtil;
+import org.rakam.util.SqlParserUtil;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -85,7 +86,6 @@ public class QueryHttpService
     private final QueryExecutorService executorService;
     private final ApiKeyService apiKeyService;
     private EventLoopGroup eventLoopGroup;
-    private final SqlParser sqlParser = new SqlParser();
 
     @Inject
     public QueryHttpService(ApiKeyService apiKeyService, QueryExecutorService executorService)
@@ -116,6 +116,22 @@ public class QueryHttpService
                 });
     }
 
+    @Path("/stream")
+    @ApiOperation(value = "Execute query and stream the result",
+            notes = "The response has the same format with /query/execute but the rows are sent in chunks as they are fetched from the database.",
+            authorizations = @Authorization(value = "read_key")
+    )
+    @IgnoreApi
+    @JsonRequest
+    public void stream(RakamHttpRequest request, @Named("project") String project, @BodyParam QueryRequest query)
+    {
+        QueryExecution queryExecution = executorService.executeQuery(project, query.query,
+                query.sample,
+                Optional.ofNullable(query.defaultSchema).orElse("collection"),
+                query.limit == null ? MAX_QUERY_RESULT_LIMIT : query.limit);
+        ChunkedQueryResultWriter.write(request, queryExecution, "application/json", new ChunkedQueryResultWriter.JsonPageEncoder());
+    }
+
     @Path("/export")
     @ApiOperation(value = "Export query results",
             authorizations = @Authorization(value = "read_key")
@@ -124,27 +140,13 @@ public class QueryHttpService
     @JsonRequest
     public void export(RakamHttpRequest request, @Named("project") String project, @BodyParam QueryRequest query)
     {
-        executorService.executeQuery(project, query.query,
-                query.sample, Optional.ofNullable(query.defaultSchema).orElse("collection"), query.limit == null ? MAX_QUERY_RESULT_LIMIT : query.limit).getResult().thenAccept(result -> {
-            if (result.isFailed()) {
-                throw new RakamException(result.getError().toString(), BAD_REQUEST);
-            }
-            byte[] bytes;
-            switch (query.exportType) {
-                case CSV:
-                    bytes = ExportUtil.exportAsCSV(result);
-                    break;
-                case AVRO:
-                    bytes = ExportUtil.exportAsAvro(result);
-                    break;
-                case JSON:
-                    bytes = JsonHelper.encodeAsBytes(result.getResult());
-                default:
-                    throw new IllegalStateException();
-            }
-
-            request.response(bytes).end();
-        });
+        CopyType exportType = Optional.ofNullable(query.exportType).orElse(CopyType.CSV);
+        QueryExecution queryExecution = executorService.executeQuery(project, query.query,
+                query.sample,
+                Optional.ofNullable(query.defaultSchema).orElse("collection"),
+                query.limit == null ? MAX_QUERY_RESULT_LIMIT : query.limit);
+        ChunkedQueryResultWriter.write(request, queryExecution,
+                ExportUtil.getContentType(exportType), ExportUtil.getEncoder(exportType));
     }
 
     @GET
@@ -349,7 +351,7 @@ public class QueryHttpService
     public ResponseQuery explain(@ApiParam(value = "query", description = "Query") String query)
     {
         try {
-            Query statement = (Query) sqlParser.createStatement(query);
+            Query statement = (Query) SqlParserUtil.createStatement(query);
 
             Map<String, NodeLocation> map = statement.getWith().map(with -> {
                 ImmutableMap.Builder<String, NodeLocation> builder = ImmutableMap.builder();
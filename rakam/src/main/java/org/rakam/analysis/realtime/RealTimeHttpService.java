@@ -39,11 +39,13 @@ public class RealTimeHttpService
         extends HttpService
 {
     private final RealtimeService realtimeService;
+    private final RealtimeAggregationEngine aggregationEngine;
 
     @Inject
-    public RealTimeHttpService(RealtimeService realtimeService)
+    public RealTimeHttpService(RealtimeService realtimeService, RealtimeAggregationEngine aggregationEngine)
     {
         this.realtimeService = requireNonNull(realtimeService, "realtimeService is null");
+        this.aggregationEngine = requireNonNull(aggregationEngine, "aggregationEngine is null");
     }
 
     /**
@@ -62,7 +64,10 @@ public class RealTimeHttpService
     @Path("/create")
     public CompletableFuture<SuccessMessage> createTable(@Named("project") String project, @BodyParam RealTimeReport report)
     {
-        return realtimeService.create(project, report);
+        return realtimeService.create(project, report).thenApply(result -> {
+            aggregationEngine.register(project, report);
+            return result;
+        });
     }
 
     @JsonRequest
@@ -89,6 +94,10 @@ public class RealTimeHttpService
             @ApiParam(value = "date_start", required = false) Instant dateStart,
             @ApiParam(value = "date_end", required = false) Instant dateEnd)
     {
+        RealTimeQueryResult result = aggregationEngine.query(project, tableName, filter, measure, dimensions, aggregate, dateStart, dateEnd);
+        if (result != null) {
+            return CompletableFuture.completedFuture(result);
+        }
         return realtimeService.query(project, tableName, filter, measure, dimensions, aggregate, dateStart, dateEnd);
     }
 
@@ -101,6 +110,7 @@ public class RealTimeHttpService
         // TODO: Check if it's a real-time report.
         return realtimeService.delete(project, tableName).thenApply(result -> {
             if (result) {
+                aggregationEngine.remove(project, tableName);
                 return SuccessMessage.success();
             }
             else {
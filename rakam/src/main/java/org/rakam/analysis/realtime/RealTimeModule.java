@@ -27,6 +27,10 @@ public class RealTimeModule extends RakamModule {
 
         Multibinder<EventMapper> mappers = Multibinder.newSetBinder(binder, EventMapper.class);
         mappers.permitDuplicates().addBinding().to(TimestampEventMapper.class);
+        if (buildConfigObject(RealTimeConfig.class).isInMemoryAggregationEnabled()) {
+            // the events are aggregated after the _time attribute is set
+            mappers.addBinding().to(RealtimeEventMapper.class);
+        }
 
         Multibinder.newSetBinder(binder, Tag.class).addBinding()
                 .toInstance( new Tag().name("realtime").description("Realtime")
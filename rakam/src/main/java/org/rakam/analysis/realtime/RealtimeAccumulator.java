@@ -0,0 +1,280 @@
+package org.rakam.analysis.realtime;
+
+import io.airlift.slice.Slices;
+import io.airlift.stats.cardinality.HyperLogLog;
+import org.rakam.report.realtime.AggregationType;
+
+import java.util.Base64;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.of;
+
+/**
+ * Mutable state of a measure in a time bucket. The accumulators are not thread-safe, the owner synchronizes them.
+ */
+abstract class RealtimeAccumulator
+{
+    private static final int HYPERLOGLOG_BUCKETS = 2048;
+
+    public abstract void add(Object value);
+
+    public abstract void merge(RealtimeAccumulator other);
+
+    public abstract Object result();
+
+    /**
+     * JSON serializable state that is used for the checkpoints.
+     */
+    public abstract Object state();
+
+    public abstract void restore(Object state);
+
+    public static boolean isSupported(AggregationType type)
+    {
+        switch (type) {
+            case COUNT:
+            case SUM:
+            case MINIMUM:
+            case MAXIMUM:
+            case APPROXIMATE_UNIQUE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static RealtimeAccumulator create(AggregationType type)
+    {
+        switch (type) {
+            case COUNT:
+                return new Count();
+            case SUM:
+                return new Sum();
+            case MINIMUM:
+                return new Extreme(-1);
+            case MAXIMUM:
+                return new Extreme(1);
+            case APPROXIMATE_UNIQUE:
+                return new ApproximateUnique();
+            default:
+                throw new IllegalArgumentException(type + " is not supported");
+        }
+    }
+
+    /**
+     * Converts the Avro values to the types that are also returned from the JSON deserializer,
+     * so that the values from the events and the checkpoints are equal.
+     */
+    public static Object normalize(Object value)
+    {
+        if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
+    private static class Count
+            extends RealtimeAccumulator
+    {
+        private long count;
+
+        @Override
+        public void add(Object value)
+        {
+            if (value != null) {
+                count++;
+            }
+        }
+
+        @Override
+        public void merge(RealtimeAccumulator other)
+        {
+            count += ((Count) other).count;
+        }
+
+        @Override
+        public Object result()
+        {
+            return count;
+        }
+
+        @Override
+        public Object state()
+        {
+            return count;
+        }
+
+        @Override
+        public void restore(Object state)
+        {
+            count = ((Number) state).longValue();
+        }
+    }
+
+    private static class Sum
+            extends RealtimeAccumulator
+    {
+        private long longSum;
+        private double doubleSum;
+        private boolean floating;
+
+        @Override
+        public void add(Object value)
+        {
+            if (value instanceof Double || value instanceof Float) {
+                doubleSum += ((Number) value).doubleValue();
+                floating = true;
+            }
+            else if (value instanceof Number) {
+                longSum += ((Number) value).longValue();
+            }
+        }
+
+        @Override
+        public void merge(RealtimeAccumulator other)
+        {
+            Sum sum = (Sum) other;
+            longSum += sum.longSum;
+            doubleSum += sum.doubleSum;
+            floating |= sum.floating;
+        }
+
+        @Override
+        public Object result()
+        {
+            if (floating) {
+                return longSum + doubleSum;
+            }
+            return longSum;
+        }
+
+        @Override
+        public Object state()
+        {
+            return of(longSum, doubleSum, floating);
+        }
+
+        @Override
+        public void restore(Object state)
+        {
+            List<?> values = (List<?>) state;
+            longSum = ((Number) values.get(0)).longValue();
+            doubleSum = ((Number) values.get(1)).doubleValue();
+            floating = (Boolean) values.get(2);
+        }
+    }
+
+    private static class Extreme
+            extends RealtimeAccumulator
+    {
+        private final int direction;
+        private Object value;
+
+        private Extreme(int direction)
+        {
+            this.direction = direction;
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            value = normalize(value);
+            if (value == null) {
+                return;
+            }
+            if (this.value == null || compare(value, this.value) * direction > 0) {
+                this.value = value;
+            }
+        }
+
+        private static int compare(Object first, Object second)
+        {
+            if (first instanceof Number && second instanceof Number) {
+                if (first instanceof Long && second instanceof Long) {
+                    return Long.compare((Long) first, (Long) second);
+                }
+                return Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+            }
+            if (first instanceof String && second instanceof String) {
+                return ((String) first).compareTo((String) second);
+            }
+            // the values that can't be compared are ignored
+            return 0;
+        }
+
+        @Override
+        public void merge(RealtimeAccumulator other)
+        {
+            add(((Extreme) other).value);
+        }
+
+        @Override
+        public Object result()
+        {
+            return value;
+        }
+
+        @Override
+        public Object state()
+        {
+            return value;
+        }
+
+        @Override
+        public void restore(Object state)
+        {
+            value = normalize(state);
+        }
+    }
+
+    private static class ApproximateUnique
+            extends RealtimeAccumulator
+    {
+        private HyperLogLog hyperLogLog = HyperLogLog.newInstance(HYPERLOGLOG_BUCKETS);
+
+        @Override
+        public void add(Object value)
+        {
+            value = normalize(value);
+            if (value instanceof Long) {
+                hyperLogLog.add((Long) value);
+            }
+            else if (value instanceof Double) {
+                hyperLogLog.add(Double.doubleToLongBits((Double) value));
+            }
+            else if (value != null) {
+                hyperLogLog.add(Slices.utf8Slice(value.toString()));
+            }
+        }
+
+        @Override
+        public void merge(RealtimeAccumulator other)
+        {
+            hyperLogLog.mergeWith(((ApproximateUnique) other).hyperLogLog);
+        }
+
+        @Override
+        public Object result()
+        {
+            return hyperLogLog.cardinality();
+        }
+
+        @Override
+        public Object state()
+        {
+            return Base64.getEncoder().encodeToString(hyperLogLog.serialize().getBytes());
+        }
+
+        @Override
+        public void restore(Object state)
+        {
+            hyperLogLog = HyperLogLog.newInstance(Slices.wrappedBuffer(Base64.getDecoder().decode((String) state)));
+        }
+    }
+}
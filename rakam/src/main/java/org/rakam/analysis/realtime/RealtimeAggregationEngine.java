@@ -0,0 +1,356 @@
+package org.rakam.analysis.realtime;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.rakam.analysis.ConfigManager;
+import org.rakam.analysis.RealtimeService;
+import org.rakam.analysis.RealtimeService.RealTimeQueryResult;
+import org.rakam.analysis.metadata.Metastore;
+import org.rakam.analysis.realtime.RealtimeReportAggregator.Checkpoint;
+import org.rakam.collection.Event;
+import org.rakam.plugin.ContinuousQuery;
+import org.rakam.plugin.SystemEvents.ProjectDeletedEvent;
+import org.rakam.report.realtime.RealTimeConfig;
+import org.rakam.report.realtime.RealTimeReport;
+import org.rakam.util.JsonHelper;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * In-memory sliding window aggregations of the realtime reports. The events are aggregated by
+ * {@link RealtimeEventMapper} on the collection path and the reports are served without querying the
+ * continuous query tables.
+ * <p>
+ * The reports are loaded from the metastore in the background on startup and every refresh interval so that the
+ * reports that are created or deleted by other nodes are picked up, the collection path never waits for the metastore.
+ * The events of a project are not aggregated until its reports are loaded; the aggregators only serve the intervals
+ * that start after they're created so the queries fall back to the continuous query tables until then.
+ * <p>
+ * The events that are imported with /event/copy without the event mappers are not aggregated in memory,
+ * they're only visible in the continuous query tables.
+ */
+@Singleton
+public class RealtimeAggregationEngine
+{
+    private static final Logger LOGGER = Logger.get(RealtimeAggregationEngine.class);
+    private static final String CHECKPOINT_PREFIX = "realtime.checkpoint.";
+    private static final Checkpoint EMPTY_CHECKPOINT = new Checkpoint(0, false, ImmutableList.of());
+
+    private final RealtimeService realtimeService;
+    private final Metastore metastore;
+    private final ConfigManager configManager;
+    private final Clock clock;
+    private final boolean enabled;
+    private final Duration slide;
+    private final Duration window;
+    private final int maxGroups;
+    private final Duration checkpointInterval;
+    private final Duration refreshInterval;
+    private final Map<String, Map<String, RealtimeReportAggregator>> projects;
+    private final Set<String> loadingProjects;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public RealtimeAggregationEngine(RealtimeService realtimeService, Metastore metastore, ConfigManager configManager, RealTimeConfig config, Clock clock)
+    {
+        this.realtimeService = realtimeService;
+        this.metastore = metastore;
+        this.configManager = configManager;
+        this.clock = clock;
+        this.enabled = config.isInMemoryAggregationEnabled();
+        this.slide = config.getSlideInterval();
+        this.window = config.getWindowInterval();
+        this.maxGroups = config.getInMemoryMaxGroups();
+        this.checkpointInterval = config.getInMemoryCheckpointInterval();
+        this.refreshInterval = config.getInMemoryRefreshInterval();
+        this.projects = new ConcurrentHashMap<>();
+        this.loadingProjects = ConcurrentHashMap.newKeySet();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (!enabled) {
+            return;
+        }
+
+        // the metastore calls of the refresh task shouldn't delay the eviction
+        scheduler = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+                .setNameFormat("realtime-aggregation-scheduler-%d")
+                .setDaemon(true)
+                .build());
+        scheduler.scheduleAtFixedRate(this::evict, slide.toMillis(), slide.toMillis(), MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshInterval.toMillis(), MILLISECONDS);
+        if (checkpointInterval != null) {
+            scheduler.scheduleAtFixedRate(() -> checkpoint(false), checkpointInterval.toMillis(), checkpointInterval.toMillis(), MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        if (scheduler == null) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        if (checkpointInterval != null) {
+            checkpoint(true);
+        }
+    }
+
+    public void register(String project, RealTimeReport report)
+    {
+        if (!enabled) {
+            return;
+        }
+
+        Map<String, RealtimeReportAggregator> reports = projects.get(project);
+        if (reports == null) {
+            // the new report is picked up when the reports of the project are loaded
+            requestLoad(project);
+        }
+        else if (RealtimeReportAggregator.isSupported(report)) {
+            reports.put(report.table_name, createAggregator(report));
+        }
+        else {
+            reports.remove(report.table_name);
+        }
+    }
+
+    public void remove(String project, String tableName)
+    {
+        Map<String, RealtimeReportAggregator> reports = projects.get(project);
+        if (reports != null) {
+            reports.remove(tableName);
+        }
+        if (checkpointInterval != null) {
+            // ConfigManager can't delete a config, the checkpoint is cleared so that a report that is created
+            // with the same name doesn't restore the buckets of the deleted one
+            try {
+                configManager.setConfig(project, CHECKPOINT_PREFIX + tableName, EMPTY_CHECKPOINT);
+            }
+            catch (Exception e) {
+                LOGGER.error(e, "Unable to clear the checkpoint of realtime report %s", tableName);
+            }
+        }
+    }
+
+    @Subscribe
+    public void onDeleteProject(ProjectDeletedEvent event)
+    {
+        projects.remove(event.project);
+    }
+
+    public void add(Event event)
+    {
+        Map<String, RealtimeReportAggregator> reports = projects.get(event.project());
+        if (reports == null) {
+            requestLoad(event.project());
+            return;
+        }
+        if (reports.isEmpty()) {
+            return;
+        }
+
+        long now = clock.millis();
+        for (RealtimeReportAggregator aggregator : reports.values()) {
+            aggregator.add(event, now);
+        }
+    }
+
+    /**
+     * Returns null if the report is not aggregated in memory or the requested interval is not available.
+     */
+    public RealTimeQueryResult query(String project, String tableName, String filter, RealTimeReport.Measure measure,
+            List<String> dimensions, Boolean aggregate, Instant dateStart, Instant dateEnd)
+    {
+        if (!enabled || filter != null) {
+            return null;
+        }
+
+        Map<String, RealtimeReportAggregator> reports = projects.get(project);
+        RealtimeReportAggregator aggregator = reports == null ? null : reports.get(tableName);
+        if (aggregator == null) {
+            return null;
+        }
+
+        return aggregator.query(measure, dimensions, aggregate != null && aggregate, dateStart, dateEnd, clock.millis());
+    }
+
+    /**
+     * Loads the reports of a project that is not loaded yet in the background.
+     */
+    private void requestLoad(String project)
+    {
+        if (scheduler == null || !loadingProjects.add(project)) {
+            return;
+        }
+
+        try {
+            scheduler.execute(() -> {
+                if (load(project)) {
+                    loadingProjects.remove(project);
+                }
+                else {
+                    // the failed loads are retried after a while so that the metastore is not called for every event
+                    scheduler.schedule(() -> loadingProjects.remove(project), slide.toMillis(), MILLISECONDS);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            loadingProjects.remove(project);
+        }
+    }
+
+    private void refresh()
+    {
+        Set<String> projectNames;
+        try {
+            projectNames = metastore.getProjects();
+        }
+        catch (Exception e) {
+            LOGGER.error(e, "Unable to list the projects for the realtime reports");
+            return;
+        }
+
+        projects.keySet().retainAll(projectNames);
+        for (String project : projectNames) {
+            load(project);
+        }
+    }
+
+    /**
+     * Adds the aggregators of the new reports of the project and removes the deleted ones. The reports are not
+     * cached if they can't be loaded. Returns false if the load fails.
+     */
+    private boolean load(String project)
+    {
+        List<ContinuousQuery> queries;
+        try {
+            queries = realtimeService.list(project);
+        }
+        catch (Exception e) {
+            LOGGER.error(e, "Unable to load the realtime reports of project %s", project);
+            return false;
+        }
+
+        Map<String, RealtimeReportAggregator> reports = projects.getOrDefault(project, new ConcurrentHashMap<>());
+        Set<String> tableNames = new HashSet<>();
+        for (ContinuousQuery query : queries) {
+            RealTimeReport report = toReport(query);
+            if (report == null || !RealtimeReportAggregator.isSupported(report)) {
+                continue;
+            }
+
+            tableNames.add(report.table_name);
+            if (!reports.containsKey(report.table_name)) {
+                reports.put(report.table_name, restoreAggregator(project, report));
+            }
+        }
+        reports.keySet().retainAll(tableNames);
+        projects.putIfAbsent(project, reports);
+        return true;
+    }
+
+    private RealtimeReportAggregator restoreAggregator(String project, RealTimeReport report)
+    {
+        RealtimeReportAggregator aggregator = createAggregator(report);
+        if (checkpointInterval == null) {
+            return aggregator;
+        }
+
+        String configName = CHECKPOINT_PREFIX + report.table_name;
+        try {
+            Checkpoint checkpoint = configManager.getConfig(project, configName, Checkpoint.class);
+            if (checkpoint != null) {
+                aggregator.restore(checkpoint, clock.millis());
+                if (checkpoint.cleanShutdown) {
+                    // the checkpoint is not complete if the server crashes before the next checkpoint
+                    configManager.setConfig(project, configName, aggregator.checkpoint(false));
+                }
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error(e, "Unable to restore the checkpoint of realtime report %s", report.table_name);
+        }
+        return aggregator;
+    }
+
+    private RealtimeReportAggregator createAggregator(RealTimeReport report)
+    {
+        return new RealtimeReportAggregator(report, slide, window, maxGroups, clock.millis());
+    }
+
+    private static RealTimeReport toReport(ContinuousQuery query)
+    {
+        Map<String, Object> options = query.options;
+        // the reports that are created by the older versions don't have the definition
+        if (options.get("collections") == null) {
+            return null;
+        }
+
+        ImmutableMap.Builder<String, Object> report = ImmutableMap.<String, Object>builder()
+                .put("name", query.name)
+                .put("table_name", query.tableName)
+                .put("measures", options.get("aggregation"))
+                .put("collections", options.get("collections"));
+        for (String option : new String[] {"dimensions", "filter", "window"}) {
+            if (options.get(option) != null) {
+                report.put(option, options.get(option));
+            }
+        }
+
+        try {
+            return JsonHelper.convert(report.build(), RealTimeReport.class);
+        }
+        catch (Exception e) {
+            LOGGER.warn(e, "Unable to read the definition of realtime report %s", query.tableName);
+            return null;
+        }
+    }
+
+    private void evict()
+    {
+        long now = clock.millis();
+        for (Map<String, RealtimeReportAggregator> reports : projects.values()) {
+            for (RealtimeReportAggregator aggregator : reports.values()) {
+                aggregator.evict(now);
+            }
+        }
+    }
+
+    private void checkpoint(boolean cleanShutdown)
+    {
+        for (Map.Entry<String, Map<String, RealtimeReportAggregator>> project : projects.entrySet()) {
+            for (Map.Entry<String, RealtimeReportAggregator> report : project.getValue().entrySet()) {
+                try {
+                    configManager.setConfig(project.getKey(), CHECKPOINT_PREFIX + report.getKey(), report.getValue().checkpoint(cleanShutdown));
+                }
+                catch (Exception e) {
+                    LOGGER.error(e, "Unable to save the checkpoint of realtime report %s", report.getKey());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.rakam.analysis.realtime;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.cookie.Cookie;
+import org.rakam.Mapper;
+import org.rakam.collection.Event;
+import org.rakam.plugin.SyncEventMapper;
+
+import javax.inject.Inject;
+
+import java.net.InetAddress;
+import java.util.List;
+
+@Mapper(name = "Realtime aggregation mapper", description = "An internal event mapper that aggregates the events of the realtime reports in memory")
+public class RealtimeEventMapper
+        implements SyncEventMapper
+{
+    private final RealtimeAggregationEngine engine;
+
+    @Inject
+    public RealtimeEventMapper(RealtimeAggregationEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    @Override
+    public List<Cookie> map(Event event, RequestParams requestParams, InetAddress sourceAddress, HttpHeaders responseHeaders)
+    {
+        engine.add(event);
+        return null;
+    }
+}
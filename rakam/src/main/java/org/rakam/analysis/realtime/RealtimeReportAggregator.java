@@ -0,0 +1,334 @@
+package org.rakam.analysis.realtime;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
+import org.apache.avro.generic.GenericRecord;
+import org.rakam.analysis.RealtimeService.RealTimeQueryResult;
+import org.rakam.collection.Event;
+import org.rakam.report.realtime.RealTimeReport;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Math.floorDiv;
+
+/**
+ * Keeps the measures of a realtime report in time buckets of the slide interval for each dimension group.
+ * The buckets that are older than the window of the report are evicted. The report can only be served from memory
+ * when the aggregator has seen all the events of the requested interval, otherwise the caller falls back to
+ * the continuous query table.
+ */
+public class RealtimeReportAggregator
+{
+    private static final int MAX_ROWS = 5000;
+    // the queries start two slides before now, the buckets before the window are kept for them
+    private static final int RETAINED_SLIDES = 3;
+
+    private final Set<String> collections;
+    private final List<String> dimensions;
+    private final List<RealTimeReport.Measure> measures;
+    private final long slideMillis;
+    private final long windowMillis;
+    private final int maxGroups;
+    private final ConcurrentSkipListMap<Long, Map<List<Object>, RealtimeAccumulator[]>> buckets;
+    private final AtomicInteger groups;
+    private volatile long trackedSince;
+
+    public RealtimeReportAggregator(RealTimeReport report, Duration slide, Duration window, int maxGroups, long now)
+    {
+        this.collections = report.collections;
+        this.dimensions = report.dimensions == null ? ImmutableList.of() : ImmutableList.copyOf(report.dimensions);
+        this.measures = ImmutableList.copyOf(report.measures);
+        this.slideMillis = slide.toMillis();
+        this.windowMillis = (report.window == null ? window : report.window).toMillis();
+        this.maxGroups = maxGroups;
+        this.buckets = new ConcurrentSkipListMap<>();
+        this.groups = new AtomicInteger();
+        // the current bucket misses the events that are collected before the aggregator is created
+        this.trackedSince = (floorDiv(now, slideMillis) + 1) * slideMillis;
+    }
+
+    public static boolean isSupported(RealTimeReport report)
+    {
+        // the filters need the schema of the collections, they're executed by the continuous queries
+        return report.filter == null && report.measures.stream()
+                .allMatch(measure -> RealtimeAccumulator.isSupported(measure.aggregation));
+    }
+
+    public void add(Event event, long now)
+    {
+        if (!collections.contains(event.collection())) {
+            return;
+        }
+
+        GenericRecord properties = event.properties();
+        Object time = properties.get("_time");
+        if (!(time instanceof Number)) {
+            return;
+        }
+
+        long bucket = floorDiv(((Number) time).longValue(), slideMillis);
+        if (bucket < firstRetainedBucket(now)) {
+            return;
+        }
+
+        List<Object> key;
+        if (dimensions.isEmpty()) {
+            key = Collections.emptyList();
+        }
+        else {
+            Object[] values = new Object[dimensions.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = RealtimeAccumulator.normalize(properties.get(dimensions.get(i)));
+            }
+            key = Arrays.asList(values);
+        }
+
+        Map<List<Object>, RealtimeAccumulator[]> bucketGroups = buckets.computeIfAbsent(bucket, k -> new ConcurrentHashMap<>());
+        RealtimeAccumulator[] accumulators = bucketGroups.get(key);
+        if (accumulators == null) {
+            if (groups.get() >= maxGroups) {
+                // the bucket is incomplete, it can't be served until it's evicted
+                trackedSince = Math.max(trackedSince, (bucket + 1) * slideMillis);
+                return;
+            }
+            accumulators = bucketGroups.computeIfAbsent(key, k -> {
+                groups.incrementAndGet();
+                return createAccumulators();
+            });
+        }
+
+        synchronized (accumulators) {
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i].add(properties.get(measures.get(i).column));
+            }
+        }
+    }
+
+    public void evict(long now)
+    {
+        NavigableMap<Long, Map<List<Object>, RealtimeAccumulator[]>> expired = buckets.headMap(firstRetainedBucket(now));
+        for (Map<List<Object>, RealtimeAccumulator[]> bucketGroups : expired.values()) {
+            groups.addAndGet(-bucketGroups.size());
+        }
+        expired.clear();
+    }
+
+    /**
+     * Returns the result in the same format as {@link org.rakam.analysis.RealtimeService#query} or null if
+     * the interval, the measure or the dimensions are not available in memory.
+     */
+    public RealTimeQueryResult query(RealTimeReport.Measure measure, List<String> dimensions, boolean aggregate, Instant dateStart, Instant dateEnd, long now)
+    {
+        int measureIndex = measures.indexOf(measure);
+        if (measureIndex == -1) {
+            return null;
+        }
+
+        List<String> queryDimensions = dimensions == null ? ImmutableList.of() : dimensions;
+        int[] dimensionIndexes = new int[queryDimensions.size()];
+        for (int i = 0; i < dimensionIndexes.length; i++) {
+            dimensionIndexes[i] = this.dimensions.indexOf(queryDimensions.get(i));
+            if (dimensionIndexes[i] == -1) {
+                return null;
+            }
+        }
+
+        long lastUpdate = now - (slideMillis * 2);
+        long previousWindow = floorDiv(dateStart == null ? (lastUpdate - windowMillis) : dateStart.toEpochMilli(), slideMillis);
+        long currentWindow = floorDiv(dateEnd == null ? lastUpdate : dateEnd.toEpochMilli(), slideMillis);
+
+        if (previousWindow * slideMillis < trackedSince || previousWindow < firstRetainedBucket(now)) {
+            return null;
+        }
+
+        NavigableMap<Long, Map<List<Object>, RealtimeAccumulator[]>> range = dateEnd == null ?
+                buckets.tailMap(previousWindow, true) : buckets.subMap(previousWindow, true, currentWindow, false);
+
+        // the time is the same for all the rows if the result is aggregated
+        TreeMap<Long, Map<List<Object>, RealtimeAccumulator>> rows = new TreeMap<>();
+        for (Map.Entry<Long, Map<List<Object>, RealtimeAccumulator[]>> bucket : range.entrySet()) {
+            long time = aggregate ? currentWindow : bucket.getKey();
+            Map<List<Object>, RealtimeAccumulator> timeRows = rows.computeIfAbsent(time, k -> new LinkedHashMap<>());
+
+            for (Map.Entry<List<Object>, RealtimeAccumulator[]> group : bucket.getValue().entrySet()) {
+                List<Object> key = project(group.getKey(), dimensionIndexes);
+                if (key == null) {
+                    continue;
+                }
+
+                RealtimeAccumulator accumulator = timeRows.computeIfAbsent(key, k -> RealtimeAccumulator.create(measure.aggregation));
+                RealtimeAccumulator[] accumulators = group.getValue();
+                synchronized (accumulators) {
+                    accumulator.merge(accumulators[measureIndex]);
+                }
+            }
+        }
+
+        boolean noDimension = dimensionIndexes.length == 0;
+        Object result;
+        if (aggregate && noDimension) {
+            Map<List<Object>, RealtimeAccumulator> row = rows.get(currentWindow);
+            result = row == null || row.isEmpty() ? 0 : row.values().iterator().next().result();
+        }
+        else if (!aggregate && noDimension) {
+            List<List<Object>> data = new ArrayList<>();
+            for (long current = previousWindow; current < currentWindow; current++) {
+                Map<List<Object>, RealtimeAccumulator> row = rows.get(current);
+                Object value = row == null || row.isEmpty() ? 0 : row.values().iterator().next().result();
+                data.add(Arrays.asList(current * slideMillis, value));
+            }
+            result = data;
+        }
+        else {
+            List<List<Object>> data = new ArrayList<>();
+            for (Map.Entry<Long, Map<List<Object>, RealtimeAccumulator>> timeRows : rows.entrySet()) {
+                for (Map.Entry<List<Object>, RealtimeAccumulator> row : timeRows.getValue().entrySet()) {
+                    if (data.size() == MAX_ROWS) {
+                        break;
+                    }
+                    List<Object> values = new ArrayList<>(row.getKey().size() + 2);
+                    values.add(timeRows.getKey() * slideMillis);
+                    values.addAll(row.getKey());
+                    values.add(row.getValue().result());
+                    data.add(values);
+                }
+            }
+            result = data;
+        }
+
+        return new RealTimeQueryResult(previousWindow * slideMillis / 1000, currentWindow * slideMillis / 1000, result);
+    }
+
+    /**
+     * The checkpoint that is saved on a clean shutdown has all the events that are collected before the shutdown.
+     */
+    public Checkpoint checkpoint(boolean cleanShutdown)
+    {
+        List<CheckpointGroup> checkpointGroups = new ArrayList<>();
+        for (Map.Entry<Long, Map<List<Object>, RealtimeAccumulator[]>> bucket : buckets.entrySet()) {
+            for (Map.Entry<List<Object>, RealtimeAccumulator[]> group : bucket.getValue().entrySet()) {
+                RealtimeAccumulator[] accumulators = group.getValue();
+                List<Object> states = new ArrayList<>(accumulators.length);
+                synchronized (accumulators) {
+                    for (RealtimeAccumulator accumulator : accumulators) {
+                        states.add(accumulator.state());
+                    }
+                }
+                checkpointGroups.add(new CheckpointGroup(bucket.getKey(), group.getKey(), states));
+            }
+        }
+        return new Checkpoint(trackedSince, cleanShutdown, checkpointGroups);
+    }
+
+    /**
+     * Restores the buckets from a checkpoint. If the checkpoint is not saved on a clean shutdown, the events that are
+     * collected after it's saved are lost so the buckets before the restore are only used for the intervals that
+     * start after the aggregator is created and the older intervals fall back to the continuous query table.
+     */
+    public void restore(Checkpoint checkpoint, long now)
+    {
+        long firstRetainedBucket = firstRetainedBucket(now);
+        for (CheckpointGroup group : checkpoint.groups) {
+            if (group.bucket < firstRetainedBucket || group.dimensions.size() != dimensions.size()
+                    || group.values.size() != measures.size()) {
+                continue;
+            }
+
+            RealtimeAccumulator[] accumulators = createAccumulators();
+            for (int i = 0; i < accumulators.length; i++) {
+                if (group.values.get(i) != null) {
+                    accumulators[i].restore(group.values.get(i));
+                }
+            }
+
+            List<Object> key = new ArrayList<>(group.dimensions.size());
+            for (Object value : group.dimensions) {
+                key.add(RealtimeAccumulator.normalize(value));
+            }
+
+            if (buckets.computeIfAbsent(group.bucket, k -> new ConcurrentHashMap<>()).put(key, accumulators) == null) {
+                groups.incrementAndGet();
+            }
+        }
+        if (checkpoint.cleanShutdown) {
+            trackedSince = Math.min(trackedSince, checkpoint.trackedSince);
+        }
+    }
+
+    private RealtimeAccumulator[] createAccumulators()
+    {
+        RealtimeAccumulator[] accumulators = new RealtimeAccumulator[measures.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = RealtimeAccumulator.create(measures.get(i).aggregation);
+        }
+        return accumulators;
+    }
+
+    private long firstRetainedBucket(long now)
+    {
+        return floorDiv(now - windowMillis, slideMillis) - RETAINED_SLIDES;
+    }
+
+    private static List<Object> project(List<Object> values, int[] indexes)
+    {
+        if (indexes.length == 0) {
+            return Collections.emptyList();
+        }
+
+        Object[] projected = new Object[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            projected[i] = values.get(indexes[i]);
+            // the continuous query table doesn't return the rows that have null dimensions
+            if (projected[i] == null) {
+                return null;
+            }
+        }
+        return Arrays.asList(projected);
+    }
+
+    public static class Checkpoint
+    {
+        @JsonProperty("tracked_since")
+        public final long trackedSince;
+        @JsonProperty("clean_shutdown")
+        public final boolean cleanShutdown;
+        public final List<CheckpointGroup> groups;
+
+        @JsonCreator
+        public Checkpoint(@JsonProperty("tracked_since") long trackedSince, @JsonProperty("clean_shutdown") boolean cleanShutdown, @JsonProperty("groups") List<CheckpointGroup> groups)
+        {
+            this.trackedSince = trackedSince;
+            this.cleanShutdown = cleanShutdown;
+            this.groups = groups;
+        }
+    }
+
+    public static class CheckpointGroup
+    {
+        public final long bucket;
+        public final List<Object> dimensions;
+        public final List<Object> values;
+
+        @JsonCreator
+        public CheckpointGroup(@JsonProperty("bucket") long bucket, @JsonProperty("dimensions") List<Object> dimensions, @JsonProperty("values") List<Object> values)
+        {
+            this.bucket = bucket;
+            this.dimensions = dimensions;
+            this.values = values;
+        }
+    }
+}
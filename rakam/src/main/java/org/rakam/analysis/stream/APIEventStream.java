@@ -1,119 +1,210 @@
 package org.rakam.analysis.stream;
 
-import com.facebook.presto.spi.type.BigintType;
-import com.facebook.presto.spi.type.BooleanType;
-import com.facebook.presto.spi.type.DateType;
-import com.facebook.presto.spi.type.DecimalType;
-import com.facebook.presto.spi.type.DoubleType;
-import com.facebook.presto.spi.type.IntegerType;
-import com.facebook.presto.spi.type.TimeType;
-import com.facebook.presto.spi.type.TimestampType;
 import com.facebook.presto.spi.type.Type;
-import com.facebook.presto.spi.type.VarbinaryType;
-import com.facebook.presto.spi.type.VarcharType;
-import com.facebook.presto.sql.parser.SqlParser;
-import com.facebook.presto.type.ArrayType;
-import com.facebook.presto.type.MapType;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.analysis.stream.APIEventStreamModule.CollectionStreamHolder;
 import org.rakam.analysis.stream.APIEventStreamModule.CollectionStreamHolder.CollectionFilter;
 import org.rakam.collection.Event;
-import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
 import org.rakam.plugin.stream.CollectionStreamQuery;
 import org.rakam.plugin.stream.EventStream;
 import org.rakam.plugin.stream.StreamResponse;
 import org.rakam.util.JsonHelper;
+import org.rakam.util.SqlParserUtil;
 
 import javax.inject.Inject;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+import static java.lang.String.format;
 import static org.rakam.presto.analysis.PrestoMetastore.toType;
+import static org.rakam.server.http.HttpServer.errorMessage;
 
 public class APIEventStream
         implements EventStream
 {
+    private static final JsonFactory JSON_FACTORY = JsonHelper.getMapper().getFactory();
+
     private final Map<String, List<CollectionStreamHolder>> holder;
     private final ExpressionCompiler expressionCompiler;
     private final Metastore metastore;
+    private final APIEventStreamConfig config;
+    // the subscribers that use the same filter for a collection share the compiled predicate
+    private final Cache<Map.Entry<String, List<Map.Entry<String, Type>>>, Predicate<GenericRecord>> filterCache;
 
     @Inject
-    public APIEventStream(Map<String, List<CollectionStreamHolder>> holder, Metastore metastore, ExpressionCompiler expressionCompiler)
+    public APIEventStream(Map<String, List<CollectionStreamHolder>> holder, Metastore metastore, ExpressionCompiler expressionCompiler, APIEventStreamConfig config)
     {
         this.holder = holder;
         this.expressionCompiler = expressionCompiler;
         this.metastore = metastore;
+        this.config = config;
+        this.filterCache = CacheBuilder.newBuilder().maximumSize(1000).build();
     }
 
     @Override
     public EventStreamer subscribe(String project, List<CollectionStreamQuery> collections, List<String> columns, StreamResponse response)
     {
-        List<CollectionFilter> collect1 = collections.stream().map(item -> {
-            List<Map.Entry<String, Type>> collect = metastore.getCollection(project, item.getCollection())
-                    .stream()
-                    .map((Function<SchemaField, Map.Entry<String, Type>>) f ->
-                            new SimpleImmutableEntry<>(f.getName(), toType(f.getType())))
-                    .collect(Collectors.toList());
-
-            Predicate<GenericRecord> predicate = Optional.ofNullable(item.getFilter())
-                    .map(value -> new SqlParser().createExpression(item.getFilter()))
-                    .map(expression -> expressionCompiler.generate(expression, collect))
-                    .orElse(null);
-
-            return new CollectionFilter(item.getCollection(), predicate);
-        }).collect(Collectors.toList());
-
-        CollectionStreamHolder streamHolder = new CollectionStreamHolder(collect1);
-        List<CollectionStreamHolder> holders = this.holder.computeIfAbsent(project, s -> new ArrayList<>());
-        synchronized (this) {
-            holders.add(streamHolder);
-        }
+        List<CollectionFilter> filters = collections.stream()
+                .map(item -> new CollectionFilter(item.getCollection(), getFilter(project, item)))
+                .collect(Collectors.toList());
+
+        CollectionStreamHolder streamHolder = new CollectionStreamHolder(filters, config.getBufferSize(), config.getOverflowPolicy());
+        holder.compute(project, (key, holders) -> {
+            List<CollectionStreamHolder> list = holders == null ? new CopyOnWriteArrayList<>() : holders;
+            list.add(streamHolder);
+            return list;
+        });
 
         return new EventStreamer()
         {
             @Override
             public void sync()
             {
-                Event message = streamHolder.messageQueue.poll();
-                StringBuilder builder = new StringBuilder("[");
-
-                boolean isFirst = true;
-                while (message != null) {
-                    builder.append("{\"project\":")
-                            .append(JsonHelper.encode(message.project()))
-                            .append(", \"collection\":")
-                            .append(JsonHelper.encode(message.collection()))
-                            .append(", \"properties\": ")
-                            .append(message.properties().toString()).append("}");
-
-                    if (!isFirst) {
-                        builder.append(",");
-                    }
-                    isFirst = false;
-                    message = streamHolder.messageQueue.poll();
+                if (streamHolder.isOverflowed()) {
+                    response.send("error", JsonHelper.encode(errorMessage(format("The subscriber is disconnected because it couldn't keep up with the events, %d events are dropped.",
+                            streamHolder.getDroppedEvents()), TOO_MANY_REQUESTS))).end();
+                    shutdown();
+                    return;
                 }
 
-                builder.append("]");
+                StringWriter writer = new StringWriter();
+                try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+                    generator.writeStartArray();
+                    Event message;
+                    while ((message = streamHolder.messageQueue.poll()) != null) {
+                        writeEvent(generator, message);
+                    }
+                    generator.writeEndArray();
+                }
+                catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
 
-                response.send("data", builder.toString());
+                response.send("data", writer.toString());
             }
 
             @Override
             public void shutdown()
             {
-                synchronized (this) {
-                    holder.remove(holder);
-                }
+                holder.computeIfPresent(project, (key, holders) -> {
+                    holders.remove(streamHolder);
+                    return holders.isEmpty() ? null : holders;
+                });
             }
         };
     }
+
+    private Predicate<GenericRecord> getFilter(String project, CollectionStreamQuery item)
+    {
+        if (item.getFilter() == null) {
+            return null;
+        }
+
+        List<Map.Entry<String, Type>> columns = metastore.getCollection(project, item.getCollection())
+                .stream()
+                .map((Function<SchemaField, Map.Entry<String, Type>>) f ->
+                        new SimpleImmutableEntry<>(f.getName(), toType(f.getType())))
+                .collect(Collectors.toList());
+
+        try {
+            return filterCache.get(new SimpleImmutableEntry<>(item.getFilter(), columns),
+                    () -> expressionCompiler.generate(SqlParserUtil.createExpression(item.getFilter()), columns));
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static void writeEvent(JsonGenerator generator, Event event)
+            throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField("project", event.project());
+        generator.writeStringField("collection", event.collection());
+        generator.writeFieldName("properties");
+        writeRecord(generator, event.properties());
+        generator.writeEndObject();
+    }
+
+    private static void writeRecord(JsonGenerator generator, GenericRecord record)
+            throws IOException
+    {
+        generator.writeStartObject();
+        for (Schema.Field field : record.getSchema().getFields()) {
+            generator.writeFieldName(field.name());
+            writeValue(generator, record.get(field.pos()));
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value)
+            throws IOException
+    {
+        if (value == null) {
+            generator.writeNull();
+        }
+        else if (value instanceof CharSequence) {
+            generator.writeString(value.toString());
+        }
+        else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        }
+        else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).longValue());
+        }
+        else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(entry.getKey().toString());
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        }
+        else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object item : (Collection<?>) value) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        }
+        else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            generator.writeBinary(bytes);
+        }
+        else if (value instanceof byte[]) {
+            generator.writeBinary((byte[]) value);
+        }
+        else if (value instanceof GenericRecord) {
+            writeRecord(generator, (GenericRecord) value);
+        }
+        else {
+            generator.writeString(value.toString());
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package org.rakam.analysis.stream;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class APIEventStreamConfig
+{
+    private int bufferSize = 1000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    public enum OverflowPolicy
+    {
+        DROP, DISCONNECT
+    }
+
+    @Min(1)
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    @Config("event-stream.buffer-size")
+    @ConfigDescription("The maximum number of events that are buffered for a subscriber between two syncs")
+    public APIEventStreamConfig setBufferSize(int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    @NotNull
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    @Config("event-stream.overflow-policy")
+    @ConfigDescription("DROP skips the events when the buffer of the subscriber is full, DISCONNECT closes the stream of the slow subscriber")
+    public APIEventStreamConfig setOverflowPolicy(OverflowPolicy overflowPolicy)
+    {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+}
@@ -8,6 +8,7 @@ import com.google.inject.Binder;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.Multibinder;
 import org.apache.avro.generic.GenericRecord;
+import org.rakam.analysis.stream.APIEventStreamConfig.OverflowPolicy;
 import org.rakam.collection.Event;
 import org.rakam.plugin.EventMapper;
 import org.rakam.plugin.RakamModule;
@@ -16,21 +17,22 @@ import org.rakam.util.ConditionalModule;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
+import static io.airlift.configuration.ConfigBinder.configBinder;
+
 @AutoService(RakamModule.class)
 @ConditionalModule(config = "event-stream", value = "server")
 public class APIEventStreamModule
         extends RakamModule
 {
-    private static final int MAXIMUM_QUEUE_CAPACITY = 1000;
-
     @Override
     protected void setup(Binder binder)
     {
+        configBinder(binder).bindConfig(APIEventStreamConfig.class);
+        // the subscriber lists are copy-on-write so that the event mappers iterate them without locking
         binder.bind(new TypeLiteral<Map<String, List<CollectionStreamHolder>>>() {})
                 .toInstance(new ConcurrentHashMap<>());
         binder.bind(EventStream.class).to(APIEventStream.class);
@@ -56,12 +58,44 @@ public class APIEventStreamModule
     public static class CollectionStreamHolder
     {
         public final List<CollectionFilter> collections;
-        public final Queue<Event> messageQueue;
+        public final EventRingBuffer<Event> messageQueue;
+        private final OverflowPolicy overflowPolicy;
+        private final AtomicLong droppedEvents;
+        private volatile boolean overflowed;
 
-        public CollectionStreamHolder(List<CollectionFilter> collections)
+        public CollectionStreamHolder(List<CollectionFilter> collections, int bufferSize, OverflowPolicy overflowPolicy)
         {
             this.collections = collections;
-            this.messageQueue = new ArrayBlockingQueue<>(MAXIMUM_QUEUE_CAPACITY);
+            this.messageQueue = new EventRingBuffer<>(bufferSize);
+            this.overflowPolicy = overflowPolicy;
+            this.droppedEvents = new AtomicLong();
+        }
+
+        public void offer(Event event)
+        {
+            if (overflowed) {
+                return;
+            }
+
+            if (!messageQueue.offer(event)) {
+                droppedEvents.incrementAndGet();
+                if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                    overflowed = true;
+                }
+            }
+        }
+
+        /**
+         * Returns true if the subscriber couldn't keep up with the events and must be disconnected.
+         */
+        public boolean isOverflowed()
+        {
+            return overflowed;
+        }
+
+        public long getDroppedEvents()
+        {
+            return droppedEvents.get();
         }
 
         public static class CollectionFilter
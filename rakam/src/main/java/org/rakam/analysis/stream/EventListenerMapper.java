@@ -35,10 +35,9 @@ public class EventListenerMapper
             return null;
         }
 
-        for (int i = 0; i < streamHolder.size(); i++) {
-            // Instead of iterating, we use indices and avoid any read locks in concurrent environment.
-            CollectionStreamHolder holderItem = streamHolder.get(i);
-            if (holderItem == null) {
+        // the list is copy-on-write so the iteration doesn't see the concurrent subscriptions
+        for (CollectionStreamHolder holderItem : streamHolder) {
+            if (holderItem.isOverflowed()) {
                 continue;
             }
 
@@ -55,7 +54,7 @@ public class EventListenerMapper
                     }
                 }
 
-                holderItem.messageQueue.offer(event);
+                holderItem.offer(event);
                 break;
             }
         }
@@ -0,0 +1,75 @@
+package org.rakam.analysis.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for multiple producers and a single consumer. The event mappers in the collector
+ * threads are the producers and the sync task of the subscriber is the consumer. The producers never wait,
+ * {@link #offer(Object)} returns false when the buffer is full. The capacity is rounded up to a power of two.
+ */
+public class EventRingBuffer<T>
+{
+    private final AtomicReferenceArray<T> buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public EventRingBuffer(int capacity)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity()
+    {
+        return buffer.length();
+    }
+
+    public boolean offer(T item)
+    {
+        long position;
+        do {
+            position = tail.get();
+            if (position - head.get() >= buffer.length()) {
+                return false;
+            }
+        }
+        while (!tail.compareAndSet(position, position + 1));
+
+        // the consumer waits until the slot is published
+        buffer.lazySet((int) position & mask, item);
+        return true;
+    }
+
+    /**
+     * Returns the next item or null if the buffer is empty. Must be called by a single thread.
+     */
+    public T poll()
+    {
+        long position = head.get();
+        int index = (int) position & mask;
+        T item = buffer.get(index);
+        if (item == null) {
+            // either empty or the producer that claimed the slot hasn't published it yet
+            return null;
+        }
+
+        // the slot must be cleared before it's released to the producers
+        buffer.lazySet(index, null);
+        head.lazySet(position + 1);
+        return item;
+    }
+
+    public int size()
+    {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+}
@@ -1,7 +1,6 @@
 package org.rakam.analysis.stream;
 
 import com.facebook.presto.sql.parser.ParsingException;
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import io.airlift.log.Logger;
@@ -20,6 +19,7 @@ import org.rakam.server.http.annotations.ApiParam;
 import org.rakam.server.http.annotations.Authorization;
 import org.rakam.server.http.annotations.IgnoreApi;
 import org.rakam.util.JsonHelper;
+import org.rakam.util.SqlParserUtil;
 
 import javax.inject.Inject;
 import javax.ws.rs.GET;
@@ -47,7 +47,6 @@ public class EventStreamHttpService
     private final static Logger LOGGER = Logger.get(ServiceStarter.class);
 
     private final EventStream stream;
-    private final SqlParser sqlParser;
     private final ApiKeyService apiKeyService;
     private EventLoopGroup eventLoopGroup;
 
@@ -56,7 +55,6 @@ public class EventStreamHttpService
     {
         this.stream = stream;
         this.apiKeyService = apiKeyService;
-        this.sqlParser = new SqlParser();
     }
 
     @GET
@@ -105,7 +103,7 @@ public class EventStreamHttpService
             collect = query.collections.stream().map(collection -> {
                 Expression expression = null;
                 try {
-                    expression = collection.filter == null ? null : sqlParser.createExpression(collection.filter);
+                    expression = collection.filter == null ? null : SqlParserUtil.createExpression(collection.filter);
                 }
                 catch (ParsingException e) {
                     request.response(encode(errorMessage(format("Couldn't parse %s: %s",
@@ -94,12 +94,14 @@ public class ExpressionCompiler
         FilterContext filterContext = analyze(expression, columns);
 
         ImmutableList<Type> types = copyOf(filterContext.sourceTypes.values());
-        AvroRecordCursor cursor = new AvroRecordCursor(types, filterContext.projections);
+        int[] projections = filterContext.projections;
         Filter filter = filterContext.filter;
 
         ConnectorSession connectorSession = session.toConnectorSession();
 
+        // the predicates are shared by the subscribers and called by the collector threads concurrently
         return genericRecord -> {
+            AvroRecordCursor cursor = new AvroRecordCursor(types, projections);
             cursor.setRecord(genericRecord);
             return filter.filter(connectorSession, cursor);
         };
@@ -1,6 +1,5 @@
 package org.rakam.automation;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.AstVisitor;
 import com.facebook.presto.sql.tree.ComparisonExpression;
 import com.facebook.presto.sql.tree.ComparisonExpressionType;
@@ -16,6 +15,7 @@ import com.facebook.presto.sql.tree.StringLiteral;
 import com.google.common.base.Throwables;
 import net.openhft.compiler.CompilerUtils;
 import org.rakam.collection.Event;
+import org.rakam.util.SqlParserUtil;
 
 import java.util.function.Predicate;
 
@@ -24,7 +24,6 @@ import static org.rakam.util.ValidationUtil.checkTableColumn;
 public final class ExpressionCompiler
 {
 
-    private static final SqlParser sqlParser = new SqlParser();
 
     private ExpressionCompiler()
             throws InstantiationException
@@ -35,10 +34,7 @@ public final class ExpressionCompiler
     public static Predicate<Event> compile(String expressionStr)
             throws UnsupportedOperationException
     {
-        final Expression expression;
-        synchronized (sqlParser) {
-            expression = sqlParser.createExpression(expressionStr);
-        }
+        final Expression expression = SqlParserUtil.createExpression(expressionStr);
         final String javaExp = new JavaSourceAstVisitor().process(expression, false);
         String className = "org.rakam.automation.compiled.Predicate1";
         String javaCode = String.format("package org.rakam.automation.compiled;\n" +
@@ -137,7 +133,8 @@ public final class ExpressionCompiler
                 throw new IllegalArgumentException("field reference is invalid");
             }
             final String suffix = node.getName().getSuffix();
-            return "props.get(\"" + checkTableColumn(suffix, "field reference is invalid", '"') + "\")";
+            // the escaped column name is a valid Java string literal
+            return "props.get(" + checkTableColumn(suffix, "field reference is invalid", '"') + ")";
         }
 
         @Override
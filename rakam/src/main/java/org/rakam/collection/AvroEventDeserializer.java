@@ -26,6 +26,18 @@ public class AvroEventDeserializer {
     }
 
     public EventList deserialize(String project, String collection, SliceInput slice) throws IOException {
+        EventChunkIterator.EventReader reader = createReader(project, collection, slice);
+
+        List<Event> list = new ArrayList<>();
+        Event event;
+        while ((event = reader.read()) != null) {
+            list.add(event);
+        }
+
+        return new EventList(Event.EventContext.empty(), project, list);
+    }
+
+    public EventChunkIterator.EventReader createReader(String project, String collection, SliceInput slice) throws IOException {
         String json = slice.readSlice(slice.readInt()).toStringUtf8();
         Schema schema = new Schema.Parser().parse(json);
         int records = slice.readInt();
@@ -37,12 +49,23 @@ public class AvroEventDeserializer {
 
         GenericDatumReader<GenericRecord> reader = new GenericDatumReader(schema, avroSchema);
 
-        List<Event> list = new ArrayList<>(records);
-        for (int i = 0; i < records; i++) {
-            GenericRecord record = reader.read(null, binaryDecoder);
-            list.add(new Event(project, collection, null, fields, record));
-        }
+        return new EventChunkIterator.EventReader() {
+            private int remaining = records;
 
-        return new EventList(Event.EventContext.empty(), project, list);
+            @Override
+            public Event read() throws IOException {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining--;
+                GenericRecord record = reader.read(null, binaryDecoder);
+                return new Event(project, collection, null, fields, record);
+            }
+
+            @Override
+            public long position() {
+                return slice.position();
+            }
+        };
     }
 }
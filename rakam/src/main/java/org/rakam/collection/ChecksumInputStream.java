@@ -0,0 +1,235 @@
+package org.rakam.collection;
+
+import javax.xml.bind.DatatypeConverter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Computes the MD5 checksum of a JSON event body while it's read by the parser, so the body is neither
+ * buffered nor read twice. The value of the "checksum" field of the top-level "api" object is excluded from the
+ * checksum, i.e. the client computes the checksum of the body with {@code "checksum": ""}.
+ * <p>
+ * The body is scanned until the "api" object ends; if it doesn't have a checksum, the rest of the body is
+ * passed through without being hashed. The underlying stream is not closed by this stream.
+ */
+public class ChecksumInputStream
+        extends FilterInputStream
+{
+    private static final byte[] API = {'a', 'p', 'i'};
+    private static final byte[] CHECKSUM = {'c', 'h', 'e', 'c', 'k', 's', 'u', 'm'};
+
+    private MessageDigest digest;
+    private boolean scanning = true;
+
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    // the first bytes of the last string, enough to compare it with the field names
+    private final byte[] string = new byte[CHECKSUM.length + 1];
+    private int stringLength;
+    private final byte[] single = new byte[1];
+
+    private boolean apiValue;
+    private boolean inApi;
+    private boolean checksumValue;
+    private boolean excluding;
+    private boolean hasChecksum;
+
+    public ChecksumInputStream(InputStream in)
+    {
+        super(in);
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        int value = in.read();
+        if (value != -1) {
+            single[0] = (byte) value;
+            update(single, 0, 1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException
+    {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n)
+            throws IOException
+    {
+        // the skipped bytes are a part of the checksum as well
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public void close()
+    {
+        // the owner of the body closes the underlying stream after the checksum is validated
+    }
+
+    /**
+     * Reads the rest of the body that is left unread by the parser and compares its checksum.
+     */
+    public boolean isValid(String checksum)
+            throws IOException
+    {
+        if (digest == null) {
+            return false;
+        }
+
+        byte[] buffer = new byte[8192];
+        int read;
+        do {
+            read = read(buffer, 0, buffer.length);
+        }
+        while (read != -1);
+
+        if (!hasChecksum) {
+            return false;
+        }
+        return DatatypeConverter.printHexBinary(digest.digest()).equals(checksum.toUpperCase(Locale.ENGLISH));
+    }
+
+    private void update(byte[] b, int off, int len)
+    {
+        if (digest == null) {
+            return;
+        }
+
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end && scanning; i++) {
+            boolean excluded = excluding;
+            scan(b[i]);
+            if (!excluded && excluding) {
+                // the opening quote is hashed but not the value
+                digest.update(b, start, i + 1 - start);
+                start = i + 1;
+            }
+            else if (excluded && !excluding) {
+                start = i;
+            }
+        }
+
+        if (digest != null && !excluding) {
+            digest.update(b, start, end - start);
+        }
+    }
+
+    private void scan(byte value)
+    {
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            }
+            else if (value == '\\') {
+                escaped = true;
+            }
+            else if (value == '"') {
+                inString = false;
+                excluding = false;
+                return;
+            }
+
+            if (stringLength < string.length) {
+                string[stringLength++] = value;
+            }
+            return;
+        }
+
+        switch (value) {
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                return;
+            case '"':
+                inString = true;
+                stringLength = 0;
+                if (checksumValue) {
+                    excluding = true;
+                    hasChecksum = true;
+                }
+                break;
+            case ':':
+                if (depth == 1) {
+                    apiValue = isString(API);
+                }
+                else if (depth == 2 && inApi) {
+                    checksumValue = isString(CHECKSUM);
+                    return;
+                }
+                break;
+            case '{':
+            case '[':
+                depth++;
+                if (depth == 2 && value == '{' && apiValue) {
+                    inApi = true;
+                }
+                break;
+            case '}':
+            case ']':
+                if (depth == 2 && inApi) {
+                    inApi = false;
+                    scanning = false;
+                    if (!hasChecksum) {
+                        digest = null;
+                    }
+                }
+                depth--;
+                break;
+            default:
+                break;
+        }
+        checksumValue = false;
+    }
+
+    private boolean isString(byte[] name)
+    {
+        if (stringLength != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (string[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package org.rakam.collection;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.Schema;
+import org.rakam.analysis.metadata.Metastore;
+import org.rakam.util.ProjectCollection;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+
+/**
+ * Copy-on-write registry of the collection schemas that are used by the deserializers. The schemas are immutable,
+ * a schema change publishes a new version that is shared by all the threads, the stale versions are never
+ * published over the newer ones. The fields that are created by other nodes are resolved when the events that
+ * have them are deserialized. The collections can't be deleted individually, the schemas of a project are
+ * removed when the project is deleted via {@link #invalidate(String)}.
+ */
+class CollectionSchemaRegistry
+{
+    private final Metastore metastore;
+    private final Map<String, List<SchemaField>> conditionalMagicFields;
+    private final List<SchemaField> constantFields;
+    private final ConcurrentHashMap<ProjectCollection, CollectionSchema> schemas;
+    private final AtomicLong versions;
+
+    CollectionSchemaRegistry(Metastore metastore, Collection<SchemaField> constantFields, Map<String, List<SchemaField>> conditionalMagicFields)
+    {
+        this.metastore = metastore;
+        this.constantFields = ImmutableList.copyOf(constantFields);
+        this.conditionalMagicFields = conditionalMagicFields;
+        this.schemas = new ConcurrentHashMap<>();
+        this.versions = new AtomicLong();
+    }
+
+    public CollectionSchema get(ProjectCollection key)
+    {
+        // the concurrent lookups of the same collection wait for a single metastore call
+        return schemas.computeIfAbsent(key, k -> create(metastore.getCollection(k.project, k.collection)));
+    }
+
+    /**
+     * Publishes the fields that are returned by the metastore after a schema change. Since the fields are never
+     * removed, the current version is kept if it already has all the fields.
+     */
+    public CollectionSchema update(ProjectCollection key, List<SchemaField> fields)
+    {
+        return schemas.compute(key, (k, current) -> {
+            if (current != null && current.getFields() != null && current.getFields().size() >= fields.size()) {
+                return current;
+            }
+            return create(fields);
+        });
+    }
+
+    public void invalidate(String project)
+    {
+        schemas.keySet().removeIf(key -> key.project.equals(project));
+    }
+
+    public void invalidateAll()
+    {
+        schemas.clear();
+    }
+
+    private CollectionSchema create(List<SchemaField> fields)
+    {
+        List<SchemaField> rakamSchema = fields == null ? null : ImmutableList.copyOf(fields);
+        Schema avroSchema = convertAvroSchema(rakamSchema == null ? constantFields : rakamSchema, conditionalMagicFields);
+        return new CollectionSchema(versions.incrementAndGet(), rakamSchema, avroSchema);
+    }
+
+    public static class CollectionSchema
+    {
+        private final long version;
+        private final List<SchemaField> fields;
+        private final Schema avroSchema;
+
+        private CollectionSchema(long version, List<SchemaField> fields, Schema avroSchema)
+        {
+            this.version = version;
+            this.fields = fields;
+            this.avroSchema = avroSchema;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public List<SchemaField> getFields()
+        {
+            return fields;
+        }
+
+        public Schema getAvroSchema()
+        {
+            return avroSchema;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.rakam.collection;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.CountingInputStream;
+import org.rakam.plugin.EventStore.CompressionType;
+import org.rakam.util.RakamException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE;
+
+public final class CompressionUtil
+{
+    private CompressionUtil()
+            throws InstantiationException
+    {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    /**
+     * Returns null if the body is not encoded.
+     */
+    public static CompressionType getCompressionType(String contentEncoding)
+    {
+        if (contentEncoding == null) {
+            return null;
+        }
+
+        switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "":
+            case "identity":
+                return null;
+            case "gzip":
+            case "x-gzip":
+                return CompressionType.GZIP;
+            case "deflate":
+                return CompressionType.DEFLATE;
+            case "zstd":
+                return CompressionType.ZSTD;
+            case "lz4":
+                return CompressionType.LZ4;
+            default:
+                throw new RakamException("Unsupported content encoding: " + contentEncoding, UNSUPPORTED_MEDIA_TYPE);
+        }
+    }
+
+    /**
+     * Decompresses the stream while it's read. The stream fails when the decompressed data is larger than
+     * maxInflateRatio times the compressed data that is read so far, so that a small body can't be inflated
+     * into an arbitrary amount of data.
+     */
+    public static InputStream decompress(InputStream input, CompressionType compression, int maxInflateRatio)
+            throws IOException
+    {
+        if (compression == null) {
+            return input;
+        }
+
+        CountingInputStream compressed = new CountingInputStream(input);
+        InputStream decompressed;
+        switch (compression) {
+            case GZIP:
+                decompressed = new GZIPInputStream(compressed, 8192);
+                break;
+            case DEFLATE:
+                decompressed = new InflaterInputStream(compressed);
+                break;
+            case ZSTD:
+                decompressed = new ZstdInputStream(compressed);
+                break;
+            case LZ4:
+                decompressed = new Lz4FrameInputStream(compressed);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        return new InflateRatioLimitingInputStream(decompressed, compressed, maxInflateRatio);
+    }
+
+    private static class InflateRatioLimitingInputStream
+            extends FilterInputStream
+    {
+        private final CountingInputStream compressed;
+        private final int maxInflateRatio;
+        private long inflated;
+
+        private InflateRatioLimitingInputStream(InputStream in, CountingInputStream compressed, int maxInflateRatio)
+        {
+            super(in);
+            this.compressed = compressed;
+            this.maxInflateRatio = maxInflateRatio;
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            int value = in.read();
+            if (value != -1) {
+                inflated(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException
+        {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                inflated(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n)
+                throws IOException
+        {
+            long skipped = in.skip(n);
+            inflated(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        private void inflated(long bytes)
+        {
+            inflated += bytes;
+            if (inflated > compressed.getCount() * maxInflateRatio) {
+                throw new RakamException(String.format("The compression ratio of the body exceeds %d", maxInflateRatio),
+                        REQUEST_ENTITY_TOO_LARGE);
+            }
+        }
+    }
+}
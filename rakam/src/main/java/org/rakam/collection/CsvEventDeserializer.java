@@ -32,6 +32,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -127,6 +129,57 @@ public class CsvEventDeserializer
         return new EventList(Event.EventContext.apiKey(apiKey), project, list);
     }
 
+    public EventChunkIterator.EventReader createReader(CsvParser jp, String project, String collection, boolean useHeader)
+            throws IOException
+    {
+        Map.Entry<List<SchemaField>, int[]> header;
+        if (useHeader) {
+            jp.nextToken();
+            header = readHeader(jp, project, collection);
+        }
+        else {
+            List<SchemaField> vall = metastore.getCollection(project, collection);
+            header = new AbstractMap.SimpleImmutableEntry<>(vall, IntStream.range(0, vall.size()).toArray());
+        }
+
+        List<SchemaField> fields = header.getKey();
+        int[] indexes = header.getValue();
+        List<FieldType> types = Arrays.stream(indexes)
+                .mapToObj(i -> fields.get(i).getType()).collect(Collectors.toList());
+        Schema schema = convertAvroSchema(fields);
+
+        return new EventChunkIterator.EventReader()
+        {
+            @Override
+            public Event read()
+                    throws IOException
+            {
+                JsonToken t = jp.nextToken();
+                if (t == null) {
+                    return null;
+                }
+
+                GenericData.Record record = new GenericData.Record(schema);
+                int idx = 0;
+                for (t = jp.nextToken(); t != null && t != JsonToken.END_ARRAY; t = jp.nextToken()) {
+                    if (idx >= indexes.length) {
+                        throw new RakamException(String.format("Table has %d columns but csv file has more than %d columns", indexes.length, indexes.length), HttpResponseStatus.BAD_REQUEST);
+                    }
+                    record.put(indexes[idx], getValue(types.get(idx), jp));
+                    idx += 1;
+                }
+
+                return new Event(project, collection, null, fields, record);
+            }
+
+            @Override
+            public long position()
+            {
+                return jp.getCurrentLocation().getCharOffset();
+            }
+        };
+    }
+
     public Map.Entry<List<SchemaField>, int[]> readHeader(CsvParser jp, String project, String collection)
             throws IOException
     {
@@ -197,19 +250,11 @@ public class CsvEventDeserializer
                 if (jp.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
                     return jp.getValueAsLong();
                 }
-                try {
-                    return DateTimeUtils.parseTimestamp(jp.getValueAsString());
-                }
-                catch (Exception e) {
-                    return null;
-                }
+                OptionalLong timestamp = DateTimeUtils.tryParseTimestamp(jp.getValueAsString());
+                return timestamp.isPresent() ? timestamp.getAsLong() : null;
             case DATE:
-                try {
-                    return DateTimeUtils.parseDate(jp.getValueAsString());
-                }
-                catch (Exception e) {
-                    return null;
-                }
+                OptionalInt date = DateTimeUtils.tryParseDate(jp.getValueAsString());
+                return date.isPresent() ? date.getAsInt() : null;
             default:
                 if (type.isMap()) {
                     return getMap(type.getMapValueType(), jp.getValueAsString());
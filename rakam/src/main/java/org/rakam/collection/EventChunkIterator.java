@@ -0,0 +1,84 @@
+package org.rakam.collection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+public class EventChunkIterator
+        implements Iterator<List<Event>>
+{
+    public final Event.EventContext api;
+    public final String project;
+    private final EventReader reader;
+    private final int maxEvents;
+    private final long maxBytes;
+
+    private Event next;
+    private long nextPosition;
+    private boolean finished;
+
+    public EventChunkIterator(Event.EventContext api, String project, EventReader reader, int maxEvents, long maxBytes)
+    {
+        checkArgument(maxEvents > 0, "maxEvents must be positive");
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.api = checkNotNull(api, "api is null");
+        this.project = checkNotNull(project, "project is null");
+        this.reader = checkNotNull(reader, "reader is null");
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next == null && !finished) {
+            try {
+                nextPosition = reader.position();
+                next = reader.read();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            finished = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public List<Event> next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        long start = nextPosition;
+        List<Event> chunk = new ArrayList<>(Math.min(maxEvents, 1024));
+        do {
+            chunk.add(next);
+            next = null;
+        }
+        while (chunk.size() < maxEvents && reader.position() - start < maxBytes && hasNext());
+
+        return chunk;
+    }
+
+    public interface EventReader
+    {
+        /**
+         * Returns the next event in the source or null if there are no more events.
+         */
+        Event read()
+                throws IOException;
+
+        /**
+         * The number of bytes (or characters for text sources) consumed so far.
+         */
+        long position();
+    }
+}
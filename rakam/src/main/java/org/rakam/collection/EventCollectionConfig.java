@@ -0,0 +1,194 @@
+package org.rakam.collection;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import javax.validation.constraints.Min;
+
+import java.util.concurrent.TimeUnit;
+
+public class EventCollectionConfig
+{
+    private int bulkChunkSize = 10000;
+    private DataSize bulkChunkMaxBytes = new DataSize(16, DataSize.Unit.MEGABYTE);
+    private boolean batchingEnabled;
+    private int batchingMaxSize = 1000;
+    private Duration batchingMaxDelay = new Duration(50, TimeUnit.MILLISECONDS);
+    private boolean spoolEnabled;
+    private String spoolDirectory;
+    private DataSize spoolSegmentSize = new DataSize(64, DataSize.Unit.MEGABYTE);
+    private DataSize spoolMaxSize = new DataSize(10, DataSize.Unit.GIGABYTE);
+    private int spoolDrainBatchSize = 10000;
+    private int spoolMaxDrainAttempts = 20;
+    private int maxInflateRatio = 100;
+    private int bulkRemoteFetchThreads = 8;
+
+    public int getBulkChunkSize()
+    {
+        return bulkChunkSize;
+    }
+
+    @Config("collection.bulk.chunk-size")
+    @ConfigDescription("Maximum number of events that are parsed from a bulk request before they're passed to the event store")
+    public EventCollectionConfig setBulkChunkSize(int bulkChunkSize)
+    {
+        this.bulkChunkSize = bulkChunkSize;
+        return this;
+    }
+
+    public DataSize getBulkChunkMaxBytes()
+    {
+        return bulkChunkMaxBytes;
+    }
+
+    @Config("collection.bulk.chunk-max-bytes")
+    @ConfigDescription("Maximum size of the request body that is parsed into a single chunk in bulk requests")
+    public EventCollectionConfig setBulkChunkMaxBytes(String bulkChunkMaxBytes)
+    {
+        this.bulkChunkMaxBytes = DataSize.valueOf(bulkChunkMaxBytes);
+        return this;
+    }
+
+    public boolean getBatchingEnabled()
+    {
+        return batchingEnabled;
+    }
+
+    @Config("collection.batching.enabled")
+    @ConfigDescription("Buffer the events sent to the collect API and write them to the event store in batches")
+    public EventCollectionConfig setBatchingEnabled(boolean batchingEnabled)
+    {
+        this.batchingEnabled = batchingEnabled;
+        return this;
+    }
+
+    public int getBatchingMaxSize()
+    {
+        return batchingMaxSize;
+    }
+
+    @Config("collection.batching.max-size")
+    public EventCollectionConfig setBatchingMaxSize(int batchingMaxSize)
+    {
+        this.batchingMaxSize = batchingMaxSize;
+        return this;
+    }
+
+    public Duration getBatchingMaxDelay()
+    {
+        return batchingMaxDelay;
+    }
+
+    @Config("collection.batching.max-delay")
+    public EventCollectionConfig setBatchingMaxDelay(String batchingMaxDelay)
+    {
+        this.batchingMaxDelay = Duration.valueOf(batchingMaxDelay);
+        return this;
+    }
+
+    public boolean getSpoolEnabled()
+    {
+        return spoolEnabled;
+    }
+
+    @Config("collection.spool.enabled")
+    @ConfigDescription("Acknowledge the events sent to the collect API once they're written to a local spool and write them to the event store in the background")
+    public EventCollectionConfig setSpoolEnabled(boolean spoolEnabled)
+    {
+        this.spoolEnabled = spoolEnabled;
+        return this;
+    }
+
+    public String getSpoolDirectory()
+    {
+        return spoolDirectory;
+    }
+
+    @Config("collection.spool.directory")
+    public EventCollectionConfig setSpoolDirectory(String spoolDirectory)
+    {
+        this.spoolDirectory = spoolDirectory;
+        return this;
+    }
+
+    public DataSize getSpoolSegmentSize()
+    {
+        return spoolSegmentSize;
+    }
+
+    @Config("collection.spool.segment-size")
+    public EventCollectionConfig setSpoolSegmentSize(String spoolSegmentSize)
+    {
+        this.spoolSegmentSize = DataSize.valueOf(spoolSegmentSize);
+        return this;
+    }
+
+    public DataSize getSpoolMaxSize()
+    {
+        return spoolMaxSize;
+    }
+
+    @Config("collection.spool.max-size")
+    @ConfigDescription("The events are rejected when the size of the spool that is not written to the event store exceeds this value")
+    public EventCollectionConfig setSpoolMaxSize(String spoolMaxSize)
+    {
+        this.spoolMaxSize = DataSize.valueOf(spoolMaxSize);
+        return this;
+    }
+
+    public int getSpoolDrainBatchSize()
+    {
+        return spoolDrainBatchSize;
+    }
+
+    @Config("collection.spool.drain-batch-size")
+    public EventCollectionConfig setSpoolDrainBatchSize(int spoolDrainBatchSize)
+    {
+        this.spoolDrainBatchSize = spoolDrainBatchSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getSpoolMaxDrainAttempts()
+    {
+        return spoolMaxDrainAttempts;
+    }
+
+    @Config("collection.spool.max-drain-attempts")
+    @ConfigDescription("The spooled events that the event store fails to store after this many attempts are moved to the dead letter file of the spool")
+    public EventCollectionConfig setSpoolMaxDrainAttempts(int spoolMaxDrainAttempts)
+    {
+        this.spoolMaxDrainAttempts = spoolMaxDrainAttempts;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxInflateRatio()
+    {
+        return maxInflateRatio;
+    }
+
+    @Config("collection.max-inflate-ratio")
+    @ConfigDescription("The compressed request bodies are rejected when they're decompressed to more than this ratio of their size")
+    public EventCollectionConfig setMaxInflateRatio(int maxInflateRatio)
+    {
+        this.maxInflateRatio = maxInflateRatio;
+        return this;
+    }
+
+    @Min(1)
+    public int getBulkRemoteFetchThreads()
+    {
+        return bulkRemoteFetchThreads;
+    }
+
+    @Config("collection.bulk.remote.fetch-threads")
+    @ConfigDescription("Maximum number of remote files that are fetched and stored at the same time by the remote bulk imports")
+    public EventCollectionConfig setBulkRemoteFetchThreads(int bulkRemoteFetchThreads)
+    {
+        this.bulkRemoteFetchThreads = bulkRemoteFetchThreads;
+        return this;
+    }
+}
@@ -3,17 +3,21 @@ package org.rakam.collection;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.cfg.ContextAttributes;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.ByteStreams;
+import com.google.common.collect.Iterators;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.log.Logger;
 import io.airlift.slice.InputStreamSliceInput;
 import io.netty.buffer.ByteBuf;
@@ -31,6 +35,8 @@ import org.rakam.analysis.ApiKeyService;
 import org.rakam.analysis.QueryHttpService;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.collection.Event.EventContext;
+import org.rakam.plugin.BatchingEventStore;
+import org.rakam.plugin.BulkStoreException;
 import org.rakam.plugin.CopyEvent;
 import org.rakam.plugin.EventMapper;
 import org.rakam.plugin.EventStore;
@@ -55,39 +61,47 @@ import org.rakam.util.LogUtil;
 import org.rakam.util.RakamException;
 import org.rakam.util.SuccessMessage;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
-import javax.xml.bind.DatatypeConverter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
 import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.io.Closeables.closeQuietly;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT;
 import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_CREDENTIALS;
 import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_ORIGIN;
 import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_EXPOSE_HEADERS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
 import static io.netty.handler.codec.http.HttpHeaders.Names.ORIGIN;
 import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
@@ -100,6 +114,7 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static io.netty.handler.codec.http.cookie.ServerCookieEncoder.STRICT;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.rakam.analysis.ApiKeyService.AccessKeyType.MASTER_KEY;
+import static org.rakam.collection.CompressionUtil.getCompressionType;
 import static org.rakam.plugin.EventMapper.COMPLETED_EMPTY_FUTURE;
 import static org.rakam.plugin.EventStore.COMPLETED_FUTURE;
 import static org.rakam.plugin.EventStore.CopyType.AVRO;
@@ -110,6 +125,7 @@ import static org.rakam.server.http.HttpServer.errorMessage;
 import static org.rakam.util.JsonHelper.encode;
 import static org.rakam.util.JsonHelper.encodeAsBytes;
 import static org.rakam.util.StandardErrors.CONFLICT_COMMIT_MESSAGE;
+import static org.rakam.util.StandardErrors.BULK_PARTIAL_ERROR_MESSAGE;
 import static org.rakam.util.StandardErrors.PARTIAL_ERROR_MESSAGE;
 import static org.rakam.util.ValidationUtil.checkCollection;
 
@@ -131,6 +147,9 @@ public class EventCollectionHttpService
     private final QueryHttpService queryHttpService;
     private final com.google.common.base.Optional<CopyEvent> copyEvent;
     private final JsonEventDeserializer jsonEventDeserializer;
+    private final CsvEventDeserializer csvEventDeserializer;
+    private final EventCollectionConfig collectionConfig;
+    private final ExecutorService remoteImportExecutor;
 
     @Inject
     public EventCollectionHttpService(
@@ -142,9 +161,16 @@ public class EventCollectionHttpService
             AvroEventDeserializer avroEventDeserializer,
             EventListDeserializer eventListDeserializer,
             CsvEventDeserializer csvEventDeserializer,
+            EventCollectionConfig collectionConfig,
+            EventSpool eventSpool,
             Set<EventMapper> mappers)
     {
-        this.eventStore = eventStore;
+        if (eventSpool.getStore().isPresent()) {
+            eventStore = eventSpool.getStore().get();
+        }
+        this.eventStore = collectionConfig.getBatchingEnabled() ?
+                new BatchingEventStore(eventStore, collectionConfig.getBatchingMaxSize(),
+                        collectionConfig.getBatchingMaxDelay().toMillis()) : eventStore;
         this.eventMappers = ImmutableList.copyOf(mappers);
         this.apiKeyService = apiKeyService;
         this.queryHttpService = queryHttpService;
@@ -167,10 +193,25 @@ public class EventCollectionHttpService
 
         this.avroEventDeserializer = avroEventDeserializer;
         this.jsonEventDeserializer = deserializer;
+        this.csvEventDeserializer = csvEventDeserializer;
+        this.collectionConfig = collectionConfig;
+        this.remoteImportExecutor = Executors.newFixedThreadPool(collectionConfig.getBulkRemoteFetchThreads(),
+                new ThreadFactoryBuilder().setNameFormat("remote-bulk-import-%d").setDaemon(true).build());
         csvMapper = new CsvMapper();
         csvMapper.registerModule(new SimpleModule().addDeserializer(EventList.class, csvEventDeserializer));
     }
 
+    @PreDestroy
+    public void close()
+            throws InterruptedException
+    {
+        remoteImportExecutor.shutdownNow();
+        // the events that are acknowledged but still buffered are stored before the server stops
+        if (eventStore instanceof BatchingEventStore) {
+            ((BatchingEventStore) eventStore).close();
+        }
+    }
+
     public static CompletableFuture<List<Cookie>> mapEvent(List<EventMapper> eventMappers, Function<EventMapper, CompletableFuture<List<Cookie>>> mapperFunction)
     {
         List<Cookie> cookies = new ArrayList<>();
@@ -225,7 +266,8 @@ public class EventCollectionHttpService
     }
 
     @POST
-    @ApiOperation(value = "Collect event", response = Integer.class, request = Event.class)
+    @ApiOperation(value = "Collect event", response = Integer.class, request = Event.class,
+            notes = "If api.checksum is set, it must be the MD5 of the body that is computed while api.checksum is an empty string.")
     @Path("/collect")
     public void collectEvent(RakamHttpRequest request)
     {
@@ -237,17 +279,26 @@ public class EventCollectionHttpService
             CompletableFuture<List<Cookie>> cookiesFuture;
 
             try {
-                Event event = jsonMapper.readValue(buff, Event.class);
+                ChecksumInputStream body = new ChecksumInputStream(buff);
+                Event event = jsonMapper.readValue(body, Event.class);
 
                 EventContext context = event.api();
 
-                if (context.checksum != null && !validateChecksum(request, context.checksum, buff)) {
+                if (context.checksum != null && !validateChecksum(request, context.checksum, body)) {
                     return;
                 }
 
                 cookiesFuture = mapEvent(eventMappers, (mapper) -> mapper.mapAsync(event, new HttpRequestParams(request),
                         getRemoteAddress(socketAddress), response.trailingHeaders()));
-                cookiesFuture.thenAccept(v -> eventStore.store(event));
+                cookiesFuture = cookiesFuture.thenApply(cookies -> {
+                    // the store may reject the event synchronously if it can't keep up with the load
+                    eventStore.storeAsync(event).whenComplete((result, ex) -> {
+                        if (ex != null) {
+                            LOGGER.error(ex, "Error while storing event");
+                        }
+                    });
+                    return cookies;
+                });
             }
             catch (JsonMappingException e) {
                 String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
@@ -287,7 +338,11 @@ public class EventCollectionHttpService
                 response.headers().set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
             }
 
-            cookiesFuture.thenAccept(cookies -> {
+            cookiesFuture.whenComplete((cookies, ex) -> {
+                if (ex != null) {
+                    handleCollectError(request, unwrapException(ex));
+                    return;
+                }
                 if (cookies != null) {
                     response.headers().add(SET_COOKIE, STRICT.encode(cookies));
                 }
@@ -308,7 +363,11 @@ public class EventCollectionHttpService
 
     @POST
     @ApiOperation(value = "Collect Bulk events", request = EventList.class, response = SuccessMessage.class, notes = "Bulk API requires master_key as api key and designed to handle large value of data. " +
-            "The endpoint also accepts application/avro and text/csv formats. You need need to set 'collection' and 'master_key' query parameters if the content-type is not application/json.")
+            "The endpoint also accepts application/avro and text/csv formats. You need need to set 'collection' and 'master_key' query parameters if the content-type is not application/json. " +
+            "The events are parsed and stored in chunks. If a chunk can't be parsed or stored after some of the events are stored, the rest of the body is not read " +
+            "and the number of the stored events, which is the index of the first event that is not stored, is returned with 409 status code. " +
+            "The body may be compressed with gzip, deflate, zstd or lz4 if the Content-Encoding header is set.")
+    @ApiResponses(value = {@ApiResponse(code = 409, message = BULK_PARTIAL_ERROR_MESSAGE, response = Long.class)})
     @Path("/bulk")
     public void bulkEvents(RakamHttpRequest request)
     {
@@ -317,98 +376,163 @@ public class EventCollectionHttpService
 
     public void bulkEvents(RakamHttpRequest request, boolean mapEvents)
     {
-        storeEventsSync(request,
-                buff -> {
-                    String contentType = request.headers().get(CONTENT_TYPE);
-                    if (contentType == null || "application/json".equals(contentType)) {
-                        String apiKey = getParam(request.params(), MASTER_KEY.getKey());
-                        String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
-                        String collection = getParam(request.params(), "collection");
-
-                        JsonParser parser = jsonMapper.getFactory().createParser(buff);
-                        ArrayList<Event> events = new ArrayList<>();
-
-                        JsonToken t = parser.nextToken();
-                        if (t == JsonToken.START_OBJECT) {
-                            while (t == JsonToken.START_OBJECT) {
-                                Map.Entry<List<SchemaField>, GenericData.Record> entry = jsonEventDeserializer.parseProperties(project, collection, parser, true);
-                                events.add(new Event(project, collection, null, entry.getKey(), entry.getValue()));
-                                t = parser.nextToken();
-                            }
-                        }
-                        else if (t == JsonToken.START_ARRAY) {
-                            t = parser.nextToken();
+        request.bodyHandler(buff -> {
+            DefaultHttpHeaders responseHeaders = new DefaultHttpHeaders();
+            responseHeaders.set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+            if (request.headers().contains(ORIGIN)) {
+                responseHeaders.set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
+            }
 
-                            for (; t == START_OBJECT; t = parser.nextToken()) {
-                                Map.Entry<List<SchemaField>, GenericData.Record> entry = jsonEventDeserializer.parseProperties(project, collection, parser, true);
-                                events.add(new Event(project, collection, null, entry.getKey(), entry.getValue()));
-                            }
-                        }
-                        else {
-                            throw new RakamException("The body must be an array of events or line-separated events", BAD_REQUEST);
+            List<Cookie> cookies = new ArrayList<>();
+            InputStream body = null;
+            long storedEvents = -1;
+            try {
+                body = decompress(buff, getCompressionType(request.headers().get(CONTENT_ENCODING)));
+                EventChunkIterator chunks = getBulkEventChunks(request, body);
+
+                Iterator<List<Event>> mappedChunks = chunks;
+                if (mapEvents) {
+                    HttpRequestParams requestParams = new HttpRequestParams(request);
+                    InetAddress remoteAddress = getRemoteAddress(request.getRemoteAddress());
+
+                    // the events are mapped right before their chunk is stored
+                    mappedChunks = Iterators.transform(chunks, chunk -> {
+                        EventList eventList = new EventList(chunks.api, chunks.project, chunk);
+                        List<Cookie> chunkCookies = mapEvent(eventMappers, (m) -> m.mapAsync(eventList, requestParams,
+                                remoteAddress, responseHeaders)).join();
+                        if (chunkCookies != null) {
+                            cookies.addAll(chunkCookies);
                         }
+                        return chunk;
+                    });
+                }
 
-                        return new EventList(EventContext.apiKey(apiKey), project, events);
+                try {
+                    eventStore.storeBulk(mappedChunks);
+                }
+                catch (BulkStoreException e) {
+                    if (e.getStoredEvents() == 0) {
+                        handleCollectError(request, unwrapException(e.getCause()));
+                        return;
                     }
-                    else if ("application/avro".equals(contentType)) {
-                        String apiKey = getParam(request.params(), MASTER_KEY.getKey());
-                        String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
-                        String collection = getParam(request.params(), "collection");
 
-                        return avroEventDeserializer.deserialize(project, collection, new InputStreamSliceInput(buff));
-                    }
-                    else if ("text/csv".equals(contentType)) {
-                        String apiKey = getParam(request.params(), MASTER_KEY.getKey());
-                        String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
-                        String collection = getParam(request.params(), "collection");
-
-                        CsvSchema.Builder builder = CsvSchema.builder();
-                        if (request.params().get("column_separator") != null) {
-                            List<String> column_seperator = request.params().get("column_separator");
-                            if (column_seperator != null && column_seperator.get(0).length() != 1) {
-                                throw new RakamException("Invalid column separator", BAD_REQUEST);
-                            }
-                            builder.setColumnSeparator(column_seperator.get(0).charAt(0));
-                        }
+                    // the rest of the body is not parsed once a chunk fails
+                    LOGGER.error(unwrapException(e.getCause()), "Error while storing bulk events, %d events are already stored", e.getStoredEvents());
+                    storedEvents = e.getStoredEvents();
+                }
+            }
+            catch (Throwable e) {
+                handleCollectError(request, unwrapException(e));
+                return;
+            }
+            finally {
+                closeQuietly(body);
+            }
 
-                        boolean useHeader = false;
-                        if (request.params().get("use_header") != null) {
-                            useHeader = Boolean.valueOf(request.params().get("use_header").get(0));
-                            // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
-                        }
+            String headerList = getHeaderList(responseHeaders.iterator());
+            if (headerList != null) {
+                responseHeaders.set(ACCESS_CONTROL_EXPOSE_HEADERS, headerList);
+            }
 
-                        return csvMapper.readerFor(EventList.class)
-                                .with(ContextAttributes.getEmpty()
-                                        .withSharedAttribute("project", project)
-                                        .withSharedAttribute("useHeader", useHeader)
-                                        .withSharedAttribute("collection", collection)
-                                        .withSharedAttribute("apiKey", apiKey))
-                                .with(builder.build()).readValue(buff);
-                    }
+            responseHeaders.add(CONTENT_TYPE, "application/json");
+            if (!cookies.isEmpty()) {
+                responseHeaders.add(SET_COOKIE, STRICT.encode(cookies));
+            }
 
-                    throw new RakamException("Unsupported content type: " + contentType, BAD_REQUEST);
-                },
-                (events, responseHeaders) -> {
-                    if (events.size() > 0) {
-                        try {
-                            eventStore.storeBulk(events);
-                        }
-                        catch (Throwable e) {
-                            List<Event> sample = events.size() > 5 ? events.subList(0, 2) : events;
-                            LOGGER.error(new RuntimeException("Error executing EventStore bulk method.",
-                                            new RuntimeException(sample.toString().substring(0, 200), e)),
-                                    "Error while storing event.");
-
-                            return new HeaderDefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR,
-                                    Unpooled.wrappedBuffer(encodeAsBytes(errorMessage("An error occurred: " + e.getMessage(), INTERNAL_SERVER_ERROR))),
-                                    responseHeaders);
-                        }
+            if (storedEvents != -1) {
+                request.response(new HeaderDefaultFullHttpResponse(HTTP_1_1, CONFLICT,
+                        Unpooled.wrappedBuffer(encodeAsBytes(storedEvents)), responseHeaders)).end();
+                return;
+            }
+
+            request.response(new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
+                    Unpooled.wrappedBuffer(encodeAsBytes(SuccessMessage.success())),
+                    responseHeaders)).end();
+        });
+    }
+
+    private EventChunkIterator getBulkEventChunks(RakamHttpRequest request, InputStream buff)
+            throws IOException
+    {
+        String apiKey = getParam(request.params(), MASTER_KEY.getKey());
+        String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
+        String collection = getParam(request.params(), "collection");
+        int maxEvents = collectionConfig.getBulkChunkSize();
+        long maxBytes = collectionConfig.getBulkChunkMaxBytes().toBytes();
+
+        String contentType = request.headers().get(CONTENT_TYPE);
+        if (contentType == null || "application/json".equals(contentType)) {
+            JsonParser parser = jsonMapper.getFactory().createParser(buff);
+
+            JsonToken t = parser.nextToken();
+            if (t == JsonToken.START_ARRAY) {
+                parser.nextToken();
+            }
+            else if (t != JsonToken.START_OBJECT) {
+                throw new RakamException("The body must be an array of events or line-separated events", BAD_REQUEST);
+            }
+
+            return new EventChunkIterator(EventContext.apiKey(apiKey), project, new EventChunkIterator.EventReader()
+            {
+                @Override
+                public Event read()
+                        throws IOException
+                {
+                    if (parser.getCurrentToken() != START_OBJECT) {
+                        return null;
                     }
 
-                    return new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
-                            Unpooled.wrappedBuffer(encodeAsBytes(SuccessMessage.success())),
-                            responseHeaders);
-                }, mapEvents);
+                    Map.Entry<List<SchemaField>, GenericData.Record> entry = jsonEventDeserializer.parseProperties(project, collection, parser, true);
+                    parser.nextToken();
+                    return new Event(project, collection, null, entry.getKey(), entry.getValue());
+                }
+
+                @Override
+                public long position()
+                {
+                    return parser.getCurrentLocation().getByteOffset();
+                }
+            }, maxEvents, maxBytes);
+        }
+        else if ("application/avro".equals(contentType)) {
+            return new EventChunkIterator(EventContext.apiKey(apiKey), project,
+                    avroEventDeserializer.createReader(project, collection, new InputStreamSliceInput(buff)),
+                    maxEvents, maxBytes);
+        }
+        else if ("text/csv".equals(contentType)) {
+            CsvSchema.Builder builder = CsvSchema.builder();
+            if (request.params().get("column_separator") != null) {
+                List<String> column_seperator = request.params().get("column_separator");
+                if (column_seperator != null && column_seperator.get(0).length() != 1) {
+                    throw new RakamException("Invalid column separator", BAD_REQUEST);
+                }
+                builder.setColumnSeparator(column_seperator.get(0).charAt(0));
+            }
+
+            boolean useHeader = false;
+            if (request.params().get("use_header") != null) {
+                useHeader = Boolean.valueOf(request.params().get("use_header").get(0));
+                // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
+            }
+
+            CsvParser parser = (CsvParser) csvMapper.getFactory().createParser(buff);
+            parser.setSchema(builder.build());
+
+            return new EventChunkIterator(EventContext.apiKey(apiKey), project,
+                    csvEventDeserializer.createReader(parser, project, collection, useHeader),
+                    maxEvents, maxBytes);
+        }
+
+        throw new RakamException("Unsupported content type: " + contentType, BAD_REQUEST);
+    }
+
+    private static Throwable unwrapException(Throwable e)
+    {
+        // the events are parsed and stored lazily so the errors may be wrapped by the iterators or the futures
+        while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
     }
 
     @POST
@@ -437,7 +561,9 @@ public class EventCollectionHttpService
     }
 
     @POST
-    @ApiOperation(value = "Collect bulk events from remote", request = BulkEventRemote.class, response = Integer.class)
+    @ApiOperation(value = "Collect bulk events from remote", request = BulkEventRemote.class, response = Integer.class,
+            notes = "The files are fetched and stored in parallel. Returns the indexes of the urls that couldn't be imported with 409 status code. " +
+                    "If the Accept header is text/event-stream, the progress of the import and the status of each file is sent as server-sent events.")
     @ApiResponses(value = {@ApiResponse(code = 409, message = PARTIAL_ERROR_MESSAGE, response = int[].class)})
     @Path("/bulk/remote")
     public void bulkEventsRemote(RakamHttpRequest request)
@@ -447,81 +573,155 @@ public class EventCollectionHttpService
 
     public void bulkEventsRemote(RakamHttpRequest request, boolean mapEvents)
     {
-        storeEventsSync(request,
-                buff -> {
-                    BulkEventRemote query = JsonHelper.read(buff, BulkEventRemote.class);
-                    String masterKey = Optional.ofNullable(request.params().get("master_key"))
-                            .map((v) -> v.get(0))
-                            .orElseGet(() -> request.headers().get("master_key"));
-                    String project = apiKeyService.getProjectOfApiKey(masterKey, MASTER_KEY);
-
-                    checkCollection(query.collection);
-
-                    if (query.urls.size() != 1) {
-                        throw new RakamException("Only one url is supported", BAD_REQUEST);
-                    }
-                    if (query.compression != null) {
-                        throw new RakamException("Compression is not supported yet", BAD_REQUEST);
-                    }
+        if (Objects.equals(request.headers().get(ACCEPT), "text/event-stream")) {
+            queryHttpService.handleServerSentQueryExecution(request, BulkEventRemote.class,
+                    (project, query) -> importRemote(request, project, query, mapEvents), MASTER_KEY, false);
+            return;
+        }
 
-                    URL url = query.urls.get(0);
-                    if (query.type == JSON) {
-                        return jsonMapper.readValue(url, EventList.class);
-                    }
-                    else if (query.type == CSV) {
-                        CsvSchema.Builder builder = CsvSchema.builder();
-                        if (request.headers().get("column_separator") != null) {
-                            String column_seperator = request.headers().get("column_separator");
-                            if (column_seperator.length() != 1) {
-                                throw new RakamException("Invalid column separator", BAD_REQUEST);
-                            }
-                            builder.setColumnSeparator(column_seperator.charAt(0));
-                        }
+        request.bodyHandler(buff -> {
+            DefaultHttpHeaders responseHeaders = new DefaultHttpHeaders();
+            responseHeaders.set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+            if (request.headers().contains(ORIGIN)) {
+                responseHeaders.set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
+            }
+            responseHeaders.add(CONTENT_TYPE, "application/json");
 
-                        boolean useHeader = true;
-                        if (request.headers().get("use_header") != null) {
-                            useHeader = Boolean.valueOf(request.headers().get("use_header"));
-                            // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
-                        }
+            RemoteBulkImportExecution execution;
+            try {
+                BulkEventRemote query = JsonHelper.read(buff, BulkEventRemote.class);
+                String project = apiKeyService.getProjectOfApiKey(getMasterKey(request), MASTER_KEY);
+                execution = importRemote(request, project, query, mapEvents);
+            }
+            catch (Throwable e) {
+                handleCollectError(request, e);
+                return;
+            }
 
-                        return csvMapper.readerFor(EventList.class)
-                                .with(ContextAttributes.getEmpty()
-                                        .withSharedAttribute("project", project)
-                                        .withSharedAttribute("useHeader", useHeader)
-                                        .withSharedAttribute("collection", query.collection)
-                                        .withSharedAttribute("apiKey", masterKey))
-                                .with(builder.build()).readValue(url);
+            execution.getResult().thenAccept(result -> {
+                int[] failedFiles = execution.getFailedFiles();
+                if (failedFiles.length == 0) {
+                    request.response(new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
+                            Unpooled.wrappedBuffer(OK_MESSAGE), responseHeaders)).end();
+                }
+                else {
+                    request.response(new HeaderDefaultFullHttpResponse(HTTP_1_1, CONFLICT,
+                            Unpooled.wrappedBuffer(encodeAsBytes(failedFiles)), responseHeaders)).end();
+                }
+            });
+        });
+    }
+
+    private static String getMasterKey(RakamHttpRequest request)
+    {
+        return Optional.ofNullable(request.params().get("master_key"))
+                .map((v) -> v.get(0))
+                .orElseGet(() -> request.headers().get("master_key"));
+    }
+
+    private RemoteBulkImportExecution importRemote(RakamHttpRequest request, String project, BulkEventRemote query, boolean mapEvents)
+    {
+        checkCollection(query.collection);
+        if (query.urls == null || query.urls.isEmpty()) {
+            throw new RakamException("urls is required", BAD_REQUEST);
+        }
+        if (query.type == null) {
+            throw new RakamException("Unsupported or missing type.", BAD_REQUEST);
+        }
+
+        String masterKey = getMasterKey(request);
+        HttpHeaders headers = request.headers();
+        HttpRequestParams requestParams = mapEvents ? new HttpRequestParams(request) : null;
+        InetAddress remoteAddress = mapEvents ? getRemoteAddress(request.getRemoteAddress()) : null;
+
+        return new RemoteBulkImportExecution(query.urls, remoteImportExecutor, (url, progress) ->
+                importRemoteFile(project, masterKey, query, url, headers, requestParams, remoteAddress, progress));
+    }
+
+    private void importRemoteFile(String project, String masterKey, BulkEventRemote query, URL url, HttpHeaders headers,
+            HttpRequestParams requestParams, InetAddress remoteAddress, RemoteBulkImportExecution.Progress progress)
+            throws IOException
+    {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(5000);
+        CountingInputStream downloaded = new CountingInputStream(conn.getInputStream());
+
+        try (InputStream input = decompress(downloaded, query.compression)) {
+            EventContext api;
+            String eventProject;
+            Iterator<List<Event>> chunks;
+
+            if (query.type == JSON) {
+                // the files in event list format have their own api key so they're not parsed in chunks
+                EventList eventList = jsonMapper.readValue(input, EventList.class);
+                api = eventList.api;
+                eventProject = eventList.project;
+                chunks = eventList.events.isEmpty() ? Collections.emptyIterator() : Iterators.singletonIterator(eventList.events);
+            }
+            else {
+                int maxEvents = collectionConfig.getBulkChunkSize();
+                long maxBytes = collectionConfig.getBulkChunkMaxBytes().toBytes();
+                EventChunkIterator.EventReader reader;
+                if (query.type == CSV) {
+                    CsvSchema.Builder builder = CsvSchema.builder();
+                    if (headers.get("column_separator") != null) {
+                        String column_seperator = headers.get("column_separator");
+                        if (column_seperator.length() != 1) {
+                            throw new RakamException("Invalid column separator", BAD_REQUEST);
+                        }
+                        builder.setColumnSeparator(column_seperator.charAt(0));
                     }
-                    else if (query.type == AVRO) {
-                        URLConnection conn = url.openConnection();
-                        conn.setConnectTimeout(5000);
-                        conn.setReadTimeout(5000);
-                        conn.connect();
-
-                        return avroEventDeserializer.deserialize(project, query.collection,
-                                new InputStreamSliceInput(conn.getInputStream()));
+
+                    boolean useHeader = true;
+                    if (headers.get("use_header") != null) {
+                        useHeader = Boolean.valueOf(headers.get("use_header"));
+                        // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
                     }
 
+                    CsvParser parser = (CsvParser) csvMapper.getFactory().createParser(input);
+                    parser.setSchema(builder.build());
+                    api = EventContext.apiKey(masterKey);
+                    reader = csvEventDeserializer.createReader(parser, project, query.collection, useHeader);
+                }
+                else if (query.type == AVRO) {
+                    api = EventContext.apiKey(masterKey);
+                    reader = avroEventDeserializer.createReader(project, query.collection, new InputStreamSliceInput(input));
+                }
+                else {
                     throw new RakamException("Unsupported or missing type.", BAD_REQUEST);
-                },
-                (events, responseHeaders) -> {
-                    try {
-                        eventStore.storeBulk(events);
-                    }
-                    catch (Exception e) {
-                        List<Event> sample = events.size() > 5 ? events.subList(0, 5) : events;
-                        LOGGER.error(new RuntimeException("Error executing EventStore bulkRemote method.",
-                                        new RuntimeException(sample.toString().substring(0, 200), e)),
-                                "Error while storing event.");
-                        return new HeaderDefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR,
-                                Unpooled.wrappedBuffer(encodeAsBytes(errorMessage("An error occurred", INTERNAL_SERVER_ERROR))),
-                                responseHeaders);
+                }
+                eventProject = project;
+                chunks = new EventChunkIterator(api, project, reader, maxEvents, maxBytes);
+            }
+
+            // a chunk is stored when the next one is requested so the previous chunk is recorded in the progress
+            AtomicInteger pendingEvents = new AtomicInteger();
+            try {
+                eventStore.storeBulk(Iterators.transform(chunks, chunk -> {
+                    progress.imported(pendingEvents.getAndSet(chunk.size()), downloaded.getCount());
+                    if (requestParams != null) {
+                        EventList eventList = new EventList(api, eventProject, chunk);
+                        mapEvent(eventMappers, (m) -> m.mapAsync(eventList, requestParams,
+                                remoteAddress, new DefaultHttpHeaders())).join();
                     }
+                    return chunk;
+                }));
+            }
+            catch (BulkStoreException e) {
+                // the file is failed with the error of the chunk
+                Throwable cause = unwrapException(e.getCause());
+                Throwables.propagateIfPossible(cause, IOException.class);
+                throw e;
+            }
+            progress.imported(pendingEvents.get(), downloaded.getCount());
+        }
+    }
 
-                    return new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
-                            Unpooled.wrappedBuffer(OK_MESSAGE),
-                            responseHeaders);
-                }, mapEvents);
+    private InputStream decompress(InputStream input, EventStore.CompressionType compression)
+            throws IOException
+    {
+        return CompressionUtil.decompress(input, compression, collectionConfig.getMaxInflateRatio());
     }
 
     private String getParam(Map<String, List<String>> params, String param)
@@ -537,7 +737,8 @@ public class EventCollectionHttpService
     private static final int[] FAILED_SINGLE_EVENT = new int[] {0};
 
     @POST
-    @ApiOperation(notes = "Returns 1 if the events are collected.", value = "Collect multiple events", request = EventList.class, response = Integer.class)
+    @ApiOperation(notes = "Returns 1 if the events are collected. The body may be compressed with gzip, deflate, zstd or lz4 if the Content-Encoding header is set. " +
+            "If api.checksum is set, it must be the MD5 of the decompressed body that is computed while api.checksum is an empty string.", value = "Collect multiple events", request = EventList.class, response = Integer.class)
     @ApiResponses(value = {
             @ApiResponse(code = 409, message = PARTIAL_ERROR_MESSAGE, response = int[].class)
     })
@@ -562,6 +763,9 @@ public class EventCollectionHttpService
                                 errorIndexes = eventStore.storeBatchAsync(events);
                             }
                         }
+                        catch (RakamException e) {
+                            throw e;
+                        }
                         catch (Exception e) {
                             List<Event> sample = events.size() > 5 ? events.subList(0, 5) : events;
                             LOGGER.error(new RuntimeException(sample.toString(), e), "Error executing EventStore " + (single ? "store" : "batch") + " method.");
@@ -574,7 +778,24 @@ public class EventCollectionHttpService
                         errorIndexes = EventStore.COMPLETED_FUTURE_BATCH;
                     }
 
-                    return errorIndexes.thenApply(result -> {
+                    return errorIndexes.handle((result, ex) -> {
+                        if (ex != null) {
+                            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                            HttpResponseStatus status;
+                            String message;
+                            // the store may reject the whole batch if it can't keep up with the load
+                            if (cause instanceof RakamException) {
+                                status = ((RakamException) cause).getStatusCode();
+                                message = cause.getMessage();
+                            }
+                            else {
+                                LOGGER.error(cause, "Error while storing a batch of %d events", events.size());
+                                status = INTERNAL_SERVER_ERROR;
+                                message = "An error occurred";
+                            }
+                            return new HeaderDefaultFullHttpResponse(HTTP_1_1, status,
+                                    Unpooled.wrappedBuffer(encodeAsBytes(errorMessage(message, status))), responseHeaders);
+                        }
                         if (result.length == 0) {
                             return new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
                                     Unpooled.wrappedBuffer(OK_MESSAGE), responseHeaders);
@@ -604,11 +825,15 @@ public class EventCollectionHttpService
 
             CompletableFuture<FullHttpResponse> response;
             CompletableFuture<List<Cookie>> entries;
+            InputStream body = null;
             try {
-                EventList events = mapper.apply(buff);
+                body = decompress(buff, getCompressionType(request.headers().get(CONTENT_ENCODING)));
+                // the checksum is computed while the body is decompressed and parsed
+                ChecksumInputStream checksumBody = new ChecksumInputStream(body);
+                EventList events = mapper.apply(checksumBody);
 
                 EventContext context = events.api;
-                if (context.checksum != null && !validateChecksum(request, context.checksum, buff)) {
+                if (context.checksum != null && !validateChecksum(request, context.checksum, checksumBody)) {
                     return;
                 }
 
@@ -624,34 +849,13 @@ public class EventCollectionHttpService
 
                 response = responseFunction.apply(events.events, responseHeaders);
             }
-            catch (JsonMappingException | JsonParseException e) {
-                returnError(request, "JSON couldn't parsed: " + e.getOriginalMessage(), BAD_REQUEST);
-                return;
-            }
-            catch (IOException e) {
-                returnError(request, "JSON couldn't parsed: " + e.getMessage(), BAD_REQUEST);
-                return;
-            }
-            catch (RakamException e) {
-                LogUtil.logException(request, e);
-                returnError(request, e.getMessage(), e.getStatusCode());
-                return;
-            }
-            catch (HttpRequestException e) {
-                returnError(request, e.getMessage(), e.getStatusCode());
-                return;
-            }
-            catch (IllegalArgumentException e) {
-                LogUtil.logException(request, e);
-                returnError(request, e.getMessage(), BAD_REQUEST);
-                return;
-            }
             catch (Throwable e) {
-                LOGGER.error(e, "Error while collecting event");
-
-                returnError(request, "An error occurred", INTERNAL_SERVER_ERROR);
+                handleCollectError(request, e);
                 return;
             }
+            finally {
+                closeQuietly(body);
+            }
 
             String headerList = getHeaderList(responseHeaders.iterator());
             if (headerList != null) {
@@ -681,6 +885,31 @@ public class EventCollectionHttpService
         });
     }
 
+    private static void handleCollectError(RakamHttpRequest request, Throwable e)
+    {
+        if (e instanceof JsonMappingException || e instanceof JsonParseException) {
+            returnError(request, "JSON couldn't parsed: " + ((JsonProcessingException) e).getOriginalMessage(), BAD_REQUEST);
+        }
+        else if (e instanceof IOException) {
+            returnError(request, "JSON couldn't parsed: " + e.getMessage(), BAD_REQUEST);
+        }
+        else if (e instanceof RakamException) {
+            LogUtil.logException(request, (RakamException) e);
+            returnError(request, e.getMessage(), ((RakamException) e).getStatusCode());
+        }
+        else if (e instanceof HttpRequestException) {
+            returnError(request, e.getMessage(), ((HttpRequestException) e).getStatusCode());
+        }
+        else if (e instanceof IllegalArgumentException) {
+            LogUtil.logException(request, (IllegalArgumentException) e);
+            returnError(request, e.getMessage(), BAD_REQUEST);
+        }
+        else {
+            LOGGER.error(e, "Error while collecting event");
+            returnError(request, "An error occurred", INTERNAL_SERVER_ERROR);
+        }
+    }
+
     public static String getHeaderList(Iterator<Map.Entry<String, String>> it)
     {
         StringBuilder builder = new StringBuilder("cf-ray,server,status");
@@ -696,22 +925,10 @@ public class EventCollectionHttpService
         return builder == null ? null : builder.toString();
     }
 
-    private boolean validateChecksum(RakamHttpRequest request, String checksum, InputStream expected)
+    private boolean validateChecksum(RakamHttpRequest request, String checksum, ChecksumInputStream body)
             throws IOException
     {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        }
-        catch (NoSuchAlgorithmException e) {
-            returnError(request, "0", INTERNAL_SERVER_ERROR);
-            return false;
-        }
-
-        byte[] bytes = ByteStreams.toByteArray(expected);
-        expected.reset();
-        if (!DatatypeConverter.printHexBinary(md.digest(bytes))
-                .equals(checksum.toUpperCase(Locale.ENGLISH))) {
+        if (!body.isValid(checksum)) {
             returnError(request, "Checksum is invalid", BAD_REQUEST);
             return false;
         }
@@ -0,0 +1,53 @@
+package org.rakam.collection;
+
+import org.rakam.plugin.EventStore;
+import org.rakam.plugin.SpoolingEventStore;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Opens the spool of the collect API once per server and closes it on shutdown so that the pending events
+ * are flushed to the disk before the server stops.
+ */
+@Singleton
+public class EventSpool
+{
+    private final Optional<SpoolingEventStore> store;
+
+    @Inject
+    public EventSpool(EventStore eventStore, EventCollectionConfig config)
+            throws IOException
+    {
+        if (config.getSpoolEnabled()) {
+            checkArgument(config.getSpoolDirectory() != null, "collection.spool.directory is required when the spool is enabled");
+            store = Optional.of(new SpoolingEventStore(eventStore, new File(config.getSpoolDirectory()),
+                    config.getSpoolSegmentSize().toBytes(), config.getSpoolMaxSize().toBytes(),
+                    config.getSpoolDrainBatchSize(), config.getSpoolMaxDrainAttempts()));
+        }
+        else {
+            store = Optional.empty();
+        }
+    }
+
+    public Optional<SpoolingEventStore> getStore()
+    {
+        return store;
+    }
+
+    @PreDestroy
+    public void close()
+            throws InterruptedException
+    {
+        if (store.isPresent()) {
+            store.get().close();
+        }
+    }
+}
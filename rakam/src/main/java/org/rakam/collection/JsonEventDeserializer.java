@@ -7,10 +7,8 @@ import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaParseException;
 import org.apache.avro.generic.GenericData;
@@ -18,8 +16,10 @@ import org.rakam.analysis.ApiKeyService;
 import org.rakam.analysis.ConfigManager;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.collection.CollectionSchemaRegistry.CollectionSchema;
 import org.rakam.collection.Event.EventContext;
 import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
+import org.rakam.plugin.SystemEvents.ProjectDeletedEvent;
 import org.rakam.util.AvroUtil;
 import org.rakam.util.DateTimeUtils;
 import org.rakam.util.JsonHelper;
@@ -37,8 +37,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
 
 import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
 import static com.fasterxml.jackson.core.JsonToken.END_OBJECT;
@@ -50,7 +50,6 @@ import static io.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static java.lang.Boolean.TRUE;
 import static java.lang.String.format;
-import static java.util.stream.Collectors.toList;
 import static org.apache.avro.Schema.Type.NULL;
 import static org.rakam.analysis.ApiKeyService.AccessKeyType.MASTER_KEY;
 import static org.rakam.analysis.ApiKeyService.AccessKeyType.WRITE_KEY;
@@ -60,7 +59,6 @@ import static org.rakam.collection.FieldType.ARRAY_STRING;
 import static org.rakam.collection.FieldType.MAP_STRING;
 import static org.rakam.collection.FieldType.STRING;
 import static org.rakam.collection.SchemaField.stripName;
-import static org.rakam.util.AvroUtil.convertAvroSchema;
 import static org.rakam.util.ValidationUtil.checkCollection;
 import static org.rakam.util.ValidationUtil.checkCollectionValid;
 
@@ -69,11 +67,7 @@ public class JsonEventDeserializer
 {
     private final Map<String, List<SchemaField>> conditionalMagicFields;
     private final Metastore metastore;
-    private final Cache<ProjectCollection, Map.Entry<List<SchemaField>, Schema>> schemaCache =
-            CacheBuilder
-                    .newBuilder()
-                    .expireAfterWrite(5, TimeUnit.MINUTES).build();
-    private final Set<SchemaField> constantFields;
+    private final CollectionSchemaRegistry schemaRegistry;
     private final ApiKeyService apiKeyService;
     private final ConfigManager configManager;
     private final SchemaChecker schemaChecker;
@@ -90,7 +84,7 @@ public class JsonEventDeserializer
         this.apiKeyService = apiKeyService;
         this.schemaChecker = schemaChecker;
         this.configManager = configManager;
-        this.constantFields = fieldDependency.constantFields;
+        this.schemaRegistry = new CollectionSchemaRegistry(metastore, fieldDependency.constantFields, conditionalMagicFields);
     }
 
     @Override
@@ -220,22 +214,15 @@ public class JsonEventDeserializer
             throws IOException, NotExistsException
     {
         ProjectCollection key = new ProjectCollection(project, collection);
-        Map.Entry<List<SchemaField>, Schema> schema = schemaCache.getIfPresent(key);
-        boolean isNew = schema == null;
-        if (schema == null) {
-            List<SchemaField> rakamSchema = metastore.getCollection(project, collection);
-
-            schema = new SimpleImmutableEntry<>(rakamSchema, convertAvroSchema(
-                    rakamSchema == null ? ImmutableList.copyOf(constantFields) : rakamSchema,
-                    conditionalMagicFields));
-            schemaCache.put(key, schema);
-        }
+        CollectionSchema schema = schemaRegistry.get(key);
 
-        Schema avroSchema = schema.getValue();
-        List<SchemaField> rakamSchema = schema.getKey();
+        Schema avroSchema = schema.getAvroSchema();
+        List<SchemaField> rakamSchema = schema.getFields();
 
         GenericData.Record record = new GenericData.Record(avroSchema);
+        // the unknown fields are collected while parsing and the schema is changed once for the event
         List<SchemaField> newFields = null;
+        Map<String, Object> newValues = null;
 
         JsonToken t = jp.nextToken();
         for (; t == JsonToken.FIELD_NAME; t = jp.nextToken()) {
@@ -254,6 +241,7 @@ public class JsonEventDeserializer
                     if (type != null) {
                         if (newFields == null) {
                             newFields = new ArrayList<>();
+                            newValues = new HashMap<>();
                         }
 
                         if (fieldName.equals("_user")) {
@@ -267,25 +255,13 @@ public class JsonEventDeserializer
                         }
 
                         SchemaField newField = new SchemaField(fieldName, type);
-                        newFields.add(newField);
-
-                        avroSchema = createNewSchema(avroSchema, newField);
-                        field = avroSchema.getField(newField.getName());
-
-                        GenericData.Record newRecord = new GenericData.Record(avroSchema);
-                        for (Schema.Field f : record.getSchema().getFields()) {
-                            newRecord.put(f.name(), record.get(f.name()));
+                        if (!newValues.containsKey(newField.getName())) {
+                            newFields.add(newField);
                         }
-                        record = newRecord;
 
-                        if (type.isArray() || type.isMap()) {
-                            // if the type of new field is ARRAY, we already switched to next token
-                            // so current token is not START_ARRAY.
-                            record.put(field.pos(), getValue(jp, type, field, true));
-                        }
-                        else {
-                            record.put(field.pos(), getValue(jp, type, field, false));
-                        }
+                        // if the type of new field is ARRAY or MAP, we already switched to next token
+                        // so current token is not START_ARRAY.
+                        newValues.put(newField.getName(), getValue(jp, type, createNewField(newField), type.isArray() || type.isMap()));
                         continue;
                     }
                     else {
@@ -302,6 +278,7 @@ public class JsonEventDeserializer
                         if (avroSchema.getField(schemaField.getName()) == null) {
                             if (newFields == null) {
                                 newFields = new ArrayList<>();
+                                newValues = new HashMap<>();
                             }
                             newFields.add(schemaField);
                         }
@@ -309,9 +286,7 @@ public class JsonEventDeserializer
                 }
             }
 
-            FieldType type = field.schema().getType() == NULL ? null :
-                    (field.pos() >= rakamSchema.size() ?
-                            newFields.get(field.pos() - rakamSchema.size()) : rakamSchema.get(field.pos())).getType();
+            FieldType type = field.schema().getType() == NULL ? null : rakamSchema.get(field.pos()).getType();
             Object value = getValue(jp, type, field, false);
             record.put(field.pos(), value);
         }
@@ -321,22 +296,23 @@ public class JsonEventDeserializer
                 throw new RakamException("Schema is invalid", BAD_REQUEST);
             }
 
-            if (isNew) {
+            if (rakamSchema == null || rakamSchema.stream().noneMatch(e -> e.getName().equals("_user"))) {
                 if (!newFields.stream().anyMatch(e -> e.getName().equals("_user"))) {
                     newFields.add(new SchemaField("_user", configManager.setConfigOnce(project, USER_TYPE.name(), STRING)));
                 }
             }
 
-            rakamSchema = metastore.getOrCreateCollectionFieldList(project, collection,
+            List<SchemaField> fields = metastore.getOrCreateCollectionFieldList(project, collection,
                     schemaChecker.checkNewFields(collection, ImmutableSet.copyOf(newFields)));
-            Schema newAvroSchema = convertAvroSchema(rakamSchema, conditionalMagicFields);
+            schema = schemaRegistry.update(key, fields);
+            rakamSchema = schema.getFields();
 
-            schemaCache.put(key, new SimpleImmutableEntry<>(rakamSchema, newAvroSchema));
-            GenericData.Record newRecord = new GenericData.Record(newAvroSchema);
-
-            for (Schema.Field field : record.getSchema().getFields()) {
-                Object value = record.get(field.name());
-                newRecord.put(field.name(), value);
+            GenericData.Record newRecord = new GenericData.Record(schema.getAvroSchema());
+            for (Schema.Field field : avroSchema.getFields()) {
+                newRecord.put(field.name(), record.get(field.pos()));
+            }
+            for (Map.Entry<String, Object> entry : newValues.entrySet()) {
+                newRecord.put(entry.getKey(), entry.getValue());
             }
             record = newRecord;
         }
@@ -344,28 +320,14 @@ public class JsonEventDeserializer
         return new SimpleImmutableEntry<>(rakamSchema, record);
     }
 
-    private Schema createNewSchema(Schema currentSchema, SchemaField newField)
+    private static Schema.Field createNewField(SchemaField newField)
     {
-        List<Schema.Field> avroFields = currentSchema.getFields().stream()
-                .filter(field -> field.schema().getType() != Schema.Type.NULL)
-                .map(field -> new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue()))
-                .collect(toList());
         try {
-            avroFields.add(AvroUtil.generateAvroField(newField));
+            return AvroUtil.generateAvroField(newField);
         }
         catch (SchemaParseException e) {
             throw new RakamException("Couldn't create new column: " + e.getMessage(), BAD_REQUEST);
         }
-
-        conditionalMagicFields.keySet().stream()
-                .filter(s -> !avroFields.stream().anyMatch(af -> af.name().equals(s)))
-                .map(n -> new Schema.Field(n, Schema.create(NULL), "", null))
-                .forEach(x -> avroFields.add(x));
-
-        Schema avroSchema = Schema.createRecord("collection", null, null, false);
-        avroSchema.setFields(avroFields);
-
-        return avroSchema;
     }
 
     public static Object getValueOfMagicField(JsonParser jp)
@@ -434,30 +396,28 @@ public class JsonEventDeserializer
                     if (jp.getCurrentToken().isNumeric()) {
                         return jp.getValueAsLong();
                     }
-                    try {
-                        return DateTimeUtils.parseTimestamp(jp.getValueAsString());
-                    }
-                    catch (Exception e) {
+                    OptionalLong timestamp = DateTimeUtils.tryParseTimestamp(jp.getValueAsString());
+                    if (!timestamp.isPresent()) {
                         if (field.name().equals("_time")) {
                             throw new RakamException(String.format("Unable to parse TIMESTAMP value '%s' in _time column", jp.getValueAsString()),
                                     BAD_REQUEST);
                         }
                         return null;
                     }
+                    return timestamp.getAsLong();
                 case DATE:
                     if (jp.getValueAsString().isEmpty()) {
                         return null;
                     }
-                    try {
-                        return DateTimeUtils.parseDate(jp.getValueAsString());
-                    }
-                    catch (Exception e) {
+                    OptionalInt date = DateTimeUtils.tryParseDate(jp.getValueAsString());
+                    if (!date.isPresent()) {
                         if (field.name().equals("_time")) {
                             throw new RakamException(String.format("Unable to parse DATE value '%s' in _time column", jp.getValueAsString()),
                                     BAD_REQUEST);
                         }
                         return null;
                     }
+                    return date.getAsInt();
                 default:
                     throw new JsonMappingException(jp, format("Scalar value '%s' cannot be cast to %s type for '%s' field.",
                             jp.getValueAsString(), type.name(), field.name()));
@@ -560,21 +520,13 @@ public class JsonEventDeserializer
             case VALUE_STRING:
                 String value = jp.getValueAsString();
 
-                try {
-                    DateTimeUtils.parseDate(value);
+                if (DateTimeUtils.tryParseDate(value).isPresent()) {
                     return FieldType.DATE;
                 }
-                catch (Exception e) {
-
-                }
 
-                try {
-                    DateTimeUtils.parseTimestamp(value);
+                if (DateTimeUtils.tryParseTimestamp(value).isPresent()) {
                     return FieldType.TIMESTAMP;
                 }
-                catch (Exception e) {
-
-                }
 
                 return STRING;
             case VALUE_FALSE:
@@ -654,10 +606,17 @@ public class JsonEventDeserializer
         }
     }
 
+    @Subscribe
+    public void onDeleteProject(ProjectDeletedEvent event)
+    {
+        // the project may be created again with a different schema
+        schemaRegistry.invalidate(event.project);
+    }
+
     @VisibleForTesting
     public void cleanCache()
     {
-        schemaCache.invalidateAll();
+        schemaRegistry.invalidateAll();
     }
 }
 
@@ -0,0 +1,341 @@
+package org.rakam.collection;
+
+import net.jpountz.xxhash.StreamingXXHash32;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the LZ4 frame format that is written by the lz4 command line tool and the frame APIs of the LZ4 bindings.
+ * The blocks are decoded into a window that keeps the last 64KB of the previous block so the frames with
+ * linked blocks can be read as well. Concatenated and skippable frames are supported.
+ */
+class Lz4FrameInputStream
+        extends FilterInputStream
+{
+    private static final int MAGIC = 0x184D2204;
+    private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int MAX_DISTANCE = 64 * 1024;
+    private static final int MIN_MATCH = 4;
+
+    private static final XXHash32 HASH = XXHashFactory.fastestInstance().hash32();
+
+    private final byte[] header = new byte[15];
+    private byte[] compressed;
+    private byte[] window;
+
+    private boolean independentBlocks;
+    private boolean blockChecksum;
+    private StreamingXXHash32 contentHash;
+    private int blockMaxSize;
+
+    // the decoded bytes of the current block are window[position, limit)
+    private int position;
+    private int limit;
+    private boolean frameEnded = true;
+
+    Lz4FrameInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (!ensureData()) {
+            return -1;
+        }
+        return window[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int length = Math.min(len, limit - position);
+        System.arraycopy(window, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n)
+            throws IOException
+    {
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int length = (int) Math.min(n - skipped, limit - position);
+            position += length;
+            skipped += length;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    private boolean ensureData()
+            throws IOException
+    {
+        while (position == limit) {
+            if (frameEnded) {
+                if (!readFrameHeader()) {
+                    return false;
+                }
+                continue;
+            }
+            readBlock();
+        }
+        return true;
+    }
+
+    private boolean readFrameHeader()
+            throws IOException
+    {
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        header[0] = (byte) first;
+        readFully(header, 1, 3);
+        int magic = readIntLE(header, 0);
+
+        if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+            readFully(header, 0, 4);
+            long size = readIntLE(header, 0) & 0xFFFFFFFFL;
+            while (size > 0) {
+                long skipped = in.skip(size);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("Unexpected end of the LZ4 stream");
+                    }
+                    skipped = 1;
+                }
+                size -= skipped;
+            }
+            return true;
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Invalid LZ4 frame");
+        }
+
+        readFully(header, 0, 2);
+        int flags = header[0] & 0xFF;
+        if ((flags >>> 6) != 1) {
+            throw new IOException("Unsupported LZ4 frame version");
+        }
+        if ((flags & 1) != 0) {
+            throw new IOException("LZ4 frames with dictionary are not supported");
+        }
+        independentBlocks = (flags & 0x20) != 0;
+        blockChecksum = (flags & 0x10) != 0;
+        int length = 2;
+        if ((flags & 0x08) != 0) {
+            // the content size is not used
+            readFully(header, length, 8);
+            length += 8;
+        }
+        readFully(header, length, 1);
+        if ((byte) (HASH.hash(header, 0, length, 0) >> 8) != header[length]) {
+            throw new IOException("LZ4 frame header checksum mismatch");
+        }
+
+        int blockSizeId = (header[1] >>> 4) & 0x07;
+        if (blockSizeId < 4) {
+            throw new IOException("Invalid LZ4 block size");
+        }
+        int maxSize = 1 << (2 * blockSizeId + 8);
+        if (blockMaxSize != maxSize) {
+            blockMaxSize = maxSize;
+            compressed = new byte[maxSize];
+            window = new byte[MAX_DISTANCE + maxSize];
+        }
+        contentHash = (flags & 0x04) != 0 ? XXHashFactory.fastestInstance().newStreamingHash32(0) : null;
+
+        position = limit = 0;
+        frameEnded = false;
+        return true;
+    }
+
+    private void readBlock()
+            throws IOException
+    {
+        readFully(header, 0, 4);
+        int blockSize = readIntLE(header, 0);
+        if (blockSize == 0) {
+            if (contentHash != null) {
+                readFully(header, 0, 4);
+                if (readIntLE(header, 0) != contentHash.getValue()) {
+                    throw new IOException("LZ4 content checksum mismatch");
+                }
+            }
+            frameEnded = true;
+            return;
+        }
+
+        boolean uncompressed = (blockSize & 0x80000000) != 0;
+        blockSize &= 0x7FFFFFFF;
+        if (blockSize > blockMaxSize) {
+            throw new IOException("LZ4 block is larger than the maximum block size");
+        }
+        readFully(compressed, 0, blockSize);
+        if (blockChecksum) {
+            readFully(header, 0, 4);
+            if (readIntLE(header, 0) != HASH.hash(compressed, 0, blockSize, 0)) {
+                throw new IOException("LZ4 block checksum mismatch");
+            }
+        }
+
+        int start;
+        if (independentBlocks || limit == 0) {
+            start = 0;
+        }
+        else if (limit + blockMaxSize > window.length) {
+            // keep the last 64KB that the matches of the next block may refer to
+            System.arraycopy(window, limit - MAX_DISTANCE, window, 0, MAX_DISTANCE);
+            start = MAX_DISTANCE;
+        }
+        else {
+            start = limit;
+        }
+
+        int end;
+        if (uncompressed) {
+            System.arraycopy(compressed, 0, window, start, blockSize);
+            end = start + blockSize;
+        }
+        else {
+            end = decodeBlock(blockSize, start, independentBlocks ? start : 0);
+        }
+
+        if (contentHash != null) {
+            contentHash.update(window, start, end - start);
+        }
+        position = start;
+        limit = end;
+    }
+
+    private int decodeBlock(int length, int start, int minReference)
+            throws IOException
+    {
+        int source = 0;
+        int destination = start;
+        int destinationLimit = start + blockMaxSize;
+
+        while (true) {
+            checkSource(source, 1, length);
+            int token = compressed[source++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int value;
+                do {
+                    checkSource(source, 1, length);
+                    value = compressed[source++] & 0xFF;
+                    literalLength += value;
+                }
+                while (value == 255);
+            }
+            checkSource(source, literalLength, length);
+            checkDestination(destination, literalLength, destinationLimit);
+            System.arraycopy(compressed, source, window, destination, literalLength);
+            source += literalLength;
+            destination += literalLength;
+
+            // the last sequence only has literals
+            if (source == length) {
+                return destination;
+            }
+
+            checkSource(source, 2, length);
+            int offset = (compressed[source] & 0xFF) | (compressed[source + 1] & 0xFF) << 8;
+            source += 2;
+            if (offset == 0 || destination - offset < minReference) {
+                throw new IOException("Malformed LZ4 block");
+            }
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int value;
+                do {
+                    checkSource(source, 1, length);
+                    value = compressed[source++] & 0xFF;
+                    matchLength += value;
+                }
+                while (value == 255);
+            }
+            matchLength += MIN_MATCH;
+            checkDestination(destination, matchLength, destinationLimit);
+
+            int match = destination - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(window, match, window, destination, matchLength);
+            }
+            else {
+                // the match overlaps with the bytes that are being copied
+                for (int i = 0; i < matchLength; i++) {
+                    window[destination + i] = window[match + i];
+                }
+            }
+            destination += matchLength;
+        }
+    }
+
+    private static void checkSource(int source, int length, int sourceLimit)
+            throws IOException
+    {
+        if (source + length > sourceLimit) {
+            throw new IOException("Malformed LZ4 block");
+        }
+    }
+
+    private static void checkDestination(int destination, int length, int destinationLimit)
+            throws IOException
+    {
+        if (destination + length > destinationLimit) {
+            throw new IOException("LZ4 block is larger than the maximum block size");
+        }
+    }
+
+    private void readFully(byte[] buffer, int offset, int length)
+            throws IOException
+    {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of the LZ4 stream");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private static int readIntLE(byte[] buffer, int offset)
+    {
+        return (buffer[offset] & 0xFF)
+                | (buffer[offset + 1] & 0xFF) << 8
+                | (buffer[offset + 2] & 0xFF) << 16
+                | (buffer[offset + 3] & 0xFF) << 24;
+    }
+}
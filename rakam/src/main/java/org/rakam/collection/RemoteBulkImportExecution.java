@@ -0,0 +1,214 @@
+package org.rakam.collection;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.log.Logger;
+import org.rakam.report.QueryExecution;
+import org.rakam.report.QueryResult;
+import org.rakam.report.QueryStats;
+import org.rakam.util.RakamException;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.rakam.report.QueryResult.EXECUTION_TIME;
+import static org.rakam.report.QueryStats.State.FAILED;
+import static org.rakam.report.QueryStats.State.FINISHED;
+import static org.rakam.report.QueryStats.State.QUEUED;
+import static org.rakam.report.QueryStats.State.RUNNING;
+
+/**
+ * Imports the events in the remote files as a job. Each file is imported by a task of the given executor so the
+ * number of files that are downloaded at the same time is bounded by the workers of the executor. A failed file
+ * doesn't stop the other files, the result has the state, the number of imported events and the error of each file.
+ */
+public class RemoteBulkImportExecution
+        implements QueryExecution
+{
+    private final static Logger LOGGER = Logger.get(RemoteBulkImportExecution.class);
+
+    private static final List<SchemaField> METADATA = ImmutableList.of(
+            new SchemaField("url", FieldType.STRING),
+            new SchemaField("state", FieldType.STRING),
+            new SchemaField("events", FieldType.LONG),
+            new SchemaField("bytes", FieldType.LONG),
+            new SchemaField("error", FieldType.STRING));
+
+    private final List<FileImport> files;
+    private final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+    private final AtomicInteger remainingFiles;
+    private final long startTime = System.currentTimeMillis();
+    private volatile boolean killed;
+
+    public RemoteBulkImportExecution(List<URL> urls, Executor executor, FileImporter importer)
+    {
+        checkArgument(!urls.isEmpty(), "urls is empty");
+        requireNonNull(importer, "importer is null");
+
+        ImmutableList.Builder<FileImport> builder = ImmutableList.builder();
+        urls.forEach(url -> builder.add(new FileImport(url)));
+        files = builder.build();
+        remainingFiles = new AtomicInteger(files.size());
+
+        for (FileImport file : files) {
+            try {
+                executor.execute(() -> run(file, importer));
+            }
+            catch (RejectedExecutionException e) {
+                file.fail(e);
+                fileDone();
+            }
+        }
+    }
+
+    private void run(FileImport file, FileImporter importer)
+    {
+        try {
+            if (killed) {
+                throw new CancellationException("The import is killed");
+            }
+            file.state = RUNNING;
+            importer.importFile(file.url, file);
+            file.state = FINISHED;
+        }
+        catch (Throwable e) {
+            LOGGER.warn(e, "Error while importing %s", file.url);
+            file.fail(e);
+        }
+        finally {
+            fileDone();
+        }
+    }
+
+    private void fileDone()
+    {
+        if (remainingFiles.decrementAndGet() > 0) {
+            return;
+        }
+
+        ImmutableList.Builder<List<Object>> rows = ImmutableList.builder();
+        for (FileImport file : files) {
+            rows.add(Arrays.asList(file.url.toString(), file.state.name(), file.events.get(), file.bytes, file.error));
+        }
+        result.complete(new QueryResult(METADATA, rows.build(),
+                ImmutableMap.of(EXECUTION_TIME, System.currentTimeMillis() - startTime)));
+    }
+
+    /**
+     * Returns the indexes of the files that couldn't be imported, the import must be finished.
+     */
+    public int[] getFailedFiles()
+    {
+        checkArgument(isFinished(), "the import is not finished");
+        int[] failed = new int[files.size()];
+        int count = 0;
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).state == FAILED) {
+                failed[count++] = i;
+            }
+        }
+        return Arrays.copyOf(failed, count);
+    }
+
+    @Override
+    public QueryStats currentStats()
+    {
+        int remaining = remainingFiles.get();
+        long events = 0;
+        long bytes = 0;
+        for (FileImport file : files) {
+            events += file.events.get();
+            bytes += file.bytes;
+        }
+
+        return new QueryStats((files.size() - remaining) * 100 / files.size(), remaining == 0 ? FINISHED : RUNNING,
+                null, events, bytes, null, null, System.currentTimeMillis() - startTime);
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return result.isDone();
+    }
+
+    @Override
+    public CompletableFuture<QueryResult> getResult()
+    {
+        return result;
+    }
+
+    @Override
+    public String getQuery()
+    {
+        return String.format("Import %d remote files", files.size());
+    }
+
+    @Override
+    public void kill()
+    {
+        // the queued files are skipped and the running files fail when their next chunk is imported
+        killed = true;
+    }
+
+    public interface FileImporter
+    {
+        void importFile(URL url, Progress progress)
+                throws Exception;
+    }
+
+    public interface Progress
+    {
+        /**
+         * Records the events that are stored and the bytes that are downloaded so far. Fails if the import is killed.
+         */
+        void imported(int events, long downloadedBytes);
+    }
+
+    private class FileImport
+            implements Progress
+    {
+        private final URL url;
+        private final AtomicLong events = new AtomicLong();
+        private volatile long bytes;
+        private volatile QueryStats.State state = QUEUED;
+        private volatile String error;
+
+        private FileImport(URL url)
+        {
+            this.url = url;
+        }
+
+        @Override
+        public void imported(int events, long downloadedBytes)
+        {
+            if (killed) {
+                throw new CancellationException("The import is killed");
+            }
+            this.events.addAndGet(events);
+            this.bytes = downloadedBytes;
+        }
+
+        private void fail(Throwable e)
+        {
+            if (e.getMessage() == null) {
+                error = e.getClass().getSimpleName();
+            }
+            else if (e instanceof RakamException || e instanceof CancellationException) {
+                error = e.getMessage();
+            }
+            else {
+                error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+            state = FAILED;
+        }
+    }
+}
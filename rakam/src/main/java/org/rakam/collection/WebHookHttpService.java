@@ -27,6 +27,8 @@ import org.rakam.analysis.ApiKeyService;
 import org.rakam.analysis.JDBCPoolDataSource;
 import org.rakam.util.javascript.JSCodeCompiler;
 import org.rakam.util.javascript.JSCodeLoggerService;
+import org.rakam.util.javascript.JSScriptPool;
+import org.rakam.util.javascript.JSScriptRuntime;
 import org.rakam.plugin.EventStore;
 import org.rakam.server.http.HttpRequestException;
 import org.rakam.server.http.HttpService;
@@ -69,7 +71,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
@@ -78,6 +83,8 @@ import static io.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.NO_CONTENT;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.rakam.analysis.ApiKeyService.AccessKeyType.WRITE_KEY;
 import static org.rakam.server.http.HttpServer.errorMessage;
 import static org.rakam.server.http.HttpServer.returnError;
@@ -95,11 +102,12 @@ public class WebHookHttpService
             new ThreadFactoryBuilder()
                     .setNameFormat("webhook-js-executor")
                     .build());
-    private final LoadingCache<WebHookIdentifier, Invocable> functions;
+    private final LoadingCache<WebHookIdentifier, CompiledWebHook> functions;
     private final ApiKeyService apiKeyService;
     private final EventStore eventStore;
     private final ObjectMapper jsonMapper;
     private final JSCodeCompiler jsCodeCompiler;
+    private final JSScriptRuntime scriptRuntime;
     private final JSCodeLoggerService loggerService;
 
     @Inject
@@ -108,40 +116,33 @@ public class WebHookHttpService
             JsonEventDeserializer deserializer,
             ApiKeyService apiKeyService,
             JSCodeCompiler jsCodeCompiler,
+            JSScriptRuntime scriptRuntime,
             JSCodeLoggerService loggerService,
             EventStore eventStore)
     {
         this.apiKeyService = apiKeyService;
         this.jsCodeCompiler = jsCodeCompiler;
         this.loggerService = loggerService;
-        functions = CacheBuilder.newBuilder().softValues().build(new CacheLoader<WebHookIdentifier, Invocable>()
-        {
+        this.scriptRuntime = scriptRuntime;
+        // the webhooks are reloaded in the background in order to pick up the changes from the other nodes,
+        // the scripts are only compiled again when the code changes
+        functions = CacheBuilder.newBuilder()
+                .refreshAfterWrite(1, MINUTES)
+                .expireAfterAccess(1, HOURS)
+                .build(new CacheLoader<WebHookIdentifier, CompiledWebHook>()
+                {
+                    @Override
+                    public CompiledWebHook load(WebHookIdentifier key)
+                            throws Exception
+                    {
+                        WebHook webHook = get(key.project, key.identifier);
+                        Map<String, Object> parameters = new HashMap<>();
+                        webHook.parameters.forEach((k, v) -> parameters.put(k, v.value));
 
-            @Override
-            public Invocable load(WebHookIdentifier key)
-                    throws Exception
-            {
-                WebHook webHook = get(key.project, key.identifier);
-                String prefix = "webhook." + key.project + "." + key.identifier;
-                return jsCodeCompiler.createEngine(
-                        webHook.script,
-                        loggerService.createLogger(key.project, prefix),
-                        null,
-                        jsCodeCompiler.createConfigManager(key.project, prefix), (engine, bindings) -> {
-                            Map<String, Parameter> parameters = webHook.parameters;
-                            Map<String, Object> map = new HashMap<>();
-                            parameters.forEach((k,v) -> map.put(k, v.value));
-
-                            bindings.put("$$params", map);
-                            try {
-                                engine.eval("var $$module = function(queryParams, body, headers) { return module(queryParams, body, $$params, headers)}");
-                            }
-                            catch (ScriptException e) {
-                                throw Throwables.propagate(e);
-                            }
-                        });
-            }
-        });
+                        JSScriptPool pool = scriptRuntime.getPool(key.project, webHook.script, "webhook." + key.project + "." + key.identifier);
+                        return new CompiledWebHook(pool, parameters);
+                    }
+                });
         this.dbi = new DBI(dataSource);
         this.eventStore = eventStore;
         jsonMapper = new ObjectMapper();
@@ -205,30 +206,23 @@ public class WebHookHttpService
     private void call(RakamHttpRequest request, String project, String identifier, Map<String, List<String>> queryParams, HttpHeaders headers, String data)
     {
         WebHookIdentifier key = new WebHookIdentifier(project, identifier, UUID.randomUUID().toString());
-        Invocable function;
+        CompiledWebHook webHook;
         try {
-            function = functions.getUnchecked(key);
+            webHook = functions.getUnchecked(key);
         }
         catch (UncheckedExecutionException e) {
             throw Throwables.propagate(e.getCause());
         }
 
-        Future<Object> f = executor.submit(() ->
-                function.invokeFunction("$$module", queryParams, data, headers));
+        scriptRuntime.invoke(webHook.pool, "module", queryParams, data, webHook.parameters, headers)
+                .whenComplete((body, e) -> {
+                    if (e instanceof TimeoutException) {
+                        byte[] bytes = JsonHelper.encodeAsBytes(errorMessage("Webhook code timeouts.",
+                                INTERNAL_SERVER_ERROR));
 
-        f.addListener(new FutureListener<Object>()
-        {
-
-            @Override
-            public void operationComplete(Future<Object> future)
-                    throws Exception
-            {
-                if (future.await(3, TimeUnit.SECONDS)) {
-                    Object body;
-                    try {
-                        body = future.get();
+                        request.response(bytes, INTERNAL_SERVER_ERROR).end();
                     }
-                    catch (Throwable e) {
+                    else if (e != null) {
                         returnError(request, "Error executing callback code", INTERNAL_SERVER_ERROR);
                         LOGGER.warn(e, "Error executing webhook callback");
                         String prefix = "webhook." + key.project + "." + key.identifier;
@@ -238,76 +232,85 @@ public class WebHookHttpService
 
                         loggerService.createLogger(key.project, prefix, key.requestId)
                                 .error(e.getMessage() + "\n" + request.getUri() + "\n" + collect + "Body:\n" + data + "\n--------\n");
-                        return;
-                    }
-
-                    boolean saved = false;
-
-                    if (body == null || body.equals("null")) {
-                        saved = false;
                     }
                     else {
-                        if (!(body instanceof ScriptObjectMirror)) {
-                            returnError(request, "The script must return an object {collection: '', properties: {}}", BAD_REQUEST);
-                        }
-
-                        ScriptObjectMirror json = (ScriptObjectMirror) ((ScriptObjectMirror) body).eval("JSON");
-                        Object stringify = json.callMember("stringify", body);
+                        store(request, key.project, body);
+                    }
+                });
+    }
 
+    private void store(RakamHttpRequest request, String project, Object body)
+    {
+        if (body == null || body.equals("null")) {
+            request.response("0").end();
+            return;
+        }
 
-                        try {
-                            Event event = jsonMapper.readerFor(Event.class)
-                                    .with(ContextAttributes.getEmpty()
-                                            .withSharedAttribute("project", key.project))
-                                    .readValue(stringify.toString());
-                            if (event != null) {
-                                saved = true;
-                                eventStore.store(event);
-                            }
-                        }
-                        catch (JsonMappingException e) {
-                            String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
-                            returnError(request, "JSON couldn't parsed: " + message, BAD_REQUEST);
-                            return;
-                        }
-                        catch (IOException e) {
-                            returnError(request, "JSON couldn't parsed: " + e.getMessage(), BAD_REQUEST);
-                            return;
-                        }
-                        catch (RakamException e) {
-                            LogUtil.logException(request, e);
-                            returnError(request, e.getMessage(), e.getStatusCode());
-                            return;
-                        }
-                        catch (HttpRequestException e) {
-                            returnError(request, e.getMessage(), e.getStatusCode());
-                            return;
-                        }
-                        catch (IllegalArgumentException e) {
-                            LogUtil.logException(request, e);
-                            returnError(request, e.getMessage(), BAD_REQUEST);
-                            return;
-                        }
-                        catch (Exception e) {
-                            LOGGER.error(e, "Error while collecting event");
+        if (!(body instanceof ScriptObjectMirror)) {
+            returnError(request, "The script must return an object {collection: '', properties: {}}", BAD_REQUEST);
+            return;
+        }
 
-                            returnError(request, "An error occurred", INTERNAL_SERVER_ERROR);
-                            return;
-                        }
-                    }
+        ScriptObjectMirror json = (ScriptObjectMirror) ((ScriptObjectMirror) body).eval("JSON");
+        Object stringify = json.callMember("stringify", body);
 
-                    request.response(saved ? "1" : "0").end();
-                }
-                else {
-                    byte[] bytes = JsonHelper.encodeAsBytes(errorMessage("Webhook code timeouts.",
-                            INTERNAL_SERVER_ERROR));
+        CompletableFuture<Void> future;
+        try {
+            Event event = jsonMapper.readerFor(Event.class)
+                    .with(ContextAttributes.getEmpty()
+                            .withSharedAttribute("project", project))
+                    .readValue(stringify.toString());
+            if (event == null) {
+                request.response("0").end();
+                return;
+            }
+            // this method runs on the javascript threads so the event is stored asynchronously
+            // in order not to block them while the event store is busy
+            future = eventStore.storeAsync(event);
+        }
+        catch (JsonMappingException e) {
+            String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            returnError(request, "JSON couldn't parsed: " + message, BAD_REQUEST);
+            return;
+        }
+        catch (IOException e) {
+            returnError(request, "JSON couldn't parsed: " + e.getMessage(), BAD_REQUEST);
+            return;
+        }
+        catch (Exception e) {
+            returnStoreError(request, e);
+            return;
+        }
 
-                    request.response(bytes, INTERNAL_SERVER_ERROR).end();
-                }
+        future.whenComplete((result, e) -> {
+            if (e != null) {
+                returnStoreError(request, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+            else {
+                request.response("1").end();
             }
         });
     }
 
+    private void returnStoreError(RakamHttpRequest request, Throwable e)
+    {
+        if (e instanceof RakamException) {
+            LogUtil.logException(request, (RakamException) e);
+            returnError(request, e.getMessage(), ((RakamException) e).getStatusCode());
+        }
+        else if (e instanceof HttpRequestException) {
+            returnError(request, e.getMessage(), ((HttpRequestException) e).getStatusCode());
+        }
+        else if (e instanceof IllegalArgumentException) {
+            LogUtil.logException(request, (IllegalArgumentException) e);
+            returnError(request, e.getMessage(), BAD_REQUEST);
+        }
+        else {
+            LOGGER.error(e, "Error while collecting event");
+            returnError(request, "An error occurred", INTERNAL_SERVER_ERROR);
+        }
+    }
+
     @GET
     @IgnoreApi
     @ApiOperation(value = "Collect event", response = Integer.class)
@@ -348,6 +351,7 @@ public class WebHookHttpService
                         .bind("image", hook.image)
                         .bind("parameters", JsonHelper.encode(hook.parameters))
                         .execute();
+                functions.invalidate(new WebHookIdentifier(project, hook.identifier, null));
                 return SuccessMessage.success();
             }
             catch (Exception e) {
@@ -359,6 +363,7 @@ public class WebHookHttpService
                             .bind("image", hook.image)
                             .bind("parameters", JsonHelper.encode(hook.parameters))
                             .execute();
+                    functions.invalidate(new WebHookIdentifier(project, hook.identifier, null));
                     return SuccessMessage.success();
                 }
                 throw e;
@@ -378,6 +383,7 @@ public class WebHookHttpService
             if (execute == 0) {
                 throw new RakamException(NOT_FOUND);
             }
+            functions.invalidate(new WebHookIdentifier(project, identifier, null));
             return SuccessMessage.success();
         }
     }
@@ -560,6 +566,18 @@ public class WebHookHttpService
         }
     }
 
+    private static class CompiledWebHook
+    {
+        private final JSScriptPool pool;
+        private final Map<String, Object> parameters;
+
+        private CompiledWebHook(JSScriptPool pool, Map<String, Object> parameters)
+        {
+            this.pool = pool;
+            this.parameters = parameters;
+        }
+    }
+
     public static class WebHook
     {
         public final String identifier;
@@ -35,6 +35,8 @@ import org.rakam.collection.FieldType;
 import org.rakam.util.javascript.JSCodeLoggerService;
 import org.rakam.collection.SchemaField;
 import org.rakam.util.javascript.JSCodeCompiler;
+import org.rakam.util.javascript.JSScriptPool;
+import org.rakam.util.javascript.JSScriptRuntime;
 import org.rakam.server.http.HttpService;
 import org.rakam.server.http.RakamHttpRequest;
 import org.rakam.server.http.annotations.Api;
@@ -94,6 +96,7 @@ public class CustomEventMapperHttpService
     private final LoadingCache<String, List<JSEventMapperCompiledCode>> scripts;
     private final ThreadPoolExecutor executor;
     private final JSCodeCompiler jsCodeCompiler;
+    private final JSScriptRuntime scriptRuntime;
     private final Metastore metastore;
     private final JSCodeLoggerService loggerService;
 
@@ -102,10 +105,12 @@ public class CustomEventMapperHttpService
             @Named("report.metadata.store.jdbc") JDBCPoolDataSource dataSource,
             Metastore metastore,
             JSCodeCompiler jsCodeCompiler,
+            JSScriptRuntime scriptRuntime,
             JSCodeLoggerService loggerService)
     {
         this.dbi = new DBI(dataSource);
         this.jsCodeCompiler = jsCodeCompiler;
+        this.scriptRuntime = scriptRuntime;
         this.loggerService = loggerService;
         this.metastore = metastore;
         this.executor = new ThreadPoolExecutor(
@@ -114,8 +119,9 @@ public class CustomEventMapperHttpService
                 60L, SECONDS,
                 new SynchronousQueue<>());
 
+        // the mappers are reloaded from the database in the background, the unchanged scripts are not compiled again
         this.scripts = CacheBuilder.newBuilder()
-                .expireAfterWrite(2, MINUTES)
+                .refreshAfterWrite(1, MINUTES)
                 .expireAfterAccess(1, HOURS)
                 .build(new MapperCodeCacheLoader());
     }
@@ -405,27 +411,16 @@ public class CustomEventMapperHttpService
         for (int i = 0; i < unchecked.size(); i++) {
             JSEventMapperCompiledCode compiledCode = unchecked.get(i);
 
-            futures[i] = CompletableFuture.supplyAsync(() -> {
-                try {
-                    return compiledCode.code.invokeFunction("mapper",
-                            events,
-                            requestParams,
-                            sourceAddress,
-                            responseHeaders,
-                            compiledCode.parameters);
-                }
-                catch (ScriptException e) {
-                    logger.warn(e, "Error executing event mapper function.");
-                }
-                catch (NoSuchMethodException e) {
-                    logger.warn(e, "'mapper' function does not exist in event mapper function.");
-                }
-                catch (Throwable e) {
-                    logger.warn(e, "Unknown error executing the js mapper.");
-                }
-
-                return null;
-            }, executor);
+            futures[i] = scriptRuntime.invoke(compiledCode.code, "mapper",
+                    events,
+                    requestParams,
+                    sourceAddress,
+                    responseHeaders,
+                    compiledCode.parameters)
+                    .exceptionally(e -> {
+                        logger.warn(e, "Error executing event mapper function %s.", compiledCode.id);
+                        return null;
+                    });
         }
 
         return CompletableFuture.allOf(futures)
@@ -476,11 +471,11 @@ public class CustomEventMapperHttpService
     public static class JSEventMapperCompiledCode
     {
         public final int id;
-        public final Invocable code;
+        public final JSScriptPool code;
         public final Map<String, Object> parameters;
         public int codeHashCode;
 
-        public JSEventMapperCompiledCode(int id, Invocable code, Map<String, Object> parameters, int codeHashCode)
+        public JSEventMapperCompiledCode(int id, JSScriptPool code, Map<String, Object> parameters, int codeHashCode)
         {
             this.id = id;
             this.code = code;
@@ -725,9 +720,9 @@ public class CustomEventMapperHttpService
 
         private Stream<JSEventMapperCompiledCode> get(String project, JSEventMapperCode item)
         {
-            Invocable unchecked;
+            JSScriptPool unchecked;
             try {
-                unchecked = jsCodeCompiler.createEngine(project,
+                unchecked = scriptRuntime.getPool(project,
                         item.script, "event-mapper." + item.id);
             }
             catch (Exception e) {
@@ -1,6 +1,5 @@
 package org.rakam.plugin.user;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.google.common.collect.ImmutableList;
@@ -34,6 +33,7 @@ import org.rakam.server.http.annotations.IgnoreApi;
 import org.rakam.server.http.annotations.JsonRequest;
 import org.rakam.util.AllowCookie;
 import org.rakam.util.JsonHelper;
+import org.rakam.util.SqlParserUtil;
 import org.rakam.util.SuccessMessage;
 import org.rakam.util.RakamException;
 import org.rakam.util.LogUtil;
@@ -85,7 +85,6 @@ public class UserHttpService
     private final byte[] OK_MESSAGE = "1".getBytes(UTF_8);
 
     private final UserPluginConfig config;
-    private final static SqlParser sqlParser = new SqlParser();
     private final AbstractUserService service;
     private final Set<UserPropertyMapper> mappers;
     private final QueryHttpService queryService;
@@ -152,9 +151,7 @@ public class UserHttpService
     {
         if (filter != null) {
             try {
-                synchronized (sqlParser) {
-                    return sqlParser.createExpression(filter);
-                }
+                return SqlParserUtil.createExpression(filter);
             }
             catch (Exception e) {
                 throw new RakamException(format("filter expression '%s' couldn't parsed", filter),
@@ -219,9 +216,7 @@ public class UserHttpService
 
         Expression expression = null;
         if (filterExpression != null) {
-            synchronized (sqlParser) {
-                expression = sqlParser.createExpression(filterExpression);
-            }
+            expression = SqlParserUtil.createExpression(filterExpression);
         }
 
         service.createSegment(project, name, tableName, expression, eventFilters, duration);
@@ -1,6 +1,5 @@
 package org.rakam.plugin.user;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Expression;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.google.common.base.Throwables;
@@ -32,6 +31,7 @@ import org.rakam.server.http.annotations.IgnoreApi;
 import org.rakam.util.ExportUtil;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
+import org.rakam.util.SqlParserUtil;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -58,7 +58,6 @@ import static org.rakam.analysis.ApiKeyService.AccessKeyType.READ_KEY;
 public class UserUtilHttpService
         extends HttpService
 {
-    private final SqlParser sqlParser = new SqlParser();
     private final AbstractUserService service;
     private final ApiKeyService apiKeyService;
 
@@ -118,9 +117,7 @@ public class UserUtilHttpService
         Expression expression;
         if (read.filterQuery.filter != null) {
             try {
-                synchronized (sqlParser) {
-                    expression = sqlParser.createExpression(read.filterQuery.filter);
-                }
+                expression = SqlParserUtil.createExpression(read.filterQuery.filter);
             }
             catch (Exception e) {
                 throw new RakamException(format("filter expression '%s' couldn't parsed", read.filterQuery.filter),
@@ -0,0 +1,32 @@
+package org.rakam.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.OutputStream;
+
+/**
+ * Writes to the buffer of the current chunk so that the stream based encoders can be reused for all the chunks
+ * of a response.
+ */
+class ChunkOutputStream
+        extends OutputStream
+{
+    private ByteBuf buffer;
+
+    public void setBuffer(ByteBuf buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b)
+    {
+        buffer.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        buffer.writeBytes(b, off, len);
+    }
+}
@@ -0,0 +1,380 @@
+package org.rakam.util;
+
+import io.airlift.log.Logger;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.rakam.collection.SchemaField;
+import org.rakam.report.QueryError;
+import org.rakam.report.QueryExecution;
+import org.rakam.report.QueryResult;
+import org.rakam.report.QueryResultCursor;
+import org.rakam.server.http.RakamHttpRequest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaders.Values.GZIP;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.rakam.server.http.HttpServer.returnError;
+
+/**
+ * Sends the rows of a query to the client in a chunked HTTP response as they are fetched from the database.
+ * The next page is requested when the previous chunk is written to the socket so that the rows don't pile up
+ * in memory when the client is slower than the database.
+ * <p>
+ * If the query fails before the first page, an error response is returned. Otherwise the error is written
+ * by the encoder at the end of the response since the status code is already sent. If the encoder fails after
+ * the status code is sent, the connection is closed without the last chunk.
+ */
+public class ChunkedQueryResultWriter
+{
+    private static final Logger LOGGER = Logger.get(ChunkedQueryResultWriter.class);
+
+    private final RakamHttpRequest request;
+    private final ChannelHandlerContext context;
+    private final QueryResultCursor cursor;
+    private final String contentType;
+    private final PageEncoder encoder;
+    private List<SchemaField> metadata;
+
+    private ChunkedQueryResultWriter(RakamHttpRequest request, QueryResultCursor cursor, String contentType, PageEncoder encoder)
+    {
+        this.request = request;
+        this.context = request.context();
+        this.cursor = cursor;
+        this.contentType = contentType;
+        this.encoder = encoder;
+    }
+
+    /**
+     * The response is compressed with gzip if the client accepts it.
+     */
+    public static void write(RakamHttpRequest request, QueryExecution execution, String contentType, PageEncoder encoder)
+    {
+        String acceptEncoding = request.headers().get(ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains(GZIP);
+        new ChunkedQueryResultWriter(request, execution.getResultCursor(), contentType,
+                gzip ? new GzipPageEncoder(encoder) : encoder).start();
+    }
+
+    private void start()
+    {
+        cursor.nextPage().whenCompleteAsync((page, ex) -> {
+            if (ex != null) {
+                encoder.close();
+                returnException(ex);
+                return;
+            }
+
+            if (page == null) {
+                cursor.getResult().whenCompleteAsync((result, resultEx) -> {
+                    if (resultEx != null) {
+                        encoder.close();
+                        returnException(resultEx);
+                    }
+                    else if (result.isFailed()) {
+                        encoder.close();
+                        request.response(JsonHelper.encodeAsBytes(result), BAD_REQUEST).end();
+                    }
+                    else {
+                        metadata = result.getMetadata();
+                        ByteBuf buffer = context.alloc().buffer();
+                        if (!encode(buffer, () -> encoder.writeHeader(metadata, buffer))) {
+                            returnError(request, "Internal error", INTERNAL_SERVER_ERROR);
+                            return;
+                        }
+                        sendHeaders();
+                        context.write(new DefaultHttpContent(buffer));
+                        finish(result);
+                    }
+                }, context.executor());
+                return;
+            }
+
+            metadata = cursor.getMetadata();
+            ByteBuf buffer = context.alloc().buffer();
+            boolean encoded = encode(buffer, () -> {
+                encoder.writeHeader(metadata, buffer);
+                encoder.writePage(metadata, page, buffer);
+            });
+            if (!encoded) {
+                returnError(request, "Internal error", INTERNAL_SERVER_ERROR);
+                return;
+            }
+            sendHeaders();
+            writeAndFetchNext(buffer);
+        }, context.executor());
+    }
+
+    private void sendHeaders()
+    {
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        HttpHeaders.setTransferEncodingChunked(response);
+        response.headers().set(CONTENT_TYPE, contentType);
+        if (encoder instanceof GzipPageEncoder) {
+            response.headers().set(CONTENT_ENCODING, GZIP);
+        }
+        if (request.headers().contains(ORIGIN)) {
+            response.headers().set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
+        }
+        context.write(response);
+    }
+
+    private void writeAndFetchNext(ByteBuf buffer)
+    {
+        context.writeAndFlush(new DefaultHttpContent(buffer)).addListener(future -> {
+            if (!future.isSuccess()) {
+                // the client is disconnected, there is no need to fetch the rest of the rows
+                cursor.close();
+                encoder.close();
+                return;
+            }
+
+            cursor.nextPage().whenCompleteAsync((page, ex) -> {
+                if (ex != null) {
+                    LOGGER.error(ex, "Error while fetching the query result");
+                    finish(QueryResult.errorResult(QueryError.create("Internal error")));
+                }
+                else if (page == null) {
+                    cursor.getResult().whenCompleteAsync((result, resultEx) -> finish(resultEx != null ?
+                            QueryResult.errorResult(QueryError.create("Internal error")) : result), context.executor());
+                }
+                else {
+                    ByteBuf next = context.alloc().buffer();
+                    if (encode(next, () -> encoder.writePage(metadata, page, next))) {
+                        writeAndFetchNext(next);
+                    }
+                    else {
+                        // the status code is already sent, the client must not take the partial result as complete
+                        context.close();
+                    }
+                }
+            }, context.executor());
+        });
+    }
+
+    private void finish(QueryResult result)
+    {
+        ByteBuf buffer = context.alloc().buffer();
+        try {
+            encoder.writeFooter(result, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            // the format can't represent the error, the connection is closed without the last chunk
+            // so that the client doesn't take the partial result as complete
+            LOGGER.warn(e, "Closing the connection before the result is completely sent");
+            buffer.release();
+            context.close();
+            return;
+        }
+        finally {
+            encoder.close();
+        }
+        context.write(new DefaultHttpContent(buffer));
+        ChannelFuture lastContentFuture = context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (!HttpHeaders.isKeepAlive(request)) {
+            lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private void returnException(Throwable ex)
+    {
+        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof RakamException) {
+            returnError(request, cause.getMessage(), ((RakamException) cause).getStatusCode());
+        }
+        else {
+            LOGGER.error(ex, "Error while executing query");
+            returnError(request, "Internal error", INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Returns false if the encoder fails. The buffer is released and the query is cancelled in that case,
+     * the caller should end the response.
+     */
+    private boolean encode(ByteBuf buffer, EncodeAction action)
+    {
+        try {
+            action.encode();
+            return true;
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.error(e, "Error while encoding the query result");
+            buffer.release();
+            cursor.close();
+            encoder.close();
+            return false;
+        }
+    }
+
+    private interface EncodeAction
+    {
+        void encode()
+                throws IOException;
+    }
+
+    public interface PageEncoder
+    {
+        void writeHeader(List<SchemaField> metadata, ByteBuf out)
+                throws IOException;
+
+        void writePage(List<SchemaField> metadata, List<List<Object>> rows, ByteBuf out)
+                throws IOException;
+
+        /**
+         * The result doesn't have the rows, it may be failed if the query fails while the rows are being sent.
+         * The encoders that can't represent the error should throw {@link IOException}.
+         */
+        void writeFooter(QueryResult result, ByteBuf out)
+                throws IOException;
+
+        /**
+         * Called when the response is completed or the client is disconnected.
+         */
+        default void close()
+        {
+        }
+    }
+
+    /**
+     * Compresses the output of the encoder, each chunk is flushed so that the client can decompress
+     * the rows as they arrive.
+     */
+    private static class GzipPageEncoder
+            implements PageEncoder
+    {
+        private final PageEncoder delegate;
+        private final ChunkOutputStream out;
+        private final ByteBuf buffer;
+        private GZIPOutputStream gzip;
+
+        public GzipPageEncoder(PageEncoder delegate)
+        {
+            this.delegate = delegate;
+            this.out = new ChunkOutputStream();
+            this.buffer = Unpooled.buffer();
+        }
+
+        @Override
+        public void writeHeader(List<SchemaField> metadata, ByteBuf out)
+                throws IOException
+        {
+            // the gzip header is written to the first chunk
+            this.out.setBuffer(out);
+            gzip = new GZIPOutputStream(this.out, 8192, true);
+            delegate.writeHeader(metadata, buffer);
+            compress(out);
+        }
+
+        @Override
+        public void writePage(List<SchemaField> metadata, List<List<Object>> rows, ByteBuf out)
+                throws IOException
+        {
+            delegate.writePage(metadata, rows, buffer);
+            compress(out);
+        }
+
+        @Override
+        public void writeFooter(QueryResult result, ByteBuf out)
+                throws IOException
+        {
+            delegate.writeFooter(result, buffer);
+            this.out.setBuffer(out);
+            buffer.readBytes(gzip, buffer.readableBytes());
+            gzip.finish();
+        }
+
+        private void compress(ByteBuf out)
+                throws IOException
+        {
+            this.out.setBuffer(out);
+            buffer.readBytes(gzip, buffer.readableBytes());
+            buffer.clear();
+            gzip.flush();
+        }
+
+        @Override
+        public void close()
+        {
+            delegate.close();
+            if (gzip == null) {
+                return;
+            }
+            // the trailer is discarded if the response is not completed
+            out.setBuffer(Unpooled.buffer());
+            try {
+                // releases the native memory of the deflater
+                gzip.close();
+            }
+            catch (IOException e) {
+                LOGGER.warn(e, "Error while closing the gzip stream");
+            }
+        }
+    }
+
+    /**
+     * Writes the result in the same format with {@link QueryResult}.
+     */
+    public static class JsonPageEncoder
+            implements PageEncoder
+    {
+        private boolean firstRow = true;
+
+        @Override
+        public void writeHeader(List<SchemaField> metadata, ByteBuf out)
+                throws IOException
+        {
+            out.writeBytes("{\"metadata\":".getBytes(UTF_8));
+            out.writeBytes(JsonHelper.encodeAsBytes(metadata));
+            out.writeBytes(",\"result\":[".getBytes(UTF_8));
+        }
+
+        @Override
+        public void writePage(List<SchemaField> metadata, List<List<Object>> rows, ByteBuf out)
+                throws IOException
+        {
+            for (List<Object> row : rows) {
+                if (!firstRow) {
+                    out.writeByte(',');
+                }
+                firstRow = false;
+                out.writeBytes(JsonHelper.encodeAsBytes(row));
+            }
+        }
+
+        @Override
+        public void writeFooter(QueryResult result, ByteBuf out)
+                throws IOException
+        {
+            out.writeByte(']');
+            if (result.getProperties() != null) {
+                out.writeBytes(",\"properties\":".getBytes(UTF_8));
+                out.writeBytes(JsonHelper.encodeAsBytes(result.getProperties()));
+            }
+            if (result.isFailed()) {
+                out.writeBytes(",\"error\":".getBytes(UTF_8));
+                out.writeBytes(JsonHelper.encodeAsBytes(result.getError()));
+            }
+            out.writeByte('}');
+        }
+    }
+}
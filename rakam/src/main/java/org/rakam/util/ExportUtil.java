@@ -2,6 +2,8 @@ package org.rakam.util;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.FilteredRecordWriter;
 import org.apache.avro.generic.GenericData;
@@ -13,13 +15,14 @@ import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.QuoteMode;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
+import org.rakam.plugin.EventStore.CopyType;
 import org.rakam.report.QueryResult;
+import org.rakam.util.ChunkedQueryResultWriter.PageEncoder;
 
 import javax.xml.bind.DatatypeConverter;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -28,18 +31,96 @@ import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class ExportUtil
 {
     public static byte[] exportAsCSV(QueryResult result)
     {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        final CSVPrinter csvPrinter;
+        return export(new CsvPageEncoder(), result);
+    }
+
+    public static byte[] exportAsAvro(QueryResult result)
+    {
+        return export(new AvroPageEncoder(), result);
+    }
+
+    public static PageEncoder getEncoder(CopyType type)
+    {
+        switch (type) {
+            case CSV:
+                return new CsvPageEncoder();
+            case AVRO:
+                return new AvroPageEncoder();
+            case JSON:
+                return new JsonArrayPageEncoder();
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    public static String getContentType(CopyType type)
+    {
+        switch (type) {
+            case CSV:
+                return "text/csv";
+            case AVRO:
+                return "avro/binary";
+            case JSON:
+                return "application/json";
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static byte[] export(PageEncoder encoder, QueryResult result)
+    {
+        ByteBuf buffer = Unpooled.buffer();
         try {
-            final CSVFormat format = CSVFormat.DEFAULT.withQuoteMode(QuoteMode.NON_NUMERIC);
-            csvPrinter = new CSVPrinter(new PrintWriter(out), format);
-            csvPrinter.printRecord(result.getMetadata().stream().map(SchemaField::getName)
-                    .collect(Collectors.toList()));
-            csvPrinter.printRecords(Iterables.transform(result.getResult(), input -> Iterables.transform(input, input1 -> {
+            encoder.writeHeader(result.getMetadata(), buffer);
+            encoder.writePage(result.getMetadata(), result.getResult(), buffer);
+            encoder.writeFooter(result, buffer);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+
+    private static class CsvPageEncoder
+            implements PageEncoder
+    {
+        private final ChunkOutputStream out = new ChunkOutputStream();
+        private final CSVPrinter csvPrinter;
+
+        public CsvPageEncoder()
+        {
+            try {
+                csvPrinter = new CSVPrinter(new OutputStreamWriter(out, UTF_8), CSVFormat.DEFAULT.withQuoteMode(QuoteMode.NON_NUMERIC));
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public void writeHeader(List<SchemaField> metadata, ByteBuf buffer)
+                throws IOException
+        {
+            out.setBuffer(buffer);
+            csvPrinter.printRecord(metadata.stream().map(SchemaField::getName).collect(Collectors.toList()));
+            csvPrinter.flush();
+        }
+
+        @Override
+        public void writePage(List<SchemaField> metadata, List<List<Object>> rows, ByteBuf buffer)
+                throws IOException
+        {
+            out.setBuffer(buffer);
+            csvPrinter.printRecords(Iterables.transform(rows, input -> Iterables.transform(input, input1 -> {
                 if (input1 instanceof List || input1 instanceof Map) {
                     return JsonHelper.encode(input1);
                 }
@@ -50,39 +131,93 @@ public class ExportUtil
             })));
             csvPrinter.flush();
         }
-        catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
 
-        return out.toByteArray();
+        @Override
+        public void writeFooter(QueryResult result, ByteBuf buffer)
+                throws IOException
+        {
+            if (result.isFailed()) {
+                throw new IOException("Query failed: " + result.getError().message);
+            }
+        }
     }
 
-    public static byte[] exportAsAvro(QueryResult result)
+    private static class AvroPageEncoder
+            implements PageEncoder
     {
-        Schema avroSchema = AvroUtil.convertAvroSchema(result.getMetadata());
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        DatumWriter writer = new FilteredRecordWriter(avroSchema, GenericData.get());
+        private final ChunkOutputStream out = new ChunkOutputStream();
+        private final BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        private DatumWriter writer;
+        private GenericData.Record record;
 
-        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
-        GenericData.Record record = new GenericData.Record(avroSchema);
+        @Override
+        public void writeHeader(List<SchemaField> metadata, ByteBuf buffer)
+        {
+            Schema avroSchema = AvroUtil.convertAvroSchema(metadata);
+            writer = new FilteredRecordWriter(avroSchema, GenericData.get());
+            record = new GenericData.Record(avroSchema);
+        }
 
-        for (List<Object> row : result.getResult()) {
-            List<SchemaField> metadata = result.getMetadata();
+        @Override
+        public void writePage(List<SchemaField> metadata, List<List<Object>> rows, ByteBuf buffer)
+        {
+            out.setBuffer(buffer);
+            for (List<Object> row : rows) {
+                for (int i = 0; i < row.size(); i++) {
+                    record.put(i, getAvroValue(row.get(i), metadata.get(i).getType()));
+                }
 
-            for (int i = 0; i < row.size(); i++) {
-                record.put(i, getAvroValue(row.get(i), metadata.get(i).getType()));
+                try {
+                    writer.write(record, encoder);
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("Couldn't serialize event", e);
+                }
             }
+        }
 
-            try {
-                writer.write(record, encoder);
+        @Override
+        public void writeFooter(QueryResult result, ByteBuf buffer)
+                throws IOException
+        {
+            if (result.isFailed()) {
+                throw new IOException("Query failed: " + result.getError().message);
             }
-            catch (Exception e) {
-                throw new RuntimeException("Couldn't serialize event", e);
+        }
+    }
+
+    private static class JsonArrayPageEncoder
+            implements PageEncoder
+    {
+        private boolean firstRow = true;
+
+        @Override
+        public void writeHeader(List<SchemaField> metadata, ByteBuf buffer)
+        {
+            buffer.writeByte('[');
+        }
+
+        @Override
+        public void writePage(List<SchemaField> metadata, List<List<Object>> rows, ByteBuf buffer)
+        {
+            for (List<Object> row : rows) {
+                if (!firstRow) {
+                    buffer.writeByte(',');
+                }
+                firstRow = false;
+                buffer.writeBytes(JsonHelper.encodeAsBytes(row));
             }
         }
 
-        return out.toByteArray();
+        @Override
+        public void writeFooter(QueryResult result, ByteBuf buffer)
+                throws IOException
+        {
+            if (result.isFailed()) {
+                throw new IOException("Query failed: " + result.getError().message);
+            }
+            buffer.writeByte(']');
+        }
     }
 
     private static Object getAvroValue(Object value, FieldType type)
@@ -11,6 +11,7 @@ import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import jdk.nashorn.api.scripting.ClassFilter;
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import org.rakam.analysis.ConfigManager;
 import org.rakam.collection.Event;
 import org.rakam.collection.EventCollectionHttpService;
@@ -28,6 +29,8 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
@@ -67,6 +70,8 @@ public class JSCodeCompiler
             "crypt", new JSUtil.JSCryptUtil(),
             "request", new JSUtil.JSRequestUtil());
     private final boolean customEnabled;
+    // the compiled scripts are bound to the engine, they're evaluated in a new global for each pooled instance
+    private final ScriptEngine sharedEngine;
 
     @Inject
     public JSCodeCompiler(
@@ -92,6 +97,7 @@ public class JSCodeCompiler
         this.loggerService = loggerService;
         this.loadAllowed = loadAllowed;
         this.customEnabled = customEnabled;
+        this.sharedEngine = factory.getScriptEngine(args, classLoader, classFilter);
         try {
             localhost = InetAddress.getLocalHost();
         }
@@ -170,6 +176,11 @@ public class JSCodeCompiler
         ILogger createLogger(String project, String prefix);
     }
 
+    public ILogger createLogger(String project, String prefix)
+    {
+        return loggerService.createLogger(project, prefix);
+    }
+
     public JSConfigManager createConfigManager(String project, String prefix)
     {
         return new JSConfigManager(configManager, project, prefix);
@@ -190,6 +201,48 @@ public class JSCodeCompiler
 
     public Invocable createEngine(String code, ILogger logger, JSEventStore eventStore, IJSConfigManager configManager, BiConsumer<ScriptEngine, Bindings> binding)
             throws ScriptException
+    {
+        checkCustomCode(code);
+        ScriptEngine engine = factory.getScriptEngine(args, classLoader, classFilter);
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+
+        prepareBindings(bindings, logger, configManager);
+        if (eventStore != null) {
+            bindings.put("$$eventStore", eventStore);
+            engine.eval("var eventStore = {store: function(call) { $$eventStore.store(JSON.stringify(call)); }}");
+        }
+
+        engine.eval(code);
+        binding.accept(engine, bindings);
+
+        return (Invocable) engine;
+    }
+
+    /**
+     * Compiles the code once so that it can be evaluated for each instance in {@link JSScriptPool}
+     * without parsing and generating the bytecode again.
+     */
+    public CompiledScript compile(String code)
+            throws ScriptException
+    {
+        checkCustomCode(code);
+        return ((Compilable) sharedEngine).compile(code);
+    }
+
+    /**
+     * Evaluates the compiled script in a new global. The instances of the same script don't share any state,
+     * the functions can be called with {@link ScriptObjectMirror#callMember(String, Object...)}.
+     */
+    public ScriptObjectMirror createInstance(CompiledScript script, ILogger logger, IJSConfigManager configManager)
+            throws ScriptException
+    {
+        ScriptObjectMirror global = (ScriptObjectMirror) script.getEngine().createBindings();
+        prepareBindings(global, logger, configManager);
+        script.eval(global);
+        return global;
+    }
+
+    private void checkCustomCode(String code)
     {
         if (!customEnabled) {
             int firstLineBreak = code.indexOf("\n");
@@ -200,12 +253,11 @@ public class JSCodeCompiler
             if(!substring.startsWith("//@ sourceURL=rakam-ui/src/main/resources/")) {
                 throw new RakamException("Custom javascript code is not allowed in trial mode.", BAD_REQUEST);
             }
-
-            String path = substring.substring("//@ sourceURL=rakam-ui/src/main/resources/".length());
         }
-        ScriptEngine engine = factory.getScriptEngine(args, classLoader, classFilter);
-        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+    }
 
+    private void prepareBindings(Bindings bindings, ILogger logger, IJSConfigManager configManager)
+    {
         bindings.remove("print");
         if (!loadAllowed) {
             bindings.remove("load");
@@ -221,16 +273,7 @@ public class JSCodeCompiler
         bindings.put("logger", logger);
         bindings.put("util", JS_UTIL);
         bindings.put("config", configManager);
-        if (eventStore != null) {
-            bindings.put("$$eventStore", eventStore);
-            engine.eval("var eventStore = {store: function(call) { $$eventStore.store(JSON.stringify(call)); }}");
-        }
         bindings.put("http", httpClient);
-
-        engine.eval(code);
-        binding.accept(engine, bindings);
-
-        return (Invocable) engine;
     }
 
     public static class TestLogger
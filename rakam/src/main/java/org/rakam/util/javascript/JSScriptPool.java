@@ -0,0 +1,138 @@
+package org.rakam.util.javascript;
+
+import io.airlift.stats.TimeDistribution;
+import io.airlift.stats.TimeStat;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Bounded pool of the instances of a compiled script. Each instance has its own global so the instances can run
+ * concurrently, the script is compiled once and only evaluated when a new instance is created.
+ */
+public class JSScriptPool
+{
+    private final String name;
+    private final CompiledScript script;
+    private final JSCodeCompiler compiler;
+    private final ILogger logger;
+    private final JSCodeCompiler.IJSConfigManager configManager;
+    private final Semaphore permits;
+    private final Queue<ScriptObjectMirror> idle;
+
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong cpuLimitExceeded = new AtomicLong();
+    private final TimeStat latency = new TimeStat(MILLISECONDS);
+
+    JSScriptPool(String name, CompiledScript script, JSCodeCompiler compiler, ILogger logger, JSCodeCompiler.IJSConfigManager configManager, int size)
+    {
+        this.name = name;
+        this.script = script;
+        this.compiler = compiler;
+        this.logger = logger;
+        this.configManager = configManager;
+        this.permits = new Semaphore(size);
+        this.idle = new ConcurrentLinkedQueue<>();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    ScriptObjectMirror borrow(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException, ScriptException
+    {
+        if (!permits.tryAcquire(timeout, unit)) {
+            throw new TimeoutException("All the instances of the script are busy");
+        }
+
+        ScriptObjectMirror instance = idle.poll();
+        if (instance != null) {
+            return instance;
+        }
+
+        try {
+            return compiler.createInstance(script, logger, configManager);
+        }
+        catch (Throwable e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * The instances that are interrupted may have an inconsistent global state, they're discarded instead of reused.
+     */
+    void release(ScriptObjectMirror instance, boolean reusable)
+    {
+        if (reusable) {
+            idle.offer(instance);
+        }
+        permits.release();
+    }
+
+    void record(long elapsedNanos, boolean failed)
+    {
+        invocations.incrementAndGet();
+        if (failed) {
+            failures.incrementAndGet();
+        }
+        latency.add(elapsedNanos, NANOSECONDS);
+    }
+
+    void recordTimeout()
+    {
+        timeouts.incrementAndGet();
+    }
+
+    void recordCpuLimitExceeded()
+    {
+        cpuLimitExceeded.incrementAndGet();
+    }
+
+    public ScriptStats getStats()
+    {
+        return new ScriptStats(this);
+    }
+
+    public static class ScriptStats
+    {
+        public final String name;
+        public final long invocations;
+        public final long failures;
+        public final long timeouts;
+        public final long cpuLimitExceeded;
+        public final int idleInstances;
+        public final double p50Millis;
+        public final double p99Millis;
+        public final double maxMillis;
+
+        private ScriptStats(JSScriptPool pool)
+        {
+            this.name = pool.name;
+            this.invocations = pool.invocations.get();
+            this.failures = pool.failures.get();
+            this.timeouts = pool.timeouts.get();
+            this.cpuLimitExceeded = pool.cpuLimitExceeded.get();
+            this.idleInstances = pool.idle.size();
+            TimeDistribution distribution = pool.latency.getFiveMinutes();
+            this.p50Millis = distribution.getP50();
+            this.p99Millis = distribution.getP99();
+            this.maxMillis = distribution.getMax();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.rakam.util.javascript;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.airlift.log.Logger;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import org.rakam.util.javascript.JSCodeCompiler.IJSConfigManager;
+import org.rakam.util.javascript.JSScriptPool.ScriptStats;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.script.ScriptException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runs the custom javascript code of the event mappers and the webhooks. The scripts are compiled once per hash
+ * of their code and the invocations run on a bounded executor. A watchdog enforces the wall time and CPU time budgets
+ * of the invocations; the invocations that exceed the CPU budget are stopped because Nashorn doesn't check
+ * the interrupt flag in the loops.
+ */
+@Singleton
+public class JSScriptRuntime
+{
+    private static final Logger LOGGER = Logger.get(JSScriptRuntime.class);
+    private static final long WATCHDOG_INTERVAL_MILLIS = 10;
+
+    private final JSCodeCompiler compiler;
+    private final Cache<String, JSScriptPool> pools;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService watchdog;
+    private final Set<Execution> executions;
+    private final ThreadMXBean threadMXBean;
+    private final int poolSize;
+    private final long timeoutNanos;
+    private final long maxCpuTimeNanos;
+
+    @Inject
+    public JSScriptRuntime(JSCodeCompiler compiler, JavascriptConfig config)
+    {
+        this.compiler = compiler;
+        this.poolSize = config.getPoolSize();
+        this.timeoutNanos = config.getTimeout().roundTo(NANOSECONDS);
+        this.maxCpuTimeNanos = config.getMaxCpuTime().roundTo(NANOSECONDS);
+        this.pools = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxScripts())
+                .expireAfterAccess(1, HOURS)
+                .build();
+        this.executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 60, SECONDS,
+                new ArrayBlockingQueue<>(config.getThreads() * 100),
+                new ThreadFactoryBuilder().setNameFormat("javascript-executor-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.executions = ConcurrentHashMap.newKeySet();
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("javascript-watchdog")
+                .setDaemon(true)
+                .build());
+        this.watchdog.scheduleWithFixedDelay(this::checkExecutions, WATCHDOG_INTERVAL_MILLIS, WATCHDOG_INTERVAL_MILLIS, MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    public JSScriptPool getPool(String project, String code, String prefix)
+            throws ScriptException
+    {
+        return getPool(project + ":" + prefix, code, compiler.createLogger(project, prefix), compiler.createConfigManager(project, prefix));
+    }
+
+    /**
+     * Returns the pool of the compiled code. The name should be unique for the owner of the script, the scripts
+     * that have the same name and code share the same pool.
+     */
+    public JSScriptPool getPool(String name, String code, ILogger logger, IJSConfigManager configManager)
+            throws ScriptException
+    {
+        String key = name + ":" + Hashing.sha256().hashString(code, UTF_8).toString();
+        try {
+            return pools.get(key, () -> new JSScriptPool(name, compiler.compile(code), compiler, logger, configManager, poolSize));
+        }
+        catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), ScriptException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+        catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Calls the function of the script. The future fails with {@link TimeoutException} when the invocation
+     * exceeds the time budget and {@link RejectedExecutionException} when the executor is overloaded.
+     */
+    public CompletableFuture<Object> invoke(JSScriptPool pool, String function, Object... args)
+    {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(pool, function, args, future));
+        }
+        catch (RejectedExecutionException e) {
+            pool.record(0, true);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public List<ScriptStats> getStats()
+    {
+        return pools.asMap().values().stream()
+                .map(JSScriptPool::getStats)
+                .collect(Collectors.toList());
+    }
+
+    private void run(JSScriptPool pool, String function, Object[] args, CompletableFuture<Object> future)
+    {
+        long start = System.nanoTime();
+        ScriptObjectMirror instance;
+        try {
+            instance = pool.borrow(timeoutNanos, NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            pool.recordTimeout();
+            pool.record(System.nanoTime() - start, true);
+            future.completeExceptionally(e);
+            return;
+        }
+        catch (Throwable e) {
+            pool.record(System.nanoTime() - start, true);
+            future.completeExceptionally(e);
+            return;
+        }
+
+        Thread thread = Thread.currentThread();
+        Execution execution = new Execution(pool, instance, thread, future, start, threadMXBean.getCurrentThreadCpuTime());
+        executions.add(execution);
+        Object result = null;
+        Throwable error = null;
+        try {
+            result = instance.callMember(function, args);
+        }
+        catch (Throwable e) {
+            error = e;
+        }
+        finally {
+            executions.remove(execution);
+            if (execution.finish()) {
+                // clear the interrupt flag of the timed out invocation before the thread is reused
+                Thread.interrupted();
+                pool.release(instance, !execution.timedOut);
+                pool.record(System.nanoTime() - start, error != null || execution.timedOut);
+            }
+        }
+
+        // the statistics are recorded before the caller is notified
+        if (error != null) {
+            future.completeExceptionally(error);
+        }
+        else {
+            future.complete(result);
+        }
+    }
+
+    private void checkExecutions()
+    {
+        long now = System.nanoTime();
+        for (Execution execution : executions) {
+            try {
+                long cpuTime = threadMXBean.getThreadCpuTime(execution.thread.getId()) - execution.startCpuTime;
+                if (cpuTime > maxCpuTimeNanos) {
+                    execution.stop();
+                    executions.remove(execution);
+                }
+                else if (now - execution.start > timeoutNanos) {
+                    execution.timeout();
+                }
+            }
+            catch (Throwable e) {
+                LOGGER.error(e, "Error while checking javascript invocation of script %s", execution.pool.getName());
+            }
+        }
+    }
+
+    private static class Execution
+    {
+        private final JSScriptPool pool;
+        private final ScriptObjectMirror instance;
+        private final Thread thread;
+        private final CompletableFuture<Object> future;
+        private final long start;
+        private final long startCpuTime;
+        private boolean finished;
+        private boolean stopped;
+        private volatile boolean timedOut;
+
+        private Execution(JSScriptPool pool, ScriptObjectMirror instance, Thread thread, CompletableFuture<Object> future, long start, long startCpuTime)
+        {
+            this.pool = pool;
+            this.instance = instance;
+            this.thread = thread;
+            this.future = future;
+            this.start = start;
+            this.startCpuTime = startCpuTime;
+        }
+
+        /**
+         * Returns false if the thread is stopped by the watchdog, the watchdog releases the instance in that case.
+         */
+        synchronized boolean finish()
+        {
+            finished = true;
+            return !stopped;
+        }
+
+        synchronized void timeout()
+        {
+            if (finished || timedOut) {
+                return;
+            }
+            timedOut = true;
+            pool.recordTimeout();
+            future.completeExceptionally(new TimeoutException("Javascript code timeouts."));
+            thread.interrupt();
+        }
+
+        @SuppressWarnings("deprecation")
+        synchronized void stop()
+        {
+            if (finished || stopped) {
+                return;
+            }
+            stopped = true;
+            pool.recordCpuLimitExceeded();
+            future.completeExceptionally(new TimeoutException("Javascript code exceeded the CPU time limit."));
+            // ThreadDeath is usually thrown in the script, if it's thrown after the invocation the executor replaces the thread
+            thread.stop();
+            pool.release(instance, false);
+            pool.record(System.nanoTime() - start, true);
+        }
+    }
+}
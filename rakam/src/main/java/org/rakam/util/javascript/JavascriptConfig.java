@@ -1,10 +1,20 @@
 package org.rakam.util.javascript;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Min;
 
 public class JavascriptConfig
 {
     private boolean customEnabled = true;
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+    private int maxScripts = 1000;
+    private int threads = Runtime.getRuntime().availableProcessors() * 4;
+    private Duration timeout = Duration.valueOf("3s");
+    private Duration maxCpuTime = Duration.valueOf("1s");
 
     @Config("custom-javascript-enabled")
     public JavascriptConfig setCustomEnabled(boolean customEnabled)
@@ -17,4 +27,73 @@ public class JavascriptConfig
     {
         return customEnabled;
     }
+
+    @Min(1)
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    @Config("javascript.pool-size")
+    @ConfigDescription("Maximum number of the engines that run a script concurrently")
+    public JavascriptConfig setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxScripts()
+    {
+        return maxScripts;
+    }
+
+    @Config("javascript.max-scripts")
+    @ConfigDescription("Maximum number of the compiled scripts that are kept in memory")
+    public JavascriptConfig setMaxScripts(int maxScripts)
+    {
+        this.maxScripts = maxScripts;
+        return this;
+    }
+
+    @Min(1)
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    @Config("javascript.threads")
+    public JavascriptConfig setThreads(int threads)
+    {
+        this.threads = threads;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getTimeout()
+    {
+        return timeout;
+    }
+
+    @Config("javascript.timeout")
+    @ConfigDescription("Maximum wall time of a script invocation")
+    public JavascriptConfig setTimeout(String timeout)
+    {
+        this.timeout = Duration.valueOf(timeout);
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getMaxCpuTime()
+    {
+        return maxCpuTime;
+    }
+
+    @Config("javascript.max-cpu-time")
+    @ConfigDescription("Maximum CPU time of a script invocation, the thread of the script is stopped when it's exceeded")
+    public JavascriptConfig setMaxCpuTime(String maxCpuTime)
+    {
+        this.maxCpuTime = Duration.valueOf(maxCpuTime);
+        return this;
+    }
 }
@@ -15,6 +15,7 @@ public class JavascriptModule
     {
         ConfigBinder.configBinder(binder).bindConfig(JavascriptConfig.class);
         binder.bind(JSCodeCompiler.class).in(Scopes.SINGLETON);
+        binder.bind(JSScriptRuntime.class).in(Scopes.SINGLETON);
     }
 
     @Override
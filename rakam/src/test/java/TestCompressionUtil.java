@@ -0,0 +1,415 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import com.google.common.io.ByteStreams;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+import org.rakam.TestingConfigManager;
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.analysis.metadata.Metastore;
+import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.collection.ChecksumInputStream;
+import org.rakam.collection.CsvEventDeserializer;
+import org.rakam.collection.Event;
+import org.rakam.collection.EventChunkIterator;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.plugin.EventStore.CompressionType;
+import org.rakam.util.RakamException;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.DatatypeConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.rakam.collection.CompressionUtil.decompress;
+import static org.rakam.collection.CompressionUtil.getCompressionType;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestCompressionUtil
+{
+    private static final XXHash32 HASH = XXHashFactory.fastestInstance().hash32();
+
+    @Test
+    public void testContentEncoding()
+    {
+        assertNull(getCompressionType(null));
+        assertNull(getCompressionType("identity"));
+        assertEquals(getCompressionType("gzip"), CompressionType.GZIP);
+        assertEquals(getCompressionType("X-GZIP"), CompressionType.GZIP);
+        assertEquals(getCompressionType("deflate"), CompressionType.DEFLATE);
+        assertEquals(getCompressionType("zstd"), CompressionType.ZSTD);
+        assertEquals(getCompressionType("lz4"), CompressionType.LZ4);
+
+        try {
+            getCompressionType("br");
+            fail("br is not supported");
+        }
+        catch (RakamException e) {
+            assertEquals(e.getStatusCode(), UNSUPPORTED_MEDIA_TYPE);
+        }
+    }
+
+    @Test
+    public void testRoundTrip()
+            throws IOException
+    {
+        byte[] data = randomText(300000);
+        assertEquals(read(compress(data, GZIPOutputStream::new), CompressionType.GZIP), data);
+        assertEquals(read(compress(data, DeflaterOutputStream::new), CompressionType.DEFLATE), data);
+        assertEquals(read(compress(data, ZstdOutputStream::new), CompressionType.ZSTD), data);
+        assertEquals(read(lz4Frame(data, true), CompressionType.LZ4), data);
+        assertEquals(read(lz4Frame(data, false), CompressionType.LZ4), data);
+    }
+
+    @Test
+    public void testLz4LinkedBlocks()
+            throws IOException
+    {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeIntLE(frame, 0x184D2204);
+        // version 01, linked blocks, 64KB blocks
+        byte[] descriptor = {0x40, 0x40};
+        frame.write(descriptor);
+        frame.write((HASH.hash(descriptor, 0, 2, 0) >> 8) & 0xFF);
+
+        byte[] first = "abcdefgh".getBytes(UTF_8);
+        writeIntLE(frame, first.length | 0x80000000);
+        frame.write(first);
+
+        // a match of the 8 bytes in the previous block and the literal 'x'
+        byte[] second = {0x04, 0x08, 0x00, 0x10, 'x'};
+        writeIntLE(frame, second.length);
+        frame.write(second);
+        writeIntLE(frame, 0);
+
+        assertEquals(new String(read(frame.toByteArray(), CompressionType.LZ4), UTF_8), "abcdefghabcdefghx");
+    }
+
+    @Test
+    public void testInflateRatio()
+            throws IOException
+    {
+        byte[] zeros = compress(new byte[10 * 1024 * 1024], GZIPOutputStream::new);
+        try {
+            ByteStreams.toByteArray(decompress(new ByteArrayInputStream(zeros), CompressionType.GZIP, 100));
+            fail("the body exceeds the inflate ratio");
+        }
+        catch (RakamException e) {
+            assertEquals(e.getStatusCode(), REQUEST_ENTITY_TOO_LARGE);
+        }
+
+        assertEquals(ByteStreams.toByteArray(decompress(new ByteArrayInputStream(zeros), CompressionType.GZIP, 10000)).length,
+                10 * 1024 * 1024);
+    }
+
+    @Test
+    public void testCompressedCsv()
+            throws Exception
+    {
+        FieldDependencyBuilder.FieldDependency build = new FieldDependencyBuilder().build();
+        Metastore metastore = new InMemoryMetastore(new InMemoryApiKeyService(), new EventBus());
+        metastore.createProject("project");
+        CsvEventDeserializer deserializer = new CsvEventDeserializer(metastore, new TestingConfigManager(), new SchemaChecker(metastore, build), build);
+
+        String csv = "id,name\n" + IntStream.range(0, 1000)
+                .mapToObj(i -> i + ",name" + i + "\n")
+                .collect(Collectors.joining());
+        InputStream body = decompress(new ByteArrayInputStream(compress(csv.getBytes(UTF_8), ZstdOutputStream::new)),
+                CompressionType.ZSTD, 100);
+
+        CsvParser parser = (CsvParser) new CsvMapper().getFactory().createParser(body);
+        parser.setSchema(CsvSchema.builder().build());
+        EventChunkIterator iterator = new EventChunkIterator(Event.EventContext.apiKey("apiKey"), "project",
+                deserializer.createReader(parser, "project", "collection", true), 300, Long.MAX_VALUE);
+
+        List<List<Event>> chunks = ImmutableList.copyOf(iterator);
+        assertEquals(chunks.stream().mapToInt(List::size).sum(), 1000);
+        String lastId = chunks.get(3).get(99).getAttribute("id");
+        assertEquals(lastId, "999");
+    }
+
+    @Test
+    public void testChecksumOfCompressedBody()
+            throws IOException
+    {
+        String template = "{\"api\":{\"api_key\":\"apiKey\",\"checksum\":\"%s\"},\"events\":[{\"collection\":\"test\",\"properties\":{\"id\":1}}]}";
+        String checksum = md5(String.format(template, "").getBytes(UTF_8));
+        byte[] compressed = compress(String.format(template, checksum).getBytes(UTF_8), GZIPOutputStream::new);
+
+        assertTrue(isValidChecksum(compressed, CompressionType.GZIP, checksum));
+        // the checksum doesn't cover the compressed bytes
+        assertFalse(isValidChecksum(compressed, CompressionType.GZIP, md5(compressed)));
+
+        String lowerCase = checksum.toLowerCase(Locale.ENGLISH);
+        byte[] lowerCaseBody = compress(String.format(template, lowerCase).getBytes(UTF_8), GZIPOutputStream::new);
+        assertTrue(isValidChecksum(lowerCaseBody, CompressionType.GZIP, lowerCase));
+
+        byte[] tampered = compress(String.format(template, checksum).replace("\"id\":1", "\"id\":2").getBytes(UTF_8), GZIPOutputStream::new);
+        assertFalse(isValidChecksum(tampered, CompressionType.GZIP, checksum));
+    }
+
+    @Test
+    public void testChecksumField()
+            throws IOException
+    {
+        // the api object is after the events and a property has the same name with the checksum field
+        String template = "{ \"events\" : [{\"collection\":\"test\",\"properties\":{\"checksum\":\"value\",\"api\":{\"checksum\":\"value\"}}}],\n" +
+                " \"api\" : { \"api_key\" : \"api\\\"key\", \"checksum\" : \"%s\" } }\n";
+        String checksum = md5(String.format(template, "").getBytes(UTF_8));
+        byte[] body = String.format(template, checksum).getBytes(UTF_8);
+
+        assertTrue(isValidChecksum(body, null, checksum));
+        assertTrue(isValidChecksum(compress(body, DeflaterOutputStream::new), CompressionType.DEFLATE, checksum));
+
+        // the other checksum fields are not excluded
+        String withoutProperties = md5(String.format(template, "").replace("\"checksum\":\"value\"", "\"checksum\":\"\"").getBytes(UTF_8));
+        assertFalse(isValidChecksum(String.format(template, withoutProperties).getBytes(UTF_8), null, withoutProperties));
+
+        // the body is read byte by byte as well
+        ChecksumInputStream input = new ChecksumInputStream(new ByteArrayInputStream(body));
+        while (input.read() != -1) {
+            // read the whole body
+        }
+        assertTrue(input.isValid(checksum));
+
+        // the checksum can't be validated if the api object doesn't have it
+        byte[] withoutChecksum = "{\"api\":{\"api_key\":\"apiKey\"},\"events\":[]}".getBytes(UTF_8);
+        assertFalse(isValidChecksum(withoutChecksum, null, md5(withoutChecksum)));
+    }
+
+    @Test
+    public void testLz4Truncated()
+            throws IOException
+    {
+        byte[] frame = lz4Frame(randomText(100000), true);
+        for (int length = 1; length < frame.length; length += 97) {
+            assertInvalidLz4(Arrays.copyOf(frame, length), EOFException.class);
+        }
+        assertInvalidLz4(Arrays.copyOf(frame, frame.length - 1), EOFException.class);
+    }
+
+    @Test
+    public void testLz4InvalidFrame()
+            throws IOException
+    {
+        byte[] data = randomText(100000);
+        byte[] frame = lz4Frame(data, true);
+
+        byte[] magic = frame.clone();
+        magic[0] = 0;
+        assertInvalidLz4(magic, "Invalid LZ4 frame");
+
+        byte[] headerChecksum = frame.clone();
+        headerChecksum[6]++;
+        assertInvalidLz4(headerChecksum, "LZ4 frame header checksum mismatch");
+
+        byte[] blockChecksum = frame.clone();
+        blockChecksum[20]++;
+        assertInvalidLz4(blockChecksum, "LZ4 block checksum mismatch");
+
+        byte[] contentChecksum = frame.clone();
+        contentChecksum[frame.length - 1]++;
+        assertInvalidLz4(contentChecksum, "LZ4 content checksum mismatch");
+
+        byte[] blockSize = frame.clone();
+        blockSize[9] = 0x7F;
+        assertInvalidLz4(blockSize, "LZ4 block is larger than the maximum block size");
+
+        // the data that is not a frame can't be appended to a frame
+        byte[] trailing = Arrays.copyOf(frame, frame.length + 4);
+        assertInvalidLz4(trailing, "Invalid LZ4 frame");
+    }
+
+    @Test
+    public void testLz4Corruption()
+            throws IOException
+    {
+        Random random = new Random(0);
+        byte[] data = randomText(20000);
+        byte[][] frames = {lz4Frame(data, true), lz4Frame(data, false)};
+
+        for (int i = 0; i < 5000; i++) {
+            byte[] frame = frames[i % 2].clone();
+            int corruptions = 1 + random.nextInt(4);
+            for (int j = 0; j < corruptions; j++) {
+                // the frame header is left as it is most of the time so that the blocks are decoded
+                int index = random.nextInt(4) == 0 ? random.nextInt(frame.length) : 7 + random.nextInt(frame.length - 7);
+                frame[index] = (byte) random.nextInt(256);
+            }
+
+            // the corrupted blocks either fail or decode into some other data, the decoder never reads out of bounds
+            try {
+                read(frame, CompressionType.LZ4);
+            }
+            catch (IOException e) {
+                // expected
+            }
+            catch (RakamException e) {
+                assertEquals(e.getStatusCode(), REQUEST_ENTITY_TOO_LARGE);
+            }
+        }
+
+        // the blocks that only consist of random bytes
+        for (int i = 0; i < 5000; i++) {
+            byte[] block = new byte[1 + random.nextInt(512)];
+            random.nextBytes(block);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            writeIntLE(frame, 0x184D2204);
+            byte[] descriptor = {(byte) (i % 2 == 0 ? 0x60 : 0x40), 0x40};
+            frame.write(descriptor);
+            frame.write((HASH.hash(descriptor, 0, 2, 0) >> 8) & 0xFF);
+            writeIntLE(frame, block.length);
+            frame.write(block);
+            writeIntLE(frame, 0);
+
+            try {
+                read(frame.toByteArray(), CompressionType.LZ4);
+            }
+            catch (IOException e) {
+                // expected
+            }
+            catch (RakamException e) {
+                assertEquals(e.getStatusCode(), REQUEST_ENTITY_TOO_LARGE);
+            }
+        }
+    }
+
+    private static byte[] read(byte[] compressed, CompressionType compression)
+            throws IOException
+    {
+        try (InputStream input = decompress(new ByteArrayInputStream(compressed), compression, 100)) {
+            return ByteStreams.toByteArray(input);
+        }
+    }
+
+    private static void assertInvalidLz4(byte[] frame, Class<? extends IOException> exception)
+    {
+        try {
+            read(frame, CompressionType.LZ4);
+            fail("the frame is invalid");
+        }
+        catch (IOException e) {
+            assertEquals(e.getClass(), exception);
+        }
+    }
+
+    private static void assertInvalidLz4(byte[] frame, String message)
+    {
+        try {
+            read(frame, CompressionType.LZ4);
+            fail("the frame is invalid");
+        }
+        catch (IOException e) {
+            assertEquals(e.getMessage(), message);
+        }
+    }
+
+    // the body is parsed before the checksum is validated, as in the collect endpoints
+    private static boolean isValidChecksum(byte[] body, CompressionType compression, String checksum)
+            throws IOException
+    {
+        ChecksumInputStream input = new ChecksumInputStream(decompress(new ByteArrayInputStream(body), compression, 100));
+        new ObjectMapper().readTree(input);
+        return input.isValid(checksum);
+    }
+
+    private static String md5(byte[] bytes)
+    {
+        try {
+            return DatatypeConverter.printHexBinary(MessageDigest.getInstance("MD5").digest(bytes));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] compress(byte[] data, CompressorFactory factory)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream compressor = factory.create(output)) {
+            compressor.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] lz4Frame(byte[] data, boolean checksums)
+            throws IOException
+    {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeIntLE(frame, 0x184D2204);
+        // version 01, independent blocks, 64KB blocks
+        byte[] descriptor = {(byte) (0x60 | (checksums ? 0x14 : 0)), 0x40};
+        frame.write(descriptor);
+        frame.write((HASH.hash(descriptor, 0, 2, 0) >> 8) & 0xFF);
+
+        LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        for (int offset = 0; offset < data.length; offset += 65536) {
+            byte[] block = compressor.compress(data, offset, Math.min(65536, data.length - offset));
+            writeIntLE(frame, block.length);
+            frame.write(block);
+            if (checksums) {
+                writeIntLE(frame, HASH.hash(block, 0, block.length, 0));
+            }
+        }
+        writeIntLE(frame, 0);
+        if (checksums) {
+            writeIntLE(frame, HASH.hash(data, 0, data.length, 0));
+        }
+        return frame.toByteArray();
+    }
+
+    private static void writeIntLE(OutputStream output, int value)
+            throws IOException
+    {
+        output.write(value);
+        output.write(value >>> 8);
+        output.write(value >>> 16);
+        output.write(value >>> 24);
+    }
+
+    private static byte[] randomText(int size)
+    {
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append("{\"collection\":\"pageview\",\"properties\":{\"id\":").append(random.nextInt(1000)).append("}}\n");
+        }
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    private interface CompressorFactory
+    {
+        OutputStream create(OutputStream output)
+                throws IOException;
+    }
+}
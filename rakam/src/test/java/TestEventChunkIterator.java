@@ -0,0 +1,83 @@
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import org.rakam.TestingConfigManager;
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.analysis.metadata.Metastore;
+import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.collection.CsvEventDeserializer;
+import org.rakam.collection.Event;
+import org.rakam.collection.EventChunkIterator;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestEventChunkIterator
+{
+    private CsvEventDeserializer deserializer;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        FieldDependencyBuilder.FieldDependency build = new FieldDependencyBuilder().build();
+        Metastore metastore = new InMemoryMetastore(new InMemoryApiKeyService(), new EventBus());
+        metastore.createProject("project");
+        deserializer = new CsvEventDeserializer(metastore, new TestingConfigManager(), new SchemaChecker(metastore, build), build);
+    }
+
+    @Test
+    public void testChunkByCount()
+            throws Exception
+    {
+        EventChunkIterator iterator = createIterator(10, 3, Long.MAX_VALUE);
+
+        List<Integer> sizes = ImmutableList.copyOf(iterator).stream().map(List::size).collect(Collectors.toList());
+        assertEquals(sizes, ImmutableList.of(3, 3, 3, 1));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testChunkByBytes()
+            throws Exception
+    {
+        EventChunkIterator iterator = createIterator(10, Integer.MAX_VALUE, 1);
+
+        List<List<Event>> chunks = ImmutableList.copyOf(iterator);
+        assertEquals(chunks.size(), 10);
+        String lastId = chunks.get(9).get(0).getAttribute("id");
+        assertEquals(lastId, "9");
+    }
+
+    @Test
+    public void testEmpty()
+            throws Exception
+    {
+        EventChunkIterator iterator = createIterator(0, 5, Long.MAX_VALUE);
+        assertFalse(iterator.hasNext());
+    }
+
+    private EventChunkIterator createIterator(int rows, int maxEvents, long maxBytes)
+            throws Exception
+    {
+        String csv = "id,name\n" + IntStream.range(0, rows)
+                .mapToObj(i -> i + ",name" + i + "\n")
+                .collect(Collectors.joining());
+
+        CsvParser parser = (CsvParser) new CsvMapper().getFactory().createParser(csv);
+        parser.setSchema(CsvSchema.builder().build());
+
+        return new EventChunkIterator(Event.EventContext.apiKey("apiKey"), "project",
+                deserializer.createReader(parser, "project", "collection", true), maxEvents, maxBytes);
+    }
+}
@@ -18,6 +18,7 @@ import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.JsonEventDeserializer;
 import org.rakam.collection.SchemaField;
+import org.rakam.plugin.SystemEvents.ProjectDeletedEvent;
 import org.rakam.util.JsonHelper;
 import org.rakam.util.RakamException;
 import org.testng.annotations.AfterMethod;
@@ -151,6 +152,32 @@ public class TestEventJsonParser
                 new SchemaField("test4", FieldType.DATE)));
     }
 
+    @Test
+    public void testRecreatedProject()
+            throws Exception
+    {
+        mapper.readValue(mapper.writeValueAsBytes(ImmutableMap.of(
+                "collection", "test",
+                "api", Event.EventContext.apiKey(apiKeys.writeKey()),
+                "properties", ImmutableMap.of("test", "value"))), Event.class);
+
+        metastore.deleteProject("test");
+        eventDeserializer.onDeleteProject(new ProjectDeletedEvent("test"));
+        metastore.createProject("test");
+        apiKeys = apiKeyService.createApiKeys("test");
+
+        // the schema of the deleted project is not used for the new one
+        Event event = mapper.readValue(mapper.writeValueAsBytes(ImmutableMap.of(
+                "collection", "test",
+                "api", Event.EventContext.apiKey(apiKeys.writeKey()),
+                "properties", ImmutableMap.of("test", 1L))), Event.class);
+
+        assertEquals(ImmutableSet.copyOf(metastore.getCollection("test", "test")), ImmutableSet.of(
+                new SchemaField("test", FieldType.DOUBLE),
+                new SchemaField("_user", FieldType.STRING)));
+        assertEquals(event.schema(), metastore.getCollection("test", "test"));
+    }
+
     @Test
     public void testMapType()
             throws Exception
@@ -195,6 +222,37 @@ public class TestEventJsonParser
                 .createEvent("test", properties).properties(), event.properties());
     }
 
+    @Test
+    public void testManyNewFields()
+            throws Exception
+    {
+        Event.EventContext api = Event.EventContext.apiKey(apiKeys.writeKey());
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            properties.put("field" + i, i % 2 == 0 ? "value" + i : ImmutableList.of("value" + i));
+        }
+        byte[] bytes = mapper.writeValueAsBytes(ImmutableMap.of(
+                "collection", "test",
+                "api", api,
+                "properties", properties));
+
+        Event event = mapper.readValue(bytes, Event.class);
+
+        assertEquals(event.schema(), metastore.getCollection("test", "test"));
+        assertEquals(eventBuilder
+                .createEvent("test", properties).properties(), event.properties());
+
+        // the next event shares the schema version and only adds the new field
+        Event next = mapper.readValue(mapper.writeValueAsBytes(ImmutableMap.of(
+                "collection", "test",
+                "api", api,
+                "properties", ImmutableMap.of("field0", "test", "field30", 1.0))), Event.class);
+
+        assertEquals(next.schema().size(), event.schema().size() + 1);
+        assertEquals(next.getAttribute("field0"), "test");
+        assertEquals(next.getAttribute("field30"), 1.0);
+    }
+
     public void testInvalidOrder()
             throws Exception
     {
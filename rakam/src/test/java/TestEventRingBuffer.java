@@ -0,0 +1,81 @@
+import org.rakam.analysis.stream.EventRingBuffer;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestEventRingBuffer
+{
+    @Test
+    public void testCapacity()
+    {
+        assertEquals(new EventRingBuffer<>(1).capacity(), 1);
+        assertEquals(new EventRingBuffer<>(1000).capacity(), 1024);
+        assertEquals(new EventRingBuffer<>(1024).capacity(), 1024);
+    }
+
+    @Test
+    public void testOrderAndOverflow()
+    {
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(buffer.size(), 4);
+
+        assertEquals(buffer.poll(), Integer.valueOf(0));
+        assertTrue(buffer.offer(4));
+
+        for (int i = 1; i < 5; i++) {
+            assertEquals(buffer.poll(), Integer.valueOf(i));
+        }
+        assertNull(buffer.poll());
+        assertEquals(buffer.size(), 0);
+    }
+
+    @Test
+    public void testMultipleProducers()
+            throws InterruptedException
+    {
+        int producers = 4;
+        int eventsPerProducer = 100000;
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<>(128);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < eventsPerProducer; j++) {
+                    if (buffer.offer(j)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        int consumed = 0;
+        while (done.getCount() > 0 || buffer.size() > 0) {
+            if (buffer.poll() != null) {
+                consumed++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(consumed, accepted.get());
+        assertNull(buffer.poll());
+    }
+}
@@ -0,0 +1,68 @@
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.rakam.collection.SchemaField;
+import org.rakam.plugin.EventStore.CopyType;
+import org.rakam.report.QueryError;
+import org.rakam.report.QueryResult;
+import org.rakam.util.ChunkedQueryResultWriter.PageEncoder;
+import org.rakam.util.ExportUtil;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.rakam.collection.FieldType.LONG;
+import static org.rakam.collection.FieldType.STRING;
+import static org.testng.Assert.assertEquals;
+
+public class TestExportUtil
+{
+    private static final List<SchemaField> METADATA = ImmutableList.of(new SchemaField("name", STRING), new SchemaField("value", LONG));
+
+    @Test
+    public void testCsv()
+            throws Exception
+    {
+        QueryResult result = new QueryResult(METADATA, ImmutableList.of(ImmutableList.of("a", 1L), ImmutableList.of("b", 2L)));
+        assertEquals(new String(ExportUtil.exportAsCSV(result), UTF_8), "\"name\",\"value\"\r\n\"a\",1\r\n\"b\",2\r\n");
+    }
+
+    @Test
+    public void testCsvPages()
+            throws Exception
+    {
+        assertEquals(encodeInPages(CopyType.CSV), "\"name\",\"value\"\r\n\"a\",1\r\n\"b\",2\r\n");
+    }
+
+    @Test
+    public void testJsonPages()
+            throws Exception
+    {
+        assertEquals(encodeInPages(CopyType.JSON), "[[\"a\",1],[\"b\",2]]");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testFailedQuery()
+            throws Exception
+    {
+        PageEncoder encoder = ExportUtil.getEncoder(CopyType.JSON);
+        ByteBuf buffer = Unpooled.buffer();
+        encoder.writeHeader(METADATA, buffer);
+        encoder.writeFooter(QueryResult.errorResult(QueryError.create("error")), buffer);
+    }
+
+    private static String encodeInPages(CopyType type)
+            throws IOException
+    {
+        PageEncoder encoder = ExportUtil.getEncoder(type);
+        ByteBuf buffer = Unpooled.buffer();
+        encoder.writeHeader(METADATA, buffer);
+        encoder.writePage(METADATA, ImmutableList.of(ImmutableList.of("a", 1L)), buffer);
+        encoder.writePage(METADATA, ImmutableList.of(ImmutableList.of("b", 2L)), buffer);
+        encoder.writeFooter(new QueryResult(METADATA, ImmutableList.of(), ImmutableMap.of()), buffer);
+        return buffer.toString(UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+import okhttp3.OkHttpClient;
+import org.rakam.TestingConfigManager;
+import org.rakam.plugin.RAsyncHttpClient;
+import org.rakam.util.javascript.JSCodeCompiler;
+import org.rakam.util.javascript.JSScriptPool;
+import org.rakam.util.javascript.JSScriptRuntime;
+import org.rakam.util.javascript.JavascriptConfig;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.script.ScriptException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestJSScriptRuntime
+{
+    private JSScriptRuntime runtime;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        JSCodeCompiler compiler = new JSCodeCompiler(new TestingConfigManager(),
+                new RAsyncHttpClient(new OkHttpClient()),
+                (project, prefix) -> new JSCodeCompiler.TestLogger(), false, true);
+        JavascriptConfig config = new JavascriptConfig()
+                .setPoolSize(2)
+                .setThreads(4)
+                .setTimeout("2s")
+                .setMaxCpuTime("200ms");
+        runtime = new JSScriptRuntime(compiler, config);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        runtime.stop();
+    }
+
+    @Test
+    public void testInvoke()
+            throws Exception
+    {
+        JSScriptPool pool = runtime.getPool("test", "var calls = 0; function mapper(a, b) { calls++; return a + b; }", "mapper");
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(runtime.invoke(pool, "mapper", i, 1));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(((Number) futures.get(i).get()).intValue(), i + 1);
+        }
+
+        JSScriptPool.ScriptStats stats = pool.getStats();
+        assertEquals(stats.invocations, 100);
+        assertEquals(stats.failures, 0);
+        assertTrue(stats.idleInstances <= 2);
+    }
+
+    @Test
+    public void testCompiledOnce()
+            throws ScriptException
+    {
+        String code = "function mapper() { return 1; }";
+        assertSame(runtime.getPool("test", code, "mapper"), runtime.getPool("test", code, "mapper"));
+        assertTrue(runtime.getPool("test", code, "mapper") != runtime.getPool("test", code + " ", "mapper"));
+    }
+
+    @Test
+    public void testCpuLimit()
+            throws Exception
+    {
+        JSScriptPool pool = runtime.getPool("test", "function mapper() { while (true) {} }", "mapper");
+        try {
+            runtime.invoke(pool, "mapper").get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(pool.getStats().cpuLimitExceeded, 1);
+
+        // the pool is still usable after the instance is stopped
+        JSScriptPool other = runtime.getPool("test", "function mapper() { return 1; }", "mapper");
+        assertEquals(((Number) runtime.invoke(other, "mapper").get()).intValue(), 1);
+    }
+}
@@ -0,0 +1,186 @@
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.units.Duration;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.analysis.RealtimeService.RealTimeQueryResult;
+import org.rakam.analysis.realtime.RealtimeReportAggregator;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.report.realtime.RealTimeReport;
+import org.rakam.report.realtime.RealTimeReport.Measure;
+import org.rakam.util.JsonHelper;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.rakam.report.realtime.AggregationType.APPROXIMATE_UNIQUE;
+import static org.rakam.report.realtime.AggregationType.COUNT;
+import static org.rakam.report.realtime.AggregationType.MAXIMUM;
+import static org.rakam.report.realtime.AggregationType.SUM;
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class TestRealtimeReportAggregator
+{
+    private static final Duration SLIDE = Duration.valueOf("5s");
+    private static final Duration WINDOW = Duration.valueOf("60s");
+    private static final List<SchemaField> FIELDS = ImmutableList.of(
+            new SchemaField("_time", FieldType.TIMESTAMP),
+            new SchemaField("country", FieldType.STRING),
+            new SchemaField("amount", FieldType.LONG),
+            new SchemaField("user", FieldType.STRING));
+    private static final Schema SCHEMA = convertAvroSchema(FIELDS);
+    private static final RealTimeReport REPORT = new RealTimeReport("test",
+            ImmutableSet.of(new Measure("amount", COUNT), new Measure("amount", SUM), new Measure("amount", MAXIMUM), new Measure("user", APPROXIMATE_UNIQUE)),
+            "test", ImmutableSet.of("purchase"), null, ImmutableSet.of("country"));
+
+    // a report that is created at 0 has all the events of the window after 65 seconds
+    private static final long START = 0;
+    private static final long NOW = 65000 + 10000;
+
+    @Test
+    public void testTimeSeries()
+    {
+        RealtimeReportAggregator aggregator = createAggregator();
+        aggregator.add(event("purchase", 12000, "us", 10, "a"), NOW);
+        aggregator.add(event("purchase", 13000, "tr", 20, "b"), NOW);
+        aggregator.add(event("purchase", 21000, "us", 5, "a"), NOW);
+        aggregator.add(event("pageview", 21000, "us", 5, "a"), NOW);
+
+        RealTimeQueryResult result = aggregator.query(new Measure("amount", COUNT), ImmutableList.of(), false,
+                Instant.ofEpochMilli(10000), Instant.ofEpochMilli(25000), NOW);
+        assertNotNull(result);
+        assertEquals(result.start, 10);
+        assertEquals(result.end, 25);
+        assertEquals(result.result, ImmutableList.of(
+                ImmutableList.of(10000L, 2L),
+                ImmutableList.of(15000L, 0),
+                ImmutableList.of(20000L, 1L)));
+    }
+
+    @Test
+    public void testDimensions()
+    {
+        RealtimeReportAggregator aggregator = createAggregator();
+        aggregator.add(event("purchase", 12000, "us", 10, "a"), NOW);
+        aggregator.add(event("purchase", 13000, "us", 20, "b"), NOW);
+        aggregator.add(event("purchase", 21000, "tr", 5, "a"), NOW);
+        aggregator.add(event("purchase", 22000, null, 5, "a"), NOW);
+
+        RealTimeQueryResult result = aggregator.query(new Measure("amount", SUM), ImmutableList.of("country"), false,
+                Instant.ofEpochMilli(10000), null, NOW);
+        assertEquals(result.result, ImmutableList.of(
+                ImmutableList.of(10000L, "us", 30L),
+                ImmutableList.of(20000L, "tr", 5L)));
+
+        result = aggregator.query(new Measure("amount", MAXIMUM), ImmutableList.of("country"), true,
+                Instant.ofEpochMilli(10000), Instant.ofEpochMilli(30000), NOW);
+        assertEquals(result.result, ImmutableList.of(
+                ImmutableList.of(30000L, "us", 20L),
+                ImmutableList.of(30000L, "tr", 5L)));
+
+        result = aggregator.query(new Measure("user", APPROXIMATE_UNIQUE), ImmutableList.of(), true,
+                Instant.ofEpochMilli(10000), null, NOW);
+        assertEquals(result.result, 2L);
+    }
+
+    @Test
+    public void testUnavailableInterval()
+    {
+        RealtimeReportAggregator aggregator = createAggregator();
+        // the first bucket is not complete
+        assertNull(aggregator.query(new Measure("amount", COUNT), ImmutableList.of(), true, Instant.ofEpochMilli(0), null, NOW));
+        // the bucket is evicted
+        assertNull(aggregator.query(new Measure("amount", COUNT), ImmutableList.of(), true, Instant.ofEpochMilli(5000), null, NOW + WINDOW.toMillis()));
+        // the measure and the dimension are not in the report
+        assertNull(aggregator.query(new Measure("amount", APPROXIMATE_UNIQUE), ImmutableList.of(), true, null, null, NOW));
+        assertNull(aggregator.query(new Measure("amount", COUNT), ImmutableList.of("user"), true, null, null, NOW));
+        assertNotNull(aggregator.query(new Measure("amount", COUNT), ImmutableList.of(), true, null, null, NOW));
+    }
+
+    @Test
+    public void testMaxGroups()
+    {
+        RealtimeReportAggregator aggregator = new RealtimeReportAggregator(REPORT, SLIDE, WINDOW, 1, START);
+        aggregator.add(event("purchase", 12000, "us", 10, "a"), NOW);
+        aggregator.add(event("purchase", 22000, "tr", 10, "a"), NOW);
+
+        // the intervals that start before the dropped group are not served
+        assertNull(aggregator.query(new Measure("amount", COUNT), ImmutableList.of(), true, Instant.ofEpochMilli(10000), null, NOW));
+        assertNotNull(aggregator.query(new Measure("amount", COUNT), ImmutableList.of(), true, Instant.ofEpochMilli(25000), null, NOW));
+    }
+
+    @Test
+    public void testEviction()
+    {
+        RealtimeReportAggregator aggregator = new RealtimeReportAggregator(REPORT, SLIDE, WINDOW, 1, START);
+        aggregator.add(event("purchase", 12000, "us", 10, "a"), NOW);
+        aggregator.evict(NOW + WINDOW.toMillis());
+
+        // the evicted groups don't count for the limit
+        long now = NOW + WINDOW.toMillis();
+        aggregator.add(event("purchase", now, "tr", 10, "a"), now);
+        assertFalse(aggregator.checkpoint(false).groups.isEmpty());
+        assertEquals(aggregator.checkpoint(false).groups.get(0).dimensions, ImmutableList.of("tr"));
+    }
+
+    @Test
+    public void testCheckpoint()
+    {
+        RealtimeReportAggregator aggregator = createAggregator();
+        aggregator.add(event("purchase", 12000, "us", 10, "a"), NOW);
+        aggregator.add(event("purchase", 13000, "us", 20, "b"), NOW);
+
+        String checkpoint = JsonHelper.encode(aggregator.checkpoint(true));
+        RealtimeReportAggregator restored = new RealtimeReportAggregator(REPORT, SLIDE, WINDOW, 1000, NOW);
+        restored.restore(JsonHelper.read(checkpoint, RealtimeReportAggregator.Checkpoint.class), NOW);
+        restored.add(event("purchase", 14000, "us", 5, "c"), NOW);
+        aggregator.add(event("purchase", 14000, "us", 5, "c"), NOW);
+
+        for (Measure measure : REPORT.measures) {
+            assertEquals(restored.query(measure, ImmutableList.of("country"), true, Instant.ofEpochMilli(10000), null, NOW).result,
+                    aggregator.query(measure, ImmutableList.of("country"), true, Instant.ofEpochMilli(10000), null, NOW).result);
+        }
+    }
+
+    @Test
+    public void testCheckpointAfterCrash()
+    {
+        RealtimeReportAggregator aggregator = createAggregator();
+        aggregator.add(event("purchase", 12000, "us", 10, "a"), NOW);
+
+        // the events that are collected after the periodic checkpoint are lost with the crash
+        String checkpoint = JsonHelper.encode(aggregator.checkpoint(false));
+        RealtimeReportAggregator restored = new RealtimeReportAggregator(REPORT, SLIDE, WINDOW, 1000, NOW);
+        restored.restore(JsonHelper.read(checkpoint, RealtimeReportAggregator.Checkpoint.class), NOW);
+
+        Measure count = new Measure("amount", COUNT);
+        assertNull(restored.query(count, ImmutableList.of(), true, Instant.ofEpochMilli(10000), null, NOW));
+
+        // the intervals after the restart are served from memory
+        long later = NOW + SLIDE.toMillis() * 3;
+        restored.add(event("purchase", NOW + SLIDE.toMillis(), "us", 10, "a"), later);
+        assertEquals(restored.query(count, ImmutableList.of(), true, Instant.ofEpochMilli(NOW + SLIDE.toMillis()), null, later).result, 1L);
+    }
+
+    private static RealtimeReportAggregator createAggregator()
+    {
+        return new RealtimeReportAggregator(REPORT, SLIDE, WINDOW, 1000, START);
+    }
+
+    private static Event event(String collection, long time, String country, long amount, String user)
+    {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("_time", time);
+        record.put("country", country);
+        record.put("amount", amount);
+        record.put("user", user);
+        return new Event("project", collection, null, FIELDS, record);
+    }
+}
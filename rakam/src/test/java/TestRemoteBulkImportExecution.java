@@ -0,0 +1,214 @@
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import com.google.common.io.CountingInputStream;
+import com.sun.net.httpserver.HttpServer;
+import org.rakam.TestingConfigManager;
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.analysis.metadata.Metastore;
+import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.collection.CsvEventDeserializer;
+import org.rakam.collection.Event;
+import org.rakam.collection.EventChunkIterator;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.RemoteBulkImportExecution;
+import org.rakam.report.QueryResult;
+import org.rakam.report.QueryStats;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestRemoteBulkImportExecution
+{
+    private HttpServer server;
+    private CsvEventDeserializer deserializer;
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+    private final AtomicInteger maxActiveDownloads = new AtomicInteger();
+    private volatile CountDownLatch slowFile = new CountDownLatch(0);
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        FieldDependencyBuilder.FieldDependency build = new FieldDependencyBuilder().build();
+        Metastore metastore = new InMemoryMetastore(new InMemoryApiKeyService(), new EventBus());
+        metastore.createProject("project");
+        deserializer = new CsvEventDeserializer(metastore, new TestingConfigManager(), new SchemaChecker(metastore, build), build);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String name = exchange.getRequestURI().getPath().substring(1);
+            int active = activeDownloads.incrementAndGet();
+            maxActiveDownloads.accumulateAndGet(active, Math::max);
+            try {
+                if (name.startsWith("missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                if (name.startsWith("slow")) {
+                    slowFile.await(10, TimeUnit.SECONDS);
+                }
+                // the files are named after the number of rows
+                int rows = Integer.parseInt(name.replaceAll("[^0-9]", ""));
+                byte[] body = ("id,name\n" + IntStream.range(0, rows)
+                        .mapToObj(i -> i + ",name" + i + "\n")
+                        .collect(Collectors.joining())).getBytes(UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                activeDownloads.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void testImportFiles()
+            throws Exception
+    {
+        maxActiveDownloads.set(0);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        AtomicLong stored = new AtomicLong();
+
+        List<URL> urls = IntStream.range(0, 20).mapToObj(i -> url("file" + (100 + i))).collect(Collectors.toList());
+        RemoteBulkImportExecution execution = new RemoteBulkImportExecution(urls, executor, (url, progress) ->
+                importCsv(url, progress, stored));
+
+        QueryResult result = execution.getResult().get(30, TimeUnit.SECONDS);
+        assertFalse(result.isFailed());
+        assertEquals(result.getResult().size(), 20);
+        for (int i = 0; i < 20; i++) {
+            List<Object> row = result.getResult().get(i);
+            assertEquals(row.get(0), urls.get(i).toString());
+            assertEquals(row.get(1), "FINISHED");
+            assertEquals(row.get(2), 100L + i);
+        }
+
+        long expected = IntStream.range(0, 20).mapToLong(i -> 100 + i).sum();
+        assertEquals(stored.get(), expected);
+        QueryStats stats = execution.currentStats();
+        assertEquals(stats.state, QueryStats.State.FINISHED);
+        assertEquals(stats.percentage.intValue(), 100);
+        assertEquals(stats.processedRows.longValue(), expected);
+        assertEquals(execution.getFailedFiles(), new int[0]);
+        assertTrue(maxActiveDownloads.get() <= 3, "downloads are not bounded: " + maxActiveDownloads.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFailedFile()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicLong stored = new AtomicLong();
+
+        RemoteBulkImportExecution execution = new RemoteBulkImportExecution(
+                ImmutableList.of(url("file10"), url("missing"), url("file20")), executor, (url, progress) ->
+                importCsv(url, progress, stored));
+
+        QueryResult result = execution.getResult().get(30, TimeUnit.SECONDS);
+        assertEquals(execution.getFailedFiles(), new int[] {1});
+        assertEquals(result.getResult().get(1).get(1), "FAILED");
+        assertTrue(result.getResult().get(1).get(4).toString().startsWith("FileNotFoundException"));
+        assertEquals(stored.get(), 30);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testProgressAndKill()
+            throws Exception
+    {
+        slowFile = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        AtomicLong stored = new AtomicLong();
+
+        RemoteBulkImportExecution execution = new RemoteBulkImportExecution(
+                ImmutableList.of(url("file5"), url("slow5"), url("file7")), executor, (url, progress) ->
+                importCsv(url, progress, stored));
+
+        // the first file is imported while the single worker waits for the slow file
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (execution.currentStats().processedRows < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        QueryStats stats = execution.currentStats();
+        assertEquals(stats.state, QueryStats.State.RUNNING);
+        assertEquals(stats.percentage.intValue(), 33);
+        assertFalse(execution.isFinished());
+
+        execution.kill();
+        slowFile.countDown();
+
+        QueryResult result = execution.getResult().get(30, TimeUnit.SECONDS);
+        assertEquals(result.getResult().get(0).get(1), "FINISHED");
+        assertEquals(result.getResult().get(1).get(1), "FAILED");
+        assertEquals(result.getResult().get(2).get(1), "FAILED");
+        assertEquals(result.getResult().get(2).get(4), "The import is killed");
+        assertEquals(stored.get(), 5);
+        executor.shutdown();
+    }
+
+    private void importCsv(URL url, RemoteBulkImportExecution.Progress progress, AtomicLong stored)
+            throws Exception
+    {
+        CountingInputStream downloaded = new CountingInputStream(url.openStream());
+        try (InputStream input = downloaded) {
+            CsvParser parser = (CsvParser) new CsvMapper().getFactory().createParser(input);
+            parser.setSchema(CsvSchema.builder().build());
+
+            EventChunkIterator chunks = new EventChunkIterator(Event.EventContext.apiKey("apiKey"), "project",
+                    deserializer.createReader(parser, "project", "collection", true), 7, Long.MAX_VALUE);
+            while (chunks.hasNext()) {
+                List<Event> chunk = chunks.next();
+                progress.imported(chunk.size(), downloaded.getCount());
+                stored.addAndGet(chunk.size());
+            }
+        }
+    }
+
+    private URL url(String name)
+    {
+        try {
+            return new URL("http://localhost:" + server.getAddress().getPort() + "/" + name);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}